@@ -2,8 +2,12 @@ package interpreter;
 
 import interpreter.Expr.Assign;
 import interpreter.Expr.Call;
+import interpreter.Expr.CaseCompare;
+import interpreter.Expr.CompoundAssign;
 import interpreter.Expr.Conditional;
 import interpreter.Expr.Get;
+import interpreter.Expr.Increment;
+import interpreter.Expr.Invoke;
 import interpreter.Expr.Logical;
 import interpreter.Expr.Set;
 import interpreter.Expr.Sharp;
@@ -105,6 +109,21 @@ public class ASTPrinter implements Expr.Visitor<String> {
 		return "(" + expr.operator.lexeme + " " + expr.name + ")";
 	}
 
+	@Override
+	public String visitCompoundAssignExpr(CompoundAssign expr) {
+		return "(" + expr.operator.lexeme + " " + expr.name.lexeme + " " + print(expr.value) + " ";
+	}
+
+	@Override
+	public String visitIncrementExpr(Increment expr) {
+		return "(" + expr.operator.lexeme + " " + expr.name + ")";
+	}
+
+	@Override
+	public String visitCaseCompareExpr(CaseCompare expr) {
+		return parenthesize("==", expr.control, expr.test);
+	}
+
 	@Override
 	public String visitSharpExpr(Sharp expr) {
 		return "(# " + print(expr.name) + ")";
@@ -132,4 +151,9 @@ public class ASTPrinter implements Expr.Visitor<String> {
 		// TODO Auto-generated method stub
 		return null;
 	}
+
+	@Override
+	public String visitInvokeExpr(Invoke expr) {
+		return "(. " + expr.name + " " + print(expr.object) + " ())";
+	}
 }
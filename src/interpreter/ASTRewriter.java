@@ -0,0 +1,417 @@
+package interpreter;
+
+import java.util.List;
+
+import interpreter.Expr.Assign;
+import interpreter.Expr.Binary;
+import interpreter.Expr.Call;
+import interpreter.Expr.CaseCompare;
+import interpreter.Expr.CompoundAssign;
+import interpreter.Expr.Conditional;
+import interpreter.Expr.Get;
+import interpreter.Expr.Grouping;
+import interpreter.Expr.Increment;
+import interpreter.Expr.Invoke;
+import interpreter.Expr.Literal;
+import interpreter.Expr.Logical;
+import interpreter.Expr.Set;
+import interpreter.Expr.Sharp;
+import interpreter.Expr.This;
+import interpreter.Expr.Unary;
+import interpreter.Expr.UnaryAssign;
+import interpreter.Expr.Variable;
+import interpreter.Stmt.Block;
+import interpreter.Stmt.Case;
+import interpreter.Stmt.Class;
+import interpreter.Stmt.Declare;
+import interpreter.Stmt.Do;
+import interpreter.Stmt.ExPrint;
+import interpreter.Stmt.Expression;
+import interpreter.Stmt.For;
+import interpreter.Stmt.Function;
+import interpreter.Stmt.If;
+import interpreter.Stmt.Keyword;
+import interpreter.Stmt.Mould;
+import interpreter.Stmt.Print;
+import interpreter.Stmt.Return;
+import interpreter.Stmt.Sculpture;
+import interpreter.Stmt.Struct;
+import interpreter.Stmt.Switch;
+import interpreter.Stmt.Undec;
+import interpreter.Stmt.While;
+
+/**
+ * The base of the passes which rewrite the resolved tree, such as the Optimizer
+ * and the Lowerer. Each visit returns the node to use in place of the one
+ * visited. By default a node is rebuilt only when one of its children was
+ * replaced, keeping what the Resolver recorded on it, and is otherwise
+ * returned as it is. A statement visit may return null to remove the
+ * statement. Lists of children are updated in place.
+ *
+ * @author Jared
+ */
+abstract class ASTRewriter implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+	/**
+	 * Rewrites a list of statements in place, removing any which are rewritten
+	 * to nothing.
+	 *
+	 * @param statements the statements
+	 */
+	public void rewrite(List<Stmt> statements) {
+		for (int i = 0; i < statements.size(); i++) {
+			Stmt rewritten = rewrite(statements.get(i));
+
+			if (rewritten == null) {
+				statements.remove(i--);
+			} else {
+				statements.set(i, rewritten);
+			}
+		}
+	}
+
+	protected Stmt rewrite(Stmt stmt) {
+		return stmt == null ? null : stmt.accept(this);
+	}
+
+	protected Expr rewrite(Expr expr) {
+		return expr == null ? null : expr.accept(this);
+	}
+
+	protected void rewriteExpressions(List<Expr> expressions) {
+		for (int i = 0; i < expressions.size(); i++) {
+			expressions.set(i, rewrite(expressions.get(i)));
+		}
+	}
+
+	@Override
+	public Stmt visitKeywordStmt(Keyword stmt) {
+		return stmt;
+	}
+
+	@Override
+	public Stmt visitReturnStmt(Return stmt) {
+		Expr value = rewrite(stmt.value);
+
+		if (value == stmt.value) {
+			return stmt;
+		}
+
+		Return returnStmt = new Return(value);
+		returnStmt.tail = stmt.tail && (value instanceof Call || value instanceof Invoke);
+		return returnStmt;
+	}
+
+	@Override
+	public Stmt visitExpressionStmt(Expression stmt) {
+		Expr expression = rewrite(stmt.expression);
+		return expression == stmt.expression ? stmt : new Expression(expression);
+	}
+
+	@Override
+	public Stmt visitExPrintStmt(ExPrint stmt) {
+		Expr expression = rewrite(stmt.expression);
+		return expression == stmt.expression ? stmt : new ExPrint(expression);
+	}
+
+	@Override
+	public Stmt visitPrintStmt(Print stmt) {
+		Expr expression = rewrite(stmt.expression);
+		return expression == stmt.expression ? stmt : new Print(expression);
+	}
+
+	@Override
+	public Stmt visitDeclareStmt(Declare stmt) {
+		Expr value = rewrite(stmt.value);
+
+		if (value == stmt.value) {
+			return stmt;
+		}
+
+		Declare declare = new Declare(stmt.type, stmt.name, value);
+		declare.slot = stmt.slot;
+		return declare;
+	}
+
+	@Override
+	public Stmt visitBlockStmt(Block stmt) {
+		rewrite(stmt.statements);
+		return stmt;
+	}
+
+	@Override
+	public Stmt visitWhileStmt(While stmt) {
+		Expr condition = rewrite(stmt.condition);
+		rewrite(stmt.body);
+
+		if (condition == stmt.condition) {
+			return stmt;
+		}
+
+		While loop = new While(condition, stmt.body);
+		loop.owner = stmt.owner;
+		return loop;
+	}
+
+	@Override
+	public Stmt visitDoStmt(Do stmt) {
+		Expr condition = rewrite(stmt.condition);
+		rewrite(stmt.body);
+
+		if (condition == stmt.condition) {
+			return stmt;
+		}
+
+		Do loop = new Do(condition, stmt.body);
+		loop.owner = stmt.owner;
+		return loop;
+	}
+
+	@Override
+	public Stmt visitForStmt(For stmt) {
+		Declare declaration = (Declare) rewrite(stmt.declaration);
+		Expr condition = rewrite(stmt.condition);
+		Expr incrementor = rewrite(stmt.incrementor);
+		rewrite(stmt.body);
+
+		if (declaration == stmt.declaration && condition == stmt.condition && incrementor == stmt.incrementor) {
+			return stmt;
+		}
+
+		For loop = new For(declaration, condition, incrementor, stmt.body);
+		loop.locals = stmt.locals;
+		loop.owner = stmt.owner;
+		return loop;
+	}
+
+	@Override
+	public Stmt visitSwitchStmt(Switch stmt) {
+		rewriteExpressions(stmt.controls);
+
+		for (Case caseStmt : stmt.cases) {
+			rewrite(caseStmt);
+		}
+
+		rewrite(stmt.defaultBody);
+		return stmt;
+	}
+
+	@Override
+	public Stmt visitCaseStmt(Case stmt) {
+		rewriteExpressions(stmt.tests);
+		rewrite(stmt.body);
+		return stmt;
+	}
+
+	@Override
+	public Stmt visitClassStmt(Class stmt) {
+		for (Function method : stmt.methods) {
+			rewrite(method.body);
+		}
+
+		for (int i = 0; i < stmt.fields.size(); i++) {
+			stmt.fields.set(i, (Declare) rewrite(stmt.fields.get(i)));
+		}
+
+		return stmt;
+	}
+
+	@Override
+	public Stmt visitIfStmt(If stmt) {
+		Expr condition = rewrite(stmt.condition);
+		rewrite(stmt.ifBody);
+		rewrite(stmt.elseBody);
+		return condition == stmt.condition ? stmt : new If(condition, stmt.ifBody, stmt.elseBody);
+	}
+
+	@Override
+	public Stmt visitUndecStmt(Undec stmt) {
+		return stmt;
+	}
+
+	@Override
+	public Stmt visitStructStmt(Struct stmt) {
+		// struct statements are only used by the parser
+		return stmt;
+	}
+
+	@Override
+	public Stmt visitSculptureStmt(Sculpture stmt) {
+		return stmt;
+	}
+
+	/**
+	 * Rewrites the body of a mould along with the components which will be
+	 * placed into it when it runs.
+	 */
+	@Override
+	public Stmt visitMouldStmt(Mould stmt) {
+		for (Placeholder placeholder : stmt.placeholders) {
+			if (placeholder.value instanceof Expr) {
+				placeholder.value = rewrite((Expr) placeholder.value);
+			} else if (placeholder.value instanceof Stmt) {
+				placeholder.value = rewrite((Stmt) placeholder.value);
+			}
+		}
+
+		rewrite(stmt.body);
+		return stmt;
+	}
+
+	@Override
+	public Stmt visitFunctionStmt(Function stmt) {
+		rewrite(stmt.body);
+		return stmt;
+	}
+
+	@Override
+	public Expr visitConditionalExpr(Conditional expr) {
+		Expr condition = rewrite(expr.condition);
+		Expr first = rewrite(expr.first);
+		Expr second = rewrite(expr.second);
+
+		if (condition == expr.condition && first == expr.first && second == expr.second) {
+			return expr;
+		}
+
+		return new Conditional(condition, expr.operator, first, second);
+	}
+
+	@Override
+	public Expr visitBinaryExpr(Binary expr) {
+		Expr left = rewrite(expr.left);
+		Expr right = rewrite(expr.right);
+
+		if (left == expr.left && right == expr.right) {
+			return expr;
+		}
+
+		return new Binary(left, expr.operator, right);
+	}
+
+	@Override
+	public Expr visitLogicalExpr(Logical expr) {
+		Expr left = rewrite(expr.left);
+		Expr right = rewrite(expr.right);
+
+		if (left == expr.left && right == expr.right) {
+			return expr;
+		}
+
+		return new Logical(left, expr.operator, right);
+	}
+
+	@Override
+	public Expr visitGroupingExpr(Grouping expr) {
+		Expr expression = rewrite(expr.expression);
+		return expression == expr.expression ? expr : new Grouping(expr.grouping, expression);
+	}
+
+	@Override
+	public Expr visitLiteralExpr(Literal expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitGetExpr(Get expr) {
+		Expr object = rewrite(expr.object);
+		return object == expr.object ? expr : new Get(object, expr.name);
+	}
+
+	@Override
+	public Expr visitSetExpr(Set expr) {
+		Expr object = rewrite(expr.object);
+		Expr value = rewrite(expr.value);
+
+		if (object == expr.object && value == expr.value) {
+			return expr;
+		}
+
+		return new Set(object, expr.name, value);
+	}
+
+	@Override
+	public Expr visitThisExpr(This expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitUnaryExpr(Unary expr) {
+		Expr right = rewrite(expr.right);
+		return right == expr.right ? expr : new Unary(expr.operator, right);
+	}
+
+	@Override
+	public Expr visitVariableExpr(Variable expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitAssignExpr(Assign expr) {
+		Expr value = rewrite(expr.value);
+
+		if (value == expr.value) {
+			return expr;
+		}
+
+		Assign assign = new Assign(expr.name, expr.operator, value);
+		assign.depth = expr.depth;
+		assign.slot = expr.slot;
+		return assign;
+	}
+
+	@Override
+	public Expr visitUnaryAssignExpr(UnaryAssign expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitCompoundAssignExpr(CompoundAssign expr) {
+		Expr value = rewrite(expr.value);
+
+		if (value == expr.value) {
+			return expr;
+		}
+
+		CompoundAssign assign = new CompoundAssign(expr.name, expr.operator, value);
+		assign.depth = expr.depth;
+		assign.slot = expr.slot;
+		return assign;
+	}
+
+	@Override
+	public Expr visitIncrementExpr(Increment expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitCaseCompareExpr(CaseCompare expr) {
+		Expr control = rewrite(expr.control);
+		Expr test = rewrite(expr.test);
+
+		if (control == expr.control && test == expr.test) {
+			return expr;
+		}
+
+		return new CaseCompare(control, test);
+	}
+
+	@Override
+	public Expr visitCallExpr(Call expr) {
+		Expr callee = rewrite(expr.callee);
+		rewriteExpressions(expr.arguments);
+		return callee == expr.callee ? expr : new Call(callee, expr.parenthesis, expr.arguments);
+	}
+
+	@Override
+	public Expr visitInvokeExpr(Invoke expr) {
+		Expr object = rewrite(expr.object);
+		rewriteExpressions(expr.arguments);
+		return object == expr.object ? expr : new Invoke(object, expr.name, expr.parenthesis, expr.arguments);
+	}
+
+	@Override
+	public Expr visitSharpExpr(Sharp expr) {
+		return expr;
+	}
+}
@@ -0,0 +1,1551 @@
+package interpreter;
+
+import static interpreter.ClassFile.*;
+import static interpreter.JitCompiler.arithmetic;
+import static interpreter.JitCompiler.comparison;
+import static interpreter.JitCompiler.isNumber;
+import static interpreter.JitCompiler.negate;
+import static interpreter.JitCompiler.size;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Stack;
+
+import interpreter.ClassFile.Label;
+import interpreter.Expr.Assign;
+import interpreter.Expr.Binary;
+import interpreter.Expr.Call;
+import interpreter.Expr.CompoundAssign;
+import interpreter.Expr.Conditional;
+import interpreter.Expr.Grouping;
+import interpreter.Expr.Increment;
+import interpreter.Expr.Literal;
+import interpreter.Expr.Logical;
+import interpreter.Expr.Unary;
+import interpreter.Expr.Variable;
+import interpreter.JitCompiler.Local;
+import interpreter.JitCompiler.Loop;
+import interpreter.Stmt.Block;
+import interpreter.Stmt.Declare;
+import interpreter.Stmt.Do;
+import interpreter.Stmt.Expression;
+import interpreter.Stmt.For;
+import interpreter.Stmt.Function;
+import interpreter.Stmt.If;
+import interpreter.Stmt.Keyword;
+import interpreter.Stmt.Print;
+import interpreter.Stmt.Return;
+import interpreter.Stmt.While;
+import newt_metatypes.NewtType;
+import parser.Parser;
+
+/**
+ * The AotCompiler compiles a whole program ahead of time into a JVM class,
+ * which tools.Newtc packages with the runtime library (newt_runtime) as a
+ * runnable JAR. The program then starts without the interpreter, and the JVM
+ * compiles its code to machine code as it does the code of the JitCompiler.
+ *
+ * The programs compiled are those whose values the code can keep unboxed, as
+ * the JitCompiler keeps them: every variable is an int, double, bool or string
+ * declared with a value of its type, every function is declared at the top of
+ * the program with parameters of those types, and functions are called by
+ * name. Beyond what the JitCompiler compiles, the code may use globals, call
+ * any function, concatenate and compare strings, print, read the clock and
+ * exit. Each global becomes a static field, each function a static method, and
+ * the code outside of functions the run method of the class. The type of the
+ * values each function returns is found from its returns before any code is
+ * written.
+ *
+ * Anything else, such as classes, closures, switches or variables of type
+ * var, is reported as an error, and no class is written. The runtime errors
+ * the code can still meet, a zero divisor, a global used before it is
+ * declared and calls nested too deeply, are reported as the interpreter
+ * reports them.
+ *
+ * @author Jared
+ */
+public class AotCompiler {
+
+	/**
+	 * The name of the generated class, which the JAR runs.
+	 */
+	public static final String MAIN = "Main";
+
+	private static final String RUNTIME = "newt_runtime/NewtRuntime";
+	private static final String OBJECT = "java/lang/Object";
+	private static final String STRING = "java/lang/String";
+	private static final String BUILDER = "java/lang/StringBuilder";
+	private static final String OUT = "java/io/PrintStream";
+
+	/**
+	 * The functions every program may call without declaring them.
+	 */
+	private static final List<String> NATIVES = Arrays.asList("clock", "print", "println");
+
+	/**
+	 * The greatest depth of calls the program allows.
+	 */
+	private final int maxDepth;
+
+	/**
+	 * The variables and functions declared at the top of the program, by name.
+	 */
+	private final LinkedHashMap<String, Global> globals = new LinkedHashMap<>();
+
+	/**
+	 * Starts a compiler.
+	 *
+	 * @param maxDepth the greatest depth of calls the compiled program allows
+	 */
+	public AotCompiler(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Compiles a program, including the files it imports. Errors are reported as
+	 * the interpreter reports the errors it finds before a program runs.
+	 *
+	 * @param source the source of the program
+	 * @return the class file of the program, or null if errors were found
+	 */
+	public byte[] compile(String source) {
+		List<Token> tokens = new Lexer(source).lex();
+		List<Stmt> statements = new Parser(tokens).parse();
+
+		if (!Newt.prepare(statements))
+			return null;
+
+		try {
+			declareGlobals(statements);
+			inferReturns();
+			return write(statements);
+		} catch (Rejected e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Finds the variables and functions declared at the top of the program.
+	 *
+	 * @param statements the statements of the program
+	 */
+	private void declareGlobals(List<Stmt> statements) {
+		for (int i = 0; i < statements.size(); i++) {
+			Stmt stmt = statements.get(i);
+			Global global;
+
+			if (stmt instanceof Declare) {
+				Declare declare = (Declare) stmt;
+				global = new Global(declare.name, i, type(declare.type), null);
+			} else if (stmt instanceof Function) {
+				Function function = (Function) stmt;
+				global = new Global(function.name, i, null, function);
+				global.parameters = new NewtType[function.parameters.size()];
+
+				if (function.types.size() != global.parameters.length) {
+					throw reject(function.name, "Cannot compile parameters without types ahead of time.");
+				}
+
+				for (int j = 0; j < global.parameters.length; j++) {
+					global.parameters[j] = type(function.types.get(j));
+				}
+			} else {
+				continue;
+			}
+
+			String name = global.name.lexeme;
+
+			if (globals.containsKey(name) || NATIVES.contains(name)) {
+				throw reject(global.name, "Cannot compile '" + name + "' declared more than once ahead of time.");
+			}
+
+			globals.put(name, global);
+		}
+	}
+
+	/**
+	 * Finds the type of the values each function returns. A return of a call to
+	 * a function whose type is not yet known is passed over, so each pass finds
+	 * the types of the functions whose other returns decide them, until no more
+	 * are found.
+	 */
+	private void inferReturns() {
+		boolean changed = true;
+
+		while (changed) {
+			changed = false;
+
+			for (Global global : globals.values()) {
+				if (global.function == null || global.inferred) {
+					continue;
+				}
+
+				Translation probe = new Translation(new ClassFile(MAIN, OBJECT), global, true);
+				probe.translate();
+
+				if (probe.returned != null || !probe.returnsValue) {
+					global.returns = probe.returned;
+					global.inferred = true;
+					changed = true;
+				}
+			}
+		}
+
+		for (Global global : globals.values()) {
+			if (global.function != null && !global.inferred) {
+				throw reject(global.name, "Cannot find the type of the values '" + global.name.lexeme + "' returns.");
+			}
+		}
+	}
+
+	/**
+	 * Writes the class of the program.
+	 *
+	 * @param statements the statements of the program
+	 * @return the class file
+	 */
+	private byte[] write(List<Stmt> statements) {
+		ClassFile file = new ClassFile(MAIN, OBJECT, "java/lang/Runnable");
+
+		for (Global global : globals.values()) {
+			if (global.function == null) {
+				file.field(ACC_STATIC, "v$" + global.name.lexeme, descriptor(global.type));
+			}
+
+			file.field(ACC_STATIC, "defined$" + global.name.lexeme, "Z");
+		}
+
+		ClassFile.Method init = file.method(ACC_PUBLIC, "<init>", "()V");
+		init.op(ALOAD, 0, 1);
+		init.opShort(INVOKESPECIAL, file.methodRef(OBJECT, "<init>", "()V"), -1);
+		init.op(RETURN, 0);
+		init.locals(1);
+
+		/* the runtime runs the program on a thread of its own */
+		ClassFile.Method main = file.method(ACC_PUBLIC | ACC_STATIC, "main", "([L" + STRING + ";)V");
+		main.opShort(NEW, file.classRef(MAIN), 1);
+		main.op(DUP, 1);
+		main.opShort(INVOKESPECIAL, file.methodRef(MAIN, "<init>", "()V"), -1);
+		main.push(maxDepth);
+		main.opShort(INVOKESTATIC, file.methodRef(RUNTIME, "start", "(Ljava/lang/Runnable;I)V"), -2);
+		main.op(RETURN, 0);
+		main.locals(1);
+
+		new Translation(file, null, false).translate(statements);
+
+		for (Global global : globals.values()) {
+			if (global.function != null) {
+				new Translation(file, global, false).translate();
+			}
+		}
+
+		return file.toBytes();
+	}
+
+	/**
+	 * Finds the type named by a token, which must be one the compiled code keeps.
+	 *
+	 * @param token the name of the type
+	 * @return the type
+	 */
+	private static NewtType type(Token token) {
+		NewtType type = NewtType.named(token.lexeme);
+
+		if (descriptor(type) == null) {
+			throw reject(token, "Cannot compile values of type '" + token.lexeme + "' ahead of time.");
+		}
+
+		return type;
+	}
+
+	/**
+	 * Finds the JVM type of the values of a Newt type, which are those of the
+	 * JitCompiler and strings.
+	 *
+	 * @param type the Newt type
+	 * @return the descriptor, or null if the type is not compiled
+	 */
+	private static String descriptor(NewtType type) {
+		return type == NewtType.STRING ? "L" + STRING + ";" : JitCompiler.descriptor(type);
+	}
+
+	/**
+	 * Finds the descriptor of the method of a function, which takes the depth of
+	 * the call after the parameters.
+	 */
+	private static String signature(Global function) {
+		StringBuilder builder = new StringBuilder("(");
+
+		for (NewtType parameter : function.parameters) {
+			builder.append(descriptor(parameter));
+		}
+
+		builder.append("I)");
+		return builder.append(function.returns == null ? "V" : descriptor(function.returns)).toString();
+	}
+
+	/**
+	 * Reports an error, which stops the compilation.
+	 *
+	 * @param token   the token at which the error was found, or null if none is
+	 *                known
+	 * @param message the message shown to the user
+	 * @return the exception to throw
+	 */
+	private static Rejected reject(Token token, String message) {
+		if (token == null)
+			Newt.error(0, message);
+		else
+			Newt.error(token, message);
+
+		return Rejected.INSTANCE;
+	}
+
+	/**
+	 * Finds the token of an expression, for its errors.
+	 *
+	 * @param expr the expression
+	 * @return the token, or null if the expression has none
+	 */
+	private static Token token(Expr expr) {
+		if (expr instanceof Binary)
+			return ((Binary) expr).operator;
+		if (expr instanceof Logical)
+			return ((Logical) expr).operator;
+		if (expr instanceof Unary)
+			return ((Unary) expr).operator;
+		if (expr instanceof Conditional)
+			return ((Conditional) expr).operator;
+		if (expr instanceof Grouping)
+			return ((Grouping) expr).grouping;
+		if (expr instanceof Variable)
+			return ((Variable) expr).name;
+		if (expr instanceof Assign)
+			return ((Assign) expr).name;
+		if (expr instanceof CompoundAssign)
+			return ((CompoundAssign) expr).name;
+		if (expr instanceof Increment)
+			return ((Increment) expr).operator;
+		if (expr instanceof Call)
+			return ((Call) expr).parenthesis;
+		if (expr instanceof Expr.Invoke)
+			return ((Expr.Invoke) expr).name;
+		if (expr instanceof Expr.Get)
+			return ((Expr.Get) expr).name;
+		if (expr instanceof Expr.Set)
+			return ((Expr.Set) expr).name;
+		if (expr instanceof Expr.This)
+			return ((Expr.This) expr).keyword;
+		return null;
+	}
+
+	/**
+	 * Thrown once an error has been reported.
+	 */
+	private static final class Rejected extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		static final Rejected INSTANCE = new Rejected();
+
+		private Rejected() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * Thrown while the types functions return are found, by a call to a function
+	 * whose type is not yet known.
+	 */
+	private static final class Pending extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		static final Pending INSTANCE = new Pending();
+
+		private Pending() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * A variable or function declared at the top of the program.
+	 */
+	private static final class Global {
+		final Token name;
+
+		/**
+		 * The position of the declaration among the statements of the program.
+		 */
+		final int index;
+
+		/**
+		 * The type of a variable, or null for a function.
+		 */
+		final NewtType type;
+
+		/**
+		 * The declaration of a function, or null for a variable.
+		 */
+		final Function function;
+		NewtType[] parameters;
+
+		/**
+		 * The type of the values a function returns, or null if it returns none,
+		 * once inferred is true.
+		 */
+		NewtType returns;
+		boolean inferred = false;
+
+		Global(Token name, int index, NewtType type, Function function) {
+			this.name = name;
+			this.index = index;
+			this.type = type;
+			this.function = function;
+		}
+	}
+
+	/**
+	 * The compilation of one method: a function, or the code outside of
+	 * functions.
+	 */
+	private final class Translation {
+		private final ClassFile file;
+		private ClassFile.Method code;
+
+		/**
+		 * The function, or null for the code outside of functions.
+		 */
+		private final Global function;
+
+		/**
+		 * True if the translation only finds the types of the values the function
+		 * returns. Its code is thrown away, and a statement which calls a function
+		 * whose type is not yet known is passed over.
+		 */
+		private final boolean probing;
+
+		/**
+		 * The locals of the open scopes, by slot, innermost last.
+		 */
+		private final ArrayList<Local[]> scopes = new ArrayList<>();
+
+		private final Stack<Loop> loops = new Stack<>();
+
+		/**
+		 * The start of the code, where a tail call of the function itself returns
+		 * to.
+		 */
+		private final Label start = new Label();
+
+		/**
+		 * The local holding the depth of the call, or -1 outside of functions,
+		 * where the depth is 0, and the next free local.
+		 */
+		private int depth = -1;
+		private int next = 0;
+
+		/**
+		 * The position among the statements of the program of the statement being
+		 * compiled, or of the function.
+		 */
+		private int index;
+
+		/**
+		 * The last token met, for errors at expressions which have none.
+		 */
+		private Token near;
+
+		/**
+		 * The type of the values returned, found while probing, and whether any
+		 * return gives a value or none.
+		 */
+		NewtType returned = null;
+		boolean returnsValue = false;
+		private boolean returnsNothing = false;
+
+		Translation(ClassFile file, Global function, boolean probing) {
+			this.file = file;
+			this.function = function;
+			this.probing = probing;
+		}
+
+		/**
+		 * Writes the run method, which runs the code outside of functions.
+		 *
+		 * @param statements the statements of the program
+		 */
+		void translate(List<Stmt> statements) {
+			code = file.method(ACC_PUBLIC, "run", "()V");
+
+			/* the instance comes first */
+			next = 1;
+
+			for (index = 0; index < statements.size(); index++) {
+				statement(statements.get(index));
+			}
+
+			if (code.reachable()) {
+				code.op(RETURN, 0);
+			}
+
+			finish("this much code outside of functions");
+		}
+
+		/**
+		 * Writes the method of the function.
+		 */
+		void translate() {
+			Function declaration = function.function;
+			index = function.index;
+			near = declaration.name;
+			code = file.method(ACC_STATIC, "f$" + declaration.name.lexeme, signature(function));
+
+			Local[] scope = new Local[declaration.locals];
+			scopes.add(scope);
+
+			for (int i = 0; i < function.parameters.length; i++) {
+				scope[i] = new Local(function.parameters[i], next);
+				next += size(function.parameters[i]);
+			}
+
+			depth = next++;
+
+			code.place(start);
+			statements(declaration.body.statements);
+
+			if (code.reachable() && !probing) {
+				if (function.returns != null) {
+					throw reject(declaration.name,
+							"Function '" + declaration.name.lexeme + "' may end without returning a value.");
+				}
+
+				code.op(RETURN, 0);
+			}
+
+			finish("a function this large");
+		}
+
+		private void finish(String what) {
+			if (next > 255 || code.length() > Short.MAX_VALUE) {
+				throw unsupported(function != null ? function.name : near, what);
+			}
+
+			code.locals(next);
+		}
+
+		/**
+		 * Reports a construct which is not compiled.
+		 *
+		 * @param token the token of the construct, or null to use the last token met
+		 * @param what  a description of the construct
+		 * @return the exception to throw
+		 */
+		private Rejected unsupported(Token token, String what) {
+			return reject(token != null ? token : near, "Cannot compile " + what + " ahead of time.");
+		}
+
+		private void statements(List<Stmt> statements) {
+			for (Stmt statement : statements) {
+				statement(statement);
+			}
+		}
+
+		/**
+		 * Compiles a statement. While probing, a statement which needs the type of a
+		 * function not yet known is left unfinished, and the scopes and loops it
+		 * opened are closed.
+		 */
+		private void statement(Stmt stmt) {
+			int scopeCount = scopes.size();
+			int loopCount = loops.size();
+
+			try {
+				write(stmt);
+			} catch (Pending e) {
+				if (!probing) {
+					throw e;
+				}
+
+				while (scopes.size() > scopeCount) {
+					scopes.remove(scopes.size() - 1);
+				}
+
+				loops.setSize(loopCount);
+			}
+		}
+
+		private void write(Stmt stmt) {
+			if (stmt instanceof Declare) {
+				declare((Declare) stmt);
+			} else if (stmt instanceof Expression) {
+				effect(((Expression) stmt).expression);
+			} else if (stmt instanceof Print) {
+				print(((Print) stmt).expression, "print", null);
+			} else if (stmt instanceof Block) {
+				block((Block) stmt);
+			} else if (stmt instanceof If) {
+				ifStatement((If) stmt);
+			} else if (stmt instanceof While) {
+				whileLoop((While) stmt);
+			} else if (stmt instanceof Do) {
+				doLoop((Do) stmt);
+			} else if (stmt instanceof For) {
+				forLoop((For) stmt);
+			} else if (stmt instanceof Keyword) {
+				keyword((Keyword) stmt);
+			} else if (stmt instanceof Return) {
+				returnStatement((Return) stmt);
+			} else if (stmt instanceof Function) {
+				functionStatement((Function) stmt);
+			} else if (stmt instanceof Stmt.Class) {
+				throw unsupported(((Stmt.Class) stmt).name, "classes");
+			} else if (stmt instanceof Stmt.Switch) {
+				throw unsupported(token(((Stmt.Switch) stmt).controls.get(0)), "switch statements");
+			} else if (stmt instanceof Stmt.Undec) {
+				throw unsupported(((Stmt.Undec) stmt).variables.get(0).name, "undeclarations");
+			} else {
+				throw unsupported(null, "this statement");
+			}
+		}
+
+		private void block(Block block) {
+			if (!block.scoped) {
+				statements(block.statements);
+				return;
+			}
+
+			scopes.add(new Local[block.locals]);
+			statements(block.statements);
+			scopes.remove(scopes.size() - 1);
+		}
+
+		/**
+		 * Marks a function as declared, for the calls which check it.
+		 */
+		private void functionStatement(Function stmt) {
+			near = stmt.name;
+
+			if (stmt.slot >= 0) {
+				throw unsupported(stmt.name, "functions declared inside other code");
+			}
+
+			define(globals.get(stmt.name.lexeme));
+		}
+
+		private void declare(Declare stmt) {
+			near = stmt.name;
+
+			if (stmt.value == null) {
+				throw unsupported(stmt.name, "variables declared without a value");
+			}
+
+			if (stmt.slot < 0) {
+				Global global = globals.get(stmt.name.lexeme);
+				assignable(stmt.name, global.type, stmt.value);
+				code.opShort(PUTSTATIC, field(global), -size(global.type));
+				define(global);
+				return;
+			}
+
+			NewtType type = type(stmt.type);
+			Local local = new Local(type, next);
+			next += size(type);
+
+			/* the local is known before its value, in case the value waits on a function */
+			scopes.get(scopes.size() - 1)[stmt.slot] = local;
+			assignable(stmt.name, type, stmt.value);
+			store(local);
+		}
+
+		private void define(Global global) {
+			code.op(ICONST_0 + 1, 1);
+			code.opShort(PUTSTATIC, file.fieldRef(MAIN, "defined$" + global.name.lexeme, "Z"), -1);
+		}
+
+		private void ifStatement(If stmt) {
+			Label otherwise = new Label();
+			Label end = new Label();
+
+			branch(stmt.condition, false, otherwise);
+			block(stmt.ifBody);
+
+			if (stmt.elseBody == null) {
+				code.place(otherwise);
+				return;
+			}
+
+			code.jump(GOTO, 0, end);
+			code.place(otherwise);
+			block(stmt.elseBody);
+			code.place(end);
+		}
+
+		private void whileLoop(While stmt) {
+			Loop loop = new Loop();
+
+			code.place(loop.next);
+			branch(stmt.condition, false, loop.exit);
+			loops.push(loop);
+			block(stmt.body);
+			loops.pop();
+			code.jump(GOTO, 0, loop.next);
+			code.place(loop.exit);
+		}
+
+		private void doLoop(Do stmt) {
+			Loop loop = new Loop();
+			Label top = new Label();
+
+			code.place(top);
+			loops.push(loop);
+			block(stmt.body);
+			loops.pop();
+			code.place(loop.next);
+			branch(stmt.condition, true, top);
+			code.place(loop.exit);
+		}
+
+		private void forLoop(For stmt) {
+			Loop loop = new Loop();
+			Label top = new Label();
+
+			scopes.add(new Local[stmt.locals]);
+
+			if (stmt.declaration != null) {
+				declare(stmt.declaration);
+			}
+
+			code.place(top);
+
+			if (stmt.condition != null) {
+				branch(stmt.condition, false, loop.exit);
+			}
+
+			loops.push(loop);
+			block(stmt.body);
+			loops.pop();
+			code.place(loop.next);
+
+			if (stmt.incrementor != null) {
+				effect(stmt.incrementor);
+			}
+
+			code.jump(GOTO, 0, top);
+			code.place(loop.exit);
+			scopes.remove(scopes.size() - 1);
+		}
+
+		private void keyword(Keyword stmt) {
+			near = stmt.word;
+
+			switch (stmt.word.type) {
+			case BREAK:
+			case CONTINUE:
+				if (loops.isEmpty()) {
+					throw unsupported(stmt.word, "'" + stmt.word.lexeme + "' outside of a loop");
+				}
+
+				code.jump(GOTO, 0, stmt.word.type == TokenType.BREAK ? loops.peek().exit : loops.peek().next);
+				break;
+			case EXIT:
+				/* inside a function, the interpreter finishes the expression which called it */
+				if (function != null) {
+					throw unsupported(stmt.word, "'exit' inside a function");
+				}
+
+				code.op(RETURN, 0);
+				break;
+			default:
+				throw unsupported(stmt.word, "'" + stmt.word.lexeme + "'");
+			}
+		}
+
+		private void returnStatement(Return stmt) {
+			if (function == null) {
+				throw unsupported(null, "a return outside of a function");
+			}
+
+			Function declaration = function.function;
+
+			if (stmt.value == null) {
+				returnsNothing = true;
+			} else {
+				returnsValue = true;
+			}
+
+			if (returnsNothing && returnsValue) {
+				throw reject(declaration.name,
+						"Function '" + declaration.name.lexeme + "' returns a value from some returns but not others.");
+			}
+
+			if (stmt.value == null) {
+				code.op(RETURN, 0);
+				return;
+			}
+
+			/* a return of a call to the function itself starts it again */
+			if (stmt.tail && isSelfCall(stmt.value)) {
+				Call call = (Call) stmt.value;
+
+				for (int i = 0; i < function.parameters.length; i++) {
+					argument(call, i, function.parameters[i]);
+				}
+
+				for (int i = function.parameters.length - 1; i >= 0; i--) {
+					store(scopes.get(0)[i]);
+				}
+
+				code.jump(GOTO, 0, start);
+				return;
+			}
+
+			NewtType type = valueType(stmt.value);
+
+			if (probing && returned == null) {
+				returned = type;
+			}
+
+			if (type != (probing ? returned : function.returns)) {
+				throw reject(declaration.name,
+						"Function '" + declaration.name.lexeme + "' returns values of different types.");
+			}
+
+			/* a return of a call to another function does not count towards the depth */
+			if (stmt.tail && stmt.value instanceof Call) {
+				call((Call) stmt.value, true);
+			} else {
+				emit(stmt.value, type);
+			}
+
+			code.op(type == NewtType.DOUBLE ? DRETURN : type == NewtType.STRING ? ARETURN : IRETURN, -size(type));
+		}
+
+		/**
+		 * Checks if an expression is a call of the function itself with the right
+		 * number of arguments.
+		 */
+		private boolean isSelfCall(Expr expr) {
+			if (!(expr instanceof Call)) {
+				return false;
+			}
+
+			Call call = (Call) expr;
+
+			if (!(call.callee instanceof Variable) || call.arguments.size() != function.parameters.length) {
+				return false;
+			}
+
+			Variable callee = (Variable) call.callee;
+			return callee.depth < 0 && callee.name.lexeme.equals(function.name.lexeme);
+		}
+
+		/**
+		 * Compiles the value of a variable, which must have the type of the
+		 * variable.
+		 *
+		 * @param name  the name of the variable
+		 * @param type  the type of the variable
+		 * @param value the value
+		 */
+		private void assignable(Token name, NewtType type, Expr value) {
+			NewtType actual = valueType(value);
+
+			if (actual != type) {
+				throw reject(name, "Incompatible types '" + type + "' and '" + actual + "'.");
+			}
+
+			emit(value, type);
+		}
+
+		/**
+		 * Compiles an expression whose value is not used.
+		 *
+		 * @param expr the expression
+		 */
+		private void effect(Expr expr) {
+			if (expr instanceof Assign) {
+				Assign assign = (Assign) expr;
+
+				if (assign.operator.type != TokenType.EQUAL) {
+					throw unsupported(assign.operator, "the operator '" + assign.operator.lexeme + "'");
+				}
+
+				assign(assign.name, assign.depth, assign.slot, assign.value);
+			} else if (expr instanceof CompoundAssign) {
+				CompoundAssign assign = (CompoundAssign) expr;
+				Variable variable = variable(assign.name, assign.depth, assign.slot);
+				assign(assign.name, assign.depth, assign.slot, new Binary(variable, assign.operator, assign.value));
+			} else if (expr instanceof Increment) {
+				Increment increment = (Increment) expr;
+				Variable variable = increment.name;
+
+				if (variable.depth >= 0 && local(variable.name, variable.depth, variable.slot).type == NewtType.INT) {
+					Local local = local(variable.name, variable.depth, variable.slot);
+					code.increment(local.index, increment.operator.type == TokenType.MINUS ? -1 : 1);
+					return;
+				}
+
+				assign(variable.name, variable.depth, variable.slot,
+						new Binary(variable, increment.operator, new Literal(1)));
+			} else {
+				NewtType type = typeOf(expr);
+				value(expr, type);
+
+				if (type != null) {
+					code.op(type == NewtType.DOUBLE ? POP2 : POP, -size(type));
+				}
+			}
+		}
+
+		private Variable variable(Token name, int depth, int slot) {
+			Variable variable = new Variable(name);
+			variable.depth = depth;
+			variable.slot = slot;
+			return variable;
+		}
+
+		private void assign(Token name, int depth, int slot, Expr value) {
+			near = name;
+			NewtType type = depth < 0 ? global(name).type : local(name, depth, slot).type;
+			assignable(name, type, value);
+
+			if (depth < 0) {
+				Global global = global(name);
+				checkDefined(global, name);
+				code.opShort(PUTSTATIC, field(global), -size(type));
+			} else {
+				store(local(name, depth, slot));
+			}
+		}
+
+		/**
+		 * Finds the global variable of a name.
+		 */
+		private Global global(Token name) {
+			Global global = globals.get(name.lexeme);
+
+			if (global == null) {
+				throw reject(name, "Undefined variable '" + name.lexeme + "'.");
+			}
+
+			if (global.function != null) {
+				throw unsupported(name, "functions used as values");
+			}
+
+			return global;
+		}
+
+		private int field(Global global) {
+			return file.fieldRef(MAIN, "v$" + global.name.lexeme, descriptor(global.type));
+		}
+
+		/**
+		 * Finds the local a variable was resolved to.
+		 *
+		 * @param name  the name of the variable
+		 * @param depth the distance to the declaring scope
+		 * @param slot  the slot in that scope
+		 * @return the local
+		 */
+		private Local local(Token name, int depth, int slot) {
+			if (depth >= scopes.size()) {
+				throw unsupported(name, "closures");
+			}
+
+			Local[] scope = scopes.get(scopes.size() - 1 - depth);
+
+			if (slot < 0 || slot >= scope.length || scope[slot] == null) {
+				throw unsupported(name, "this variable");
+			}
+
+			return scope[slot];
+		}
+
+		private void load(Local local) {
+			code.op(local.type == NewtType.DOUBLE ? DLOAD : local.type == NewtType.STRING ? ALOAD : ILOAD, local.index,
+					size(local.type));
+		}
+
+		private void store(Local local) {
+			code.op(local.type == NewtType.DOUBLE ? DSTORE : local.type == NewtType.STRING ? ASTORE : ISTORE,
+					local.index, -size(local.type));
+		}
+
+		/**
+		 * Checks that a global has been declared when it is used, unless the use can
+		 * only run after the declaration: the use comes from a later statement of
+		 * the program, or from a function declared later, which cannot be called
+		 * before its own declaration.
+		 *
+		 * @param global the global
+		 * @param name   the name used, for the error
+		 */
+		private void checkDefined(Global global, Token name) {
+			if (global.index < index || global.index == index && global.function != null) {
+				return;
+			}
+
+			Label defined = new Label();
+			code.opShort(GETSTATIC, file.fieldRef(MAIN, "defined$" + global.name.lexeme, "Z"), 1);
+			code.jump(IFNE, -1, defined);
+			fail(name, "Undefined variable '" + name.lexeme + "'.");
+			code.place(defined);
+		}
+
+		/**
+		 * Checks that a call would not be nested too deeply.
+		 *
+		 * @param parenthesis the token of the call, for the error
+		 */
+		private void checkDepth(Token parenthesis) {
+			/* outside of functions, the depth is 0 */
+			if (depth < 0) {
+				return;
+			}
+
+			Label room = new Label();
+			code.op(ILOAD, depth, 1);
+			code.push(maxDepth);
+			code.jump(IF_ICMPNE, -2, room);
+			fail(parenthesis, "Stack overflow.");
+			code.place(room);
+		}
+
+		/**
+		 * Throws a runtime error.
+		 *
+		 * @param token   the token at which the error is reported
+		 * @param message the message
+		 */
+		private void fail(Token token, String message) {
+			code.push(token.line);
+			code.opShort(LDC_W, file.string(message), 1);
+			code.opShort(INVOKESTATIC,
+					file.methodRef(RUNTIME, "error", "(IL" + STRING + ";)Ljava/lang/RuntimeException;"), -1);
+			code.op(ATHROW, -1);
+		}
+
+		/**
+		 * Finds the type of the values of an expression which must have a value.
+		 *
+		 * @param expr the expression
+		 * @return the type
+		 */
+		private NewtType valueType(Expr expr) {
+			NewtType type = typeOf(expr);
+
+			if (type == null) {
+				Call call = (Call) expr;
+				throw unsupported(call.parenthesis, "the result of a function which returns nothing");
+			}
+
+			return type;
+		}
+
+		/**
+		 * Finds the type of the values of an expression.
+		 *
+		 * @param expr the expression
+		 * @return the type, or null for a call of a function which returns nothing
+		 * @throws Pending while probing, if the type depends on a function whose type
+		 *                 is not yet known
+		 */
+		private NewtType typeOf(Expr expr) {
+			Token token = token(expr);
+
+			if (token != null) {
+				near = token;
+			}
+
+			if (expr instanceof Literal) {
+				Object value = ((Literal) expr).value;
+				NewtType type = value == null ? null : NewtType.of(value);
+
+				if (type == null || descriptor(type) == null) {
+					throw unsupported(null, "this literal");
+				}
+
+				return type;
+			}
+
+			if (expr instanceof Grouping) {
+				return typeOf(((Grouping) expr).expression);
+			}
+
+			if (expr instanceof Variable) {
+				Variable variable = (Variable) expr;
+				return variable.depth < 0 ? global(variable.name).type
+						: local(variable.name, variable.depth, variable.slot).type;
+			}
+
+			if (expr instanceof Unary) {
+				Unary unary = (Unary) expr;
+				NewtType type = valueType(unary.right);
+
+				if (unary.operator.type == TokenType.MINUS && isNumber(type)
+						|| unary.operator.type == TokenType.BANG && type == NewtType.BOOL) {
+					return type;
+				}
+
+				throw unsupported(unary.operator, "the operator '" + unary.operator.lexeme + "' on a " + type);
+			}
+
+			if (expr instanceof Binary) {
+				Binary binary = (Binary) expr;
+				NewtType left = valueType(binary.left);
+				NewtType right = valueType(binary.right);
+				TokenType operator = binary.operator.type;
+
+				if (operator == TokenType.PLUS && (left == NewtType.STRING || right == NewtType.STRING)) {
+					return NewtType.STRING;
+				}
+
+				if (isNumber(left) && isNumber(right)) {
+					if (operator == TokenType.CARAT) {
+						return NewtType.DOUBLE;
+					}
+
+					if (arithmetic(operator) >= 0) {
+						return left == NewtType.INT && right == NewtType.INT ? NewtType.INT : NewtType.DOUBLE;
+					}
+
+					if (comparison(operator) >= 0) {
+						return NewtType.BOOL;
+					}
+				}
+
+				if (left == right && left == NewtType.BOOL
+						&& (operator == TokenType.EQUAL_EQUAL || operator == TokenType.BANG_EQUAL)) {
+					return NewtType.BOOL;
+				}
+
+				if (left == right && left == NewtType.STRING && comparison(operator) >= 0) {
+					return NewtType.BOOL;
+				}
+
+				throw unsupported(binary.operator,
+						"the operator '" + binary.operator.lexeme + "' on a " + left + " and a " + right);
+			}
+
+			if (expr instanceof Logical) {
+				Logical logical = (Logical) expr;
+				TokenType operator = logical.operator.type;
+
+				if ((operator == TokenType.AND || operator == TokenType.OR) && valueType(logical.left) == NewtType.BOOL
+						&& valueType(logical.right) == NewtType.BOOL) {
+					return NewtType.BOOL;
+				}
+
+				throw unsupported(logical.operator, "the operator '" + logical.operator.lexeme + "' on these values");
+			}
+
+			if (expr instanceof Conditional) {
+				Conditional conditional = (Conditional) expr;
+				NewtType type = valueType(conditional.first);
+
+				if (valueType(conditional.condition) != NewtType.BOOL) {
+					throw unsupported(conditional.operator, "conditions which are not bools");
+				}
+
+				if (valueType(conditional.second) != type) {
+					throw unsupported(conditional.operator, "conditionals whose values have different types");
+				}
+
+				return type;
+			}
+
+			if (expr instanceof Call) {
+				return callType((Call) expr);
+			}
+
+			if (expr instanceof Assign || expr instanceof CompoundAssign || expr instanceof Increment) {
+				throw unsupported(token, "assignments used as values");
+			}
+
+			if (expr instanceof Expr.Get || expr instanceof Expr.Set || expr instanceof Expr.Invoke
+					|| expr instanceof Expr.This) {
+				throw unsupported(token, "classes");
+			}
+
+			throw unsupported(token, "this expression");
+		}
+
+		/**
+		 * Finds the type of the value of a call, checking its arguments.
+		 *
+		 * @param call the call
+		 * @return the type, or null if the function returns nothing
+		 */
+		private NewtType callType(Call call) {
+			if (!(call.callee instanceof Variable) || ((Variable) call.callee).depth >= 0) {
+				throw unsupported(call.parenthesis, "calls of values other than functions declared at the top");
+			}
+
+			Token name = ((Variable) call.callee).name;
+			Global global = globals.get(name.lexeme);
+
+			if (global == null) {
+				if (!NATIVES.contains(name.lexeme)) {
+					throw reject(name, "Undefined variable '" + name.lexeme + "'.");
+				}
+
+				if (name.lexeme.equals("clock")) {
+					arity(call, 0);
+					return NewtType.DOUBLE;
+				}
+
+				arity(call, 1);
+				valueType(call.arguments.get(0));
+				return null;
+			}
+
+			if (global.function == null) {
+				throw reject(call.parenthesis, "Can only call functions and classes.");
+			}
+
+			arity(call, global.parameters.length);
+
+			for (int i = 0; i < global.parameters.length; i++) {
+				NewtType type = valueType(call.arguments.get(i));
+
+				if (type != global.parameters[i]) {
+					throw reject(call.parenthesis, "Incompatible types '" + global.parameters[i] + "' and '" + type + "'.");
+				}
+			}
+
+			if (!global.inferred) {
+				throw Pending.INSTANCE;
+			}
+
+			return global.returns;
+		}
+
+		private void arity(Call call, int arity) {
+			if (call.arguments.size() != arity) {
+				throw reject(call.parenthesis,
+						"Expected " + arity + " arguments but got " + call.arguments.size() + ".");
+			}
+		}
+
+		/**
+		 * Compiles an argument, which must have the type of its parameter.
+		 */
+		private void argument(Call call, int i, NewtType parameter) {
+			NewtType type = valueType(call.arguments.get(i));
+
+			if (type != parameter) {
+				throw reject(call.parenthesis, "Incompatible types '" + parameter + "' and '" + type + "'.");
+			}
+
+			emit(call.arguments.get(i), parameter);
+		}
+
+		/**
+		 * Applies an arithmetic operator to the two values on the stack. Division
+		 * by zero is reported as the interpreter reports it.
+		 *
+		 * @param operator the operator
+		 * @param type     the type of both values and the result
+		 */
+		private void arithmeticOperation(Token operator, NewtType type) {
+			if (operator.type == TokenType.CARAT) {
+				code.opShort(INVOKESTATIC, file.methodRef("java/lang/Math", "pow", "(DD)D"), -2);
+				return;
+			}
+
+			if (operator.type == TokenType.SLASH || operator.type == TokenType.PERCENT) {
+				Label nonZero = new Label();
+
+				if (type == NewtType.INT) {
+					code.op(DUP, 1);
+					code.jump(IFNE, -1, nonZero);
+				} else {
+					code.op(DUP2, 2);
+					code.op(DCONST_0, 2);
+					code.op(DCMPL, -3);
+					code.jump(IFNE, -1, nonZero);
+				}
+
+				fail(operator, "Divisor cannot be zero.");
+				code.place(nonZero);
+			}
+
+			int instruction = arithmetic(operator.type);
+			code.op(type == NewtType.INT ? instruction : instruction + 3, -size(type));
+		}
+
+		/**
+		 * Compiles an expression, leaving its value on the stack.
+		 *
+		 * @param expr the expression
+		 * @param type the type the value is needed as, which may be double for an
+		 *             int expression
+		 */
+		private void emit(Expr expr, NewtType type) {
+			NewtType actual = valueType(expr);
+
+			if (actual != type && !(actual == NewtType.INT && type == NewtType.DOUBLE)) {
+				throw reject(token(expr), "Incompatible types '" + type + "' and '" + actual + "'.");
+			}
+
+			value(expr, actual);
+
+			if (actual != type) {
+				code.op(I2D, 1);
+			}
+		}
+
+		private void value(Expr expr, NewtType type) {
+			if (expr instanceof Literal) {
+				Object value = ((Literal) expr).value;
+
+				if (value instanceof Boolean) {
+					code.op((boolean) value ? ICONST_0 + 1 : ICONST_0, 1);
+				} else if (value instanceof Integer) {
+					code.push((int) value);
+				} else if (value instanceof Double) {
+					code.push((double) value);
+				} else {
+					code.opShort(LDC_W, file.string((String) value), 1);
+				}
+			} else if (expr instanceof Grouping) {
+				value(((Grouping) expr).expression, type);
+			} else if (expr instanceof Variable) {
+				Variable variable = (Variable) expr;
+
+				if (variable.depth < 0) {
+					Global global = global(variable.name);
+					checkDefined(global, variable.name);
+					code.opShort(GETSTATIC, field(global), size(type));
+				} else {
+					load(local(variable.name, variable.depth, variable.slot));
+				}
+			} else if (expr instanceof Unary && isNumber(type)) {
+				emit(((Unary) expr).right, type);
+				code.op(type == NewtType.INT ? INEG : DNEG, 0);
+			} else if (expr instanceof Binary && type == NewtType.STRING) {
+				code.opShort(NEW, file.classRef(BUILDER), 1);
+				code.op(DUP, 1);
+				code.opShort(INVOKESPECIAL, file.methodRef(BUILDER, "<init>", "()V"), -1);
+				append(expr);
+				code.opShort(INVOKEVIRTUAL, file.methodRef(BUILDER, "toString", "()L" + STRING + ";"), 0);
+			} else if (expr instanceof Binary && isNumber(type)) {
+				Binary binary = (Binary) expr;
+				NewtType operands = binary.operator.type == TokenType.CARAT ? NewtType.DOUBLE : type;
+				emit(binary.left, operands);
+				emit(binary.right, operands);
+				arithmeticOperation(binary.operator, operands);
+			} else if (expr instanceof Conditional) {
+				Conditional conditional = (Conditional) expr;
+				Label otherwise = new Label();
+				Label end = new Label();
+				branch(conditional.condition, false, otherwise);
+				emit(conditional.first, type);
+				code.jump(GOTO, 0, end);
+				code.place(otherwise);
+				emit(conditional.second, type);
+				code.place(end);
+			} else if (expr instanceof Call) {
+				call((Call) expr, false);
+			} else {
+				/* a boolean made by a comparison or logic */
+				Label isTrue = new Label();
+				Label end = new Label();
+				branch(expr, true, isTrue);
+				code.op(ICONST_0, 1);
+				code.jump(GOTO, 0, end);
+				code.place(isTrue);
+				code.op(ICONST_0 + 1, 1);
+				code.place(end);
+			}
+		}
+
+		/**
+		 * Appends a value to the StringBuilder on the stack. The operands of a
+		 * concatenation are appended in turn, so a chain of them builds one string.
+		 *
+		 * @param expr the value
+		 */
+		private void append(Expr expr) {
+			NewtType type = valueType(expr);
+			Expr inner = expr;
+
+			while (inner instanceof Grouping) {
+				inner = ((Grouping) inner).expression;
+			}
+
+			if (type == NewtType.STRING && inner instanceof Binary && ((Binary) inner).operator.type == TokenType.PLUS) {
+				append(((Binary) inner).left);
+				append(((Binary) inner).right);
+				return;
+			}
+
+			emit(expr, type);
+			code.opShort(INVOKEVIRTUAL, file.methodRef(BUILDER, "append", "(" + descriptor(type) + ")L" + BUILDER + ";"),
+					-size(type));
+		}
+
+		/**
+		 * Calls a function. A tail call of another function runs at the depth of
+		 * the caller, as the interpreter runs it in place of the caller.
+		 *
+		 * @param call the call, whose type has been found
+		 * @param tail true if the call is returned
+		 */
+		private void call(Call call, boolean tail) {
+			Token name = ((Variable) call.callee).name;
+			Global global = globals.get(name.lexeme);
+
+			if (global == null) {
+				if (name.lexeme.equals("clock")) {
+					checkDepth(call.parenthesis);
+					code.opShort(INVOKESTATIC, file.methodRef(RUNTIME, "clock", "()D"), 2);
+				} else {
+					print(call.arguments.get(0), name.lexeme, call.parenthesis);
+				}
+
+				return;
+			}
+
+			checkDefined(global, name);
+			int arguments = 1;
+
+			for (int i = 0; i < global.parameters.length; i++) {
+				argument(call, i, global.parameters[i]);
+				arguments += size(global.parameters[i]);
+			}
+
+			if (depth < 0) {
+				code.op(ICONST_0 + 1, 1);
+			} else if (tail) {
+				code.op(ILOAD, depth, 1);
+			} else {
+				checkDepth(call.parenthesis);
+				code.op(ILOAD, depth, 1);
+				code.op(ICONST_0 + 1, 1);
+				code.op(IADD, -1);
+			}
+
+			int result = global.returns == null ? 0 : size(global.returns);
+			code.opShort(INVOKESTATIC, file.methodRef(MAIN, "f$" + name.lexeme, signature(global)),
+					result - arguments);
+		}
+
+		/**
+		 * Prints a value to standard output.
+		 *
+		 * @param value       the value
+		 * @param method      the method of the PrintStream, print or println
+		 * @param parenthesis the token of the call of the native function, or null
+		 *                    for a print statement
+		 */
+		private void print(Expr value, String method, Token parenthesis) {
+			code.opShort(GETSTATIC, file.fieldRef("java/lang/System", "out", "L" + OUT + ";"), 1);
+			NewtType type = valueType(value);
+			emit(value, type);
+
+			if (parenthesis != null) {
+				checkDepth(parenthesis);
+			}
+
+			code.opShort(INVOKEVIRTUAL, file.methodRef(OUT, method, "(" + descriptor(type) + ")V"), -1 - size(type));
+		}
+
+		/**
+		 * Jumps to a label when a boolean expression has the given value.
+		 *
+		 * @param expr   the expression, whose type must be bool
+		 * @param when   the value for which to jump
+		 * @param target the label
+		 */
+		private void branch(Expr expr, boolean when, Label target) {
+			if (valueType(expr) != NewtType.BOOL) {
+				throw unsupported(token(expr), "conditions which are not bools");
+			}
+
+			/* a constant condition jumps always or never, so the code after it is known to run or not */
+			if (expr instanceof Literal) {
+				if ((boolean) ((Literal) expr).value == when) {
+					code.jump(GOTO, 0, target);
+				}
+
+				return;
+			}
+
+			if (expr instanceof Grouping) {
+				branch(((Grouping) expr).expression, when, target);
+				return;
+			}
+
+			if (expr instanceof Unary) {
+				branch(((Unary) expr).right, !when, target);
+				return;
+			}
+
+			if (expr instanceof Logical) {
+				Logical logical = (Logical) expr;
+				boolean and = logical.operator.type == TokenType.AND;
+
+				/* the right side decides only if the left does not */
+				if (and == when) {
+					Label skip = new Label();
+					branch(logical.left, !when, skip);
+					branch(logical.right, when, target);
+					code.place(skip);
+				} else {
+					branch(logical.left, when, target);
+					branch(logical.right, when, target);
+				}
+
+				return;
+			}
+
+			if (expr instanceof Binary) {
+				Binary binary = (Binary) expr;
+				NewtType left = valueType(binary.left);
+				NewtType right = valueType(binary.right);
+				TokenType operator = binary.operator.type;
+				int jump = comparison(operator);
+
+				if (left == NewtType.STRING) {
+					emit(binary.left, left);
+					emit(binary.right, right);
+
+					/* strings are equal by their characters, and ordered as the interpreter orders them */
+					if (operator == TokenType.EQUAL_EQUAL || operator == TokenType.BANG_EQUAL) {
+						code.opShort(INVOKEVIRTUAL, file.methodRef(STRING, "equals", "(L" + OBJECT + ";)Z"), -1);
+						code.jump((operator == TokenType.EQUAL_EQUAL) == when ? IFNE : IFEQ, -1, target);
+					} else {
+						code.opShort(INVOKEVIRTUAL, file.methodRef(STRING, "compareTo", "(L" + STRING + ";)I"), -1);
+						jump = jump - IF_ICMPEQ + IFEQ;
+						code.jump(when ? jump : negate(jump), -1, target);
+					}
+
+					return;
+				}
+
+				if (!when) {
+					jump = negate(jump);
+				}
+
+				if (left == NewtType.DOUBLE || right == NewtType.DOUBLE) {
+					/* a comparison with NaN compares as less, as the interpreter finds */
+					emit(binary.left, NewtType.DOUBLE);
+					emit(binary.right, NewtType.DOUBLE);
+					code.op(DCMPL, -3);
+					code.jump(jump - IF_ICMPEQ + IFEQ, -1, target);
+				} else {
+					emit(binary.left, left);
+					emit(binary.right, right);
+					code.jump(jump, -2, target);
+				}
+
+				return;
+			}
+
+			value(expr, NewtType.BOOL);
+			code.jump(when ? IFNE : IFEQ, -1, target);
+		}
+	}
+}
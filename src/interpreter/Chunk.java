@@ -0,0 +1,331 @@
+package interpreter;
+
+import static interpreter.OpCode.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import newt_metatypes.NewtObject;
+
+/**
+ * A Chunk holds the bytecode produced by the Compiler for a single script or
+ * function body, along with the constants the bytecode refers to.
+ *
+ * @author Jared
+ */
+public class Chunk {
+
+	/**
+	 * The name of the function this chunk was compiled from, used when printing.
+	 */
+	final String name;
+
+	/**
+	 * The instructions and their operands.
+	 */
+	byte[] code = new byte[64];
+
+	/**
+	 * The number of bytes of code written so far.
+	 */
+	int count = 0;
+
+	/**
+	 * The constant pool. Values, names and operator tokens are all stored here and
+	 * referred to by index.
+	 */
+	private final ArrayList<Object> constantPool = new ArrayList<>();
+
+	/**
+	 * The constant pool as an array, filled in by finish().
+	 */
+	Object[] constants;
+
+	/**
+	 * The variable found by each global named in the constant pool, kept by
+	 * index so that the name is looked up only until it is found.
+	 */
+	NewtObject[] cells;
+
+	/**
+	 * The greatest number of values this chunk will place on the operand stack.
+	 */
+	int maxStack = 0;
+
+	/**
+	 * The number of locals kept in the frame of the chunk, below its operand
+	 * stack, or -1 if the chunk keeps its locals in environments. The receiver
+	 * of a method and the parameters come first, in the slots the Resolver gave
+	 * them.
+	 */
+	int frameSize = -1;
+
+	/**
+	 * The frame indices of the parameters which a closure captures, and which
+	 * are therefore kept in variables of their own from the start of a call.
+	 */
+	int[] parameterCells = new int[0];
+
+	public Chunk(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Appends a byte to the code.
+	 *
+	 * @param value the byte to append
+	 */
+	void write(int value) {
+		if (count == code.length) {
+			code = Arrays.copyOf(code, code.length * 2);
+		}
+
+		code[count++] = (byte) value;
+	}
+
+	/**
+	 * Appends a two-byte operand to the code.
+	 *
+	 * @param value the operand to append
+	 */
+	void writeShort(int value) {
+		write((value >> 8) & 0xff);
+		write(value & 0xff);
+	}
+
+	/**
+	 * Reads a two-byte operand from the code.
+	 *
+	 * @param offset the location of the operand
+	 * @return the operand
+	 */
+	int readShort(int offset) {
+		return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+	}
+
+	/**
+	 * Adds a value to the constant pool, reusing an existing entry if the same
+	 * value is already there.
+	 *
+	 * @param value the constant
+	 * @return the index of the constant
+	 */
+	int addConstant(Object value) {
+		for (int i = 0; i < constantPool.size(); i++) {
+			Object constant = constantPool.get(i);
+
+			/* only literal values are shared; tokens and statements are kept by identity */
+			if (constant == value || (isLiteral(value) && value.equals(constant))) {
+				return i;
+			}
+		}
+
+		constantPool.add(value);
+		return constantPool.size() - 1;
+	}
+
+	private boolean isLiteral(Object value) {
+		return value instanceof String || value instanceof Integer || value instanceof Double
+				|| value instanceof Character;
+	}
+
+	/**
+	 * Trims the code and freezes the constant pool once compilation is complete.
+	 */
+	void finish() {
+		code = Arrays.copyOf(code, count);
+		constants = constantPool.toArray();
+		cells = new NewtObject[constants.length];
+	}
+
+	/**
+	 * Produces a listing of the instructions in the chunk.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("== " + name + " ==\n");
+
+		int offset = 0;
+		while (offset < count) {
+			int op = code[offset];
+			builder.append(String.format("%04d %-14s ", offset, OpCode.NAMES[op]));
+			offset++;
+
+			switch (op) {
+			case GET_SLOT:
+			case STORE_SLOT:
+			case GET_INT:
+			case SET_INT:
+			case GET_DOUBLE:
+			case SET_DOUBLE:
+			case GET_CELL:
+			case ADD_TO_INT:
+			case SUBTRACT_FROM_INT:
+				builder.append(code[offset] & 0xff);
+				offset++;
+				break;
+			case INCREMENT_INT:
+				builder.append(code[offset] & 0xff).append(" ").append(code[offset + 1]);
+				offset += 2;
+				break;
+			case GET_INITIALIZED:
+			case GET_SLOT_INT:
+			case GET_SLOT_DOUBLE:
+			case ASSIGN_INT:
+			case ASSIGN_DOUBLE:
+			case SET_CELL:
+				builder.append(code[offset] & 0xff).append(" ").append(describe(readShort(offset + 1)));
+				offset += 3;
+				break;
+			case DEFINE_SLOT:
+			case SET_SLOT:
+			case DEFINE_CELL:
+				builder.append(code[offset] & 0xff).append(" ").append(describe(readShort(offset + 1))).append(" ")
+						.append(describe(readShort(offset + 3)));
+				offset += 5;
+				break;
+			case CLOSURE:
+				builder.append(describe(readShort(offset))).append(" ")
+						.append(Arrays.toString((int[]) constantPool.get(readShort(offset + 2))));
+				offset += 4;
+				break;
+			case GET_LOCAL:
+			case SET_LOCAL:
+				builder.append(code[offset] & 0xff).append(" ").append(code[offset + 1] & 0xff).append(" ")
+						.append(describe(readShort(offset + 2)));
+				offset += 4;
+				break;
+			case DEFINE_LOCAL:
+				builder.append(code[offset] & 0xff).append(" ").append(describe(readShort(offset + 1))).append(" ")
+						.append(describe(readShort(offset + 3)));
+				offset += 5;
+				break;
+			case UNDEFINE_LOCAL:
+			case PUSH_SCOPE:
+				builder.append(code[offset] & 0xff);
+				offset++;
+				break;
+			case GET_PROPERTY:
+			case SET_PROPERTY:
+				builder.append(describe(readShort(offset)));
+				offset += 4;
+				break;
+			case DEFINE:
+				builder.append(describe(readShort(offset))).append(" ").append(describe(readShort(offset + 2)));
+				offset += 4;
+				break;
+			case CALL:
+				builder.append(code[offset] & 0xff);
+				offset += 3;
+				break;
+			case INVOKE:
+				builder.append(code[offset] & 0xff).append(" ").append(describe(readShort(offset + 1)));
+				offset += 7;
+				break;
+			case JUMP:
+			case JUMP_IF_FALSE:
+			case JUMP_UNLESS_GREATER_INT:
+			case JUMP_UNLESS_GREATER_EQUAL_INT:
+			case JUMP_UNLESS_LESS_INT:
+			case JUMP_UNLESS_LESS_EQUAL_INT:
+			case JUMP_UNLESS_EQUAL_INT:
+			case JUMP_UNLESS_NOT_EQUAL_INT:
+			case JUMP_UNLESS_GREATER_DOUBLE:
+			case JUMP_UNLESS_GREATER_EQUAL_DOUBLE:
+			case JUMP_UNLESS_LESS_DOUBLE:
+			case JUMP_UNLESS_LESS_EQUAL_DOUBLE:
+			case JUMP_UNLESS_EQUAL_DOUBLE:
+			case JUMP_UNLESS_NOT_EQUAL_DOUBLE:
+				builder.append("-> ").append(offset + 2 + readShort(offset));
+				offset += 2;
+				break;
+			case JUMP_UNLESS_GREATER_INT_CONSTANT:
+			case JUMP_UNLESS_GREATER_EQUAL_INT_CONSTANT:
+			case JUMP_UNLESS_LESS_INT_CONSTANT:
+			case JUMP_UNLESS_LESS_EQUAL_INT_CONSTANT:
+			case JUMP_UNLESS_EQUAL_INT_CONSTANT:
+			case JUMP_UNLESS_NOT_EQUAL_INT_CONSTANT:
+				builder.append(describe(readShort(offset))).append(" -> ").append(offset + 4 + readShort(offset + 2));
+				offset += 4;
+				break;
+			case JUMP_UNLESS_GREATER_SLOT_CONSTANT:
+			case JUMP_UNLESS_GREATER_EQUAL_SLOT_CONSTANT:
+			case JUMP_UNLESS_LESS_SLOT_CONSTANT:
+			case JUMP_UNLESS_LESS_EQUAL_SLOT_CONSTANT:
+			case JUMP_UNLESS_EQUAL_SLOT_CONSTANT:
+			case JUMP_UNLESS_NOT_EQUAL_SLOT_CONSTANT:
+				builder.append(code[offset] & 0xff).append(" ").append(describe(readShort(offset + 1))).append(" -> ")
+						.append(offset + 5 + readShort(offset + 3));
+				offset += 5;
+				break;
+			case LOOP:
+				builder.append("-> ").append(offset + 2 - readShort(offset));
+				offset += 2;
+				break;
+			case DISPATCH:
+				builder.append(code[offset] & 0xff).append(" ")
+						.append(Arrays.toString((int[]) constantPool.get(readShort(offset + 3)))).append(" from ")
+						.append(readShort(offset + 5));
+				offset += 7;
+				break;
+			case CONSTANT:
+			case CONSTANT_INT:
+			case CONSTANT_DOUBLE:
+			case ADD_INT_CONSTANT:
+			case SUBTRACT_INT_CONSTANT:
+			case MULTIPLY_INT_CONSTANT:
+			case DIVIDE_INT_CONSTANT:
+			case MODULO_INT_CONSTANT:
+			case CHECK_INITIALIZED:
+			case GET_GLOBAL:
+			case SET_GLOBAL:
+			case UNDEFINE:
+			case FUNCTION:
+			case CLASS:
+				builder.append(describe(readShort(offset)));
+				offset += 2;
+				break;
+			case ADD:
+			case SUBTRACT:
+			case MULTIPLY:
+			case DIVIDE:
+			case MODULO:
+			case POWER:
+			case GREATER:
+			case GREATER_EQUAL:
+			case LESS:
+			case LESS_EQUAL:
+			case BINARY:
+			case NEGATE:
+			case DIVIDE_INT:
+			case MODULO_INT:
+			case DIVIDE_DOUBLE:
+			case MODULO_DOUBLE:
+				offset += 2;
+				break;
+			default:
+			}
+
+			builder.append("\n");
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Produces a short description of a constant for the instruction listing.
+	 */
+	private String describe(int index) {
+		Object constant = constantPool.get(index);
+
+		if (constant instanceof Token) {
+			return ((Token) constant).lexeme;
+		}
+
+		if (constant instanceof Stmt) {
+			return constant.getClass().getSimpleName();
+		}
+
+		return String.valueOf(constant);
+	}
+}
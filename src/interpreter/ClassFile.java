@@ -0,0 +1,595 @@
+package interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Writes the bytes of a JVM class, for the classes the JitCompiler and the
+ * AotCompiler generate. Only what those classes need is supported: a constant
+ * pool of strings, classes, numbers and member references, static fields,
+ * and methods whose code is written one instruction at a time with labels for
+ * the jumps and the handlers of exceptions.
+ *
+ * Classes are written in version 49 of the format, which the JVM verifies by
+ * inferring the types of the stack and locals itself, so no stack map frames
+ * are written.
+ *
+ * @author Jared
+ */
+class ClassFile {
+
+	/*
+	 * the instructions used by the generated code
+	 */
+	static final int ICONST_0 = 0x03;
+	static final int DCONST_0 = 0x0e;
+	static final int DCONST_1 = 0x0f;
+	static final int BIPUSH = 0x10;
+	static final int SIPUSH = 0x11;
+	static final int LDC_W = 0x13;
+	static final int LDC2_W = 0x14;
+	static final int ILOAD = 0x15;
+	static final int DLOAD = 0x18;
+	static final int ALOAD = 0x19;
+	static final int AALOAD = 0x32;
+	static final int ISTORE = 0x36;
+	static final int DSTORE = 0x39;
+	static final int ASTORE = 0x3a;
+	static final int POP = 0x57;
+	static final int POP2 = 0x58;
+	static final int DUP = 0x59;
+	static final int DUP2 = 0x5c;
+	static final int IADD = 0x60;
+	static final int DADD = 0x63;
+	static final int ISUB = 0x64;
+	static final int DSUB = 0x67;
+	static final int IMUL = 0x68;
+	static final int DMUL = 0x6b;
+	static final int IDIV = 0x6c;
+	static final int DDIV = 0x6f;
+	static final int IREM = 0x70;
+	static final int DREM = 0x73;
+	static final int INEG = 0x74;
+	static final int DNEG = 0x77;
+	static final int IINC = 0x84;
+	static final int I2D = 0x87;
+	static final int DCMPL = 0x97;
+	static final int IFEQ = 0x99;
+	static final int IFNE = 0x9a;
+	static final int IFLT = 0x9b;
+	static final int IFGE = 0x9c;
+	static final int IFGT = 0x9d;
+	static final int IFLE = 0x9e;
+	static final int IF_ICMPEQ = 0x9f;
+	static final int IF_ICMPNE = 0xa0;
+	static final int IF_ICMPLT = 0xa1;
+	static final int IF_ICMPGE = 0xa2;
+	static final int IF_ICMPGT = 0xa3;
+	static final int IF_ICMPLE = 0xa4;
+	static final int GOTO = 0xa7;
+	static final int IRETURN = 0xac;
+	static final int DRETURN = 0xaf;
+	static final int ARETURN = 0xb0;
+	static final int RETURN = 0xb1;
+	static final int GETSTATIC = 0xb2;
+	static final int PUTSTATIC = 0xb3;
+	static final int INVOKEVIRTUAL = 0xb6;
+	static final int INVOKESPECIAL = 0xb7;
+	static final int INVOKESTATIC = 0xb8;
+	static final int NEW = 0xbb;
+	static final int ATHROW = 0xbf;
+	static final int CHECKCAST = 0xc0;
+
+	static final int ACC_PUBLIC = 0x0001;
+	static final int ACC_STATIC = 0x0008;
+	static final int ACC_FINAL = 0x0010;
+	static final int ACC_SUPER = 0x0020;
+
+	/**
+	 * The version of the class file format written.
+	 */
+	private static final int VERSION = 49;
+
+	/**
+	 * The constant pool, as it will be written, and the index of each constant
+	 * already in it.
+	 */
+	private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private final DataOutputStream pool = new DataOutputStream(poolBytes);
+	private final HashMap<String, Integer> constants = new HashMap<>();
+	private int poolSize = 1;
+
+	private final String name;
+	private final String superName;
+	private final String[] interfaces;
+	private final ArrayList<Method> methods = new ArrayList<>();
+
+	/**
+	 * The fields of the class, each as its access flags and the constants of its
+	 * name and descriptor.
+	 */
+	private final ArrayList<int[]> fields = new ArrayList<>();
+
+	/**
+	 * Starts a class.
+	 *
+	 * @param name       the internal name of the class, such as interpreter/Foo
+	 * @param superName  the internal name of its superclass
+	 * @param interfaces the internal names of the interfaces it implements
+	 */
+	ClassFile(String name, String superName, String... interfaces) {
+		this.name = name;
+		this.superName = superName;
+		this.interfaces = interfaces;
+	}
+
+	/**
+	 * The internal name of the class.
+	 */
+	String name() {
+		return name;
+	}
+
+	/**
+	 * Adds a method to the class.
+	 *
+	 * @param access     the access flags of the method
+	 * @param name       the name of the method
+	 * @param descriptor the descriptor of its parameters and result
+	 * @return the method, to which its code is written
+	 */
+	Method method(int access, String name, String descriptor) {
+		Method method = new Method(access, utf8(name), utf8(descriptor));
+		methods.add(method);
+		return method;
+	}
+
+	/**
+	 * Adds a field to the class.
+	 *
+	 * @param access     the access flags of the field
+	 * @param name       the name of the field
+	 * @param descriptor the descriptor of its type
+	 */
+	void field(int access, String name, String descriptor) {
+		fields.add(new int[] { access, utf8(name), utf8(descriptor) });
+	}
+
+	/**
+	 * Writes the finished class.
+	 *
+	 * @return the bytes of the class file
+	 */
+	byte[] toBytes() {
+		int thisClass = classRef(name);
+		int superClass = classRef(superName);
+		int code = utf8("Code");
+		int[] implemented = new int[interfaces.length];
+
+		for (int i = 0; i < interfaces.length; i++) {
+			implemented[i] = classRef(interfaces[i]);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		try {
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(VERSION);
+			out.writeShort(poolSize);
+			pool.flush();
+			poolBytes.writeTo(out);
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(implemented.length);
+
+			for (int index : implemented) {
+				out.writeShort(index);
+			}
+
+			out.writeShort(fields.size());
+
+			for (int[] field : fields) {
+				out.writeShort(field[0]);
+				out.writeShort(field[1]);
+				out.writeShort(field[2]);
+				out.writeShort(0);
+			}
+
+			out.writeShort(methods.size());
+
+			for (Method method : methods) {
+				method.write(out, code);
+			}
+
+			out.writeShort(0);
+		} catch (IOException e) {
+			/* writing to memory cannot fail */
+			throw new IllegalStateException(e);
+		}
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Finds or adds a constant. The key identifies the constant, and the writer
+	 * adds its entry to the pool if it is new.
+	 *
+	 * @param key    a description of the constant unique among all constants
+	 * @param slots  the number of pool entries the constant takes
+	 * @param writer writes the entry
+	 * @return the index of the constant in the pool
+	 */
+	private int constant(String key, int slots, PoolWriter writer) {
+		Integer index = constants.get(key);
+
+		if (index != null) {
+			return index;
+		}
+
+		try {
+			writer.write();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		index = poolSize;
+		poolSize += slots;
+		constants.put(key, index);
+		return index;
+	}
+
+	private interface PoolWriter {
+		void write() throws IOException;
+	}
+
+	int utf8(String value) {
+		return constant("U" + value, 1, () -> {
+			pool.writeByte(1);
+			pool.writeUTF(value);
+		});
+	}
+
+	int classRef(String internalName) {
+		int utf = utf8(internalName);
+		return constant("C" + internalName, 1, () -> {
+			pool.writeByte(7);
+			pool.writeShort(utf);
+		});
+	}
+
+	int string(String value) {
+		int utf = utf8(value);
+		return constant("S" + value, 1, () -> {
+			pool.writeByte(8);
+			pool.writeShort(utf);
+		});
+	}
+
+	int integer(int value) {
+		return constant("I" + value, 1, () -> {
+			pool.writeByte(3);
+			pool.writeInt(value);
+		});
+	}
+
+	int doubleConstant(double value) {
+		return constant("D" + Double.doubleToRawLongBits(value), 2, () -> {
+			pool.writeByte(6);
+			pool.writeDouble(value);
+		});
+	}
+
+	private int nameAndType(String name, String descriptor) {
+		int nameIndex = utf8(name);
+		int typeIndex = utf8(descriptor);
+		return constant("N" + name + ":" + descriptor, 1, () -> {
+			pool.writeByte(12);
+			pool.writeShort(nameIndex);
+			pool.writeShort(typeIndex);
+		});
+	}
+
+	private int memberRef(int tag, String owner, String name, String descriptor) {
+		int ownerIndex = classRef(owner);
+		int nameIndex = nameAndType(name, descriptor);
+		return constant(tag + owner + "." + name + ":" + descriptor, 1, () -> {
+			pool.writeByte(tag);
+			pool.writeShort(ownerIndex);
+			pool.writeShort(nameIndex);
+		});
+	}
+
+	int methodRef(String owner, String name, String descriptor) {
+		return memberRef(10, owner, name, descriptor);
+	}
+
+	int fieldRef(String owner, String name, String descriptor) {
+		return memberRef(9, owner, name, descriptor);
+	}
+
+	/**
+	 * A position in the code of a method which can be jumped to.
+	 */
+	static class Label {
+
+		/**
+		 * The offset of the label, or -1 until it is placed.
+		 */
+		private int offset = -1;
+
+		/**
+		 * The depth of the operand stack at the label, or -1 if no jump to it has
+		 * been written yet.
+		 */
+		private int stack = -1;
+
+		/**
+		 * True if code which can run jumps to the label, or the label is the
+		 * handler of exceptions.
+		 */
+		private boolean targeted = false;
+
+		/**
+		 * The offsets of the jumps to the label written before it was placed, each
+		 * paired with the offset of its instruction.
+		 */
+		private final ArrayList<int[]> jumps = new ArrayList<>();
+	}
+
+	/**
+	 * A method of the class and its code. The depth of the operand stack is
+	 * followed as instructions are written, to find the most the method needs.
+	 */
+	class Method {
+		private final int access;
+		private final int name;
+		private final int descriptor;
+
+		private byte[] code = new byte[256];
+		private int length = 0;
+
+		private int stack = 0;
+		private int maxStack = 0;
+		private int maxLocals = 0;
+
+		/**
+		 * False after an instruction which never continues to the next, until a
+		 * label which code that can run jumps to is placed.
+		 */
+		private boolean reachable = true;
+
+		/**
+		 * The ranges of code whose exceptions are caught, each as the labels of its
+		 * start, its end and its handler, with the class caught.
+		 */
+		private final ArrayList<Label[]> handlers = new ArrayList<>();
+		private final ArrayList<Integer> caught = new ArrayList<>();
+
+		private Method(int access, int name, int descriptor) {
+			this.access = access;
+			this.name = name;
+			this.descriptor = descriptor;
+		}
+
+		/**
+		 * Reserves the locals of the method.
+		 *
+		 * @param locals the number of local variable slots the code uses
+		 */
+		void locals(int locals) {
+			maxLocals = Math.max(maxLocals, locals);
+		}
+
+		/**
+		 * The number of bytes of code written so far.
+		 */
+		int length() {
+			return length;
+		}
+
+		/**
+		 * Checks if the next instruction can run: that the code written so far may
+		 * continue to it, or jump to a label placed since it last could not.
+		 */
+		boolean reachable() {
+			return reachable;
+		}
+
+		private void put(int value) {
+			if (length == code.length) {
+				code = Arrays.copyOf(code, length * 2);
+			}
+
+			code[length++] = (byte) value;
+		}
+
+		private void putShort(int value) {
+			put(value >> 8);
+			put(value);
+		}
+
+		private void adjust(int delta) {
+			stack += delta;
+			maxStack = Math.max(maxStack, stack);
+		}
+
+		/**
+		 * Writes an instruction with no operands.
+		 *
+		 * @param opcode the instruction
+		 * @param delta  the change it makes to the depth of the operand stack
+		 */
+		void op(int opcode, int delta) {
+			put(opcode);
+			adjust(delta);
+
+			if (opcode == ATHROW || opcode >= IRETURN && opcode <= RETURN) {
+				reachable = false;
+			}
+		}
+
+		/**
+		 * Writes an instruction with a one byte operand.
+		 */
+		void op(int opcode, int operand, int delta) {
+			put(opcode);
+			put(operand);
+			adjust(delta);
+		}
+
+		/**
+		 * Writes an instruction with a two byte operand, such as the index of a
+		 * constant.
+		 */
+		void opShort(int opcode, int operand, int delta) {
+			put(opcode);
+			putShort(operand);
+			adjust(delta);
+		}
+
+		/**
+		 * Pushes an int constant, with the shortest instruction which holds it.
+		 *
+		 * @param value the constant
+		 */
+		void push(int value) {
+			if (value >= -1 && value <= 5) {
+				op(ICONST_0 + value, 1);
+			} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				op(BIPUSH, value, 1);
+			} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				opShort(SIPUSH, value, 1);
+			} else {
+				opShort(LDC_W, integer(value), 1);
+			}
+		}
+
+		/**
+		 * Pushes a double constant.
+		 *
+		 * @param value the constant
+		 */
+		void push(double value) {
+			if (Double.doubleToRawLongBits(value) == 0) {
+				op(DCONST_0, 2);
+			} else if (value == 1) {
+				op(DCONST_1, 2);
+			} else {
+				opShort(LDC2_W, doubleConstant(value), 2);
+			}
+		}
+
+		/**
+		 * Adds to an int local in place.
+		 *
+		 * @param local  the local
+		 * @param amount the amount to add, between -128 and 127
+		 */
+		void increment(int local, int amount) {
+			put(IINC);
+			put(local);
+			put(amount);
+		}
+
+		/**
+		 * Writes a jump to a label.
+		 *
+		 * @param opcode the jump instruction
+		 * @param delta  the change it makes to the depth of the operand stack
+		 * @param label  the label jumped to
+		 */
+		void jump(int opcode, int delta, Label label) {
+			int at = length;
+			put(opcode);
+			adjust(delta);
+
+			/* a jump which can never run leaves the label as it was */
+			if (reachable) {
+				label.stack = stack;
+				label.targeted = true;
+			}
+
+			if (label.offset >= 0) {
+				putShort(label.offset - at);
+			} else {
+				label.jumps.add(new int[] { length, at });
+				putShort(0);
+			}
+
+			if (opcode == GOTO) {
+				reachable = false;
+			}
+		}
+
+		/**
+		 * Catches the exceptions of a class thrown by the code between two labels.
+		 * The handler starts with the exception on the stack.
+		 *
+		 * @param start     the label at the start of the range
+		 * @param end       the label after the end of the range
+		 * @param handler   the label of the handler, not yet placed
+		 * @param className the internal name of the class caught
+		 */
+		void handler(Label start, Label end, Label handler, String className) {
+			handlers.add(new Label[] { start, end, handler });
+			caught.add(classRef(className));
+			handler.stack = 1;
+			handler.targeted = true;
+		}
+
+		/**
+		 * Places a label at the next instruction to be written, completing any
+		 * jumps to it.
+		 *
+		 * @param label the label
+		 */
+		void place(Label label) {
+			label.offset = length;
+
+			for (int[] jump : label.jumps) {
+				int distance = length - jump[1];
+				code[jump[0]] = (byte) (distance >> 8);
+				code[jump[0] + 1] = (byte) distance;
+			}
+
+			/* code only reached by jumps starts with the stack the jumps left */
+			if (!reachable && label.stack >= 0) {
+				stack = label.stack;
+			}
+
+			label.stack = stack;
+			reachable |= label.targeted;
+		}
+
+		private void write(DataOutputStream out, int codeName) throws IOException {
+			out.writeShort(access);
+			out.writeShort(name);
+			out.writeShort(descriptor);
+			out.writeShort(1);
+			out.writeShort(codeName);
+			out.writeInt(12 + length + 8 * handlers.size());
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(length);
+			out.write(code, 0, length);
+			out.writeShort(handlers.size());
+
+			for (int i = 0; i < handlers.size(); i++) {
+				Label[] labels = handlers.get(i);
+				out.writeShort(labels[0].offset);
+				out.writeShort(labels[1].offset);
+				out.writeShort(labels[2].offset);
+				out.writeShort(caught.get(i));
+			}
+
+			out.writeShort(0);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package interpreter;
+
+import java.util.ArrayList;
+
+import interpreter.Stmt.Function;
+import newt_metatypes.NewtFunction;
+import newt_metatypes.NewtObject;
+
+/**
+ * A function which the JitCompiler has compiled to a JVM class. The generated
+ * class extends this one, and its code calls back into it to check the
+ * assumptions it was compiled under.
+ *
+ * The compiled code assumes that the global it calls itself through still
+ * holds the function, and that a call nested too deeply or a division by zero
+ * never happens. When an assumption fails the code gives up by throwing a
+ * Deoptimization, and the call is run again by the interpreter from its start,
+ * which reports any error as it always has. Only functions which change
+ * nothing outside their own calls are compiled, so running one twice cannot
+ * be noticed.
+ *
+ * @author Jared
+ */
+abstract class CompiledFunction {
+
+	/**
+	 * Thrown by compiled code which cannot continue. It is thrown often and
+	 * always caught, so it has no message or stack trace.
+	 */
+	static final class Deoptimization extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		static final Deoptimization INSTANCE = new Deoptimization();
+
+		private Deoptimization() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * The global holding the function, through which it calls itself, or null if
+	 * it makes no calls.
+	 */
+	NewtObject cell;
+
+	/**
+	 * The declaration the function was compiled from.
+	 */
+	Function declaration;
+
+	/**
+	 * The greatest depth of calls allowed.
+	 */
+	int maxDepth;
+
+	/**
+	 * The number of times the code has given up.
+	 */
+	int deoptimizations = 0;
+
+	/**
+	 * Runs the compiled code.
+	 *
+	 * @param arguments the arguments, which have the declared types of the
+	 *                  parameters
+	 * @param depth     the depth of the call
+	 * @return the value returned
+	 * @throws Deoptimization if the code gave up, so the interpreter must make the
+	 *                        call instead
+	 */
+	abstract Object call(ArrayList<Object> arguments, int depth);
+
+	/**
+	 * Checks that the global the function calls itself through still holds it.
+	 */
+	final void guard() {
+		Object value = cell.removed ? null : cell.getValue();
+
+		if (!(value instanceof NewtFunction) || ((NewtFunction) value).getDeclaration() != declaration
+				|| ((NewtFunction) value).getReceiver() != null) {
+			throw Deoptimization.INSTANCE;
+		}
+	}
+
+	/**
+	 * Checks that the function may call itself from a call at the given depth.
+	 *
+	 * @param depth the depth of the calling call
+	 * @return the depth of the call made
+	 */
+	final int enter(int depth) {
+		if (depth == maxDepth) {
+			throw Deoptimization.INSTANCE;
+		}
+
+		guard();
+		return depth + 1;
+	}
+}
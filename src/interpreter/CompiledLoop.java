@@ -0,0 +1,108 @@
+package interpreter;
+
+import newt_metatypes.NewtObject;
+import newt_metatypes.NewtType;
+
+/**
+ * A loop which the JitCompiler has compiled to a JVM class, so that a loop
+ * which runs for a long time can finish in compiled code without being inside
+ * a function which is called often. The interpreter hands the loop over
+ * between two of its passes, along with the variables from outside the loop
+ * which it uses.
+ *
+ * The compiled code reads those variables once when it starts, keeps them in
+ * locals of its own, and writes them back when the loop ends. At the start of
+ * each pass it copies them, so that when it gives up part way through a pass
+ * it can write back the values they had at its start. The interpreter then
+ * runs that pass again, which is safe because a compiled loop changes nothing
+ * but those variables.
+ *
+ * @author Jared
+ */
+abstract class CompiledLoop {
+
+	/**
+	 * A variable from outside the loop which the loop uses.
+	 */
+	static final class LiveVariable {
+
+		/**
+		 * The distance from the scope in which the loop runs to the scope of the
+		 * variable, or -1 for a global.
+		 */
+		final int depth;
+		final int slot;
+		final Token name;
+
+		/**
+		 * The type the variable had when the loop was compiled.
+		 */
+		final NewtType type;
+
+		LiveVariable(int depth, int slot, Token name, NewtType type) {
+			this.depth = depth;
+			this.slot = slot;
+			this.name = name;
+			this.type = type;
+		}
+
+		/**
+		 * Finds the variable.
+		 *
+		 * @param environment the scope in which the loop runs
+		 * @param globals     the global scope
+		 * @return the variable, or null if it is not there
+		 */
+		NewtObject find(Environment environment, Environment globals) {
+			try {
+				return depth < 0 ? globals.cell(null, name) : environment.variableAt(depth, slot, name);
+			} catch (RuntimeError e) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * The variables from outside the loop, in the order the code expects them.
+	 */
+	LiveVariable[] variables;
+
+	/**
+	 * The number of times the code has given up.
+	 */
+	int deoptimizations = 0;
+
+	/**
+	 * Runs the rest of the loop, starting with the test of its condition, or for
+	 * a do loop with its body.
+	 *
+	 * @param cells the variables from outside the loop
+	 * @return true if the loop ended, or false if the code gave up at the start of
+	 *         a pass, which the interpreter must then run
+	 */
+	abstract boolean run(NewtObject[] cells);
+
+	/**
+	 * Finds the variables the loop uses in the scope it is running in, checking
+	 * that they still have the types the code was compiled for.
+	 *
+	 * @param environment the scope in which the loop runs
+	 * @param globals     the global scope
+	 * @return the variables, or null if the code cannot run
+	 */
+	final NewtObject[] transfer(Environment environment, Environment globals) {
+		NewtObject[] cells = new NewtObject[variables.length];
+
+		for (int i = 0; i < variables.length; i++) {
+			NewtObject cell = variables[i].find(environment, globals);
+
+			if (cell == null || cell.removed || !cell.initialized || cell.type != variables[i].type) {
+				return null;
+			}
+
+			cells[i] = cell;
+		}
+
+		return cells;
+	}
+}
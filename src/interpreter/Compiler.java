@@ -0,0 +1,2034 @@
+package interpreter;
+
+import static interpreter.OpCode.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import interpreter.Expr.Assign;
+import interpreter.Expr.Binary;
+import interpreter.Expr.Call;
+import interpreter.Expr.CaseCompare;
+import interpreter.Expr.CompoundAssign;
+import interpreter.Expr.Conditional;
+import interpreter.Expr.Get;
+import interpreter.Expr.Grouping;
+import interpreter.Expr.Increment;
+import interpreter.Expr.Invoke;
+import interpreter.Expr.Literal;
+import interpreter.Expr.Logical;
+import interpreter.Expr.Set;
+import interpreter.Expr.Sharp;
+import interpreter.Expr.This;
+import interpreter.Expr.Unary;
+import interpreter.Expr.UnaryAssign;
+import interpreter.Expr.Variable;
+import interpreter.Stmt.Block;
+import interpreter.Stmt.Case;
+import interpreter.Stmt.Class;
+import interpreter.Stmt.Declare;
+import interpreter.Stmt.Do;
+import interpreter.Stmt.ExPrint;
+import interpreter.Stmt.Expression;
+import interpreter.Stmt.For;
+import interpreter.Stmt.Function;
+import interpreter.Stmt.If;
+import interpreter.Stmt.Keyword;
+import interpreter.Stmt.Mould;
+import interpreter.Stmt.Print;
+import interpreter.Stmt.Return;
+import interpreter.Stmt.Sculpture;
+import interpreter.Stmt.Struct;
+import interpreter.Stmt.Switch;
+import interpreter.Stmt.Undec;
+import interpreter.Stmt.While;
+import newt_metatypes.NewtType;
+
+/**
+ * The Compiler turns a list of resolved statements into a Chunk of bytecode for
+ * the VM. Every function and method body becomes a Chunk of its own.
+ *
+ * The locals of a chunk are kept in its frame on the VM's stack, at an index
+ * found from the slots calculated by the Resolver, and those the TypeChecker
+ * proved to be ints or doubles are kept unboxed. A chunk which holds a mould,
+ * an undec or a local class keeps the same scoping rules as the Interpreter
+ * instead: each block pushes a new Environment, and variables are found using
+ * the Resolver's distances and slots.
+ *
+ * @author Jared
+ */
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+	/**
+	 * A loop or switch that a break or continue may jump out of.
+	 */
+	private static class Target {
+		final boolean isLoop;
+		final int scopeDepth;
+		final int temporaries;
+
+		/* jumps which must be patched once the end or continue point is known */
+		final List<Integer> breaks = new ArrayList<>();
+		final List<Integer> continues = new ArrayList<>();
+
+		Target(boolean isLoop, int scopeDepth, int temporaries) {
+			this.isLoop = isLoop;
+			this.scopeDepth = scopeDepth;
+			this.temporaries = temporaries;
+		}
+	}
+
+	/**
+	 * A scope whose locals are kept in the frame, from the index of its first slot.
+	 */
+	private static class Scope {
+		final int offset;
+		final int size;
+
+		Scope(int offset, int size) {
+			this.offset = offset;
+			this.size = size;
+		}
+
+		int end() {
+			return offset + size;
+		}
+	}
+
+	/**
+	 * How a local kept in the frame holds its value.
+	 */
+	private enum Storage {
+		/* the boxed value, or null before it is initialized */
+		VALUE,
+		/* the value unboxed, in the primitive stacks of the VM */
+		INT, DOUBLE,
+		/* a variable of its own, shared with the closures which capture it */
+		CELL
+	}
+
+	/**
+	 * The interpreter, used to fill moulds while compiling.
+	 */
+	private final Interpreter interpreter;
+
+	/**
+	 * The chunk compiled for each function body, shared with the VM.
+	 */
+	private final Map<Function, Chunk> functions;
+
+	/**
+	 * The chunk currently being written.
+	 */
+	private Chunk chunk;
+
+	/**
+	 * The number of scopes pushed in the current chunk.
+	 */
+	private int scopeDepth = 0;
+
+	/**
+	 * The number of values left on the operand stack by enclosing statements (the
+	 * 'case found' flag of a switch).
+	 */
+	private int temporaries = 0;
+
+	/**
+	 * The current depth of the operand stack, used to find the maximum.
+	 */
+	private int stackDepth = 0;
+
+	/**
+	 * The loops and switches enclosing the statement being compiled.
+	 */
+	private List<Target> targets = new ArrayList<>();
+
+	/**
+	 * The open scopes of the chunk, or null if it keeps its locals in
+	 * environments.
+	 */
+	private List<Scope> frame = null;
+
+	/**
+	 * The frame indices of the locals captured by closures.
+	 */
+	private BitSet captured = new BitSet();
+
+	/*
+	 * How each local in the frame is stored, and its declared type, as given by
+	 * the declaration compiled last at its index.
+	 */
+	private Storage[] storage = new Storage[0];
+	private NewtType[] declared = new NewtType[0];
+
+	public Compiler(Interpreter interpreter, Map<Function, Chunk> functions) {
+		this.interpreter = interpreter;
+		this.functions = functions;
+	}
+
+	/**
+	 * Compiles a list of top-level statements.
+	 *
+	 * @param statements the statements to compile
+	 * @return the compiled script
+	 */
+	public Chunk compile(List<Stmt> statements) {
+		chunk = new Chunk("script");
+		beginFrame(statements, new ArrayList<>());
+
+		for (Stmt statement : statements) {
+			compile(statement);
+		}
+
+		emit(NULL, 1);
+		emit(RETURN, -1);
+		chunk.finish();
+
+		return chunk;
+	}
+
+	/**
+	 * Compiles a function body into a chunk of its own.
+	 *
+	 * @param function the function to compile
+	 * @param method   true if the function is a method, which receives its
+	 *                 instance in the first slot
+	 */
+	private void compileFunction(Function function, boolean method) {
+		Chunk enclosingChunk = chunk;
+		int enclosingScopeDepth = scopeDepth;
+		int enclosingTemporaries = temporaries;
+		int enclosingStackDepth = stackDepth;
+		List<Target> enclosingTargets = targets;
+		List<Scope> enclosingFrame = frame;
+		BitSet enclosingCaptured = captured;
+		Storage[] enclosingStorage = storage;
+		NewtType[] enclosingDeclared = declared;
+
+		chunk = new Chunk(function.name.lexeme);
+		scopeDepth = 0;
+		temporaries = 0;
+		stackDepth = 0;
+		targets = new ArrayList<>();
+
+		List<Scope> scopes = new ArrayList<>();
+		scopes.add(new Scope(0, function.locals));
+
+		if (beginFrame(function.body.statements, scopes)) {
+			defineParameters(function, method);
+		}
+
+		/* the body shares the scope of the parameters, so it is not compiled as a block */
+		for (Stmt statement : function.body.statements) {
+			compile(statement);
+		}
+
+		emit(NULL, 1);
+		emit(RETURN, -1);
+		chunk.finish();
+
+		functions.put(function, chunk);
+
+		chunk = enclosingChunk;
+		scopeDepth = enclosingScopeDepth;
+		temporaries = enclosingTemporaries;
+		stackDepth = enclosingStackDepth;
+		targets = enclosingTargets;
+		frame = enclosingFrame;
+		captured = enclosingCaptured;
+		storage = enclosingStorage;
+		declared = enclosingDeclared;
+	}
+
+	/**
+	 * Decides whether the chunk being written keeps its locals in its frame, and
+	 * lays the frame out if it does.
+	 *
+	 * @param statements the body of the chunk
+	 * @param scopes     the scopes open at the start of the body
+	 * @return true if the locals are kept in the frame
+	 */
+	private boolean beginFrame(List<Stmt> statements, List<Scope> scopes) {
+		captured = new BitSet();
+		int size = layout(statements, scopes, captured);
+
+		if (size < 0 || size > 0xff) {
+			frame = null;
+			return false;
+		}
+
+		frame = scopes;
+		chunk.frameSize = size;
+		storage = new Storage[size];
+		declared = new NewtType[size];
+		return true;
+	}
+
+	/**
+	 * Records how the receiver and parameters of a function are stored. A call
+	 * places them in the first slots of the frame; those a closure captures are
+	 * given variables of their own by the VM.
+	 */
+	private void defineParameters(Function function, boolean method) {
+		List<Integer> cells = new ArrayList<>();
+		int first = method ? 1 : 0;
+
+		for (int index = 0; index < first + function.parameters.size(); index++) {
+			storage[index] = captured.get(index) ? Storage.CELL : Storage.VALUE;
+			declared[index] = index < first ? NewtType.VAR : NewtType.named(function.types.get(index - first).lexeme);
+
+			if (captured.get(index)) {
+				cells.add(index);
+			}
+		}
+
+		chunk.parameterCells = cells.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Finds the size of the frame needed by a list of statements, given the
+	 * scopes open around them. The statements are walked with the same scopes
+	 * as the Resolver, and the locals which a function declared among them
+	 * captures are marked.
+	 *
+	 * @param statements the statements
+	 * @param scopes     the open scopes, which are restored before returning
+	 * @param captured   the frame indices of captured locals, added to
+	 * @return the size of the frame, or -1 if the statements can only run with
+	 *         environments
+	 */
+	private static int layout(List<Stmt> statements, List<Scope> scopes, BitSet captured) {
+		int size = scopes.isEmpty() ? 0 : scopes.get(scopes.size() - 1).end();
+
+		for (Stmt statement : statements) {
+			int needed = layout(statement, scopes, captured);
+
+			if (needed < 0) {
+				return -1;
+			}
+
+			size = Math.max(size, needed);
+		}
+
+		return size;
+	}
+
+	private static int layout(Stmt stmt, List<Scope> scopes, BitSet captured) {
+		if (stmt instanceof Block) {
+			Block block = (Block) stmt;
+			return block.scoped ? layoutScope(block.locals, block.statements, scopes, captured)
+					: layout(block.statements, scopes, captured);
+		}
+
+		if (stmt instanceof For) {
+			For loop = (For) stmt;
+			List<Stmt> header = new ArrayList<>();
+
+			if (loop.declaration != null) {
+				header.add(loop.declaration);
+			}
+
+			header.add(loop.body);
+			return layoutScope(loop.locals, header, scopes, captured);
+		}
+
+		if (stmt instanceof While) {
+			return layout(((While) stmt).body, scopes, captured);
+		}
+
+		if (stmt instanceof Do) {
+			return layout(((Do) stmt).body, scopes, captured);
+		}
+
+		if (stmt instanceof If) {
+			If branch = (If) stmt;
+			List<Stmt> bodies = new ArrayList<>();
+			bodies.add(branch.ifBody);
+
+			if (branch.elseBody != null) {
+				bodies.add(branch.elseBody);
+			}
+
+			return layout(bodies, scopes, captured);
+		}
+
+		if (stmt instanceof Switch) {
+			Switch control = (Switch) stmt;
+			List<Stmt> bodies = new ArrayList<>();
+
+			for (Case caseStmt : control.cases) {
+				bodies.add(caseStmt.body);
+			}
+
+			if (control.defaultBody != null) {
+				bodies.add(control.defaultBody);
+			}
+
+			return layout(bodies, scopes, captured);
+		}
+
+		if (stmt instanceof Function) {
+			for (Variable capture : ((Function) stmt).captures) {
+				if (capture.depth < scopes.size()) {
+					captured.set(scopes.get(scopes.size() - 1 - capture.depth).offset + capture.slot);
+				}
+			}
+		}
+
+		/* moulds, undecs and local classes find their variables through environments */
+		if (stmt instanceof Mould || stmt instanceof Undec || stmt instanceof Class && ((Class) stmt).slot >= 0) {
+			return -1;
+		}
+
+		return scopes.isEmpty() ? 0 : scopes.get(scopes.size() - 1).end();
+	}
+
+	private static int layoutScope(int locals, List<Stmt> statements, List<Scope> scopes, BitSet captured) {
+		scopes.add(new Scope(scopes.isEmpty() ? 0 : scopes.get(scopes.size() - 1).end(), locals));
+		int size = layout(statements, scopes, captured);
+		scopes.remove(scopes.size() - 1);
+		return size;
+	}
+
+	private void compile(Stmt stmt) {
+		if (stmt != null) {
+			stmt.accept(this);
+		}
+	}
+
+	private void compile(Expr expr) {
+		expr.accept(this);
+	}
+
+	/**
+	 * Compiles an expression the TypeChecker proved to be an int, leaving the
+	 * value unboxed. Any other expression is compiled normally and unboxed.
+	 *
+	 * @param expr the expression to compile
+	 */
+	private void compileInt(Expr expr) {
+		if (expr.staticType != NewtType.INT) {
+			compile(expr);
+			emit(UNBOX_INT, 0);
+		} else if (expr instanceof Literal) {
+			emit(CONSTANT_INT, ((Literal) expr).value, 1);
+		} else if (expr instanceof Variable) {
+			Variable variable = (Variable) expr;
+			emitGetTyped(variable.depth, variable.slot, variable.name, NewtType.INT);
+		} else if (expr instanceof Grouping) {
+			compileInt(((Grouping) expr).expression);
+		} else if (expr instanceof Unary) {
+			compileInt(((Unary) expr).right);
+			emit(NEGATE_INT, 0);
+		} else if (expr instanceof Binary && isArithmetic(((Binary) expr).operator.type)) {
+			Binary binary = (Binary) expr;
+			compileInt(binary.left);
+
+			if (!emitIntConstant(binary.operator, binary.right)) {
+				compileInt(binary.right);
+				emitArithmetic(binary.operator, NewtType.INT);
+			}
+		} else {
+			compile(expr);
+			emit(UNBOX_INT, 0);
+		}
+	}
+
+	/**
+	 * Compiles an expression the TypeChecker proved to be a double, leaving the
+	 * value unboxed. Any other expression is compiled normally and unboxed.
+	 *
+	 * @param expr the expression to compile
+	 */
+	private void compileDouble(Expr expr) {
+		if (expr.staticType != NewtType.DOUBLE) {
+			compile(expr);
+			emit(UNBOX_DOUBLE, 0);
+		} else if (expr instanceof Literal) {
+			emit(CONSTANT_DOUBLE, ((Literal) expr).value, 1);
+		} else if (expr instanceof Variable) {
+			Variable variable = (Variable) expr;
+			emitGetTyped(variable.depth, variable.slot, variable.name, NewtType.DOUBLE);
+		} else if (expr instanceof Grouping) {
+			compileDouble(((Grouping) expr).expression);
+		} else if (expr instanceof Unary) {
+			compileDouble(((Unary) expr).right);
+			emit(NEGATE_DOUBLE, 0);
+		} else if (expr instanceof Binary && (isArithmetic(((Binary) expr).operator.type)
+				|| ((Binary) expr).operator.type == TokenType.CARAT)) {
+			Binary binary = (Binary) expr;
+			compileNumber(binary.left);
+			compileNumber(binary.right);
+			emitArithmetic(binary.operator, NewtType.DOUBLE);
+		} else {
+			compile(expr);
+			emit(UNBOX_DOUBLE, 0);
+		}
+	}
+
+	/**
+	 * Compiles an expression the TypeChecker proved to be an int or a double,
+	 * leaving it as an unboxed double.
+	 */
+	private void compileNumber(Expr expr) {
+		if (expr.staticType == NewtType.INT) {
+			compileInt(expr);
+			emit(INT_TO_DOUBLE, 0);
+		} else {
+			compileDouble(expr);
+		}
+	}
+
+	/**
+	 * Compiles an expression the TypeChecker proved to be a boolean, such as the
+	 * condition of a loop. Comparisons between proven numbers are made on
+	 * unboxed operands. Any other expression is compiled normally.
+	 *
+	 * @param expr the expression to compile
+	 */
+	private void compileBoolean(Expr expr) {
+		if (expr.staticType != NewtType.BOOL) {
+			compile(expr);
+		} else if (expr instanceof Variable) {
+			Variable variable = (Variable) expr;
+			emitGetTyped(variable.depth, variable.slot, variable.name, NewtType.BOOL);
+		} else if (expr instanceof Grouping) {
+			compileBoolean(((Grouping) expr).expression);
+		} else if (expr instanceof Unary && ((Unary) expr).right.staticType == NewtType.BOOL) {
+			compileBoolean(((Unary) expr).right);
+			emit(NOT, 0);
+		} else if (isNumberComparison(expr)) {
+			Binary binary = (Binary) expr;
+			emitComparison(binary.operator, compileComparands(binary));
+		} else if (expr instanceof Logical) {
+			compileLogical((Logical) expr, true);
+		} else {
+			compile(expr);
+		}
+	}
+
+	/**
+	 * Compiles the condition of a branch or loop, followed by a jump taken when
+	 * the condition is false. A comparison of proven numbers jumps on its unboxed
+	 * operands without making a boolean.
+	 *
+	 * @param condition the condition
+	 * @return the location of the offset to patch
+	 */
+	private int emitConditionJump(Expr condition) {
+		Expr expr = condition;
+		while (expr instanceof Grouping) {
+			expr = ((Grouping) expr).expression;
+		}
+
+		if (!isNumberComparison(expr)) {
+			compileBoolean(condition);
+			return emitJump(JUMP_IF_FALSE, -1);
+		}
+
+		Binary binary = (Binary) expr;
+		int order = comparisonOrder(binary.operator.type);
+		Integer constant = intLiteral(binary.right);
+
+		if (binary.left.staticType == NewtType.INT && constant != null) {
+			int index = intSlot(binary.left);
+
+			if (index >= 0) {
+				emitIndex(JUMP_UNLESS_GREATER_SLOT_CONSTANT + order, index, 0);
+				chunk.writeShort(makeConstant(constant));
+			} else {
+				compileInt(binary.left);
+				emit(JUMP_UNLESS_GREATER_INT_CONSTANT + order, constant, -1);
+			}
+
+			chunk.writeShort(0xffff);
+			return chunk.count - 2;
+		}
+
+		boolean isInt = compileComparands(binary) == NewtType.INT;
+		return emitJump((isInt ? JUMP_UNLESS_GREATER_INT : JUMP_UNLESS_GREATER_DOUBLE) + order, -2);
+	}
+
+	/**
+	 * Gives the frame index of a variable kept as an unboxed int.
+	 *
+	 * @param expr the expression
+	 * @return the index, or -1 if the expression is not such a variable
+	 */
+	private int intSlot(Expr expr) {
+		while (expr instanceof Grouping) {
+			expr = ((Grouping) expr).expression;
+		}
+
+		if (!(expr instanceof Variable)) {
+			return -1;
+		}
+
+		int index = frameIndex(((Variable) expr).depth, ((Variable) expr).slot);
+		return index >= 0 && storage[index] == Storage.INT ? index : -1;
+	}
+
+	/**
+	 * Gives the position of a comparison within each group of fused comparison
+	 * jumps.
+	 */
+	private static int comparisonOrder(TokenType operator) {
+		switch (operator) {
+		case GREATER:
+			return 0;
+		case GREATER_EQUAL:
+			return 1;
+		case LESS:
+			return 2;
+		case LESS_EQUAL:
+			return 3;
+		case EQUAL_EQUAL:
+			return 4;
+		default:
+			return 5;
+		}
+	}
+
+	private static boolean isNumberComparison(Expr expr) {
+		if (expr.staticType != NewtType.BOOL || !(expr instanceof Binary)) {
+			return false;
+		}
+
+		Binary binary = (Binary) expr;
+		return isComparison(binary.operator.type) && isNumber(binary.left.staticType)
+				&& isNumber(binary.right.staticType);
+	}
+
+	/**
+	 * Compiles the unboxed operands of a comparison of proven numbers, as ints if
+	 * both are ints and as doubles otherwise.
+	 *
+	 * @param binary the comparison
+	 * @return INT or DOUBLE, the type the operands were compiled as
+	 */
+	private NewtType compileComparands(Binary binary) {
+		if (binary.left.staticType == NewtType.INT && binary.right.staticType == NewtType.INT) {
+			compileInt(binary.left);
+			compileInt(binary.right);
+			return NewtType.INT;
+		}
+
+		compileNumber(binary.left);
+		compileNumber(binary.right);
+		return NewtType.DOUBLE;
+	}
+
+	/**
+	 * Writes the instruction for an arithmetic operator on two unboxed operands.
+	 *
+	 * @param operator the operator
+	 * @param type     INT or DOUBLE, the type of both operands
+	 */
+	private void emitArithmetic(Token operator, NewtType type) {
+		boolean isInt = type == NewtType.INT;
+
+		switch (operator.type) {
+		case PLUS:
+			emit(isInt ? ADD_INT : ADD_DOUBLE, -1);
+			break;
+		case MINUS:
+			emit(isInt ? SUBTRACT_INT : SUBTRACT_DOUBLE, -1);
+			break;
+		case STAR:
+			emit(isInt ? MULTIPLY_INT : MULTIPLY_DOUBLE, -1);
+			break;
+		case SLASH:
+			emit(isInt ? DIVIDE_INT : DIVIDE_DOUBLE, operator, -1);
+			break;
+		case PERCENT:
+			emit(isInt ? MODULO_INT : MODULO_DOUBLE, operator, -1);
+			break;
+		default:
+			emit(POWER_DOUBLE, -1);
+		}
+	}
+
+	/**
+	 * Writes the instruction for an arithmetic operator whose right operand is an
+	 * int literal, taking the literal as its operand. A zero divisor is left to
+	 * the general instructions, which report it.
+	 *
+	 * @param operator the operator
+	 * @param right    the right operand
+	 * @return true if an instruction was written
+	 */
+	private boolean emitIntConstant(Token operator, Expr right) {
+		Integer value = intLiteral(right);
+
+		if (value == null) {
+			return false;
+		}
+
+		switch (operator.type) {
+		case PLUS:
+			emit(ADD_INT_CONSTANT, value, 0);
+			return true;
+		case MINUS:
+			emit(SUBTRACT_INT_CONSTANT, value, 0);
+			return true;
+		case STAR:
+			emit(MULTIPLY_INT_CONSTANT, value, 0);
+			return true;
+		case SLASH:
+		case PERCENT:
+			if (value == 0) {
+				return false;
+			}
+
+			emit(operator.type == TokenType.SLASH ? DIVIDE_INT_CONSTANT : MODULO_INT_CONSTANT, value, 0);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Gives the value of an int literal, which may be in parentheses.
+	 *
+	 * @param expr the expression
+	 * @return the value, or null if the expression is not an int literal
+	 */
+	private static Integer intLiteral(Expr expr) {
+		while (expr instanceof Grouping) {
+			expr = ((Grouping) expr).expression;
+		}
+
+		if (expr instanceof Literal && expr.staticType == NewtType.INT) {
+			return (Integer) ((Literal) expr).value;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Tells whether an expression is made only of literals, variables and
+	 * operators, so it cannot change a variable while it is worked out.
+	 */
+	private static boolean isSimple(Expr expr) {
+		if (expr instanceof Literal || expr instanceof Variable) {
+			return true;
+		} else if (expr instanceof Grouping) {
+			return isSimple(((Grouping) expr).expression);
+		} else if (expr instanceof Unary) {
+			return isSimple(((Unary) expr).right);
+		} else if (expr instanceof Binary) {
+			return isSimple(((Binary) expr).left) && isSimple(((Binary) expr).right);
+		}
+
+		return false;
+	}
+
+	/**
+	 * Writes the instruction for a comparison of two unboxed operands.
+	 *
+	 * @param operator the operator
+	 * @param type     INT or DOUBLE, the type of both operands
+	 */
+	private void emitComparison(Token operator, NewtType type) {
+		boolean isInt = type == NewtType.INT;
+
+		switch (operator.type) {
+		case GREATER:
+			emit(isInt ? GREATER_INT : GREATER_DOUBLE, -1);
+			break;
+		case GREATER_EQUAL:
+			emit(isInt ? GREATER_EQUAL_INT : GREATER_EQUAL_DOUBLE, -1);
+			break;
+		case LESS:
+			emit(isInt ? LESS_INT : LESS_DOUBLE, -1);
+			break;
+		case LESS_EQUAL:
+			emit(isInt ? LESS_EQUAL_INT : LESS_EQUAL_DOUBLE, -1);
+			break;
+		case EQUAL_EQUAL:
+			emit(isInt ? EQUAL_INT : EQUAL_DOUBLE, -1);
+			break;
+		default:
+			emit(isInt ? NOT_EQUAL_INT : NOT_EQUAL_DOUBLE, -1);
+		}
+	}
+
+	private static boolean isArithmetic(TokenType operator) {
+		switch (operator) {
+		case PLUS:
+		case MINUS:
+		case STAR:
+		case SLASH:
+		case PERCENT:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static boolean isComparison(TokenType operator) {
+		switch (operator) {
+		case GREATER:
+		case GREATER_EQUAL:
+		case LESS:
+		case LESS_EQUAL:
+		case EQUAL_EQUAL:
+		case BANG_EQUAL:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static boolean isNumber(NewtType type) {
+		return type == NewtType.INT || type == NewtType.DOUBLE;
+	}
+
+	/**
+	 * Writes an instruction with no operands.
+	 *
+	 * @param op          the instruction
+	 * @param stackEffect the change the instruction makes to the operand stack
+	 */
+	private void emit(int op, int stackEffect) {
+		chunk.write(op);
+		adjustStack(stackEffect);
+	}
+
+	/**
+	 * Writes an instruction with a constant operand.
+	 *
+	 * @param op          the instruction
+	 * @param constant    the constant referred to by the instruction
+	 * @param stackEffect the change the instruction makes to the operand stack
+	 */
+	private void emit(int op, Object constant, int stackEffect) {
+		emit(op, stackEffect);
+		chunk.writeShort(makeConstant(constant));
+	}
+
+	private void adjustStack(int stackEffect) {
+		stackDepth += stackEffect;
+
+		if (stackDepth > chunk.maxStack) {
+			chunk.maxStack = stackDepth;
+		}
+	}
+
+	private int makeConstant(Object value) {
+		int index = chunk.addConstant(value);
+
+		if (index > 0xffff) {
+			Newt.error(0, "Too many constants in '" + chunk.name + "'.");
+		}
+
+		return index;
+	}
+
+	/**
+	 * Writes a forward jump whose offset is filled in later by patchJump.
+	 *
+	 * @param op          the jump instruction
+	 * @param stackEffect the change the instruction makes to the operand stack
+	 * @return the location of the offset to patch
+	 */
+	private int emitJump(int op, int stackEffect) {
+		emit(op, stackEffect);
+		chunk.writeShort(0xffff);
+		return chunk.count - 2;
+	}
+
+	/**
+	 * Points a forward jump at the next instruction to be written.
+	 *
+	 * @param offset the location of the jump offset
+	 */
+	private void patchJump(int offset) {
+		int jump = chunk.count - offset - 2;
+
+		if (jump > 0xffff) {
+			Newt.error(0, "Too much code to jump over in '" + chunk.name + "'.");
+		}
+
+		chunk.code[offset] = (byte) ((jump >> 8) & 0xff);
+		chunk.code[offset + 1] = (byte) (jump & 0xff);
+	}
+
+	/**
+	 * Writes a backward jump to an earlier instruction.
+	 *
+	 * @param start the location of the instruction to jump to
+	 */
+	private void emitLoop(int start) {
+		emit(LOOP, 0);
+
+		int offset = chunk.count - start + 2;
+		if (offset > 0xffff) {
+			Newt.error(0, "Loop body too large in '" + chunk.name + "'.");
+		}
+
+		chunk.writeShort(offset);
+	}
+
+	/**
+	 * Finds the index in the frame of a local, from the distance and slot the
+	 * Resolver gave it.
+	 *
+	 * @return the index, or -1 if the variable is not kept in the frame
+	 */
+	private int frameIndex(int distance, int slot) {
+		if (frame == null || distance < 0 || distance >= frame.size()) {
+			return -1;
+		}
+
+		return frame.get(frame.size() - 1 - distance).offset + slot;
+	}
+
+	/**
+	 * Writes the instruction to read a variable, local or global.
+	 */
+	private void emitGet(int distance, int slot, Token name) {
+		int index = frameIndex(distance, slot);
+
+		if (index < 0) {
+			emitVariable(GET_LOCAL, GET_GLOBAL, distance, slot, name, 1);
+			return;
+		}
+
+		switch (storage[index]) {
+		case INT:
+			emitIndex(GET_INT, index, 1);
+			emit(BOX_INT, 0);
+			break;
+		case DOUBLE:
+			emitIndex(GET_DOUBLE, index, 1);
+			emit(BOX_DOUBLE, 0);
+			break;
+		case CELL:
+			emitIndex(GET_CELL, index, 1);
+			break;
+		default:
+			emitIndex(GET_SLOT, index, 1);
+		}
+	}
+
+	/**
+	 * Writes the instructions to read a local variable for one of the typed
+	 * paths, which report a variable that has not been initialized. An int or a
+	 * double is left unboxed.
+	 *
+	 * @param type the type the TypeChecker found for the variable
+	 */
+	private void emitGetTyped(int distance, int slot, Token name, NewtType type) {
+		int index = frameIndex(distance, slot);
+		Storage kind = index < 0 ? null : storage[index];
+
+		if (kind == Storage.INT) {
+			emitIndex(GET_INT, index, 1);
+		} else if (kind == Storage.DOUBLE) {
+			emitIndex(GET_DOUBLE, index, 1);
+		} else if (kind == Storage.VALUE) {
+			emitIndex(type == NewtType.INT ? GET_SLOT_INT : type == NewtType.DOUBLE ? GET_SLOT_DOUBLE : GET_INITIALIZED,
+					index, 1);
+			chunk.writeShort(makeConstant(name));
+		} else {
+			emitGet(distance, slot, name);
+			emit(CHECK_INITIALIZED, name, 0);
+			unbox(type);
+		}
+	}
+
+	/**
+	 * Writes the instructions to store the value on top of the stack in a
+	 * variable.
+	 *
+	 * @param form   INT or DOUBLE if the value is unboxed, otherwise null
+	 * @param proven true if the TypeChecker proved the value has the type of
+	 *               the variable
+	 */
+	private void emitSet(int distance, int slot, Token name, NewtType form, boolean proven) {
+		int index = frameIndex(distance, slot);
+		Storage kind = index < 0 ? null : storage[index];
+
+		if (kind == Storage.INT && form == NewtType.INT) {
+			emitIndex(SET_INT, index, -1);
+			return;
+		}
+
+		if (kind == Storage.DOUBLE && form == NewtType.DOUBLE) {
+			emitIndex(SET_DOUBLE, index, -1);
+			return;
+		}
+
+		box(form);
+
+		if (index < 0) {
+			emitVariable(SET_LOCAL, SET_GLOBAL, distance, slot, name, -1);
+			return;
+		}
+
+		switch (kind) {
+		case INT:
+			emitIndex(ASSIGN_INT, index, -1);
+			chunk.writeShort(makeConstant(name));
+			break;
+		case DOUBLE:
+			emitIndex(ASSIGN_DOUBLE, index, -1);
+			chunk.writeShort(makeConstant(name));
+			break;
+		case CELL:
+			emitIndex(SET_CELL, index, -1);
+			chunk.writeShort(makeConstant(name));
+			break;
+		default:
+			if (proven) {
+				emitIndex(STORE_SLOT, index, -1);
+			} else {
+				emitIndex(SET_SLOT, index, -1);
+				chunk.writeShort(makeConstant(name));
+				chunk.writeShort(makeConstant(declared[index]));
+			}
+		}
+	}
+
+	/**
+	 * Writes the instruction to read or write a variable kept in an environment.
+	 * In a chunk which keeps its locals in its frame, that is the closure.
+	 */
+	private void emitVariable(int local, int global, int distance, int slot, Token name, int stackEffect) {
+		if (distance < 0) {
+			emit(global, name, stackEffect);
+		} else {
+			emitLocal(local, frame == null ? distance : distance - frame.size(), slot, name, stackEffect);
+		}
+	}
+
+	private void emitLocal(int op, int distance, int slot, Token name, int stackEffect) {
+		if (distance > 0xff) {
+			Newt.error(name, "Too many nested scopes.");
+		}
+
+		emit(op, stackEffect);
+		chunk.write(distance);
+		writeSlot(slot, name);
+		chunk.writeShort(makeConstant(name));
+	}
+
+	/**
+	 * Writes an instruction on the local at an index of the frame.
+	 */
+	private void emitIndex(int op, int index, int stackEffect) {
+		emit(op, stackEffect);
+		chunk.write(index);
+	}
+
+	/**
+	 * Writes the instructions to define a variable with the value on top of the
+	 * stack, in its slot if the Resolver gave it one. A local int or double which
+	 * no closure captures is kept unboxed.
+	 *
+	 * @param form   INT or DOUBLE if the value is unboxed, otherwise null
+	 * @param proven true if the TypeChecker proved the value has the declared
+	 *               type
+	 */
+	private void emitDefine(int slot, Token name, NewtType type, NewtType form, boolean proven) {
+		int index = frameIndex(0, slot);
+
+		if (index < 0) {
+			box(form);
+
+			if (slot < 0) {
+				emit(DEFINE, name, -1);
+			} else {
+				emit(DEFINE_LOCAL, -1);
+				writeSlot(slot, name);
+				chunk.writeShort(makeConstant(name));
+			}
+
+			chunk.writeShort(makeConstant(type));
+			return;
+		}
+
+		declared[index] = type;
+
+		if (captured.get(index)) {
+			storage[index] = Storage.CELL;
+			box(form);
+			emitIndex(DEFINE_CELL, index, -1);
+		} else if (form == NewtType.INT) {
+			storage[index] = Storage.INT;
+			emitIndex(SET_INT, index, -1);
+			return;
+		} else if (form == NewtType.DOUBLE) {
+			storage[index] = Storage.DOUBLE;
+			emitIndex(SET_DOUBLE, index, -1);
+			return;
+		} else if (proven) {
+			storage[index] = Storage.VALUE;
+			emitIndex(STORE_SLOT, index, -1);
+			return;
+		} else {
+			storage[index] = Storage.VALUE;
+			emitIndex(DEFINE_SLOT, index, -1);
+		}
+
+		chunk.writeShort(makeConstant(name));
+		chunk.writeShort(makeConstant(type));
+	}
+
+	/**
+	 * Writes the instruction to box an unboxed int or double.
+	 *
+	 * @param form INT or DOUBLE if the value is unboxed, otherwise null
+	 */
+	private void box(NewtType form) {
+		if (form == NewtType.INT) {
+			emit(BOX_INT, 0);
+		} else if (form == NewtType.DOUBLE) {
+			emit(BOX_DOUBLE, 0);
+		}
+	}
+
+	/**
+	 * Writes the instruction to unbox a value the TypeChecker proved to be an int
+	 * or a double.
+	 */
+	private void unbox(NewtType type) {
+		if (type == NewtType.INT) {
+			emit(UNBOX_INT, 0);
+		} else if (type == NewtType.DOUBLE) {
+			emit(UNBOX_DOUBLE, 0);
+		}
+	}
+
+	private void writeSlot(int slot, Token name) {
+		if (slot > 0xff) {
+			Newt.error(name, "Too many local variables in one scope.");
+		}
+
+		chunk.write(slot);
+	}
+
+	/**
+	 * Writes the instruction to open a scope with room for the given number of
+	 * variables.
+	 */
+	private void emitPushScope(int size) {
+		if (size > 0xff) {
+			Newt.error(0, "Too many local variables in one scope.");
+		}
+
+		emit(PUSH_SCOPE, 0);
+		chunk.write(size);
+	}
+
+	/**
+	 * Compiles a block in a scope of its own, unless it declares nothing.
+	 */
+	private void compileBlock(Block block) {
+		if (!block.scoped) {
+			for (Stmt statement : block.statements) {
+				compile(statement);
+			}
+
+			return;
+		}
+
+		beginScope(block.locals);
+
+		for (Stmt statement : block.statements) {
+			compile(statement);
+		}
+
+		endScope();
+	}
+
+	/**
+	 * Opens a scope, which takes the next slots of the frame or pushes a new
+	 * environment.
+	 */
+	private void beginScope(int size) {
+		if (frame != null) {
+			frame.add(new Scope(frame.isEmpty() ? 0 : frame.get(frame.size() - 1).end(), size));
+			return;
+		}
+
+		emitPushScope(size);
+		scopeDepth++;
+	}
+
+	private void endScope() {
+		if (frame != null) {
+			frame.remove(frame.size() - 1);
+			return;
+		}
+
+		scopeDepth--;
+		emit(POP_SCOPE, 0);
+	}
+
+	/**
+	 * Removes the scopes and temporary values belonging to statements nested
+	 * inside a loop or switch, before jumping out of it.
+	 */
+	private void unwindTo(Target target) {
+		for (int i = temporaries; i > target.temporaries; i--) {
+			chunk.write(POP);
+		}
+
+		for (int i = scopeDepth; i > target.scopeDepth; i--) {
+			chunk.write(POP_SCOPE);
+		}
+	}
+
+	/**
+	 * Finds the innermost target of a break (any) or continue (loops only).
+	 */
+	private Target findTarget(Token keyword, boolean loopOnly) {
+		for (int i = targets.size() - 1; i >= 0; i--) {
+			if (!loopOnly || targets.get(i).isLoop) {
+				return targets.get(i);
+			}
+		}
+
+		Newt.error(keyword, "Cannot " + keyword.lexeme + " here.");
+		return null;
+	}
+
+	private Target beginTarget(boolean isLoop) {
+		Target target = new Target(isLoop, scopeDepth, temporaries);
+		targets.add(target);
+		return target;
+	}
+
+	private void endTarget() {
+		targets.remove(targets.size() - 1);
+	}
+
+	@Override
+	public Void visitKeywordStmt(Keyword stmt) {
+		switch (stmt.word.type) {
+		case BREAK: {
+			Target target = findTarget(stmt.word, false);
+			if (target != null) {
+				unwindTo(target);
+				target.breaks.add(emitJump(JUMP, 0));
+			}
+			break;
+		}
+		case CONTINUE: {
+			Target target = findTarget(stmt.word, true);
+			if (target != null) {
+				unwindTo(target);
+				target.continues.add(emitJump(JUMP, 0));
+			}
+			break;
+		}
+		case EXIT:
+			emit(EXIT, 0);
+			break;
+		default:
+			break;
+		}
+
+		return null;
+	}
+
+	@Override
+	public Void visitReturnStmt(Return stmt) {
+		if (stmt.value == null) {
+			emit(NULL, 1);
+		} else {
+			compile(stmt.value);
+		}
+
+		emit(RETURN, -1);
+		return null;
+	}
+
+	@Override
+	public Void visitExpressionStmt(Expression stmt) {
+		compileEffect(stmt.expression);
+		return null;
+	}
+
+	/**
+	 * Compiles an expression whose value is not used. Assignments and
+	 * increments leave nothing on the stack.
+	 */
+	private void compileEffect(Expr expr) {
+		if (expr instanceof Assign) {
+			assign((Assign) expr);
+		} else if (expr instanceof CompoundAssign) {
+			compoundAssign((CompoundAssign) expr);
+		} else if (expr instanceof Increment) {
+			increment((Increment) expr);
+		} else {
+			compile(expr);
+			emit(POP, -1);
+		}
+	}
+
+	@Override
+	public Void visitExPrintStmt(ExPrint stmt) {
+		emit(CONSTANT, new ASTPrinter().print(stmt.expression) + "\n", 1);
+		emit(PRINT, -1);
+		return null;
+	}
+
+	@Override
+	public Void visitPrintStmt(Print stmt) {
+		compile(stmt.expression);
+		emit(PRINT, -1);
+		return null;
+	}
+
+	@Override
+	public Void visitDeclareStmt(Declare stmt) {
+		NewtType type = stmt.declared != null ? stmt.declared : NewtType.named(stmt.type.lexeme);
+		NewtType form = null;
+
+		/* a local number proven to have the declared type is evaluated unboxed */
+		if (stmt.proven && stmt.slot >= 0 && type == NewtType.INT) {
+			compileInt(stmt.value);
+			form = type;
+		} else if (stmt.proven && stmt.slot >= 0 && type == NewtType.DOUBLE) {
+			compileDouble(stmt.value);
+			form = type;
+		} else if (stmt.value == null) {
+			emit(NULL, 1);
+		} else {
+			compile(stmt.value);
+		}
+
+		emitDefine(stmt.slot, stmt.name, type, form, stmt.proven);
+		return null;
+	}
+
+	@Override
+	public Void visitBlockStmt(Block stmt) {
+		compileBlock(stmt);
+		return null;
+	}
+
+	@Override
+	public Void visitWhileStmt(While stmt) {
+		int start = chunk.count;
+
+		int exit = emitConditionJump(stmt.condition);
+
+		Target target = beginTarget(true);
+		compileBlock(stmt.body);
+		endTarget();
+
+		for (int jump : target.continues) {
+			patchJump(jump);
+		}
+
+		emitLoop(start);
+		patchJump(exit);
+
+		for (int jump : target.breaks) {
+			patchJump(jump);
+		}
+
+		return null;
+	}
+
+	@Override
+	public Void visitDoStmt(Do stmt) {
+		int start = chunk.count;
+
+		Target target = beginTarget(true);
+		compileBlock(stmt.body);
+		endTarget();
+
+		/* a continue skips to the condition */
+		for (int jump : target.continues) {
+			patchJump(jump);
+		}
+
+		int exit = emitConditionJump(stmt.condition);
+		emitLoop(start);
+		patchJump(exit);
+
+		for (int jump : target.breaks) {
+			patchJump(jump);
+		}
+
+		return null;
+	}
+
+	@Override
+	public Void visitForStmt(For stmt) {
+
+		/* the header has a scope of its own, wrapping the body */
+		beginScope(stmt.locals);
+
+		compile(stmt.declaration);
+
+		int start = chunk.count;
+		int exit = emitConditionJump(stmt.condition);
+
+		Target target = beginTarget(true);
+		compileBlock(stmt.body);
+		endTarget();
+
+		/* a continue skips to the incrementor */
+		for (int jump : target.continues) {
+			patchJump(jump);
+		}
+
+		if (stmt.incrementor != null) {
+			compileEffect(stmt.incrementor);
+		}
+
+		emitLoop(start);
+		patchJump(exit);
+
+		for (int jump : target.breaks) {
+			patchJump(jump);
+		}
+
+		endScope();
+		return null;
+	}
+
+	@Override
+	public Void visitSwitchStmt(Switch stmt) {
+
+		/* a flag recording whether any case matched, which decides if the default runs */
+		emit(FALSE, 1);
+		temporaries++;
+
+		Target target = beginTarget(false);
+
+		if (stmt.dispatch != null) {
+			compileDispatch(stmt);
+		} else {
+			for (Case caseStmt : stmt.cases) {
+				List<Integer> failures = new ArrayList<>();
+
+				/* the controls are compared against the tests afresh for every case */
+				for (Expr comparison : caseStmt.comparisons) {
+					compile(comparison);
+					failures.add(emitJump(JUMP_IF_FALSE, -1));
+				}
+
+				emit(POP, -1);
+				emit(TRUE, 1);
+				compile(caseStmt);
+
+				for (int jump : failures) {
+					patchJump(jump);
+				}
+			}
+		}
+
+		endTarget();
+		temporaries--;
+
+		int noMatch = emitJump(JUMP_IF_FALSE, -1);
+		int end = emitJump(JUMP, 0);
+
+		/* a break leaves the flag on the stack */
+		for (int jump : target.breaks) {
+			patchJump(jump);
+		}
+
+		chunk.write(POP);
+		int breakEnd = emitJump(JUMP, 0);
+
+		patchJump(noMatch);
+		if (stmt.defaultBody != null) {
+			compileBlock(stmt.defaultBody);
+		}
+
+		patchJump(end);
+		patchJump(breakEnd);
+		return null;
+	}
+
+	/**
+	 * Compiles the cases of a switch which has a table. Each case is reached by
+	 * a DISPATCH, which jumps to the next matching case or past the last one,
+	 * and every case ends with a DISPATCH from the case after it. The matched
+	 * flag is left on the stack as it is by compared cases.
+	 *
+	 * @param stmt the switch statement
+	 */
+	private void compileDispatch(Switch stmt) {
+		int[] locations = new int[stmt.cases.size() + 1];
+		emitDispatch(stmt, locations, 0);
+
+		for (int i = 0; i < stmt.cases.size(); i++) {
+			locations[i] = chunk.count;
+			emit(POP, -1);
+			emit(TRUE, 1);
+			compile(stmt.cases.get(i));
+			emitDispatch(stmt, locations, i + 1);
+		}
+
+		locations[stmt.cases.size()] = chunk.count;
+	}
+
+	private void emitDispatch(Switch stmt, int[] locations, int from) {
+		for (Expr control : stmt.controls) {
+			compile(control);
+		}
+
+		emit(DISPATCH, -stmt.controls.size());
+		chunk.write(stmt.controls.size());
+		chunk.writeShort(makeConstant(stmt.dispatch));
+		chunk.writeShort(makeConstant(locations));
+		chunk.writeShort(from);
+	}
+
+	@Override
+	public Void visitCaseStmt(Case stmt) {
+		compileBlock(stmt.body);
+		return null;
+	}
+
+	@Override
+	public Void visitClassStmt(Class stmt) {
+		for (Function method : stmt.methods) {
+			compileFunction(method, true);
+		}
+
+		emit(CLASS, stmt, 0);
+		return null;
+	}
+
+	@Override
+	public Void visitIfStmt(If stmt) {
+		int otherwise = emitConditionJump(stmt.condition);
+
+		compileBlock(stmt.ifBody);
+
+		if (stmt.elseBody == null) {
+			patchJump(otherwise);
+			return null;
+		}
+
+		int end = emitJump(JUMP, 0);
+		patchJump(otherwise);
+		compileBlock(stmt.elseBody);
+		patchJump(end);
+
+		return null;
+	}
+
+	@Override
+	public Void visitUndecStmt(Undec stmt) {
+		for (Variable variable : stmt.variables) {
+
+			/* only variables of the current scope can be removed */
+			if (variable.depth == 0) {
+				emit(UNDEFINE_LOCAL, 0);
+				writeSlot(variable.slot, variable.name);
+			} else if (variable.depth < 0) {
+				emit(UNDEFINE, variable.name, 0);
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public Void visitStructStmt(Struct stmt) {
+		// struct statements are only used by the parser
+		return null;
+	}
+
+	@Override
+	public Void visitSculptureStmt(Sculpture stmt) {
+		// sculpture statements are only used by the parser
+		return null;
+	}
+
+	@Override
+	public Void visitMouldStmt(Mould stmt) {
+		/* the placeholders never change, so the mould can be filled before it is run */
+		interpreter.fillMould(stmt.body, stmt.placeholders);
+		compile(stmt.body);
+		return null;
+	}
+
+	@Override
+	public Void visitFunctionStmt(Function stmt) {
+		compileFunction(stmt, false);
+
+		/* a local function is declared before it is created, so that it can capture itself */
+		if (stmt.slot >= 0 && (frame == null || captured.get(frameIndex(0, stmt.slot)))) {
+			emit(NULL, 1);
+			emitDefine(stmt.slot, stmt.name, NewtType.FUNCTION, null, false);
+			emitFunction(stmt);
+			emitSet(0, stmt.slot, stmt.name, null, false);
+			return null;
+		}
+
+		emitFunction(stmt);
+		emitDefine(stmt.slot, stmt.name, NewtType.FUNCTION, null, true);
+		return null;
+	}
+
+	/**
+	 * Writes the instruction to create a function. In a chunk which keeps its
+	 * locals in its frame, the closure is made of the variables the function
+	 * captures, found in the frame or in the closure of the chunk.
+	 */
+	private void emitFunction(Function stmt) {
+		if (frame == null) {
+			emit(FUNCTION, stmt, 1);
+			return;
+		}
+
+		int[] sources = new int[stmt.captures.size()];
+
+		for (int i = 0; i < sources.length; i++) {
+			Variable capture = stmt.captures.get(i);
+			int index = frameIndex(capture.depth, capture.slot);
+
+			/* a variable from the closure is stored as its negated slot */
+			sources[i] = index >= 0 ? index : -1 - capture.slot;
+		}
+
+		emit(CLOSURE, stmt, 1);
+		chunk.writeShort(makeConstant(sources));
+	}
+
+	@Override
+	public Void visitConditionalExpr(Conditional expr) {
+		int otherwise = emitConditionJump(expr.condition);
+
+		compile(expr.first);
+		int end = emitJump(JUMP, 0);
+
+		adjustStack(-1);
+		patchJump(otherwise);
+		compile(expr.second);
+		patchJump(end);
+
+		return null;
+	}
+
+	@Override
+	public Void visitBinaryExpr(Binary expr) {
+
+		/* operands proven to suit the operator are not boxed */
+		if (expr.proven && expr.staticType == NewtType.INT) {
+			compileInt(expr);
+			emit(BOX_INT, 0);
+			return null;
+		}
+
+		if (expr.proven && expr.staticType == NewtType.DOUBLE) {
+			compileDouble(expr);
+			emit(BOX_DOUBLE, 0);
+			return null;
+		}
+
+		if (expr.proven && isNumber(expr.left.staticType) && isNumber(expr.right.staticType)) {
+			compileBoolean(expr);
+			return null;
+		}
+
+		compile(expr.left);
+		compile(expr.right);
+
+		switch (expr.operator.type) {
+		case EQUAL_EQUAL:
+			emit(EQUAL, -1);
+			break;
+		case BANG_EQUAL:
+			emit(NOT_EQUAL, -1);
+			break;
+		case PLUS:
+			emit(ADD, expr.operator, -1);
+			break;
+		case MINUS:
+			emit(SUBTRACT, expr.operator, -1);
+			break;
+		case STAR:
+			emit(MULTIPLY, expr.operator, -1);
+			break;
+		case SLASH:
+			emit(DIVIDE, expr.operator, -1);
+			break;
+		case PERCENT:
+			emit(MODULO, expr.operator, -1);
+			break;
+		case CARAT:
+			emit(POWER, expr.operator, -1);
+			break;
+		case GREATER:
+			emit(GREATER, expr.operator, -1);
+			break;
+		case GREATER_EQUAL:
+			emit(GREATER_EQUAL, expr.operator, -1);
+			break;
+		case LESS:
+			emit(LESS, expr.operator, -1);
+			break;
+		case LESS_EQUAL:
+			emit(LESS_EQUAL, expr.operator, -1);
+			break;
+		default:
+			emit(BINARY, expr.operator, -1);
+		}
+
+		return null;
+	}
+
+	@Override
+	public Void visitLogicalExpr(Logical expr) {
+		compileLogical(expr, false);
+		return null;
+	}
+
+	/**
+	 * Compiles a logical operator, which only evaluates its right operand if it
+	 * is needed.
+	 *
+	 * @param expr  the logical expression
+	 * @param typed true if the operands are evaluated as proven booleans
+	 */
+	private void compileLogical(Logical expr, boolean typed) {
+		compileOperand(expr.left, typed);
+		int otherwise = emitJump(JUMP_IF_FALSE, -1);
+
+		/* the value when the left operand is true */
+		switch (expr.operator.type) {
+		case AND:
+		case ARROW:
+			compileOperand(expr.right, typed);
+			break;
+		case OR:
+			emit(TRUE, 1);
+			break;
+		case NOR:
+			emit(FALSE, 1);
+			break;
+		case NAND:
+			compileOperand(expr.right, typed);
+			emit(NOT, 0);
+			break;
+		default:
+			emit(NULL, 1);
+		}
+
+		int end = emitJump(JUMP, 0);
+		adjustStack(-1);
+		patchJump(otherwise);
+
+		/* the value when the left operand is false */
+		switch (expr.operator.type) {
+		case AND:
+			emit(FALSE, 1);
+			break;
+		case ARROW:
+			emit(TRUE, 1);
+			break;
+		case OR:
+		case NAND:
+			compileOperand(expr.right, typed);
+			break;
+		case NOR:
+			compileOperand(expr.right, typed);
+			emit(NOT, 0);
+			break;
+		default:
+			emit(NULL, 1);
+		}
+
+		patchJump(end);
+	}
+
+	private void compileOperand(Expr operand, boolean typed) {
+		if (typed) {
+			compileBoolean(operand);
+		} else {
+			compile(operand);
+		}
+	}
+
+	@Override
+	public Void visitGroupingExpr(Grouping expr) {
+		compile(expr.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitLiteralExpr(Literal expr) {
+		if (expr.value == null) {
+			emit(NULL, 1);
+		} else if (expr.value.equals(true)) {
+			emit(TRUE, 1);
+		} else if (expr.value.equals(false)) {
+			emit(FALSE, 1);
+		} else {
+			emit(CONSTANT, expr.value, 1);
+		}
+
+		return null;
+	}
+
+	@Override
+	public Void visitGetExpr(Get expr) {
+		compile(expr.object);
+		emit(GET_PROPERTY, expr.name, 0);
+		chunk.writeShort(makeConstant(expr.cache));
+		return null;
+	}
+
+	@Override
+	public Void visitSetExpr(Set expr) {
+		compile(expr.object);
+		compile(expr.value);
+		emit(SET_PROPERTY, expr.name, -1);
+		chunk.writeShort(makeConstant(expr.cache));
+		return null;
+	}
+
+	@Override
+	public Void visitThisExpr(This expr) {
+		emitGet(expr.depth, expr.slot, expr.keyword);
+		return null;
+	}
+
+	@Override
+	public Void visitUnaryExpr(Unary expr) {
+
+		/* the negation of a proven number is not boxed */
+		if (expr.staticType == NewtType.INT) {
+			compileInt(expr);
+			emit(BOX_INT, 0);
+			return null;
+		}
+
+		if (expr.staticType == NewtType.DOUBLE) {
+			compileDouble(expr);
+			emit(BOX_DOUBLE, 0);
+			return null;
+		}
+
+		compile(expr.right);
+
+		switch (expr.operator.type) {
+		case BANG:
+			emit(NOT, 0);
+			break;
+		case MINUS:
+			emit(NEGATE, expr.operator, 0);
+			break;
+		default:
+			/* any other unary operator has no value */
+			emit(POP, -1);
+			emit(NULL, 1);
+		}
+
+		return null;
+	}
+
+	@Override
+	public Void visitVariableExpr(Variable expr) {
+		emitGet(expr.depth, expr.slot, expr.name);
+		return null;
+	}
+
+	@Override
+	public Void visitAssignExpr(Assign expr) {
+		assign(expr);
+
+		/* assignments have no value */
+		emit(NULL, 1);
+		return null;
+	}
+
+	private void assign(Assign expr) {
+
+		/* a local number proven to keep its type needs no boxing */
+		if (expr.proven && expr.declaredType == NewtType.INT) {
+			compileInt(expr.value);
+			emitSet(expr.depth, expr.slot, expr.name, NewtType.INT, true);
+		} else if (expr.proven && expr.declaredType == NewtType.DOUBLE) {
+			compileDouble(expr.value);
+			emitSet(expr.depth, expr.slot, expr.name, NewtType.DOUBLE, true);
+		} else {
+			compile(expr.value);
+			emitSet(expr.depth, expr.slot, expr.name, null, expr.proven);
+		}
+	}
+
+	@Override
+	public Void visitCompoundAssignExpr(CompoundAssign expr) {
+		compoundAssign(expr);
+
+		emit(NULL, 1);
+		return null;
+	}
+
+	private void compoundAssign(CompoundAssign expr) {
+		if (expr.proven) {
+			NewtType type = expr.declaredType;
+			int index = frameIndex(expr.depth, expr.slot);
+			TokenType operator = expr.operator.type;
+
+			/* an unboxed local int is added to in place, once its operand is worked out */
+			if (type == NewtType.INT && index >= 0 && storage[index] == Storage.INT
+					&& (operator == TokenType.PLUS || operator == TokenType.MINUS) && isSimple(expr.value)) {
+				Integer amount = intLiteral(expr.value);
+
+				if (amount != null && operator == TokenType.MINUS) {
+					amount = -amount;
+				}
+
+				if (amount != null && amount >= Byte.MIN_VALUE && amount <= Byte.MAX_VALUE) {
+					emitIndex(INCREMENT_INT, index, 0);
+					chunk.write(amount);
+				} else {
+					compileInt(expr.value);
+					emitIndex(operator == TokenType.PLUS ? ADD_TO_INT : SUBTRACT_FROM_INT, index, -1);
+				}
+
+				return;
+			}
+
+			emitGetTyped(expr.depth, expr.slot, expr.name, type);
+
+			if (type != NewtType.INT) {
+				compileNumber(expr.value);
+				emitArithmetic(expr.operator, type);
+			} else if (!emitIntConstant(expr.operator, expr.value)) {
+				compileInt(expr.value);
+				emitArithmetic(expr.operator, type);
+			}
+
+			emitSet(expr.depth, expr.slot, expr.name, type, true);
+			return;
+		}
+
+		emitGet(expr.depth, expr.slot, expr.name);
+		compile(expr.value);
+
+		switch (expr.operator.type) {
+		case PLUS:
+			emit(ADD, expr.operator, -1);
+			break;
+		case MINUS:
+			emit(SUBTRACT, expr.operator, -1);
+			break;
+		case STAR:
+			emit(MULTIPLY, expr.operator, -1);
+			break;
+		case SLASH:
+			emit(DIVIDE, expr.operator, -1);
+			break;
+		case PERCENT:
+			emit(MODULO, expr.operator, -1);
+			break;
+		case CARAT:
+			emit(POWER, expr.operator, -1);
+			break;
+		default:
+			emit(BINARY, expr.operator, -1);
+		}
+
+		emitSet(expr.depth, expr.slot, expr.name, null, false);
+	}
+
+	@Override
+	public Void visitUnaryAssignExpr(UnaryAssign expr) {
+		// unary assignments are replaced with increments by the Lowerer
+		return null;
+	}
+
+	@Override
+	public Void visitIncrementExpr(Increment expr) {
+		increment(expr);
+
+		emit(NULL, 1);
+		return null;
+	}
+
+	private void increment(Increment expr) {
+		Variable name = expr.name;
+		NewtType type = name.staticType;
+		int index = intSlot(name);
+
+		/* an unboxed local int is changed in place */
+		if (index >= 0) {
+			emitIndex(INCREMENT_INT, index, 0);
+			chunk.write(expr.operator.type == TokenType.MINUS ? -1 : 1);
+			return;
+		}
+
+		if (type == NewtType.INT || type == NewtType.DOUBLE) {
+			emitGetTyped(name.depth, name.slot, name.name, type);
+
+			if (type == NewtType.INT) {
+				emit(CONSTANT_INT, 1, 1);
+				emit(expr.operator.type == TokenType.MINUS ? SUBTRACT_INT : ADD_INT, -1);
+			} else {
+				emit(CONSTANT_DOUBLE, 1.0, 1);
+				emit(expr.operator.type == TokenType.MINUS ? SUBTRACT_DOUBLE : ADD_DOUBLE, -1);
+			}
+
+			emitSet(name.depth, name.slot, name.name, type, true);
+			return;
+		}
+
+		emitGet(name.depth, name.slot, name.name);
+		emit(CONSTANT, 1, 1);
+		emit(expr.operator.type == TokenType.MINUS ? SUBTRACT : ADD, expr.operator, -1);
+		emitSet(name.depth, name.slot, name.name, null, false);
+	}
+
+	@Override
+	public Void visitCaseCompareExpr(CaseCompare expr) {
+		compile(expr.control);
+		compile(expr.test);
+		emit(EQUAL, -1);
+		return null;
+	}
+
+	@Override
+	public Void visitCallExpr(Call expr) {
+		compile(expr.callee);
+
+		for (Expr argument : expr.arguments) {
+			compile(argument);
+		}
+
+		emit(CALL, -expr.arguments.size());
+		chunk.write(expr.arguments.size());
+		chunk.writeShort(makeConstant(expr.parenthesis));
+		return null;
+	}
+
+	@Override
+	public Void visitInvokeExpr(Invoke expr) {
+		compile(expr.object);
+
+		for (Expr argument : expr.arguments) {
+			compile(argument);
+		}
+
+		emit(INVOKE, -expr.arguments.size());
+		chunk.write(expr.arguments.size());
+		chunk.writeShort(makeConstant(expr.name));
+		chunk.writeShort(makeConstant(expr.parenthesis));
+		chunk.writeShort(makeConstant(expr.cache));
+		return null;
+	}
+
+	@Override
+	public Void visitSharpExpr(Sharp expr) {
+		// sharp expressions are only placeholders
+		emit(NULL, 1);
+		return null;
+	}
+}
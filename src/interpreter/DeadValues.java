@@ -0,0 +1,50 @@
+package interpreter;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+
+/**
+ * A pass which removes the instructions whose values are never used and which
+ * have no other effect, such as constants left behind by assignments. A value
+ * is kept if an instruction with an effect uses it, directly or through other
+ * values, so phis which only feed each other around a loop are removed too.
+ *
+ * @author Jared
+ */
+class DeadValues implements PassManager.Pass {
+
+	@Override
+	public String name() {
+		return "dead values";
+	}
+
+	@Override
+	public boolean run(IR.Function function, PassManager manager) {
+		HashSet<IR.Instruction> used = new HashSet<>();
+		ArrayDeque<IR.Instruction> work = new ArrayDeque<>();
+
+		for (IR.Block block : function.blocks) {
+			for (IR.Instruction instruction : block.instructions) {
+				if (!instruction.op.isPure() && used.add(instruction)) {
+					work.add(instruction);
+				}
+			}
+		}
+
+		while (!work.isEmpty()) {
+			for (IR.Instruction operand : work.poll().operands) {
+				if (used.add(operand)) {
+					work.add(operand);
+				}
+			}
+		}
+
+		boolean changed = false;
+
+		for (IR.Block block : function.blocks) {
+			changed |= block.instructions.retainAll(used);
+		}
+
+		return changed;
+	}
+}
@@ -0,0 +1,225 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * The dominator tree of an IR function. A block dominates another if every
+ * path from the entry to the other passes through it, and its immediate
+ * dominator is the closest block which does.
+ *
+ * The tree is found with the iterative algorithm of Cooper, Harvey and
+ * Kennedy, which visits the blocks in reverse postorder until nothing
+ * changes.
+ *
+ * @author Jared
+ */
+class Dominance {
+
+	static final PassManager.Analysis<Dominance> ANALYSIS = (function, manager) -> new Dominance(function);
+
+	/**
+	 * The reachable blocks, each before the blocks it dominates.
+	 */
+	private final ArrayList<IR.Block> order = new ArrayList<>();
+
+	/**
+	 * The position of each reachable block in the order.
+	 */
+	private final HashMap<IR.Block, Integer> positions = new HashMap<>();
+
+	private final HashMap<IR.Block, IR.Block> idoms = new HashMap<>();
+
+	/**
+	 * The dominance frontier of each block: the blocks where its dominance ends,
+	 * which it reaches without dominating.
+	 */
+	private HashMap<IR.Block, Set<IR.Block>> frontiers = null;
+
+	Dominance(IR.Function function) {
+		postorder(function.entry());
+		Collections.reverse(order);
+
+		for (int i = 0; i < order.size(); i++) {
+			positions.put(order.get(i), i);
+		}
+
+		IR.Block entry = function.entry();
+		idoms.put(entry, entry);
+
+		boolean changed = true;
+
+		while (changed) {
+			changed = false;
+
+			for (IR.Block block : order) {
+				if (block == entry) {
+					continue;
+				}
+
+				IR.Block idom = null;
+
+				for (IR.Block predecessor : block.predecessors) {
+					if (idoms.containsKey(predecessor)) {
+						idom = idom == null ? predecessor : intersect(predecessor, idom);
+					}
+				}
+
+				if (idom != idoms.get(block)) {
+					idoms.put(block, idom);
+					changed = true;
+				}
+			}
+		}
+	}
+
+	private void postorder(IR.Block entry) {
+		Stack<IR.Block> stack = new Stack<>();
+		Stack<Integer> next = new Stack<>();
+
+		positions.put(entry, 0);
+		stack.push(entry);
+		next.push(0);
+
+		while (!stack.isEmpty()) {
+			IR.Block block = stack.peek();
+			int index = next.pop();
+			List<IR.Block> successors = block.successors();
+
+			if (index < successors.size()) {
+				next.push(index + 1);
+				IR.Block successor = successors.get(index);
+
+				if (!positions.containsKey(successor)) {
+					positions.put(successor, 0);
+					stack.push(successor);
+					next.push(0);
+				}
+			} else {
+				order.add(stack.pop());
+			}
+		}
+	}
+
+	/**
+	 * Finds the closest block which dominates both blocks, walking up the tree
+	 * from whichever is further from the entry.
+	 */
+	private IR.Block intersect(IR.Block first, IR.Block second) {
+		while (first != second) {
+			while (positions.get(first) > positions.get(second)) {
+				first = idoms.get(first);
+			}
+
+			while (positions.get(second) > positions.get(first)) {
+				second = idoms.get(second);
+			}
+		}
+
+		return first;
+	}
+
+	/**
+	 * @return the reachable blocks in reverse postorder, each after every block
+	 *         which dominates it
+	 */
+	List<IR.Block> order() {
+		return order;
+	}
+
+	/**
+	 * Checks if a block can be reached from the entry.
+	 *
+	 * @param block the block
+	 * @return true if it is reachable
+	 */
+	boolean isReachable(IR.Block block) {
+		return positions.containsKey(block);
+	}
+
+	/**
+	 * Finds the immediate dominator of a block.
+	 *
+	 * @param block the block
+	 * @return the dominator, or null for the entry or an unreachable block
+	 */
+	IR.Block idom(IR.Block block) {
+		IR.Block idom = idoms.get(block);
+		return idom == block ? null : idom;
+	}
+
+	/**
+	 * Checks if every path to a block passes through another. A block dominates
+	 * itself.
+	 *
+	 * @param dominator the block which may dominate
+	 * @param block     the block
+	 * @return true if the first dominates the second
+	 */
+	boolean dominates(IR.Block dominator, IR.Block block) {
+		if (!isReachable(dominator) || !isReachable(block)) {
+			return false;
+		}
+
+		while (block != dominator) {
+			IR.Block idom = idoms.get(block);
+
+			if (idom == block) {
+				return false;
+			}
+
+			block = idom;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Checks if a value is always computed before an instruction, so it can be
+	 * used there.
+	 *
+	 * @param value       the value
+	 * @param instruction the instruction
+	 * @return true if the value dominates the instruction
+	 */
+	boolean dominates(IR.Instruction value, IR.Instruction instruction) {
+		if (value.block == instruction.block) {
+			List<IR.Instruction> instructions = value.block.instructions;
+			return instructions.indexOf(value) < instructions.indexOf(instruction);
+		}
+
+		return dominates(value.block, instruction.block);
+	}
+
+	/**
+	 * Finds the dominance frontier of a block, where phis for the values it
+	 * defines would be placed.
+	 *
+	 * @param block the block
+	 * @return the blocks of its frontier
+	 */
+	Set<IR.Block> frontier(IR.Block block) {
+		if (frontiers == null) {
+			frontiers = new HashMap<>();
+
+			for (IR.Block join : order) {
+				if (join.predecessors.size() < 2) {
+					continue;
+				}
+
+				for (IR.Block predecessor : join.predecessors) {
+					for (IR.Block runner = predecessor; isReachable(runner) && runner != idoms.get(join); runner = idoms.get(runner)) {
+						frontiers.computeIfAbsent(runner, key -> new LinkedHashSet<>()).add(join);
+					}
+				}
+			}
+		}
+
+		return frontiers.getOrDefault(block, Collections.emptySet());
+	}
+}
@@ -1,11 +1,12 @@
 package interpreter;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
-import newt_metatypes.NewtCallable;
-import newt_metatypes.NewtInstance;
 import newt_metatypes.NewtObject;
+import newt_metatypes.NewtType;
 
 /**
  * The Environment class stores the variables of a program in a specific scope.
@@ -19,19 +20,34 @@ public class Environment {
 	 * The environment immediately enclosing this one. The environment representing
 	 * the global scope has no enclosing environment.
 	 */
-	final Environment enclosing;
+	Environment enclosing;
 
 	/**
-	 * The values of the variables, contained in a Map with a name key.
+	 * The values of the variables, contained in a Map with a name key. Only the
+	 * global environment and variables the Resolver could not place (such as
+	 * those declared by a mould) are kept here, so local environments create
+	 * the map when it is first needed.
 	 */
-	private final Map<String, NewtObject> values = new HashMap<>();
+	private Map<String, NewtObject> values;
+
+	/**
+	 * The values of the variables declared in this scope, indexed by the slot the
+	 * Resolver assigned to each declaration.
+	 */
+	private final NewtObject[] slots;
+
+	/**
+	 * Shared by every environment which has no slots.
+	 */
+	private static final NewtObject[] NO_SLOTS = new NewtObject[0];
 
 	/**
 	 * The constructor used by the interpreter to create the global environment.
 	 */
 	public Environment() {
 		enclosing = null;
-		define("$exit_flag", "int", 0);
+		values = new HashMap<>();
+		slots = NO_SLOTS;
 	}
 
 	/**
@@ -39,9 +55,23 @@ public class Environment {
 	 * nested within the enclosing scope.
 	 * 
 	 * @param enclosing the enclosing Environment
+	 * @param size      the number of slots the Resolver counted for the scope
+	 */
+	public Environment(Environment enclosing, int size) {
+		this.enclosing = enclosing;
+		this.slots = size == 0 ? NO_SLOTS : new NewtObject[size];
+	}
+
+	/**
+	 * Creates the closure of a function from variables the VM found in its
+	 * frames, which hold the locals of a call outside of environments.
+	 * 
+	 * @param enclosing the global environment
+	 * @param variables the captured variables, in the order of the captures
 	 */
-	public Environment(Environment enclosing) {
+	Environment(Environment enclosing, NewtObject[] variables) {
 		this.enclosing = enclosing;
+		this.slots = variables;
 	}
 
 	/**
@@ -60,87 +90,266 @@ public class Environment {
 	 * 
 	 *              Additionally, I need to add a type parameter for type checking.
 	 */
-	public void define(Token name, String type, Object value) {
+	public void define(Token name, NewtType type, Object value) {
 
 		/* throws an error if the name is used */
-		if (values.containsKey(name.lexeme)) {
+		if (values != null && values.containsKey(name.lexeme)) {
 			throw new RuntimeError(name, "Variable '" + name.lexeme + "' already defined.");
 		}
-		
-		if(value == null) {
-			values.put(name.lexeme, new NewtObject(type, null, type.equals("var") ? true : false, false));
+
+		if (values == null) {
+			values = new HashMap<>();
+		}
+
+		values.put(name.lexeme, create(name, type, value));
+	}
+
+	public void define(String name, NewtType type, Object value) {
+
+		/* throws an error if the name is used */
+		if (values != null && values.containsKey(name)) {
+			throw new RuntimeError(null, "Variable '" + name + "' already defined.");
+		}
+
+		if (values == null) {
+			values = new HashMap<>();
+		}
+
+		values.put(name, create(null, type, value));
+	}
+
+	/**
+	 * Adds a new variable to the given slot of this environment. A negative slot
+	 * means the Resolver did not place the declaration, so it is defined by name.
+	 * 
+	 * @param slot  the slot assigned by the Resolver
+	 * @param name  the name of the variable, used for errors
+	 * @param type  the declared type of the variable
+	 * @param value the value to assign to the new variable
+	 */
+	public void define(int slot, Token name, NewtType type, Object value) {
+		if (slot < 0) {
+			define(name, type, value);
 			return;
 		}
-		
-		String valType = getType(value);
-		
-		if(type.equals("var")) {
-			values.put(name.lexeme, new NewtObject(valType, value, true, true));
+
+		if (slots[slot] != null) {
+			throw new RuntimeError(name, "Variable '" + name.lexeme + "' already defined.");
+		}
+
+		slots[slot] = create(name, type, value);
+	}
+
+	/**
+	 * Adds a new variable whose value the TypeChecker proved to have the declared
+	 * type, so the type of the value is neither looked up nor compared.
+	 * 
+	 * @param slot  the slot assigned by the Resolver, or -1 to define by name
+	 * @param name  the name of the variable, used for errors
+	 * @param type  the declared type of the variable
+	 * @param value the value to assign to the new variable
+	 */
+	public void defineProven(int slot, Token name, NewtType type, Object value) {
+		if (slot < 0) {
+			if (values != null && values.containsKey(name.lexeme)) {
+				throw new RuntimeError(name, "Variable '" + name.lexeme + "' already defined.");
+			}
+
+			if (values == null) {
+				values = new HashMap<>();
+			}
+
+			values.put(name.lexeme, new NewtObject(type, value));
 			return;
 		}
-		
-		if(!type.equals(valType)) {
-			throw new RuntimeError(name, "Incompatible types '" + type + "' and '" + valType + "'.");
+
+		if (slots[slot] != null) {
+			throw new RuntimeError(name, "Variable '" + name.lexeme + "' already defined.");
 		}
 
-		values.put(name.lexeme, new NewtObject(valType, value));
+		slots[slot] = new NewtObject(type, value);
 	}
 
-	public void define(String name, String type, Object value) {
+	/**
+	 * Adds a new int variable to the given slot of this environment, holding the
+	 * value unboxed. The caller has already proven the type of the value.
+	 * 
+	 * @param slot  the slot assigned by the Resolver
+	 * @param name  the name of the variable, used for errors
+	 * @param value the value to assign to the new variable
+	 */
+	public void defineInt(int slot, Token name, int value) {
+		if (slots[slot] != null) {
+			throw new RuntimeError(name, "Variable '" + name.lexeme + "' already defined.");
+		}
 
-		/* throws an error if the name is used */
-		if (values.containsKey(name)) {
-			throw new RuntimeError(null, "Variable '" + name + "' already defined.");
+		NewtObject var = new NewtObject(NewtType.INT, null);
+		var.setInt(value);
+		slots[slot] = var;
+	}
+
+	/**
+	 * Adds a new double variable to the given slot of this environment, holding
+	 * the value unboxed. The caller has already proven the type of the value.
+	 * 
+	 * @param slot  the slot assigned by the Resolver
+	 * @param name  the name of the variable, used for errors
+	 * @param value the value to assign to the new variable
+	 */
+	public void defineDouble(int slot, Token name, double value) {
+		if (slots[slot] != null) {
+			throw new RuntimeError(name, "Variable '" + name.lexeme + "' already defined.");
 		}
-		
+
+		NewtObject var = new NewtObject(NewtType.DOUBLE, null);
+		var.setDouble(value);
+		slots[slot] = var;
+	}
+
+	/**
+	 * Creates the variable holding a newly declared value, checking the value
+	 * against the declared type.
+	 * 
+	 * @param name  the name of the variable, used for errors (may be null)
+	 * @param type  the declared type of the variable
+	 * @param value the initial value
+	 * @return the new variable
+	 */
+	static NewtObject create(Token name, NewtType type, Object value) {
 		if(value == null) {
-			values.put(name, new NewtObject(type, null, type.equals("var") ? true : false, false));
-			return;
+			return new NewtObject(type, null, type == NewtType.VAR, false);
 		}
 		
-		String valType = getType(value);
+		NewtType valType = NewtType.of(value);
 		
-		if(type.equals("var")) {
-			values.put(name, new NewtObject(valType, value, true, true));
-			return;
+		if(type == NewtType.VAR) {
+			return new NewtObject(valType, value, true, true);
 		}
 		
-		if(!type.equals(valType)) {
-			throw new RuntimeError(null, "Incompatible types '" + type + "' and '" + valType + "'.");
+		if(type != valType) {
+			throw new RuntimeError(name, "Incompatible types '" + type + "' and '" + valType + "'.");
 		}
 
-		values.put(name, new NewtObject(valType, value));
+		return new NewtObject(valType, value);
 	}
 	
-	public String getType(Object value) {
-		
-		if(value instanceof NewtInstance) {
-			return ((NewtInstance) value).getClassName();
+	public void undefine(Token name) {
+		undefine(name.lexeme);
+	}
+
+	public void undefine(String name) {
+		if (values != null) {
+			NewtObject var = values.remove(name);
+
+			/* anything which kept the variable must find it again */
+			if (var != null) {
+				var.removed = true;
+			}
 		}
-		
-		switch(value.getClass().getSimpleName()) {
-		case "Integer": return "int";
-		case "Double": return "double";
-		case "Boolean": return "bool";
-		case "Character": return "char";
-		case "String": return "string";
-		case "NewtClass": return "class";
-		case "NewtFunction": return "function";
+	}
+
+	/**
+	 * Finds the variable holding a global, for the expression which reads or
+	 * writes it to keep. The expression uses the variable it kept until an
+	 * undec removes it, and only then looks the name up again.
+	 * 
+	 * @param cell the variable the expression kept, or null if it has none
+	 * @param name the name of the variable
+	 * @return the variable
+	 */
+	NewtObject cell(NewtObject cell, Token name) {
+		if (cell != null && !cell.removed) {
+			return cell;
 		}
-		
-		if(value instanceof NewtCallable) {
-			return "function";
+
+		NewtObject var = values == null ? null : values.get(name.lexeme);
+
+		if (var == null) {
+			throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
 		}
-		
-		return null;
+
+		return var;
 	}
 
-	public void undefine(Token name) {
-		values.remove(name.lexeme);
+	/**
+	 * Reads the value of a variable, which must have been initialized.
+	 * 
+	 * @param var  the variable
+	 * @param name the name of the variable, used for errors
+	 * @return the value
+	 */
+	static Object read(NewtObject var, Token name) {
+		if (!var.initialized) {
+			throw new RuntimeError(name, "Variable '" + name.lexeme + "' has not been initialized.");
+		}
+
+		return var.getValue();
 	}
 
-	public void undefine(String name) {
-		values.remove(name);
+	/**
+	 * Creates the closure of a function declared in this scope. The closure holds
+	 * the variables the function captures from the scopes outside it, which it
+	 * shares with those scopes, so an assignment on either side is seen by the
+	 * other while the scopes themselves can end or be reused.
+	 * 
+	 * @param captures the captured variables, resolved from this scope
+	 * @return the closure, which is the global environment if nothing is captured
+	 */
+	public Environment capture(List<Expr.Variable> captures) {
+		Environment global = this;
+		while (global.enclosing != null) {
+			global = global.enclosing;
+		}
+
+		if (captures.isEmpty()) {
+			return global;
+		}
+
+		Environment closure = new Environment(global, captures.size());
+
+		for (int i = 0; i < captures.size(); i++) {
+			Expr.Variable variable = captures.get(i);
+			closure.slots[i] = ancestor(variable.depth).slots[variable.slot];
+		}
+
+		return closure;
+	}
+
+	/**
+	 * Places a pooled environment within a new enclosing environment, for another
+	 * call. Its variables were removed when it was released.
+	 * 
+	 * @param enclosing the new enclosing environment
+	 */
+	void reuse(Environment enclosing) {
+		this.enclosing = enclosing;
+	}
+
+	/**
+	 * Retrieves the number of slots of this environment.
+	 * 
+	 * @return the number of slots
+	 */
+	int size() {
+		return slots.length;
+	}
+
+	/**
+	 * Removes every variable of this environment, so that a loop can run its body
+	 * in the same scope again.
+	 */
+	public void clear() {
+		Arrays.fill(slots, null);
+		values = null;
+	}
+
+	/**
+	 * Removes the variable held in a slot of this environment.
+	 * 
+	 * @param slot the slot assigned by the Resolver
+	 */
+	public void undefineAt(int slot) {
+		slots[slot] = null;
 	}
 
 	/**
@@ -152,19 +361,8 @@ public class Environment {
 	public void assign(Token name, Object value) {
 
 		/* update the value if the variable was found */
-		if (values.containsKey(name.lexeme)) {
-			String valType = getType(value);
-			NewtObject var = values.get(name.lexeme);
-			
-			if(var.dynamic) {
-				var.object = value;
-				var.type = valType;
-				var.initialized = true;
-			} else if(valType.equals(var.type)) {
-				var.object = value;
-				var.initialized = true;
-			} else
-				throw new RuntimeError(name, "Incompatible types '" + var.type + "' and '" + valType + "'.");
+		if (values != null && values.containsKey(name.lexeme)) {
+			store(values.get(name.lexeme), name, value);
 			return;
 		}
 
@@ -181,20 +379,8 @@ public class Environment {
 	public void assign(String name, Object value) {
 
 		/* update the value if the variable was found */
-		if (values.containsKey(name)) {
-			String valType = getType(value);
-			NewtObject var = values.get(name);
-			
-			if(var.dynamic) {
-				var.object = value;
-				var.type = valType;
-				var.initialized = true;
-			} else if(valType.equals(var.type)) {
-				var.object = value;
-				var.initialized = true;
-			} else
-				throw new RuntimeError(null, "Incompatible types '" + var.type + "' and '" + valType + "'.");
-			
+		if (values != null && values.containsKey(name)) {
+			store(values.get(name), null, value);
 			return;
 		}
 
@@ -208,6 +394,38 @@ public class Environment {
 		throw new RuntimeError(null, "Undefined variable '" + name + "'.");
 	}
 
+	/**
+	 * Stores a value in an existing variable, checking it against the type of the
+	 * variable.
+	 * 
+	 * @param var   the variable
+	 * @param name  the name of the variable, used for errors (may be null)
+	 * @param value the value to be assigned
+	 */
+	void store(NewtObject var, Token name, Object value) {
+		store(var, name, value, NewtType.of(value));
+	}
+
+	/**
+	 * Stores a value whose type is already known in an existing variable.
+	 * 
+	 * @param var     the variable
+	 * @param name    the name of the variable, used for errors (may be null)
+	 * @param value   the value to be assigned
+	 * @param valType the type of the value
+	 */
+	private void store(NewtObject var, Token name, Object value, NewtType valType) {
+		if(var.dynamic) {
+			var.setValue(value);
+			var.type = valType;
+			var.initialized = true;
+		} else if(valType == var.type) {
+			var.setValue(value);
+			var.initialized = true;
+		} else
+			throw new RuntimeError(name, "Incompatible types '" + var.type + "' and '" + valType + "'.");
+	}
+
 	/**
 	 * Retrieves the value of a variable. TODO: check if the variable was defined
 	 * but not initialized (error)
@@ -218,13 +436,8 @@ public class Environment {
 	public Object get(Token name) {
 
 		/* return the value if the variable was found */
-		if (values.containsKey(name.lexeme)) {
-			NewtObject obj = values.get(name.lexeme);
-			
-			if(obj.initialized)
-				return obj.object;
-			else
-				throw new RuntimeError(name, "Variable '" + name.lexeme + "' has not been initialized.");
+		if (values != null && values.containsKey(name.lexeme)) {
+			return read(values.get(name.lexeme), name);
 		}
 
 		/* search for the variable in the enclosing environment (recursively) */
@@ -246,11 +459,11 @@ public class Environment {
 	public Object get(String name) {
 
 		/* return the value if the variable was found */
-		if (values.containsKey(name)) {
+		if (values != null && values.containsKey(name)) {
 			NewtObject obj = values.get(name);
 			
 			if(obj.initialized)
-				return obj.object;
+				return obj.getValue();
 			else
 				throw new RuntimeError(null, "Variable '" + name + "' has not been initialized.");
 		}
@@ -264,12 +477,101 @@ public class Environment {
 		throw new RuntimeError(null, "Undefined variable '" + name + "'.");
 	}
 
-	public void assignAt(int distance, Token name, Object value) {
-		ancestor(distance).assign(name, value);
+	/**
+	 * Assigns a value to a variable the Resolver placed in a slot.
+	 * 
+	 * @param distance the number of scopes between this one and the declaring scope
+	 * @param slot     the slot of the variable in the declaring scope
+	 * @param name     the name of the variable, used for errors
+	 * @param value    the value to be assigned
+	 */
+	public void assignAt(int distance, int slot, Token name, Object value) {
+		Environment environment = ancestor(distance);
+
+		if (slot < 0) {
+			environment.assign(name, value);
+			return;
+		}
+
+		NewtObject var = environment.slots[slot];
+
+		if (var == null) {
+			throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+		}
+
+		store(var, name, value);
 	}
 
-	public Object getAt(int distance, String name) {
-		return ancestor(distance).values.get(name).object;
+	/**
+	 * Assigns a value to a variable the Resolver placed in a slot, when the caller
+	 * already knows the type of the value. This spares the lookup of the type.
+	 * 
+	 * @param distance the number of scopes between this one and the declaring scope
+	 * @param slot     the slot of the variable in the declaring scope
+	 * @param name     the name of the variable, used for errors
+	 * @param value    the value to be assigned
+	 * @param valType  the type of the value
+	 */
+	public void assignAt(int distance, int slot, Token name, Object value, NewtType valType) {
+		NewtObject var = ancestor(distance).slots[slot];
+
+		if (var == null) {
+			throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+		}
+
+		store(var, name, value, valType);
+	}
+
+	/**
+	 * Assigns a value the TypeChecker proved to have the type of a variable the
+	 * Resolver placed in a slot, without comparing the types.
+	 * 
+	 * @param distance the number of scopes between this one and the declaring scope
+	 * @param slot     the slot of the variable in the declaring scope
+	 * @param name     the name of the variable, used for errors
+	 * @param value    the value to be assigned
+	 */
+	public void assignProvenAt(int distance, int slot, Token name, Object value) {
+		NewtObject var = variableAt(distance, slot, name);
+		var.setValue(value);
+		var.initialized = true;
+	}
+
+	/**
+	 * Retrieves the value of a variable the Resolver placed in a slot.
+	 * 
+	 * @param distance the number of scopes between this one and the declaring scope
+	 * @param slot     the slot of the variable in the declaring scope
+	 * @param name     the name of the variable, used for errors
+	 * @return the value of the variable
+	 */
+	public Object getAt(int distance, int slot, Token name) {
+		NewtObject var = ancestor(distance).slots[slot];
+
+		if (var == null) {
+			throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+		}
+
+		return var.getValue();
+	}
+
+	/**
+	 * Finds a variable the Resolver placed in a slot. The typed paths of the
+	 * interpreter read and write its value without boxing it.
+	 * 
+	 * @param distance the number of scopes between this one and the declaring scope
+	 * @param slot     the slot of the variable in the declaring scope
+	 * @param name     the name of the variable, used for errors
+	 * @return the variable
+	 */
+	public NewtObject variableAt(int distance, int slot, Token name) {
+		NewtObject var = ancestor(distance).slots[slot];
+
+		if (var == null) {
+			throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+		}
+
+		return var;
 	}
 
 	public Environment ancestor(int distance) {
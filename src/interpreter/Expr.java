@@ -2,6 +2,12 @@ package interpreter;
 
 import java.util.ArrayList;
 
+import newt_metatypes.PropertyCache;
+
+import newt_metatypes.NewtType;
+
+import newt_metatypes.NewtObject;
+
 public abstract class Expr implements Cloneable {
 	interface Visitor<T> {
 		T visitConditionalExpr(Conditional expr);
@@ -16,10 +22,17 @@ public abstract class Expr implements Cloneable {
 		T visitVariableExpr(Variable expr);
 		T visitAssignExpr(Assign expr);
 		T visitUnaryAssignExpr(UnaryAssign expr);
+		T visitCompoundAssignExpr(CompoundAssign expr);
+		T visitIncrementExpr(Increment expr);
+		T visitCaseCompareExpr(CaseCompare expr);
 		T visitCallExpr(Call expr);
+		T visitInvokeExpr(Invoke expr);
 		T visitSharpExpr(Sharp expr);
 	}
 
+	// the type the TypeChecker proved this expression always produces, or null if unknown
+	public NewtType staticType = null;
+
 	public static class Conditional extends Expr {
 		public Conditional(Expr condition, Token operator, Expr first, Expr second) {
 			this.condition = condition;
@@ -79,6 +92,8 @@ public abstract class Expr implements Cloneable {
 		public final Expr left;
 		public final Token operator;
 		public final Expr right;
+		public boolean proven = false;
+		public Specialization state = Specialization.UNINITIALIZED;
 
 	}
 
@@ -191,6 +206,7 @@ public abstract class Expr implements Cloneable {
 
 		public final Expr object;
 		public final Token name;
+		public PropertyCache cache = new PropertyCache();
 
 	}
 
@@ -221,6 +237,7 @@ public abstract class Expr implements Cloneable {
 		public final Expr object;
 		public final Token name;
 		public final Expr value;
+		public PropertyCache cache = new PropertyCache();
 
 	}
 
@@ -247,6 +264,8 @@ public abstract class Expr implements Cloneable {
 		}
 
 		public final Token keyword;
+		public int depth = -1;
+		public int slot = -1;
 
 	}
 
@@ -275,6 +294,7 @@ public abstract class Expr implements Cloneable {
 
 		public final Token operator;
 		public final Expr right;
+		public Specialization state = Specialization.UNINITIALIZED;
 
 	}
 
@@ -301,6 +321,9 @@ public abstract class Expr implements Cloneable {
 		}
 
 		public final Token name;
+		public int depth = -1;
+		public int slot = -1;
+		public NewtObject cell = null;
 
 		@Override
 		public boolean equals(Object o) {
@@ -345,6 +368,12 @@ public abstract class Expr implements Cloneable {
 		public final Token name;
 		public final Token operator;
 		public final Expr value;
+		public int depth = -1;
+		public int slot = -1;
+		public NewtObject cell = null;
+		public NewtType declaredType = null;
+		public boolean proven = false;
+		public Specialization state = Specialization.UNINITIALIZED;
 
 	}
 
@@ -376,6 +405,99 @@ public abstract class Expr implements Cloneable {
 
 	}
 
+	public static class CompoundAssign extends Expr {
+		public CompoundAssign(Token name, Token operator, Expr value) {
+			this.name = name;
+			this.operator = operator;
+			this.value = value;
+		}
+
+		public String toString(int depth) {
+			String str = "";
+			for(int i = 0; i < depth; i++) {
+				str = str + "   ";
+			}
+
+			return str + operator.lexeme + "\n" + name.lexeme + "\n" + value.toString(depth + 1);
+		}
+
+		public CompoundAssign mouldClone() {
+			return new CompoundAssign(name, operator, value.mouldClone());
+		}
+
+		<T> T accept(Visitor<T> visitor) {
+			return visitor.visitCompoundAssignExpr(this);
+		}
+
+		public final Token name;
+		public final Token operator;
+		public final Expr value;
+		public int depth = -1;
+		public int slot = -1;
+		public NewtObject cell = null;
+		public NewtType declaredType = null;
+		public boolean proven = false;
+		public Specialization state = Specialization.UNINITIALIZED;
+
+	}
+
+	public static class Increment extends Expr {
+		public Increment(Variable name, Token operator) {
+			this.name = name;
+			this.operator = operator;
+		}
+
+		public String toString(int depth) {
+			String str = "";
+			for(int i = 0; i < depth; i++) {
+				str = str + "   ";
+			}
+
+			return str + operator.lexeme + "\n" + name.toString(depth + 1);
+		}
+
+		public Increment mouldClone() {
+			return new Increment(name, operator);
+		}
+
+		<T> T accept(Visitor<T> visitor) {
+			return visitor.visitIncrementExpr(this);
+		}
+
+		public final Variable name;
+		public final Token operator;
+		public Specialization state = Specialization.UNINITIALIZED;
+
+	}
+
+	public static class CaseCompare extends Expr {
+		public CaseCompare(Expr control, Expr test) {
+			this.control = control;
+			this.test = test;
+		}
+
+		public String toString(int depth) {
+			String str = "";
+			for(int i = 0; i < depth; i++) {
+				str = str + "   ";
+			}
+
+			return str + control.toString(depth + 1) + "\n" + test.toString(depth + 1);
+		}
+
+		public CaseCompare mouldClone() {
+			return new CaseCompare(control.mouldClone(), test.mouldClone());
+		}
+
+		<T> T accept(Visitor<T> visitor) {
+			return visitor.visitCaseCompareExpr(this);
+		}
+
+		public final Expr control;
+		public final Expr test;
+
+	}
+
 	public static class Call extends Expr {
 		public Call(Expr callee, Token parenthesis, ArrayList<Expr> arguments) {
 			this.callee = callee;
@@ -406,6 +528,39 @@ public abstract class Expr implements Cloneable {
 
 	}
 
+	public static class Invoke extends Expr {
+		public Invoke(Expr object, Token name, Token parenthesis, ArrayList<Expr> arguments) {
+			this.object = object;
+			this.name = name;
+			this.parenthesis = parenthesis;
+			this.arguments = arguments;
+		}
+
+		public String toString(int depth) {
+			String str = "";
+			for(int i = 0; i < depth; i++) {
+				str = str + "   ";
+			}
+
+			return str + parenthesis.lexeme + "\n" + name.lexeme + "\n" + object.toString(depth + 1) + "\n" + arrayListToString(arguments);
+		}
+
+		public Invoke mouldClone() {
+			return new Invoke(object.mouldClone(), name, parenthesis, arrayListClone(arguments));
+		}
+
+		<T> T accept(Visitor<T> visitor) {
+			return visitor.visitInvokeExpr(this);
+		}
+
+		public final Expr object;
+		public final Token name;
+		public final Token parenthesis;
+		public final ArrayList<Expr> arguments;
+		public PropertyCache cache = new PropertyCache();
+
+	}
+
 	public static class Sharp extends Expr {
 		public Sharp(Expr name) {
 			this.name = name;
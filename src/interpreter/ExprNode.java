@@ -0,0 +1,1566 @@
+package interpreter;
+
+import java.util.ArrayList;
+
+import newt_metatypes.NewtFunction;
+import newt_metatypes.NewtInstance;
+import newt_metatypes.NewtObject;
+import newt_metatypes.PropertyCache;
+
+/**
+ * An expression which the TreeCompiler has turned into a node that evaluates
+ * it directly. A node holds what the Interpreter looks up each time it visits
+ * the expression: the operation its operator applies, where its variable is,
+ * and the nodes of its operands. Evaluating it is one call to execute() with
+ * the scope to evaluate it in.
+ *
+ * An expression the TypeChecker proved to be an int, a double or a bool can
+ * also be evaluated without boxing its value, by executeInt(), executeDouble()
+ * or executeBoolean(). A node takes these typed paths exactly where the
+ * Interpreter's evaluateInt(), evaluateDouble() and evaluateBoolean() would, so
+ * both engines give the same results and report the same errors.
+ *
+ * @author Jared
+ */
+abstract class ExprNode {
+
+	/**
+	 * Evaluates the expression.
+	 *
+	 * @param frame the scope in which the expression is evaluated
+	 * @return the value
+	 */
+	abstract Object execute(Environment frame);
+
+	/**
+	 * Evaluates an expression the TypeChecker proved to be an int.
+	 *
+	 * @param frame the scope in which the expression is evaluated
+	 * @return the value
+	 */
+	int executeInt(Environment frame) {
+		return (int) execute(frame);
+	}
+
+	/**
+	 * Evaluates an expression the TypeChecker proved to be a double.
+	 *
+	 * @param frame the scope in which the expression is evaluated
+	 * @return the value
+	 */
+	double executeDouble(Environment frame) {
+		return (double) execute(frame);
+	}
+
+	/**
+	 * Evaluates an expression the TypeChecker proved to be a bool.
+	 *
+	 * @param frame the scope in which the expression is evaluated
+	 * @return the value
+	 */
+	boolean executeBoolean(Environment frame) {
+		return (boolean) execute(frame);
+	}
+
+	/**
+	 * Evaluates a list of expressions, such as the arguments of a call.
+	 *
+	 * @param nodes the expressions
+	 * @param frame the scope in which they are evaluated
+	 * @return the values, in order
+	 */
+	static Object[] executeAll(ExprNode[] nodes, Environment frame) {
+		Object[] values = new Object[nodes.length];
+
+		for (int i = 0; i < nodes.length; i++) {
+			values[i] = nodes[i].execute(frame);
+		}
+
+		return values;
+	}
+
+	/**
+	 * A binary operator applied to values which have already been evaluated,
+	 * following the rules of Interpreter.binaryOperation(). One is built for each
+	 * operator, so applying it never looks at the operator's type.
+	 */
+	static abstract class Operation {
+		abstract Object apply(Object left, Object right);
+
+		/**
+		 * Widens a number to a double. Anything else fails the cast, as it would in
+		 * the Interpreter.
+		 */
+		static double number(Object value) {
+			return value instanceof Double ? (double) value : (int) value;
+		}
+
+		/**
+		 * Builds the operation applied by an operator.
+		 *
+		 * @param operator    the operator, used for errors
+		 * @param interpreter the interpreter whose rules of comparison are used
+		 * @return the operation
+		 */
+		static Operation of(Token operator, Interpreter interpreter) {
+			switch (operator.type) {
+			case BANG_EQUAL:
+				return new Operation() {
+					Object apply(Object left, Object right) {
+						return !interpreter.isEqual(left, right);
+					}
+				};
+			case EQUAL_EQUAL:
+				return new Operation() {
+					Object apply(Object left, Object right) {
+						return interpreter.isEqual(left, right);
+					}
+				};
+			case GREATER:
+				return new Operation() {
+					Object apply(Object left, Object right) {
+						interpreter.checkPrimitiveTypes(operator, left, right);
+						return interpreter.isGreater(left, right);
+					}
+				};
+			case LESS:
+				return new Operation() {
+					Object apply(Object left, Object right) {
+						interpreter.checkPrimitiveTypes(operator, left, right);
+						return interpreter.isLess(left, right);
+					}
+				};
+			case GREATER_EQUAL:
+				return new Operation() {
+					Object apply(Object left, Object right) {
+						interpreter.checkPrimitiveTypes(operator, left, right);
+						return interpreter.isGreaterEqual(left, right);
+					}
+				};
+			case LESS_EQUAL:
+				return new Operation() {
+					Object apply(Object left, Object right) {
+						interpreter.checkPrimitiveTypes(operator, left, right);
+						return interpreter.isLessEqual(left, right);
+					}
+				};
+			case ARROW:
+				return new Operation() {
+					Object apply(Object left, Object right) {
+						return !interpreter.isTrue(left) || (interpreter.isTrue(left) && interpreter.isTrue(right));
+					}
+				};
+			case AND:
+				return new Operation() {
+					Object apply(Object left, Object right) {
+						return interpreter.isTrue(left) && interpreter.isTrue(right);
+					}
+				};
+			case OR:
+				return new Operation() {
+					Object apply(Object left, Object right) {
+						return interpreter.isTrue(left) || interpreter.isTrue(right);
+					}
+				};
+			case NAND:
+				return new Operation() {
+					Object apply(Object left, Object right) {
+						return !interpreter.isTrue(left) || !interpreter.isTrue(right);
+					}
+				};
+			case NOR:
+				return new Operation() {
+					Object apply(Object left, Object right) {
+						return !interpreter.isTrue(left) && !interpreter.isTrue(right);
+					}
+				};
+			case STAR:
+				return new Operation() {
+					Object apply(Object left, Object right) {
+						interpreter.checkNumericOperands(operator, left, right);
+
+						if (left instanceof Integer && right instanceof Integer) {
+							return (int) left * (int) right;
+						}
+
+						return number(left) * number(right);
+					}
+				};
+			case MINUS:
+				return new Operation() {
+					Object apply(Object left, Object right) {
+						interpreter.checkNumericOperands(operator, left, right);
+
+						if (left instanceof Integer && right instanceof Integer) {
+							return (int) left - (int) right;
+						}
+
+						return number(left) - number(right);
+					}
+				};
+			case PLUS:
+				return new Operation() {
+					Object apply(Object left, Object right) {
+						/* special case, check for numbers or strings */
+						if (left instanceof String || right instanceof String) {
+							return left + "" + right;
+						}
+
+						if (left instanceof Integer && right instanceof Integer) {
+							return (int) left + (int) right;
+						}
+
+						return number(left) + number(right);
+					}
+				};
+			case SLASH:
+				return new Operation() {
+					Object apply(Object left, Object right) {
+						interpreter.checkNumericOperands(operator, left, right);
+						interpreter.checkNonZeroDivisor(operator, right);
+
+						if (left instanceof Integer && right instanceof Integer) {
+							return (int) left / (int) right;
+						}
+
+						return number(left) / number(right);
+					}
+				};
+			case PERCENT:
+				return new Operation() {
+					Object apply(Object left, Object right) {
+						interpreter.checkNumericOperands(operator, left, right);
+						interpreter.checkNonZeroDivisor(operator, right);
+
+						if (left instanceof Integer && right instanceof Integer) {
+							return (int) left % (int) right;
+						}
+
+						return number(left) % number(right);
+					}
+				};
+			case CARAT:
+				return new Operation() {
+					Object apply(Object left, Object right) {
+						interpreter.checkNumericOperands(operator, left, right);
+						return Math.pow(number(left), number(right));
+					}
+				};
+			default:
+				/* an operator the interpreter does not apply gives null */
+				return new Operation() {
+					Object apply(Object left, Object right) {
+						return null;
+					}
+				};
+			}
+		}
+	}
+
+	/**
+	 * A literal.
+	 */
+	static class Constant extends ExprNode {
+		final Object value;
+
+		Constant(Object value) {
+			this.value = value;
+		}
+
+		Object execute(Environment frame) {
+			return value;
+		}
+	}
+
+	/**
+	 * An int literal, kept unboxed for the typed paths.
+	 */
+	static final class IntConstant extends Constant {
+		final int number;
+
+		IntConstant(Integer value) {
+			super(value);
+			this.number = value;
+		}
+
+		int executeInt(Environment frame) {
+			return number;
+		}
+	}
+
+	/**
+	 * A double literal, kept unboxed for the typed paths.
+	 */
+	static final class DoubleConstant extends Constant {
+		final double number;
+
+		DoubleConstant(Double value) {
+			super(value);
+			this.number = value;
+		}
+
+		double executeDouble(Environment frame) {
+			return number;
+		}
+	}
+
+	/**
+	 * A local variable, found at the distance and slot the Resolver gave it.
+	 */
+	static class Local extends ExprNode {
+		final int depth;
+		final int slot;
+		final Token name;
+
+		Local(int depth, int slot, Token name) {
+			this.depth = depth;
+			this.slot = slot;
+			this.name = name;
+		}
+
+		Object execute(Environment frame) {
+			return frame.getAt(depth, slot, name);
+		}
+
+		/**
+		 * Finds the variable for one of the typed paths, which must have been
+		 * initialized.
+		 */
+		final NewtObject variable(Environment frame) {
+			NewtObject var = frame.variableAt(depth, slot, name);
+
+			if (!var.initialized) {
+				throw new RuntimeError(name, "Variable '" + name.lexeme + "' has not been initialized.");
+			}
+
+			return var;
+		}
+	}
+
+	/**
+	 * A local variable declared as an int.
+	 */
+	static final class IntLocal extends Local {
+		IntLocal(int depth, int slot, Token name) {
+			super(depth, slot, name);
+		}
+
+		int executeInt(Environment frame) {
+			return variable(frame).getInt();
+		}
+	}
+
+	/**
+	 * A local variable declared as a double.
+	 */
+	static final class DoubleLocal extends Local {
+		DoubleLocal(int depth, int slot, Token name) {
+			super(depth, slot, name);
+		}
+
+		double executeDouble(Environment frame) {
+			return variable(frame).getDouble();
+		}
+	}
+
+	/**
+	 * A local variable declared as a bool.
+	 */
+	static final class BoolLocal extends Local {
+		BoolLocal(int depth, int slot, Token name) {
+			super(depth, slot, name);
+		}
+
+		boolean executeBoolean(Environment frame) {
+			return (boolean) variable(frame).getValue();
+		}
+	}
+
+	/**
+	 * A global variable. The node keeps the variable once it has been found, and
+	 * looks up the name again only once an undec has removed it.
+	 */
+	static final class Global extends ExprNode {
+		final Token name;
+		final Environment globals;
+		NewtObject cell = null;
+
+		Global(Token name, Environment globals) {
+			this.name = name;
+			this.globals = globals;
+		}
+
+		Object execute(Environment frame) {
+			cell = globals.cell(cell, name);
+			return Environment.read(cell, name);
+		}
+	}
+
+	/**
+	 * The instance a method was called on.
+	 */
+	static final class This extends ExprNode {
+		final Token keyword;
+		final int depth;
+		final int slot;
+		final Environment globals;
+
+		This(Token keyword, int depth, int slot, Environment globals) {
+			this.keyword = keyword;
+			this.depth = depth;
+			this.slot = slot;
+			this.globals = globals;
+		}
+
+		Object execute(Environment frame) {
+			if (depth >= 0) {
+				return frame.getAt(depth, slot, keyword);
+			}
+
+			return globals.get(keyword);
+		}
+	}
+
+	/**
+	 * An int operand of an expression the Interpreter evaluates as a double,
+	 * widened as evaluateNumber() widens it.
+	 */
+	static final class Widen extends ExprNode {
+		final ExprNode operand;
+
+		Widen(ExprNode operand) {
+			this.operand = operand;
+		}
+
+		Object execute(Environment frame) {
+			return executeDouble(frame);
+		}
+
+		double executeDouble(Environment frame) {
+			return operand.executeInt(frame);
+		}
+	}
+
+	/**
+	 * A proven int operand of a comparison which the Interpreter applies by the
+	 * general rules, after evaluating the operand as an int.
+	 */
+	static final class BoxInt extends ExprNode {
+		final ExprNode operand;
+
+		BoxInt(ExprNode operand) {
+			this.operand = operand;
+		}
+
+		Object execute(Environment frame) {
+			return operand.executeInt(frame);
+		}
+	}
+
+	/**
+	 * A proven number operand of a comparison which the Interpreter applies by
+	 * the general rules, after evaluating the operand as a double.
+	 */
+	static final class BoxDouble extends ExprNode {
+		final ExprNode operand;
+
+		BoxDouble(ExprNode operand) {
+			this.operand = operand;
+		}
+
+		Object execute(Environment frame) {
+			return operand.executeDouble(frame);
+		}
+	}
+
+	/**
+	 * A unary operator applied by the general rules.
+	 */
+	static final class Negate extends ExprNode {
+		final Token operator;
+		final ExprNode operand;
+		final Interpreter interpreter;
+
+		Negate(Token operator, ExprNode operand, Interpreter interpreter) {
+			this.operator = operator;
+			this.operand = operand;
+			this.interpreter = interpreter;
+		}
+
+		Object execute(Environment frame) {
+			Object value = operand.execute(frame);
+			interpreter.checkNumericOperand(operator, value);
+
+			if (value instanceof Integer) {
+				return -(int) value;
+			}
+
+			return -(double) value;
+		}
+	}
+
+	/**
+	 * The negation of a proven int.
+	 */
+	static final class IntNegate extends ExprNode {
+		final ExprNode operand;
+
+		IntNegate(ExprNode operand) {
+			this.operand = operand;
+		}
+
+		Object execute(Environment frame) {
+			return executeInt(frame);
+		}
+
+		int executeInt(Environment frame) {
+			return -operand.executeInt(frame);
+		}
+	}
+
+	/**
+	 * The negation of a proven double.
+	 */
+	static final class DoubleNegate extends ExprNode {
+		final ExprNode operand;
+
+		DoubleNegate(ExprNode operand) {
+			this.operand = operand;
+		}
+
+		Object execute(Environment frame) {
+			return executeDouble(frame);
+		}
+
+		double executeDouble(Environment frame) {
+			return -operand.executeDouble(frame);
+		}
+	}
+
+	/**
+	 * A logical not. A proven bool operand is evaluated without boxing when the
+	 * not itself is.
+	 */
+	static final class Not extends ExprNode {
+		final ExprNode operand;
+		final boolean typed;
+		final Interpreter interpreter;
+
+		Not(ExprNode operand, boolean typed, Interpreter interpreter) {
+			this.operand = operand;
+			this.typed = typed;
+			this.interpreter = interpreter;
+		}
+
+		Object execute(Environment frame) {
+			return !interpreter.isTrue(operand.execute(frame));
+		}
+
+		boolean executeBoolean(Environment frame) {
+			if (typed) {
+				return !operand.executeBoolean(frame);
+			}
+
+			return !interpreter.isTrue(operand.execute(frame));
+		}
+	}
+
+	/**
+	 * A unary operator the interpreter does not apply, which gives null.
+	 */
+	static final class Nothing extends ExprNode {
+		final ExprNode operand;
+
+		Nothing(ExprNode operand) {
+			this.operand = operand;
+		}
+
+		Object execute(Environment frame) {
+			if (operand != null) {
+				operand.execute(frame);
+			}
+
+			return null;
+		}
+	}
+
+	/**
+	 * A binary operator applied by the general rules.
+	 */
+	static final class Binary extends ExprNode {
+		final ExprNode left;
+		final ExprNode right;
+		final Operation operation;
+
+		Binary(ExprNode left, ExprNode right, Operation operation) {
+			this.left = left;
+			this.right = right;
+			this.operation = operation;
+		}
+
+		Object execute(Environment frame) {
+			Object first = left.execute(frame);
+			return operation.apply(first, right.execute(frame));
+		}
+	}
+
+	/**
+	 * Arithmetic on two proven ints.
+	 */
+	static abstract class IntBinary extends ExprNode {
+		final ExprNode left;
+		final ExprNode right;
+		final Token operator;
+
+		IntBinary(ExprNode left, ExprNode right, Token operator) {
+			this.left = left;
+			this.right = right;
+			this.operator = operator;
+		}
+
+		Object execute(Environment frame) {
+			return executeInt(frame);
+		}
+
+		/**
+		 * Builds the node for an operator whose result the TypeChecker proved to be
+		 * an int.
+		 */
+		static ExprNode of(Token operator, ExprNode left, ExprNode right) {
+			switch (operator.type) {
+			case PLUS:
+				return new IntBinary(left, right, operator) {
+					int executeInt(Environment frame) {
+						return left.executeInt(frame) + right.executeInt(frame);
+					}
+				};
+			case MINUS:
+				return new IntBinary(left, right, operator) {
+					int executeInt(Environment frame) {
+						return left.executeInt(frame) - right.executeInt(frame);
+					}
+				};
+			case STAR:
+				return new IntBinary(left, right, operator) {
+					int executeInt(Environment frame) {
+						return left.executeInt(frame) * right.executeInt(frame);
+					}
+				};
+			case SLASH:
+				return new IntBinary(left, right, operator) {
+					int executeInt(Environment frame) {
+						int dividend = left.executeInt(frame);
+						return dividend / divisor(frame);
+					}
+				};
+			default:
+				return new IntBinary(left, right, operator) {
+					int executeInt(Environment frame) {
+						int dividend = left.executeInt(frame);
+						return dividend % divisor(frame);
+					}
+				};
+			}
+		}
+
+		final int divisor(Environment frame) {
+			int divisor = right.executeInt(frame);
+
+			if (divisor == 0) {
+				throw new RuntimeError(operator, "Divisor cannot be zero.");
+			}
+
+			return divisor;
+		}
+	}
+
+	/**
+	 * Arithmetic on two proven numbers, at least one of them a double. An int
+	 * operand is given to the node widened.
+	 */
+	static abstract class DoubleBinary extends ExprNode {
+		final ExprNode left;
+		final ExprNode right;
+		final Token operator;
+
+		DoubleBinary(ExprNode left, ExprNode right, Token operator) {
+			this.left = left;
+			this.right = right;
+			this.operator = operator;
+		}
+
+		Object execute(Environment frame) {
+			return executeDouble(frame);
+		}
+
+		/**
+		 * Builds the node for an operator whose result the TypeChecker proved to be a
+		 * double.
+		 */
+		static ExprNode of(Token operator, ExprNode left, ExprNode right) {
+			switch (operator.type) {
+			case PLUS:
+				return new DoubleBinary(left, right, operator) {
+					double executeDouble(Environment frame) {
+						return left.executeDouble(frame) + right.executeDouble(frame);
+					}
+				};
+			case MINUS:
+				return new DoubleBinary(left, right, operator) {
+					double executeDouble(Environment frame) {
+						return left.executeDouble(frame) - right.executeDouble(frame);
+					}
+				};
+			case STAR:
+				return new DoubleBinary(left, right, operator) {
+					double executeDouble(Environment frame) {
+						return left.executeDouble(frame) * right.executeDouble(frame);
+					}
+				};
+			case SLASH:
+				return new DoubleBinary(left, right, operator) {
+					double executeDouble(Environment frame) {
+						double dividend = left.executeDouble(frame);
+						return dividend / divisor(frame);
+					}
+				};
+			case PERCENT:
+				return new DoubleBinary(left, right, operator) {
+					double executeDouble(Environment frame) {
+						double dividend = left.executeDouble(frame);
+						return dividend % divisor(frame);
+					}
+				};
+			default:
+				return new DoubleBinary(left, right, operator) {
+					double executeDouble(Environment frame) {
+						double base = left.executeDouble(frame);
+						return Math.pow(base, right.executeDouble(frame));
+					}
+				};
+			}
+		}
+
+		final double divisor(Environment frame) {
+			double divisor = right.executeDouble(frame);
+
+			if (divisor == 0) {
+				throw new RuntimeError(operator, "Divisor cannot be zero.");
+			}
+
+			return divisor;
+		}
+	}
+
+	/**
+	 * A comparison of two proven ints.
+	 */
+	static abstract class IntCompare extends ExprNode {
+		final ExprNode left;
+		final ExprNode right;
+
+		IntCompare(ExprNode left, ExprNode right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		Object execute(Environment frame) {
+			return executeBoolean(frame);
+		}
+
+		/**
+		 * Builds the node for a comparison, or returns null for an operator which
+		 * is not one.
+		 */
+		static ExprNode of(Token operator, ExprNode left, ExprNode right) {
+			switch (operator.type) {
+			case GREATER:
+				return new IntCompare(left, right) {
+					boolean executeBoolean(Environment frame) {
+						return left.executeInt(frame) > right.executeInt(frame);
+					}
+				};
+			case GREATER_EQUAL:
+				return new IntCompare(left, right) {
+					boolean executeBoolean(Environment frame) {
+						return left.executeInt(frame) >= right.executeInt(frame);
+					}
+				};
+			case LESS:
+				return new IntCompare(left, right) {
+					boolean executeBoolean(Environment frame) {
+						return left.executeInt(frame) < right.executeInt(frame);
+					}
+				};
+			case LESS_EQUAL:
+				return new IntCompare(left, right) {
+					boolean executeBoolean(Environment frame) {
+						return left.executeInt(frame) <= right.executeInt(frame);
+					}
+				};
+			case EQUAL_EQUAL:
+				return new IntCompare(left, right) {
+					boolean executeBoolean(Environment frame) {
+						return left.executeInt(frame) == right.executeInt(frame);
+					}
+				};
+			case BANG_EQUAL:
+				return new IntCompare(left, right) {
+					boolean executeBoolean(Environment frame) {
+						return left.executeInt(frame) != right.executeInt(frame);
+					}
+				};
+			default:
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * A comparison of two proven numbers, at least one of them a double. NaN is
+	 * treated as by isGreater() and isEqual().
+	 */
+	static abstract class DoubleCompare extends ExprNode {
+		final ExprNode left;
+		final ExprNode right;
+
+		DoubleCompare(ExprNode left, ExprNode right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		Object execute(Environment frame) {
+			return executeBoolean(frame);
+		}
+
+		/**
+		 * Builds the node for a comparison, or returns null for an operator which
+		 * is not one.
+		 */
+		static ExprNode of(Token operator, ExprNode left, ExprNode right) {
+			switch (operator.type) {
+			case GREATER:
+				return new DoubleCompare(left, right) {
+					boolean executeBoolean(Environment frame) {
+						return left.executeDouble(frame) > right.executeDouble(frame);
+					}
+				};
+			case GREATER_EQUAL:
+				return new DoubleCompare(left, right) {
+					boolean executeBoolean(Environment frame) {
+						double first = left.executeDouble(frame);
+						double second = right.executeDouble(frame);
+						return first > second || first == second;
+					}
+				};
+			case LESS:
+				return new DoubleCompare(left, right) {
+					boolean executeBoolean(Environment frame) {
+						double first = left.executeDouble(frame);
+						double second = right.executeDouble(frame);
+						return !(first > second || first == second);
+					}
+				};
+			case LESS_EQUAL:
+				return new DoubleCompare(left, right) {
+					boolean executeBoolean(Environment frame) {
+						return !(left.executeDouble(frame) > right.executeDouble(frame));
+					}
+				};
+			case EQUAL_EQUAL:
+				return new DoubleCompare(left, right) {
+					boolean executeBoolean(Environment frame) {
+						return left.executeDouble(frame) == right.executeDouble(frame);
+					}
+				};
+			case BANG_EQUAL:
+				return new DoubleCompare(left, right) {
+					boolean executeBoolean(Environment frame) {
+						return left.executeDouble(frame) != right.executeDouble(frame);
+					}
+				};
+			default:
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * A logical operator, whose right operand is only evaluated when it decides
+	 * the result. The left operand must be a bool. When both operands are proven
+	 * bools the operator can also be applied without boxing them.
+	 */
+	static abstract class Logical extends ExprNode {
+		final ExprNode left;
+		final ExprNode right;
+		final boolean typed;
+
+		Logical(ExprNode left, ExprNode right, boolean typed) {
+			this.left = left;
+			this.right = right;
+			this.typed = typed;
+		}
+
+		boolean executeBoolean(Environment frame) {
+			return typed ? test(frame) : (boolean) execute(frame);
+		}
+
+		/**
+		 * Applies the operator to the unboxed operands.
+		 */
+		abstract boolean test(Environment frame);
+
+		/**
+		 * Builds the node for a logical operator.
+		 */
+		static ExprNode of(Token operator, ExprNode left, ExprNode right, boolean typed) {
+			switch (operator.type) {
+			case AND:
+				return new Logical(left, right, typed) {
+					Object execute(Environment frame) {
+						return (Boolean) left.execute(frame) ? right.execute(frame) : false;
+					}
+
+					boolean test(Environment frame) {
+						return left.executeBoolean(frame) ? right.executeBoolean(frame) : false;
+					}
+				};
+			case OR:
+				return new Logical(left, right, typed) {
+					Object execute(Environment frame) {
+						return !(Boolean) left.execute(frame) ? right.execute(frame) : true;
+					}
+
+					boolean test(Environment frame) {
+						return !left.executeBoolean(frame) ? right.executeBoolean(frame) : true;
+					}
+				};
+			case NOR:
+				return new Logical(left, right, typed) {
+					Object execute(Environment frame) {
+						return !(Boolean) left.execute(frame) ? !(boolean) right.execute(frame) : false;
+					}
+
+					boolean test(Environment frame) {
+						return !left.executeBoolean(frame) ? !right.executeBoolean(frame) : false;
+					}
+				};
+			case NAND:
+				return new Logical(left, right, typed) {
+					Object execute(Environment frame) {
+						return (Boolean) left.execute(frame) ? !(boolean) right.execute(frame) : right.execute(frame);
+					}
+
+					boolean test(Environment frame) {
+						return left.executeBoolean(frame) ? !right.executeBoolean(frame) : right.executeBoolean(frame);
+					}
+				};
+			case ARROW:
+				return new Logical(left, right, typed) {
+					Object execute(Environment frame) {
+						return (Boolean) left.execute(frame) ? right.execute(frame) : true;
+					}
+
+					boolean test(Environment frame) {
+						return left.executeBoolean(frame) ? right.executeBoolean(frame) : true;
+					}
+				};
+			default:
+				return new Logical(left, right, typed) {
+					Object execute(Environment frame) {
+						left.execute(frame);
+						return null;
+					}
+
+					boolean test(Environment frame) {
+						return (boolean) execute(frame);
+					}
+				};
+			}
+		}
+	}
+
+	/**
+	 * A conditional expression.
+	 */
+	static final class Conditional extends ExprNode {
+		final ExprNode condition;
+		final ExprNode first;
+		final ExprNode second;
+
+		Conditional(ExprNode condition, ExprNode first, ExprNode second) {
+			this.condition = condition;
+			this.first = first;
+			this.second = second;
+		}
+
+		Object execute(Environment frame) {
+			return condition.executeBoolean(frame) ? first.execute(frame) : second.execute(frame);
+		}
+	}
+
+	/**
+	 * An assignment to a local variable.
+	 */
+	static class Assign extends ExprNode {
+		final int depth;
+		final int slot;
+		final Token name;
+		final ExprNode value;
+
+		Assign(int depth, int slot, Token name, ExprNode value) {
+			this.depth = depth;
+			this.slot = slot;
+			this.name = name;
+			this.value = value;
+		}
+
+		Object execute(Environment frame) {
+			frame.assignAt(depth, slot, name, value.execute(frame));
+			return null;
+		}
+	}
+
+	/**
+	 * An assignment of a value the TypeChecker proved to have the type of the
+	 * local variable.
+	 */
+	static final class ProvenAssign extends Assign {
+		ProvenAssign(int depth, int slot, Token name, ExprNode value) {
+			super(depth, slot, name, value);
+		}
+
+		Object execute(Environment frame) {
+			frame.assignProvenAt(depth, slot, name, value.execute(frame));
+			return null;
+		}
+	}
+
+	/**
+	 * An assignment of a proven int to a local int variable, which needs no boxing.
+	 */
+	static final class IntAssign extends Assign {
+		IntAssign(int depth, int slot, Token name, ExprNode value) {
+			super(depth, slot, name, value);
+		}
+
+		Object execute(Environment frame) {
+			frame.variableAt(depth, slot, name).setInt(value.executeInt(frame));
+			return null;
+		}
+	}
+
+	/**
+	 * An assignment of a proven double to a local double variable, which needs no
+	 * boxing.
+	 */
+	static final class DoubleAssign extends Assign {
+		DoubleAssign(int depth, int slot, Token name, ExprNode value) {
+			super(depth, slot, name, value);
+		}
+
+		Object execute(Environment frame) {
+			frame.variableAt(depth, slot, name).setDouble(value.executeDouble(frame));
+			return null;
+		}
+	}
+
+	/**
+	 * An assignment to a global variable.
+	 */
+	static final class GlobalAssign extends ExprNode {
+		final Token name;
+		final ExprNode value;
+		final Environment globals;
+		NewtObject cell = null;
+
+		GlobalAssign(Token name, ExprNode value, Environment globals) {
+			this.name = name;
+			this.value = value;
+			this.globals = globals;
+		}
+
+		Object execute(Environment frame) {
+			Object result = value.execute(frame);
+			cell = globals.cell(cell, name);
+			globals.store(cell, name, result);
+			return null;
+		}
+	}
+
+	/**
+	 * A compound assignment (such as +=) to a local variable, applied by the
+	 * general rules.
+	 */
+	static final class CompoundAssign extends ExprNode {
+		final int depth;
+		final int slot;
+		final Token name;
+		final ExprNode value;
+		final Operation operation;
+
+		CompoundAssign(int depth, int slot, Token name, ExprNode value, Operation operation) {
+			this.depth = depth;
+			this.slot = slot;
+			this.name = name;
+			this.value = value;
+			this.operation = operation;
+		}
+
+		Object execute(Environment frame) {
+			Object current = frame.getAt(depth, slot, name);
+			frame.assignAt(depth, slot, name, operation.apply(current, value.execute(frame)));
+			return null;
+		}
+	}
+
+	/**
+	 * A compound assignment to a global variable.
+	 */
+	static final class GlobalCompoundAssign extends ExprNode {
+		final Token name;
+		final ExprNode value;
+		final Operation operation;
+		final Environment globals;
+		NewtObject cell = null;
+
+		GlobalCompoundAssign(Token name, ExprNode value, Operation operation, Environment globals) {
+			this.name = name;
+			this.value = value;
+			this.operation = operation;
+			this.globals = globals;
+		}
+
+		Object execute(Environment frame) {
+			cell = globals.cell(cell, name);
+			Object current = Environment.read(cell, name);
+			Object result = operation.apply(current, value.execute(frame));
+
+			/* the value may have removed the variable */
+			cell = globals.cell(cell, name);
+			globals.store(cell, name, result);
+			return null;
+		}
+	}
+
+	/**
+	 * A compound assignment the TypeChecker proved keeps a local int variable an
+	 * int.
+	 */
+	static abstract class IntCompoundAssign extends Local {
+		final Token operator;
+		final ExprNode value;
+
+		IntCompoundAssign(int depth, int slot, Token name, Token operator, ExprNode value) {
+			super(depth, slot, name);
+			this.operator = operator;
+			this.value = value;
+		}
+
+		Object execute(Environment frame) {
+			NewtObject var = variable(frame);
+			int current = var.getInt();
+			var.setInt(apply(current, value.executeInt(frame)));
+			return null;
+		}
+
+		abstract int apply(int current, int value);
+
+		final int divisor(int value) {
+			if (value == 0) {
+				throw new RuntimeError(operator, "Divisor cannot be zero.");
+			}
+
+			return value;
+		}
+
+		static ExprNode of(int depth, int slot, Token name, Token operator, ExprNode value) {
+			switch (operator.type) {
+			case PLUS:
+				return new IntCompoundAssign(depth, slot, name, operator, value) {
+					int apply(int current, int value) {
+						return current + value;
+					}
+				};
+			case MINUS:
+				return new IntCompoundAssign(depth, slot, name, operator, value) {
+					int apply(int current, int value) {
+						return current - value;
+					}
+				};
+			case STAR:
+				return new IntCompoundAssign(depth, slot, name, operator, value) {
+					int apply(int current, int value) {
+						return current * value;
+					}
+				};
+			case SLASH:
+				return new IntCompoundAssign(depth, slot, name, operator, value) {
+					int apply(int current, int value) {
+						return current / divisor(value);
+					}
+				};
+			default:
+				return new IntCompoundAssign(depth, slot, name, operator, value) {
+					int apply(int current, int value) {
+						return current % divisor(value);
+					}
+				};
+			}
+		}
+	}
+
+	/**
+	 * A compound assignment the TypeChecker proved keeps a local double variable a
+	 * double. An int value is given to the node widened.
+	 */
+	static abstract class DoubleCompoundAssign extends Local {
+		final Token operator;
+		final ExprNode value;
+
+		DoubleCompoundAssign(int depth, int slot, Token name, Token operator, ExprNode value) {
+			super(depth, slot, name);
+			this.operator = operator;
+			this.value = value;
+		}
+
+		Object execute(Environment frame) {
+			NewtObject var = variable(frame);
+			double current = var.getDouble();
+			var.setDouble(apply(current, value.executeDouble(frame)));
+			return null;
+		}
+
+		abstract double apply(double current, double value);
+
+		final double divisor(double value) {
+			if (value == 0) {
+				throw new RuntimeError(operator, "Divisor cannot be zero.");
+			}
+
+			return value;
+		}
+
+		static ExprNode of(int depth, int slot, Token name, Token operator, ExprNode value) {
+			switch (operator.type) {
+			case PLUS:
+				return new DoubleCompoundAssign(depth, slot, name, operator, value) {
+					double apply(double current, double value) {
+						return current + value;
+					}
+				};
+			case MINUS:
+				return new DoubleCompoundAssign(depth, slot, name, operator, value) {
+					double apply(double current, double value) {
+						return current - value;
+					}
+				};
+			case STAR:
+				return new DoubleCompoundAssign(depth, slot, name, operator, value) {
+					double apply(double current, double value) {
+						return current * value;
+					}
+				};
+			case SLASH:
+				return new DoubleCompoundAssign(depth, slot, name, operator, value) {
+					double apply(double current, double value) {
+						return current / divisor(value);
+					}
+				};
+			case PERCENT:
+				return new DoubleCompoundAssign(depth, slot, name, operator, value) {
+					double apply(double current, double value) {
+						return current % divisor(value);
+					}
+				};
+			default:
+				return new DoubleCompoundAssign(depth, slot, name, operator, value) {
+					double apply(double current, double value) {
+						return Math.pow(current, value);
+					}
+				};
+			}
+		}
+	}
+
+	/**
+	 * An increment or decrement of a local int variable.
+	 */
+	static final class IntIncrement extends Local {
+		final int step;
+
+		IntIncrement(int depth, int slot, Token name, int step) {
+			super(depth, slot, name);
+			this.step = step;
+		}
+
+		Object execute(Environment frame) {
+			NewtObject var = variable(frame);
+			var.setInt(var.getInt() + step);
+			return null;
+		}
+	}
+
+	/**
+	 * An increment or decrement of a local double variable.
+	 */
+	static final class DoubleIncrement extends Local {
+		final int step;
+
+		DoubleIncrement(int depth, int slot, Token name, int step) {
+			super(depth, slot, name);
+			this.step = step;
+		}
+
+		Object execute(Environment frame) {
+			NewtObject var = variable(frame);
+			var.setDouble(var.getDouble() + step);
+			return null;
+		}
+	}
+
+	/**
+	 * An increment or decrement of a local variable, applied by the general rules.
+	 */
+	static final class Increment extends Local {
+		final Operation operation;
+
+		Increment(int depth, int slot, Token name, Operation operation) {
+			super(depth, slot, name);
+			this.operation = operation;
+		}
+
+		Object execute(Environment frame) {
+			Object value = operation.apply(frame.getAt(depth, slot, name), ONE);
+			frame.assignAt(depth, slot, name, value);
+			return null;
+		}
+	}
+
+	/**
+	 * An increment or decrement of a global variable.
+	 */
+	static final class GlobalIncrement extends ExprNode {
+		final Global variable;
+		final Operation operation;
+
+		GlobalIncrement(Global variable, Operation operation) {
+			this.variable = variable;
+			this.operation = operation;
+		}
+
+		Object execute(Environment frame) {
+			Object value = operation.apply(variable.execute(frame), ONE);
+
+			/* evaluating the name found its global */
+			variable.globals.store(variable.cell, variable.name, value);
+			return null;
+		}
+	}
+
+	/**
+	 * The amount added by an increment, boxed once.
+	 */
+	static final Integer ONE = 1;
+
+	/**
+	 * The comparison of a control of a switch with the test of a case.
+	 */
+	static final class CaseCompare extends ExprNode {
+		final ExprNode control;
+		final ExprNode test;
+		final Interpreter interpreter;
+
+		CaseCompare(ExprNode control, ExprNode test, Interpreter interpreter) {
+			this.control = control;
+			this.test = test;
+			this.interpreter = interpreter;
+		}
+
+		Object execute(Environment frame) {
+			Object value = control.execute(frame);
+			return interpreter.isEqual(value, test.execute(frame));
+		}
+	}
+
+	/**
+	 * A call to a function or class.
+	 */
+	static final class Call extends ExprNode {
+		final ExprNode callee;
+		final ExprNode[] arguments;
+		final Token parenthesis;
+		final TreeEngine engine;
+
+		Call(ExprNode callee, ExprNode[] arguments, Token parenthesis, TreeEngine engine) {
+			this.callee = callee;
+			this.arguments = arguments;
+			this.parenthesis = parenthesis;
+			this.engine = engine;
+		}
+
+		Object execute(Environment frame) {
+			Object function = callee.execute(frame);
+			Object[] values = executeAll(arguments, frame);
+			return engine.call(parenthesis, function, null, values);
+		}
+
+		/**
+		 * Makes the call for a return. A Newt function is left for the returning
+		 * function's caller to call, once the returning function's frame is gone.
+		 *
+		 * @param frame the scope of the return
+		 * @return the result of the call, or TreeEngine.TAIL_CALL if it was left
+		 */
+		Object tail(Environment frame) {
+			Object function = callee.execute(frame);
+			Object[] values = executeAll(arguments, frame);
+			engine.checkCall(parenthesis, function, values.length);
+
+			if (function instanceof NewtFunction) {
+				return engine.tailCall((NewtFunction) function, ((NewtFunction) function).getReceiver(), values);
+			}
+
+			return engine.call(parenthesis, function, null, values);
+		}
+	}
+
+	/**
+	 * A call to a method, or to a function held in a field, of an instance.
+	 */
+	static final class Invoke extends ExprNode {
+		final ExprNode object;
+		final Token name;
+		final ExprNode[] arguments;
+		final Token parenthesis;
+		final PropertyCache cache;
+		final TreeEngine engine;
+
+		Invoke(ExprNode object, Token name, ExprNode[] arguments, Token parenthesis, PropertyCache cache,
+				TreeEngine engine) {
+			this.object = object;
+			this.name = name;
+			this.arguments = arguments;
+			this.parenthesis = parenthesis;
+			this.cache = cache;
+			this.engine = engine;
+		}
+
+		/**
+		 * Finds the instance the method is invoked on.
+		 */
+		private NewtInstance instance(Environment frame) {
+			Object value = object.execute(frame);
+
+			if (!(value instanceof NewtInstance)) {
+				throw new RuntimeError(name, "Only instances have properties.");
+			}
+
+			return (NewtInstance) value;
+		}
+
+		Object execute(Environment frame) {
+			NewtInstance instance = instance(frame);
+			NewtFunction method = instance.getMethod(name, cache);
+
+			/* a field holding a function is called like any other value */
+			Object function = method == null ? instance.get(name, cache) : method;
+			Object[] values = executeAll(arguments, frame);
+
+			/* the method receives the instance directly, rather than being bound to it */
+			return engine.call(parenthesis, function, method != null ? instance : null, values);
+		}
+
+		/**
+		 * Makes the invocation for a return, as Call.tail() does.
+		 *
+		 * @param frame the scope of the return
+		 * @return the result of the call, or TreeEngine.TAIL_CALL if it was left
+		 */
+		Object tail(Environment frame) {
+			NewtInstance instance = instance(frame);
+			NewtFunction method = instance.getMethod(name, cache);
+			Object function = method == null ? instance.get(name, cache) : method;
+			Object[] values = executeAll(arguments, frame);
+			engine.checkCall(parenthesis, function, values.length);
+
+			if (function instanceof NewtFunction) {
+				NewtInstance receiver = method != null ? instance : ((NewtFunction) function).getReceiver();
+				return engine.tailCall((NewtFunction) function, receiver, values);
+			}
+
+			return engine.call(parenthesis, function, method != null ? instance : null, values);
+		}
+	}
+
+	/**
+	 * A property of an instance.
+	 */
+	static final class Get extends ExprNode {
+		final ExprNode object;
+		final Token name;
+		final PropertyCache cache;
+
+		Get(ExprNode object, Token name, PropertyCache cache) {
+			this.object = object;
+			this.name = name;
+			this.cache = cache;
+		}
+
+		Object execute(Environment frame) {
+			Object value = object.execute(frame);
+
+			if (value instanceof NewtInstance) {
+				return ((NewtInstance) value).get(name, cache);
+			}
+
+			throw new RuntimeError(name, "Only instances have properties.");
+		}
+	}
+
+	/**
+	 * An assignment to a field of an instance.
+	 */
+	static final class Set extends ExprNode {
+		final ExprNode object;
+		final Token name;
+		final ExprNode value;
+		final PropertyCache cache;
+
+		Set(ExprNode object, Token name, ExprNode value, PropertyCache cache) {
+			this.object = object;
+			this.name = name;
+			this.value = value;
+			this.cache = cache;
+		}
+
+		Object execute(Environment frame) {
+			Object instance = object.execute(frame);
+
+			if (!(instance instanceof NewtInstance)) {
+				throw new RuntimeError(name, "Only instances have fields.");
+			}
+
+			Object result = value.execute(frame);
+			((NewtInstance) instance).set(name, result, cache);
+			return result;
+		}
+	}
+
+	/**
+	 * Converts the values of a call to the list natives and classes are called
+	 * with.
+	 *
+	 * @param values the values
+	 * @return the list
+	 */
+	static ArrayList<Object> list(Object[] values) {
+		ArrayList<Object> list = new ArrayList<>(values.length);
+
+		for (Object value : values) {
+			list.add(value);
+		}
+
+		return list;
+	}
+}
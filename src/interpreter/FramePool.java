@@ -0,0 +1,65 @@
+package interpreter;
+
+/**
+ * The scopes of finished function calls, kept to be reused by later calls. A
+ * closure holds only the variables it captures, never the scope of a call, so
+ * once a call returns nothing can reach its scope and it can be handed to the
+ * next call which needs the same number of slots.
+ *
+ * Each interpreter has a pool of its own, shared with the VM running for it.
+ *
+ * @author Jared
+ */
+class FramePool {
+
+	/**
+	 * Scopes with this many slots or more are not pooled.
+	 */
+	private static final int MAX_SLOTS = 32;
+
+	/**
+	 * The most scopes of each size which are kept.
+	 */
+	private static final int MAX_FREE = 64;
+
+	/**
+	 * The free scopes of each size, and how many there are.
+	 */
+	private final Environment[][] free = new Environment[MAX_SLOTS][MAX_FREE];
+	private final int[] counts = new int[MAX_SLOTS];
+
+	/**
+	 * Finds an empty scope for a call, reusing a free one if there is one.
+	 *
+	 * @param closure the closure of the function called
+	 * @param size    the number of slots the Resolver counted for the function
+	 * @return the scope
+	 */
+	Environment acquire(Environment closure, int size) {
+		if (size >= MAX_SLOTS || counts[size] == 0) {
+			return new Environment(closure, size);
+		}
+
+		Environment frame = free[size][--counts[size]];
+		free[size][counts[size]] = null;
+		frame.reuse(closure);
+		return frame;
+	}
+
+	/**
+	 * Returns the scope of a finished call to the pool.
+	 *
+	 * @param frame the scope, which must no longer be used
+	 */
+	void release(Environment frame) {
+		int size = frame.size();
+
+		if (size >= MAX_SLOTS || counts[size] == MAX_FREE) {
+			return;
+		}
+
+		frame.clear();
+		frame.reuse(null);
+		free[size][counts[size]++] = frame;
+	}
+}
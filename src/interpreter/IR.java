@@ -0,0 +1,258 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The IR is a lowered form of Newt functions for analyses and optimizations
+ * which are hard to write on the trees the parser builds. Each function is a
+ * control flow graph of basic blocks, and each block is a list of
+ * instructions which ends with a single terminator: a jump, a branch, a return
+ * or an exit.
+ *
+ * Every instruction is also the value it produces, and the IR is in static
+ * single assignment form: the locals the Resolver placed in slots become
+ * values, each defined exactly once, and phis join the values which reach a
+ * block from its predecessors. Locals which a closure captures, the variables
+ * in a function's own closure, and globals may change behind the function's
+ * back, so they stay in memory and are read and written with loads and stores.
+ *
+ * The IRBuilder builds the IR from resolved statements, the IRVerifier checks
+ * it, the IRPrinter prints it, and passes run on it through a PassManager.
+ *
+ * @author Jared
+ */
+class IR {
+
+	/**
+	 * The kinds of instruction.
+	 */
+	enum Op {
+		/* values */
+		CONSTANT, UNDEFINED, PARAMETER, PHI,
+
+		/* operations, which the interpreter applies with its own rules */
+		BINARY, UNARY, CASE_EQUAL, CHECK,
+
+		/* variables kept in memory */
+		DECLARE, LOAD_LOCAL, STORE_LOCAL, LOAD_CAPTURE, STORE_CAPTURE, LOAD_GLOBAL, STORE_GLOBAL, UNDECLARE,
+
+		/* functions, classes and instances */
+		FUNCTION, CLASS, CALL, INVOKE, GET, SET,
+
+		/* effects */
+		PRINT, OPAQUE,
+
+		/* terminators */
+		JUMP, BRANCH, RETURN, EXIT;
+
+		/**
+		 * Checks if instructions of this kind end a block.
+		 *
+		 * @return true for a terminator
+		 */
+		boolean isTerminator() {
+			return this == JUMP || this == BRANCH || this == RETURN || this == EXIT;
+		}
+
+		/**
+		 * Checks if instructions of this kind produce a value.
+		 *
+		 * @return true if the instruction can be an operand
+		 */
+		boolean hasValue() {
+			switch (this) {
+			case DECLARE:
+			case STORE_LOCAL:
+			case STORE_CAPTURE:
+			case STORE_GLOBAL:
+			case UNDECLARE:
+			case PRINT:
+			case OPAQUE:
+			case JUMP:
+			case BRANCH:
+			case RETURN:
+			case EXIT:
+				return false;
+			default:
+				return true;
+			}
+		}
+
+		/**
+		 * Checks if instructions of this kind can be removed when nothing uses
+		 * their values. Every other instruction may fail, or change something
+		 * outside the function.
+		 *
+		 * @return true if the instruction has no effect but its value
+		 */
+		boolean isPure() {
+			return this == CONSTANT || this == UNDEFINED || this == PHI || this == FUNCTION;
+		}
+	}
+
+	/**
+	 * A function, or the top-level code of a program, as a graph of blocks.
+	 */
+	static class Function {
+
+		/**
+		 * The name printed for the function.
+		 */
+		final String name;
+
+		/**
+		 * The declaration of the function, or null for top-level code.
+		 */
+		final Stmt.Function declaration;
+
+		/**
+		 * The blocks of the function. The first is the entry, which no block
+		 * jumps to.
+		 */
+		final ArrayList<Block> blocks = new ArrayList<>();
+
+		/**
+		 * The number given to the next block or value created.
+		 */
+		int nextBlock = 0;
+		int nextValue = 0;
+
+		Function(String name, Stmt.Function declaration) {
+			this.name = name;
+			this.declaration = declaration;
+		}
+
+		Block entry() {
+			return blocks.get(0);
+		}
+
+		/**
+		 * Adds a block to the end of the function.
+		 *
+		 * @return the block
+		 */
+		Block newBlock() {
+			Block block = new Block(this, nextBlock++);
+			blocks.add(block);
+			return block;
+		}
+	}
+
+	/**
+	 * A basic block: phis, then instructions which run in order, then a
+	 * terminator.
+	 */
+	static class Block {
+		final Function function;
+		final int id;
+		final ArrayList<Instruction> instructions = new ArrayList<>();
+
+		/**
+		 * The blocks which jump or branch here. The operands of each phi are in
+		 * the same order.
+		 */
+		final ArrayList<Block> predecessors = new ArrayList<>();
+
+		Block(Function function, int id) {
+			this.function = function;
+			this.id = id;
+		}
+
+		/**
+		 * Finds the terminator of the block.
+		 *
+		 * @return the terminator, or null if the block is not finished
+		 */
+		Instruction terminator() {
+			if (instructions.isEmpty()) {
+				return null;
+			}
+
+			Instruction last = instructions.get(instructions.size() - 1);
+			return last.op.isTerminator() ? last : null;
+		}
+
+		/**
+		 * Finds the blocks control may pass to from this one.
+		 *
+		 * @return the targets of the terminator
+		 */
+		List<Block> successors() {
+			Instruction terminator = terminator();
+			return terminator == null ? List.of() : Arrays.asList(terminator.targets);
+		}
+
+		/**
+		 * Adds an instruction to the end of the block.
+		 *
+		 * @param instruction the instruction
+		 * @return the instruction
+		 */
+		Instruction append(Instruction instruction) {
+			instruction.block = this;
+			instructions.add(instruction);
+			return instruction;
+		}
+
+		@Override
+		public String toString() {
+			return "b" + id;
+		}
+	}
+
+	/**
+	 * An instruction, and the value it produces.
+	 */
+	static class Instruction {
+		final Op op;
+		final int id;
+
+		/**
+		 * The values the instruction uses.
+		 */
+		final ArrayList<Instruction> operands = new ArrayList<>();
+
+		/**
+		 * What the instruction works on besides its operands: the value of a
+		 * constant, the operator of an operation, the type of a check or a
+		 * declaration, or the declaration of a function or class.
+		 */
+		Object payload = null;
+
+		/**
+		 * The token of the variable, property or call, used for errors and
+		 * printing.
+		 */
+		Token token = null;
+
+		/**
+		 * The slot of a variable kept in memory or in the closure, or the index
+		 * of a parameter.
+		 */
+		int slot = -1;
+
+		/**
+		 * The blocks a jump or branch passes control to. A branch goes to the
+		 * first if its condition is true.
+		 */
+		Block[] targets = new Block[0];
+
+		/**
+		 * The block which holds the instruction.
+		 */
+		Block block = null;
+
+		Instruction(Function function, Op op, Instruction... operands) {
+			this.op = op;
+			this.id = function.nextValue++;
+			this.operands.addAll(Arrays.asList(operands));
+		}
+
+		@Override
+		public String toString() {
+			return "v" + id;
+		}
+	}
+}
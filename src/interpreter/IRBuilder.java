@@ -0,0 +1,1289 @@
+package interpreter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import interpreter.Expr.Assign;
+import interpreter.Expr.Binary;
+import interpreter.Expr.Call;
+import interpreter.Expr.CaseCompare;
+import interpreter.Expr.CompoundAssign;
+import interpreter.Expr.Conditional;
+import interpreter.Expr.Get;
+import interpreter.Expr.Grouping;
+import interpreter.Expr.Increment;
+import interpreter.Expr.Invoke;
+import interpreter.Expr.Literal;
+import interpreter.Expr.Logical;
+import interpreter.Expr.Set;
+import interpreter.Expr.Sharp;
+import interpreter.Expr.This;
+import interpreter.Expr.Unary;
+import interpreter.Expr.UnaryAssign;
+import interpreter.Expr.Variable;
+import interpreter.IR.Block;
+import interpreter.IR.Instruction;
+import interpreter.IR.Op;
+import interpreter.Stmt.Case;
+import interpreter.Stmt.Class;
+import interpreter.Stmt.Declare;
+import interpreter.Stmt.Do;
+import interpreter.Stmt.ExPrint;
+import interpreter.Stmt.Expression;
+import interpreter.Stmt.For;
+import interpreter.Stmt.Function;
+import interpreter.Stmt.If;
+import interpreter.Stmt.Keyword;
+import interpreter.Stmt.Mould;
+import interpreter.Stmt.Print;
+import interpreter.Stmt.Return;
+import interpreter.Stmt.Sculpture;
+import interpreter.Stmt.Struct;
+import interpreter.Stmt.Switch;
+import interpreter.Stmt.Undec;
+import interpreter.Stmt.While;
+import newt_metatypes.NewtType;
+
+/**
+ * The IRBuilder lowers resolved statements to the IR: the top-level code of a
+ * program, and every function and method declared in it, each become an
+ * IR.Function.
+ *
+ * The IR is built in SSA form directly, without first placing variables in
+ * memory. Each block remembers the value each local has at its end; a read
+ * in a block which does not define the local looks through its predecessors,
+ * and where they disagree a phi joins them. A block whose predecessors are not
+ * all known yet, such as the head of a loop, is given phis whose operands are
+ * filled in once the block is sealed. A phi which turns out to join a single
+ * value is replaced by that value.
+ *
+ * A local is found from the scope the Resolver placed it in and its slot, so
+ * the same slot in different scopes, or in different runs of a loop, is told
+ * apart by where it was declared.
+ *
+ * @author Jared
+ */
+class IRBuilder implements Expr.Visitor<Instruction>, Stmt.Visitor<Void> {
+
+	/**
+	 * A local variable: the statement which opens its scope, and its slot there.
+	 */
+	private static final class Local {
+		final Object scope;
+		final int slot;
+
+		Local(Object scope, int slot) {
+			this.scope = scope;
+			this.slot = slot;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Local && ((Local) o).scope == scope && ((Local) o).slot == slot;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(scope) * 31 + slot;
+		}
+	}
+
+	/**
+	 * Where a break or continue goes from inside a loop or switch.
+	 */
+	private static final class Target {
+		final Block breakTo;
+		final Block continueTo;
+
+		/**
+		 * The exit of the innermost loop, which a break in the default of a switch
+		 * leaves, or null outside of any loop.
+		 */
+		final Block loopExit;
+
+		Target(Block breakTo, Block continueTo, Block loopExit) {
+			this.breakTo = breakTo;
+			this.continueTo = continueTo;
+			this.loopExit = loopExit;
+		}
+	}
+
+	/**
+	 * A function waiting to be built once the one which declares it is done.
+	 */
+	private static final class Pending {
+		final String name;
+		final Function declaration;
+		final boolean method;
+
+		Pending(String name, Function declaration, boolean method) {
+			this.name = name;
+			this.declaration = declaration;
+			this.method = method;
+		}
+	}
+
+	private final ArrayList<IR.Function> functions = new ArrayList<>();
+	private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+
+	/**
+	 * The function being built, and the block instructions are added to, or
+	 * null once the code which follows cannot be reached.
+	 */
+	private IR.Function function;
+	private Block current;
+
+	/**
+	 * The statements which open the scopes of the function, outermost first, in
+	 * the same order as the Resolver opened them.
+	 */
+	private final ArrayList<Object> scopes = new ArrayList<>();
+
+	/**
+	 * The locals kept in memory, because a closure captures them. If a function
+	 * holds a mould, whose contents are only known when it runs, every local is.
+	 */
+	private final HashSet<Local> captured = new HashSet<>();
+	private boolean opaque;
+
+	/**
+	 * The declared type of each local.
+	 */
+	private final HashMap<Local, NewtType> types = new HashMap<>();
+
+	/**
+	 * The value of each local at the end of each block which defines it.
+	 */
+	private final HashMap<Block, HashMap<Local, Instruction>> definitions = new HashMap<>();
+
+	/**
+	 * The phis of unsealed blocks, whose operands are added once every
+	 * predecessor is known. They are filled in the order they were made, so the
+	 * values are numbered the same way on every run.
+	 */
+	private final HashMap<Block, HashMap<Local, Instruction>> incomplete = new HashMap<>();
+	private final HashSet<Block> sealed = new HashSet<>();
+
+	/**
+	 * The value each removed phi was replaced with. Operands are brought up to
+	 * date once the function is built.
+	 */
+	private final HashMap<Instruction, Instruction> replaced = new HashMap<>();
+
+	/**
+	 * The value of a local which has not been given one.
+	 */
+	private Instruction undefined;
+
+	private final Stack<Target> targets = new Stack<>();
+
+	/**
+	 * Builds the IR of a program.
+	 *
+	 * @param statements the resolved statements of the program
+	 * @return the top-level code, followed by every function and method
+	 */
+	public List<IR.Function> build(List<Stmt> statements) {
+		begin("<script>", null);
+		scan(statements);
+		statements(statements);
+		end();
+
+		while (!pending.isEmpty()) {
+			Pending next = pending.poll();
+			buildFunction(next.name, next.declaration, next.method);
+		}
+
+		return functions;
+	}
+
+	/**
+	 * Builds the IR of a function. Its parameters are defined in its own scope,
+	 * after the instance for a method.
+	 */
+	private void buildFunction(String name, Function declaration, boolean method) {
+		begin(name, declaration);
+		scopes.add(declaration);
+		scan(declaration.body.statements);
+
+		int slot = 0;
+
+		if (method) {
+			Token receiver = new Token(TokenType.THIS, "this", null, declaration.name.line, declaration.name.character);
+			Instruction instance = emit(Op.PARAMETER);
+			instance.token = receiver;
+			instance.slot = slot;
+			define(new Local(declaration, slot++), receiver, instance, NewtType.VAR, true);
+		}
+
+		for (int i = 0; i < declaration.parameters.size(); i++) {
+			Token parameter = declaration.parameters.get(i);
+			Instruction argument = emit(Op.PARAMETER);
+			argument.token = parameter;
+			argument.slot = slot;
+			define(new Local(declaration, slot++), parameter, argument,
+					NewtType.named(declaration.types.get(i).lexeme), false);
+		}
+
+		statements(declaration.body.statements);
+		end();
+	}
+
+	private void begin(String name, Function declaration) {
+		function = new IR.Function(name, declaration);
+		functions.add(function);
+
+		scopes.clear();
+		captured.clear();
+		types.clear();
+		definitions.clear();
+		incomplete.clear();
+		sealed.clear();
+		replaced.clear();
+		targets.clear();
+		opaque = false;
+		undefined = null;
+
+		current = function.newBlock();
+		sealed.add(current);
+	}
+
+	/**
+	 * Finishes a function. Code which falls off its end returns null, the
+	 * blocks nothing can reach are removed, and every phi left joining a single
+	 * value is replaced by it.
+	 */
+	private void end() {
+		if (current != null) {
+			terminate(Op.RETURN, constant(null));
+		}
+
+		update();
+		order();
+
+		boolean removed = true;
+
+		while (removed) {
+			removed = false;
+
+			for (Block block : function.blocks) {
+				for (int i = 0; i < block.instructions.size(); i++) {
+					Instruction phi = block.instructions.get(i);
+
+					if (phi.op == Op.PHI && trivial(phi) != phi) {
+						replaced.put(phi, trivial(phi));
+						block.instructions.remove(i--);
+						removed = true;
+					}
+				}
+			}
+
+			update();
+		}
+	}
+
+	/**
+	 * Brings every operand up to date with the phis which were replaced.
+	 */
+	private void update() {
+		for (Block block : function.blocks) {
+			for (Instruction instruction : block.instructions) {
+				instruction.operands.replaceAll(this::resolve);
+			}
+		}
+	}
+
+	private Instruction resolve(Instruction value) {
+		while (replaced.containsKey(value)) {
+			value = replaced.get(value);
+		}
+
+		return value;
+	}
+
+	/**
+	 * Puts the blocks in reverse postorder, removing those which cannot be
+	 * reached from the entry, and their operands in the phis they jump to.
+	 */
+	private void order() {
+		ArrayList<Block> postorder = new ArrayList<>();
+		HashSet<Block> visited = new HashSet<>();
+		Stack<Block> stack = new Stack<>();
+		Stack<Integer> next = new Stack<>();
+
+		visited.add(function.entry());
+		stack.push(function.entry());
+		next.push(0);
+
+		while (!stack.isEmpty()) {
+			Block block = stack.peek();
+			int index = next.pop();
+			List<Block> successors = block.successors();
+
+			if (index < successors.size()) {
+				next.push(index + 1);
+				Block successor = successors.get(index);
+
+				if (visited.add(successor)) {
+					stack.push(successor);
+					next.push(0);
+				}
+			} else {
+				postorder.add(stack.pop());
+			}
+		}
+
+		function.blocks.clear();
+
+		for (int i = postorder.size() - 1; i >= 0; i--) {
+			Block block = postorder.get(i);
+			function.blocks.add(block);
+
+			for (int j = block.predecessors.size() - 1; j >= 0; j--) {
+				if (!visited.contains(block.predecessors.get(j))) {
+					block.predecessors.remove(j);
+
+					for (Instruction instruction : block.instructions) {
+						if (instruction.op == Op.PHI) {
+							instruction.operands.remove(j);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the locals of a function which closures capture, by walking its
+	 * statements with the same scopes as the Resolver. A closure's captures say
+	 * where each variable is found from the scope which creates it.
+	 *
+	 * @param statements the statements of the function
+	 */
+	private void scan(List<Stmt> statements) {
+		for (Stmt statement : statements) {
+			scan(statement);
+		}
+	}
+
+	private void scan(Stmt stmt) {
+		if (stmt instanceof Stmt.Block) {
+			Stmt.Block block = (Stmt.Block) stmt;
+
+			if (block.scoped) {
+				scopes.add(block);
+			}
+
+			scan(block.statements);
+
+			if (block.scoped) {
+				scopes.remove(scopes.size() - 1);
+			}
+		} else if (stmt instanceof For) {
+			scopes.add(stmt);
+			scan(((For) stmt).body);
+			scopes.remove(scopes.size() - 1);
+		} else if (stmt instanceof While) {
+			scan(((While) stmt).body);
+		} else if (stmt instanceof Do) {
+			scan(((Do) stmt).body);
+		} else if (stmt instanceof If) {
+			scan(((If) stmt).ifBody);
+
+			if (((If) stmt).elseBody != null) {
+				scan(((If) stmt).elseBody);
+			}
+		} else if (stmt instanceof Switch) {
+			for (Case caseStmt : ((Switch) stmt).cases) {
+				scan(caseStmt.body);
+			}
+
+			if (((Switch) stmt).defaultBody != null) {
+				scan(((Switch) stmt).defaultBody);
+			}
+		} else if (stmt instanceof Function) {
+			capture((Function) stmt);
+		} else if (stmt instanceof Class) {
+			for (Function method : ((Class) stmt).methods) {
+				capture(method);
+			}
+		} else if (stmt instanceof Mould) {
+			opaque = true;
+		}
+	}
+
+	private void capture(Function closure) {
+		for (Variable variable : closure.captures) {
+			if (variable.depth < scopes.size()) {
+				captured.add(local(variable.depth, variable.slot));
+			}
+		}
+	}
+
+	/**
+	 * Finds the local the Resolver placed at a distance and slot.
+	 */
+	private Local local(int depth, int slot) {
+		return new Local(scopes.get(scopes.size() - 1 - depth), slot);
+	}
+
+	private boolean inMemory(Local local) {
+		return opaque || captured.contains(local);
+	}
+
+	private void statements(List<Stmt> statements) {
+		for (Stmt statement : statements) {
+
+			/* nothing after a jump, return or exit can run */
+			if (current == null) {
+				return;
+			}
+
+			statement.accept(this);
+		}
+	}
+
+	private Instruction build(Expr expr) {
+		return expr.accept(this);
+	}
+
+	/**
+	 * Adds an instruction to the current block.
+	 *
+	 * @param op       the kind of instruction
+	 * @param operands the values it uses
+	 * @return the instruction
+	 */
+	private Instruction emit(Op op, Instruction... operands) {
+		return current.append(new Instruction(function, op, operands));
+	}
+
+	private Instruction constant(Object value) {
+		Instruction constant = emit(Op.CONSTANT);
+		constant.payload = value;
+		return constant;
+	}
+
+	private Instruction undefined() {
+		if (undefined == null) {
+			undefined = new Instruction(function, Op.UNDEFINED);
+			undefined.block = function.entry();
+			function.entry().instructions.add(0, undefined);
+		}
+
+		return undefined;
+	}
+
+	/**
+	 * Ends the current block with a return or an exit.
+	 */
+	private void terminate(Op op, Instruction... operands) {
+		emit(op, operands);
+		current = null;
+	}
+
+	private void jump(Block target) {
+		Instruction jump = emit(Op.JUMP);
+		jump.targets = new Block[] { target };
+		target.predecessors.add(current);
+		current = null;
+	}
+
+	private void branch(Instruction condition, Block ifTrue, Block ifFalse) {
+		Instruction branch = emit(Op.BRANCH, condition);
+		branch.targets = new Block[] { ifTrue, ifFalse };
+		ifTrue.predecessors.add(current);
+		ifFalse.predecessors.add(current);
+		current = null;
+	}
+
+	/**
+	 * Creates a phi at the start of a block, after any others.
+	 */
+	private Instruction phi(Block block) {
+		Instruction phi = new Instruction(function, Op.PHI);
+		phi.block = block;
+
+		int index = 0;
+		while (index < block.instructions.size() && block.instructions.get(index).op == Op.PHI) {
+			index++;
+		}
+
+		block.instructions.add(index, phi);
+		return phi;
+	}
+
+	/**
+	 * Joins the values two branches reach a block with.
+	 *
+	 * @param join   the block, whose only predecessors are the two branches
+	 * @param first  the value from the first predecessor
+	 * @param second the value from the second
+	 * @return the phi
+	 */
+	private Instruction join(Block join, Instruction first, Instruction second) {
+		seal(join);
+		current = join;
+
+		if (first == second) {
+			return first;
+		}
+
+		Instruction phi = phi(join);
+		phi.operands.add(first);
+		phi.operands.add(second);
+		return phi;
+	}
+
+	private void write(Local local, Block block, Instruction value) {
+		definitions.computeIfAbsent(block, key -> new HashMap<>()).put(local, value);
+	}
+
+	/**
+	 * Finds the value a local has at the end of a block.
+	 */
+	private Instruction read(Local local, Block block) {
+		Map<Local, Instruction> defined = definitions.get(block);
+
+		if (defined != null && defined.containsKey(local)) {
+			return resolve(defined.get(local));
+		}
+
+		Instruction value;
+
+		if (!sealed.contains(block)) {
+			/* the block may still be reached from elsewhere */
+			value = phi(block);
+			incomplete.computeIfAbsent(block, key -> new LinkedHashMap<>()).put(local, value);
+		} else if (block.predecessors.isEmpty()) {
+			value = undefined();
+		} else if (block.predecessors.size() == 1) {
+			value = read(local, block.predecessors.get(0));
+		} else {
+			/* the phi is the local's value while its own operands are read, which breaks cycles */
+			Instruction phi = phi(block);
+			write(local, block, phi);
+			value = fill(local, phi);
+		}
+
+		write(local, block, value);
+		return value;
+	}
+
+	/**
+	 * Gives a phi the value of a local from each predecessor of its block.
+	 *
+	 * @return the phi, or the single value it would join
+	 */
+	private Instruction fill(Local local, Instruction phi) {
+		for (Block predecessor : phi.block.predecessors) {
+			phi.operands.add(read(local, predecessor));
+		}
+
+		Instruction same = trivial(phi);
+
+		if (same != phi) {
+			replaced.put(phi, same);
+			phi.block.instructions.remove(phi);
+		}
+
+		return same;
+	}
+
+	/**
+	 * Finds the single value a phi joins, besides itself.
+	 *
+	 * @return the value, or the phi if it joins two or more
+	 */
+	private Instruction trivial(Instruction phi) {
+		Instruction same = null;
+
+		for (Instruction operand : phi.operands) {
+			operand = resolve(operand);
+
+			if (operand == same || operand == phi) {
+				continue;
+			}
+
+			if (same != null) {
+				return phi;
+			}
+
+			same = operand;
+		}
+
+		return same == null ? undefined() : same;
+	}
+
+	/**
+	 * Marks a block as having all its predecessors, completing its phis.
+	 */
+	private void seal(Block block) {
+		HashMap<Local, Instruction> phis = incomplete.remove(block);
+
+		if (phis != null) {
+			for (Map.Entry<Local, Instruction> entry : phis.entrySet()) {
+				fill(entry.getKey(), entry.getValue());
+			}
+		}
+
+		sealed.add(block);
+	}
+
+	/**
+	 * Gives a new local its first value.
+	 *
+	 * @param local  the local
+	 * @param name   the name of the local
+	 * @param value  the value, or null if it has none yet
+	 * @param type   the declared type
+	 * @param proven true if the value is known to have the type
+	 */
+	private void define(Local local, Token name, Instruction value, NewtType type, boolean proven) {
+		types.put(local, type);
+
+		if (inMemory(local)) {
+			Instruction declare = value == null ? emit(Op.DECLARE) : emit(Op.DECLARE, value);
+			declare.payload = type;
+			declare.token = name;
+			declare.slot = local.slot;
+			return;
+		}
+
+		write(local, current, value == null ? undefined() : check(value, type, name, proven));
+	}
+
+	/**
+	 * Checks a value against the declared type of the local it is given to, as
+	 * the interpreter does unless the type was proven.
+	 */
+	private Instruction check(Instruction value, NewtType type, Token name, boolean proven) {
+		if (proven || type == null || type == NewtType.VAR) {
+			return value;
+		}
+
+		Instruction check = emit(Op.CHECK, value);
+		check.payload = type;
+		check.token = name;
+		return check;
+	}
+
+	/**
+	 * Reads a variable from where the Resolver found it.
+	 */
+	private Instruction load(Token name, int depth, int slot) {
+		Instruction load;
+
+		if (depth < 0) {
+			load = emit(Op.LOAD_GLOBAL);
+		} else if (depth >= scopes.size()) {
+			load = emit(Op.LOAD_CAPTURE);
+		} else if (inMemory(local(depth, slot))) {
+			load = emit(Op.LOAD_LOCAL);
+			load.payload = types.get(local(depth, slot));
+		} else {
+			return read(local(depth, slot), current);
+		}
+
+		load.token = name;
+		load.slot = slot;
+		return load;
+	}
+
+	/**
+	 * Assigns a variable where the Resolver found it.
+	 */
+	private void store(Token name, int depth, int slot, Instruction value, boolean proven) {
+		Instruction store;
+
+		if (depth < 0) {
+			store = emit(Op.STORE_GLOBAL, value);
+		} else if (depth >= scopes.size()) {
+			store = emit(Op.STORE_CAPTURE, value);
+		} else if (inMemory(local(depth, slot))) {
+			store = emit(Op.STORE_LOCAL, value);
+		} else {
+			Local local = local(depth, slot);
+			write(local, current, check(value, types.get(local), name, proven));
+			return;
+		}
+
+		store.token = name;
+		store.slot = slot;
+	}
+
+	/**
+	 * Declares the variable of a function or class.
+	 */
+	private void declare(Token name, int slot, Instruction value, NewtType type) {
+		if (slot < 0) {
+			Instruction declare = emit(Op.DECLARE, value);
+			declare.payload = type;
+			declare.token = name;
+			return;
+		}
+
+		define(new Local(scopes.get(scopes.size() - 1), slot), name, value, type, true);
+	}
+
+	@Override
+	public Void visitKeywordStmt(Keyword stmt) {
+		switch (stmt.word.type) {
+		case BREAK:
+			leave(targets.isEmpty() ? null : targets.peek().breakTo);
+			break;
+		case CONTINUE:
+			leave(targets.isEmpty() ? null : targets.peek().continueTo);
+			break;
+		case EXIT:
+			terminate(Op.EXIT);
+			break;
+		default:
+		}
+
+		return null;
+	}
+
+	/**
+	 * Jumps to where a break or continue goes. Outside of any loop, nothing
+	 * stops it until the function ends, so it returns.
+	 */
+	private void leave(Block target) {
+		if (target != null) {
+			jump(target);
+		} else {
+			terminate(Op.RETURN, constant(null));
+		}
+	}
+
+	@Override
+	public Void visitReturnStmt(Return stmt) {
+		terminate(Op.RETURN, stmt.value == null ? constant(null) : build(stmt.value));
+		return null;
+	}
+
+	@Override
+	public Void visitExpressionStmt(Expression stmt) {
+		build(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitExPrintStmt(ExPrint stmt) {
+		emit(Op.PRINT, constant(new ASTPrinter().print(stmt.expression)));
+		return null;
+	}
+
+	@Override
+	public Void visitPrintStmt(Print stmt) {
+		emit(Op.PRINT, build(stmt.expression));
+		return null;
+	}
+
+	@Override
+	public Void visitDeclareStmt(Declare stmt) {
+		Instruction value = stmt.value == null ? null : build(stmt.value);
+		NewtType type = NewtType.named(stmt.type.lexeme);
+
+		if (stmt.slot < 0) {
+			Instruction declare = value == null ? emit(Op.DECLARE) : emit(Op.DECLARE, value);
+			declare.payload = type;
+			declare.token = stmt.name;
+			return null;
+		}
+
+		define(new Local(scopes.get(scopes.size() - 1), stmt.slot), stmt.name, value, type, stmt.proven);
+		return null;
+	}
+
+	@Override
+	public Void visitBlockStmt(Stmt.Block stmt) {
+		if (stmt.scoped) {
+			scopes.add(stmt);
+		}
+
+		statements(stmt.statements);
+
+		if (stmt.scoped) {
+			scopes.remove(scopes.size() - 1);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Runs the body of a loop, whose break and continue go to the given blocks.
+	 */
+	private void loopBody(Stmt.Block body, Block exit, Block next) {
+		targets.push(new Target(exit, next, exit));
+		body.accept(this);
+		targets.pop();
+
+		if (current != null) {
+			jump(next);
+		}
+	}
+
+	@Override
+	public Void visitWhileStmt(While stmt) {
+		Block header = function.newBlock();
+		Block body = function.newBlock();
+		Block exit = function.newBlock();
+
+		jump(header);
+		current = header;
+		branch(build(stmt.condition), body, exit);
+
+		seal(body);
+		current = body;
+		loopBody(stmt.body, exit, header);
+
+		seal(header);
+		seal(exit);
+		current = exit;
+		return null;
+	}
+
+	@Override
+	public Void visitDoStmt(Do stmt) {
+		Block body = function.newBlock();
+		Block condition = function.newBlock();
+		Block exit = function.newBlock();
+
+		jump(body);
+		current = body;
+		loopBody(stmt.body, exit, condition);
+
+		/* a continue goes to the condition, just as the end of the body does */
+		seal(condition);
+		current = condition;
+		branch(build(stmt.condition), body, exit);
+
+		seal(body);
+		seal(exit);
+		current = exit;
+		return null;
+	}
+
+	@Override
+	public Void visitForStmt(For stmt) {
+		scopes.add(stmt);
+
+		if (stmt.declaration != null) {
+			stmt.declaration.accept(this);
+		}
+
+		Block header = function.newBlock();
+		Block body = function.newBlock();
+		Block step = function.newBlock();
+		Block exit = function.newBlock();
+
+		jump(header);
+		current = header;
+		branch(build(stmt.condition), body, exit);
+
+		/* a continue still runs the incrementor */
+		seal(body);
+		current = body;
+		loopBody(stmt.body, exit, step);
+
+		seal(step);
+		current = step;
+
+		if (stmt.incrementor != null) {
+			build(stmt.incrementor);
+		}
+
+		jump(header);
+
+		seal(header);
+		seal(exit);
+		current = exit;
+		scopes.remove(scopes.size() - 1);
+		return null;
+	}
+
+	/**
+	 * Builds a switch. Every case whose tests all match runs, in order, and the
+	 * default runs if none did. A switch found through its table compares each
+	 * control with each test itself, reading the controls again for each case
+	 * as the interpreter does.
+	 */
+	@Override
+	public Void visitSwitchStmt(Switch stmt) {
+		/* whether a case has run is a local of its own */
+		Local found = new Local(stmt, -1);
+		write(found, current, constant(false));
+
+		Target enclosing = targets.isEmpty() ? new Target(null, null, null) : targets.peek();
+		Block end = function.newBlock();
+
+		for (Case caseStmt : stmt.cases) {
+			Block skip = function.newBlock();
+			/* as in the Lowerer, each control is compared with one test, and extra tests are ignored */
+			int tests = stmt.dispatch != null ? stmt.controls.size() : caseStmt.comparisons.size();
+
+			for (int i = 0; i < tests; i++) {
+				Instruction test;
+
+				if (stmt.dispatch != null) {
+					Instruction control = build(stmt.controls.get(i));
+					test = emit(Op.CASE_EQUAL, control, build(caseStmt.tests.get(i)));
+				} else {
+					test = build(caseStmt.comparisons.get(i));
+				}
+
+				Block pass = function.newBlock();
+				branch(test, pass, skip);
+				seal(pass);
+				current = pass;
+			}
+
+			write(found, current, constant(true));
+			targets.push(new Target(end, enclosing.continueTo, enclosing.loopExit));
+			caseStmt.body.accept(this);
+			targets.pop();
+
+			if (current != null) {
+				jump(skip);
+			}
+
+			seal(skip);
+			current = skip;
+		}
+
+		if (stmt.defaultBody != null) {
+			Block defaultBody = function.newBlock();
+			branch(read(found, current), end, defaultBody);
+			seal(defaultBody);
+			current = defaultBody;
+
+			/* as in the interpreter, a break in the default leaves the enclosing loop */
+			Block breakTo = enclosing.loopExit != null ? enclosing.loopExit : end;
+			targets.push(new Target(breakTo, enclosing.continueTo, enclosing.loopExit));
+			stmt.defaultBody.accept(this);
+			targets.pop();
+		}
+
+		if (current != null) {
+			jump(end);
+		}
+
+		seal(end);
+		current = end;
+		return null;
+	}
+
+	@Override
+	public Void visitCaseStmt(Case stmt) {
+		// cases are built by their switch
+		return null;
+	}
+
+	@Override
+	public Void visitClassStmt(Class stmt) {
+		for (Function method : stmt.methods) {
+			pending.add(new Pending(stmt.name.lexeme + "." + method.name.lexeme, method, true));
+		}
+
+		Instruction value = emit(Op.CLASS);
+		value.payload = stmt;
+		value.token = stmt.name;
+		declare(stmt.name, stmt.slot, value, NewtType.CLASS);
+		return null;
+	}
+
+	@Override
+	public Void visitIfStmt(If stmt) {
+		Block ifBody = function.newBlock();
+		Block elseBody = stmt.elseBody == null ? null : function.newBlock();
+		Block end = function.newBlock();
+
+		branch(build(stmt.condition), ifBody, elseBody == null ? end : elseBody);
+
+		seal(ifBody);
+		current = ifBody;
+		stmt.ifBody.accept(this);
+
+		if (current != null) {
+			jump(end);
+		}
+
+		if (elseBody != null) {
+			seal(elseBody);
+			current = elseBody;
+			stmt.elseBody.accept(this);
+
+			if (current != null) {
+				jump(end);
+			}
+		}
+
+		seal(end);
+		current = end;
+		return null;
+	}
+
+	@Override
+	public Void visitUndecStmt(Undec stmt) {
+		for (Variable variable : stmt.variables) {
+
+			/* only variables of the current scope can be removed */
+			if (variable.depth > 0) {
+				continue;
+			}
+
+			if (variable.depth == 0 && !inMemory(local(0, variable.slot))) {
+				write(local(0, variable.slot), current, undefined());
+				continue;
+			}
+
+			Instruction undeclare = emit(Op.UNDECLARE);
+			undeclare.token = variable.name;
+			undeclare.slot = variable.slot;
+		}
+
+		return null;
+	}
+
+	@Override
+	public Void visitStructStmt(Struct stmt) {
+		// struct statements are only used by the parser
+		return null;
+	}
+
+	@Override
+	public Void visitSculptureStmt(Sculpture stmt) {
+		// sculpture statements are only used by the parser
+		return null;
+	}
+
+	@Override
+	public Void visitMouldStmt(Mould stmt) {
+		/* the parts placed into a mould are only known when it runs */
+		emit(Op.OPAQUE).payload = stmt;
+		return null;
+	}
+
+	@Override
+	public Void visitFunctionStmt(Function stmt) {
+		pending.add(new Pending(stmt.name.lexeme, stmt, false));
+
+		Instruction value = emit(Op.FUNCTION);
+		value.payload = stmt;
+		value.token = stmt.name;
+		declare(stmt.name, stmt.slot, value, NewtType.FUNCTION);
+		return null;
+	}
+
+	@Override
+	public Instruction visitConditionalExpr(Conditional expr) {
+		Block first = function.newBlock();
+		Block second = function.newBlock();
+		Block end = function.newBlock();
+
+		branch(build(expr.condition), first, second);
+
+		seal(first);
+		current = first;
+		Instruction firstValue = build(expr.first);
+		jump(end);
+
+		seal(second);
+		current = second;
+		Instruction secondValue = build(expr.second);
+		jump(end);
+
+		return join(end, firstValue, secondValue);
+	}
+
+	@Override
+	public Instruction visitBinaryExpr(Binary expr) {
+		Instruction binary = emit(Op.BINARY, build(expr.left), build(expr.right));
+		binary.payload = expr.operator;
+		return binary;
+	}
+
+	/**
+	 * Builds a logical expression, which reads its right operand only when the
+	 * left does not decide the result, following Interpreter.visitLogicalExpr().
+	 */
+	@Override
+	public Instruction visitLogicalExpr(Logical expr) {
+		Block ifTrue = function.newBlock();
+		Block ifFalse = function.newBlock();
+		Block end = function.newBlock();
+
+		branch(build(expr.left), ifTrue, ifFalse);
+
+		seal(ifTrue);
+		current = ifTrue;
+		Instruction trueValue;
+
+		switch (expr.operator.type) {
+		case OR:
+			trueValue = constant(true);
+			break;
+		case NOR:
+			trueValue = constant(false);
+			break;
+		case NAND:
+			trueValue = not(expr.operator, build(expr.right));
+			break;
+		default:
+			trueValue = build(expr.right);
+		}
+
+		jump(end);
+
+		seal(ifFalse);
+		current = ifFalse;
+		Instruction falseValue;
+
+		switch (expr.operator.type) {
+		case AND:
+			falseValue = constant(false);
+			break;
+		case NOR:
+			falseValue = not(expr.operator, build(expr.right));
+			break;
+		case ARROW:
+			falseValue = constant(true);
+			break;
+		default:
+			falseValue = build(expr.right);
+		}
+
+		jump(end);
+
+		return join(end, trueValue, falseValue);
+	}
+
+	private Instruction not(Token operator, Instruction value) {
+		Instruction not = emit(Op.UNARY, value);
+		not.payload = new Token(TokenType.BANG, "!", null, operator.line, operator.character);
+		return not;
+	}
+
+	@Override
+	public Instruction visitGroupingExpr(Grouping expr) {
+		return build(expr.expression);
+	}
+
+	@Override
+	public Instruction visitLiteralExpr(Literal expr) {
+		return constant(expr.value);
+	}
+
+	@Override
+	public Instruction visitGetExpr(Get expr) {
+		Instruction get = emit(Op.GET, build(expr.object));
+		get.token = expr.name;
+		return get;
+	}
+
+	@Override
+	public Instruction visitSetExpr(Set expr) {
+		Instruction object = build(expr.object);
+		Instruction set = emit(Op.SET, object, build(expr.value));
+		set.token = expr.name;
+		return set;
+	}
+
+	@Override
+	public Instruction visitThisExpr(This expr) {
+		return load(expr.keyword, expr.depth, expr.slot);
+	}
+
+	@Override
+	public Instruction visitUnaryExpr(Unary expr) {
+		Instruction unary = emit(Op.UNARY, build(expr.right));
+		unary.payload = expr.operator;
+		return unary;
+	}
+
+	@Override
+	public Instruction visitVariableExpr(Variable expr) {
+		return load(expr.name, expr.depth, expr.slot);
+	}
+
+	@Override
+	public Instruction visitAssignExpr(Assign expr) {
+		store(expr.name, expr.depth, expr.slot, build(expr.value), expr.proven);
+		return constant(null);
+	}
+
+	@Override
+	public Instruction visitUnaryAssignExpr(UnaryAssign expr) {
+		// unary assignments are replaced with increments by the Lowerer
+		return constant(null);
+	}
+
+	@Override
+	public Instruction visitCompoundAssignExpr(CompoundAssign expr) {
+		Instruction variable = load(expr.name, expr.depth, expr.slot);
+		Instruction binary = emit(Op.BINARY, variable, build(expr.value));
+		binary.payload = expr.operator;
+		store(expr.name, expr.depth, expr.slot, binary, expr.proven);
+		return constant(null);
+	}
+
+	@Override
+	public Instruction visitIncrementExpr(Increment expr) {
+		Variable name = expr.name;
+		Instruction variable = load(name.name, name.depth, name.slot);
+		Instruction binary = emit(Op.BINARY, variable, constant(1));
+		binary.payload = expr.operator;
+
+		/* a number stays the type it was */
+		boolean proven = name.staticType == NewtType.INT || name.staticType == NewtType.DOUBLE;
+		store(name.name, name.depth, name.slot, binary, proven);
+		return constant(null);
+	}
+
+	@Override
+	public Instruction visitCaseCompareExpr(CaseCompare expr) {
+		return emit(Op.CASE_EQUAL, build(expr.control), build(expr.test));
+	}
+
+	/**
+	 * Builds the target and arguments of a call, in the order they are
+	 * evaluated.
+	 */
+	private Instruction[] operands(Expr target, List<Expr> arguments) {
+		Instruction[] operands = new Instruction[arguments.size() + 1];
+		operands[0] = build(target);
+
+		for (int i = 0; i < arguments.size(); i++) {
+			operands[i + 1] = build(arguments.get(i));
+		}
+
+		return operands;
+	}
+
+	@Override
+	public Instruction visitCallExpr(Call expr) {
+		Instruction call = emit(Op.CALL, operands(expr.callee, expr.arguments));
+		call.token = expr.parenthesis;
+		return call;
+	}
+
+	@Override
+	public Instruction visitInvokeExpr(Invoke expr) {
+		Instruction invoke = emit(Op.INVOKE, operands(expr.object, expr.arguments));
+		invoke.token = expr.name;
+		return invoke;
+	}
+
+	@Override
+	public Instruction visitSharpExpr(Sharp expr) {
+		// sharp expressions are only placeholders
+		return constant(null);
+	}
+}
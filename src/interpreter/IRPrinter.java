@@ -0,0 +1,172 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import newt_metatypes.NewtType;
+
+/**
+ * The IRPrinter prints IR functions as text, one instruction to a line. Each
+ * block is headed by its predecessors, its immediate dominator and the values
+ * live into it, and each value is followed by its type, taken from the
+ * analyses of a PassManager.
+ *
+ * @author Jared
+ */
+class IRPrinter {
+
+	private final PassManager manager;
+
+	/**
+	 * @param manager the manager which provides the analyses printed
+	 */
+	IRPrinter(PassManager manager) {
+		this.manager = manager;
+	}
+
+	/**
+	 * Prints functions.
+	 *
+	 * @param functions the functions
+	 * @return the text of each, separated by blank lines
+	 */
+	String print(List<IR.Function> functions) {
+		StringBuilder builder = new StringBuilder();
+
+		for (IR.Function function : functions) {
+			if (builder.length() > 0) {
+				builder.append("\n");
+			}
+
+			print(function, builder);
+		}
+
+		return builder.toString();
+	}
+
+	private void print(IR.Function function, StringBuilder builder) {
+		Dominance dominance = manager.get(Dominance.ANALYSIS, function);
+		Liveness liveness = manager.get(Liveness.ANALYSIS, function);
+		TypePropagation types = manager.get(TypePropagation.ANALYSIS, function);
+
+		builder.append("function ").append(function.name).append("\n");
+
+		for (IR.Block block : function.blocks) {
+			builder.append(block).append(":");
+
+			if (!block.predecessors.isEmpty()) {
+				builder.append(" preds ").append(join(block.predecessors));
+			}
+
+			if (dominance.idom(block) != null) {
+				builder.append(" idom ").append(dominance.idom(block));
+			}
+
+			Set<IR.Instruction> live = liveness.liveIn(block);
+
+			if (live != null && !live.isEmpty()) {
+				ArrayList<IR.Instruction> sorted = new ArrayList<>(live);
+				sorted.sort(Comparator.comparingInt(value -> value.id));
+				builder.append(" live ").append(join(sorted));
+			}
+
+			builder.append("\n");
+
+			for (IR.Instruction instruction : block.instructions) {
+				builder.append("    ").append(instruction(instruction, types)).append("\n");
+			}
+		}
+	}
+
+	/**
+	 * Prints an instruction.
+	 *
+	 * @param instruction the instruction
+	 * @param types       the types of the function's values
+	 * @return the text of the instruction
+	 */
+	private static String instruction(IR.Instruction instruction, TypePropagation types) {
+		StringBuilder builder = new StringBuilder();
+
+		if (instruction.op.hasValue()) {
+			builder.append(instruction).append(" = ");
+		}
+
+		builder.append(instruction.op.name().toLowerCase());
+
+		if (instruction.op == IR.Op.CONSTANT) {
+			builder.append(" ").append(literal(instruction.payload));
+		} else if (instruction.payload instanceof Token) {
+			builder.append(" ").append(((Token) instruction.payload).lexeme);
+		}
+
+		/* a call is named by its callee */
+		if (instruction.token != null && instruction.op != IR.Op.CALL) {
+			builder.append(" ").append(instruction.token.lexeme);
+		}
+
+		if (instruction.slot >= 0) {
+			builder.append("@").append(instruction.slot);
+		}
+
+		if (instruction.payload instanceof NewtType) {
+			builder.append(" ").append(instruction.payload);
+		}
+
+		if (instruction.op == IR.Op.PHI) {
+			for (int i = 0; i < instruction.operands.size(); i++) {
+				builder.append(i == 0 ? " " : ", ");
+				builder.append(instruction.block.predecessors.get(i)).append(": ").append(instruction.operands.get(i));
+			}
+		} else {
+			for (IR.Instruction operand : instruction.operands) {
+				builder.append(" ").append(operand);
+			}
+		}
+
+		for (IR.Block target : instruction.targets) {
+			builder.append(" ").append(target);
+		}
+
+		if (instruction.op.hasValue()) {
+			builder.append(" : ").append(types.typeOf(instruction));
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Prints the value of a constant as it would be written in Newt.
+	 */
+	private static String literal(Object value) {
+		if (value instanceof String) {
+			return "\"" + escape((String) value) + "\"";
+		}
+
+		if (value instanceof Character) {
+			return "'" + escape(value.toString()) + "'";
+		}
+
+		return String.valueOf(value);
+	}
+
+	private static String escape(String text) {
+		return text.replace("\\", "\\\\").replace("\n", "\\n").replace("\t", "\\t").replace("\"", "\\\"");
+	}
+
+	private static String join(List<?> items) {
+		StringBuilder builder = new StringBuilder();
+
+		for (Object item : items) {
+			if (builder.length() > 0) {
+				builder.append(", ");
+			}
+
+			builder.append(item);
+		}
+
+		return builder.toString();
+	}
+}
@@ -0,0 +1,200 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The IRVerifier checks that an IR function is well formed: that every block
+ * ends with exactly one terminator, that the predecessors of each block are
+ * the blocks which jump to it, that each phi has an operand for every
+ * predecessor, and that every value is defined before each use on every path
+ * which reaches it.
+ *
+ * @author Jared
+ */
+class IRVerifier {
+
+	/**
+	 * Checks a function.
+	 *
+	 * @param function the function
+	 * @return a description of each problem found, or an empty list if the
+	 *         function is well formed
+	 */
+	static List<String> verify(IR.Function function) {
+		ArrayList<String> problems = new ArrayList<>();
+
+		if (function.blocks.isEmpty()) {
+			problems.add("The function has no blocks.");
+			return problems;
+		}
+
+		HashSet<IR.Block> blocks = new HashSet<>(function.blocks);
+		HashSet<IR.Instruction> values = new HashSet<>();
+
+		for (IR.Block block : function.blocks) {
+			values.addAll(block.instructions);
+		}
+
+		if (!function.entry().predecessors.isEmpty()) {
+			problems.add(function.entry() + ": The entry is jumped to.");
+		}
+
+		for (IR.Block block : function.blocks) {
+			checkBlock(function, block, blocks, values, problems);
+		}
+
+		/* where values are defined only means something once the graph is sound */
+		if (problems.isEmpty()) {
+			checkDominance(function, problems);
+		}
+
+		return problems;
+	}
+
+	private static void checkBlock(IR.Function function, IR.Block block, HashSet<IR.Block> blocks,
+			HashSet<IR.Instruction> values, ArrayList<String> problems) {
+		if (block.function != function) {
+			problems.add(block + ": The block belongs to " + block.function.name + ".");
+		}
+
+		if (block.terminator() == null) {
+			problems.add(block + ": The block does not end with a terminator.");
+		}
+
+		boolean phis = true;
+
+		for (int i = 0; i < block.instructions.size(); i++) {
+			IR.Instruction instruction = block.instructions.get(i);
+
+			if (instruction.block != block) {
+				problems.add(block + ": " + instruction + " belongs to " + instruction.block + ".");
+			}
+
+			if (instruction.op.isTerminator() && i != block.instructions.size() - 1) {
+				problems.add(block + ": " + instruction + " ends the block before its last instruction.");
+			}
+
+			if (instruction.op == IR.Op.PHI) {
+				if (!phis) {
+					problems.add(block + ": The phi " + instruction + " follows other instructions.");
+				}
+
+				if (instruction.operands.size() != block.predecessors.size()) {
+					problems.add(block + ": The phi " + instruction + " has " + instruction.operands.size()
+							+ " operands for " + block.predecessors.size() + " predecessors.");
+				}
+			} else {
+				phis = false;
+			}
+
+			for (IR.Instruction operand : instruction.operands) {
+				if (operand == null || !values.contains(operand)) {
+					problems.add(block + ": " + instruction + " uses " + operand + ", which is not in the function.");
+				} else if (!operand.op.hasValue()) {
+					problems.add(block + ": " + instruction + " uses " + operand + ", which has no value.");
+				}
+			}
+
+			checkShape(block, instruction, problems);
+		}
+
+		for (IR.Block successor : block.successors()) {
+			if (!blocks.contains(successor)) {
+				problems.add(block + ": The block jumps to " + successor + ", which is not in the function.");
+			} else if (Collections.frequency(successor.predecessors, block) != Collections.frequency(block.successors(),
+					successor)) {
+				problems.add(block + ": The block jumps to " + successor + ", which does not list it as a predecessor.");
+			}
+		}
+
+		for (IR.Block predecessor : block.predecessors) {
+			if (!blocks.contains(predecessor)) {
+				problems.add(block + ": The predecessor " + predecessor + " is not in the function.");
+			} else if (!predecessor.successors().contains(block)) {
+				problems.add(block + ": The predecessor " + predecessor + " does not jump to it.");
+			}
+		}
+	}
+
+	/**
+	 * Checks the number of operands and targets of the instructions which need
+	 * them.
+	 */
+	private static void checkShape(IR.Block block, IR.Instruction instruction, ArrayList<String> problems) {
+		int operands = -1;
+		int targets = 0;
+
+		switch (instruction.op) {
+		case JUMP:
+			operands = 0;
+			targets = 1;
+			break;
+		case BRANCH:
+			operands = 1;
+			targets = 2;
+			break;
+		case RETURN:
+		case UNARY:
+		case CHECK:
+		case STORE_LOCAL:
+		case STORE_CAPTURE:
+		case STORE_GLOBAL:
+		case GET:
+		case PRINT:
+			operands = 1;
+			break;
+		case BINARY:
+		case CASE_EQUAL:
+		case SET:
+			operands = 2;
+			break;
+		default:
+		}
+
+		if (operands >= 0 && instruction.operands.size() != operands) {
+			problems.add(block + ": " + instruction + " has " + instruction.operands.size() + " operands rather than "
+					+ operands + ".");
+		}
+
+		if (instruction.targets.length != targets) {
+			problems.add(block + ": " + instruction + " has " + instruction.targets.length + " targets rather than "
+					+ targets + ".");
+		}
+	}
+
+	/**
+	 * Checks that every block can be reached, and that every value is defined
+	 * before each use. A phi uses its operands at the end of the predecessors
+	 * they come from.
+	 */
+	private static void checkDominance(IR.Function function, ArrayList<String> problems) {
+		Dominance dominance = new Dominance(function);
+
+		for (IR.Block block : function.blocks) {
+			if (!dominance.isReachable(block)) {
+				problems.add(block + ": The block cannot be reached.");
+				continue;
+			}
+
+			for (IR.Instruction instruction : block.instructions) {
+				for (int i = 0; i < instruction.operands.size(); i++) {
+					IR.Instruction operand = instruction.operands.get(i);
+					boolean defined;
+
+					if (instruction.op == IR.Op.PHI) {
+						defined = dominance.dominates(operand.block, block.predecessors.get(i));
+					} else {
+						defined = dominance.dominates(operand, instruction);
+					}
+
+					if (!defined) {
+						problems.add(block + ": " + instruction + " uses " + operand + " where it may not be defined.");
+					}
+				}
+			}
+		}
+	}
+}
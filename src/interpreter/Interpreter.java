@@ -1,11 +1,11 @@
 package interpreter;
 
+import static interpreter.TokenType.BANG;
 import static interpreter.TokenType.CARAT;
 import static interpreter.TokenType.EQUAL;
 import static interpreter.TokenType.MINUS;
 import static interpreter.TokenType.PERCENT;
 import static interpreter.TokenType.PLUS;
-import static interpreter.TokenType.ROOT;
 import static interpreter.TokenType.SLASH;
 import static interpreter.TokenType.STAR;
 
@@ -16,9 +16,12 @@ import java.util.List;
 import java.util.Map;
 
 import interpreter.Expr.Binary;
+import interpreter.Expr.CaseCompare;
+import interpreter.Expr.CompoundAssign;
 import interpreter.Expr.Conditional;
 import interpreter.Expr.Get;
 import interpreter.Expr.Grouping;
+import interpreter.Expr.Increment;
 import interpreter.Expr.Literal;
 import interpreter.Expr.Logical;
 import interpreter.Expr.Set;
@@ -49,20 +52,107 @@ import newt_metatypes.NewtCallable;
 import newt_metatypes.NewtClass;
 import newt_metatypes.NewtFunction;
 import newt_metatypes.NewtInstance;
-import newt_metatypes.NewtReturn;
+import newt_metatypes.NewtObject;
+import newt_metatypes.NewtType;
+import newt_metatypes.TailCall;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
-	private final int EXIT_NORMAL = 0;
-	private final int EXIT_BREAK = 1;
-	private final int EXIT_CONTINUE = 2;
-	private final int EXIT_RETURN = 3;
-	private final int EXIT_EXIT = 4;
+	private static final int EXIT_NORMAL = 0;
+	private static final int EXIT_BREAK = 1;
+	private static final int EXIT_CONTINUE = 2;
+	private static final int EXIT_RETURN = 3;
+	private static final int EXIT_EXIT = 4;
+
+	/**
+	 * The amount added by an increment, boxed once.
+	 */
+	private static final Integer ONE = 1;
+
+	/**
+	 * How the most recent statement completed. A break, continue or exit sets this
+	 * so that the enclosing blocks stop executing until a loop or switch resolves
+	 * it.
+	 */
+	private int status = EXIT_NORMAL;
+
+	/**
+	 * The value of the most recent return, held until the call collects it.
+	 */
+	private Object returnValue = null;
+
+	/**
+	 * True if binary, unary and assignment expressions should specialize
+	 * themselves to the operand types they observe.
+	 */
+	private boolean specializing = false;
+
+	/**
+	 * Compiles hot functions to JVM classes, or null if they are always
+	 * interpreted.
+	 */
+	private JitCompiler jit = null;
+
+	/**
+	 * The deepest the calls to Newt functions may be nested, and the depth of the
+	 * calls running now.
+	 */
+	private int maxDepth = 4096;
+	private int depth = 0;
 
-	private final Map<Expr, Integer> locals = new HashMap<>();
 	private final Environment globals = new Environment();
 	private Environment environment = globals;
 
+	/**
+	 * The scopes of finished calls, reused by later calls.
+	 */
+	private final FramePool frames = new FramePool();
+
+	/**
+	 * Turns the self-specializing execution mode on or off.
+	 * 
+	 * @param specializing true to let expressions specialize to their operand types
+	 */
+	public void setSpecializing(boolean specializing) {
+		this.specializing = specializing;
+	}
+
+	/**
+	 * Turns the compiling of hot functions on or off.
+	 * 
+	 * @param compiling true to compile functions which are called often or loop
+	 *                  often
+	 */
+	public void setCompiling(boolean compiling) {
+		this.jit = compiling ? new JitCompiler(this) : null;
+	}
+
+	/**
+	 * Runs a call to a function using its compiled code, if the function is hot
+	 * enough to have been compiled and could be.
+	 * 
+	 * @param function  the function, which is not a bound method
+	 * @param arguments the evaluated arguments
+	 * @return the value returned, or null if the call must be interpreted
+	 */
+	public Object runCompiled(NewtFunction function, ArrayList<Object> arguments) {
+		return jit == null ? null : jit.run(function, arguments, depth);
+	}
+
+	/**
+	 * Sets how deeply calls may be nested before a stack overflow is reported.
+	 * This applies to the VM as well.
+	 * 
+	 * @param maxDepth the greatest number of calls which may be running at once
+	 */
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
 	public Environment getEnvironment() {
 		return environment;
 	}
@@ -71,6 +161,32 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		this.environment = environment;
 	}
 
+	public Environment getGlobals() {
+		return globals;
+	}
+
+	/**
+	 * Creates the scope of a call to a function, reusing the scope of a finished
+	 * call if one is free.
+	 * 
+	 * @param closure the closure of the function
+	 * @param size    the number of slots the Resolver counted for the function
+	 * @return the empty scope
+	 */
+	public Environment newFrame(Environment closure, int size) {
+		return frames.acquire(closure, size);
+	}
+
+	/**
+	 * Frees the scope of a call which has finished, so that a later call can
+	 * reuse it.
+	 * 
+	 * @param frame the scope from newFrame()
+	 */
+	public void releaseFrame(Environment frame) {
+		frames.release(frame);
+	}
+
 	public Interpreter() {
 		defineNatives();
 	}
@@ -88,8 +204,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	public void interpret(List<Stmt> statements) {
 
 		try {
-			/* execute a list of statements */
+			/* execute a list of statements, stopping at an exit or a return */
 			for (Stmt statement : statements) {
+				if (status == EXIT_EXIT || status == EXIT_RETURN) {
+					break;
+				}
+
 				execute(statement);
 			}
 		} catch (RuntimeError error) {
@@ -97,12 +217,42 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		}
 	}
 
+	/**
+	 * Executes the body of a function in the environment already set up for the
+	 * call, and collects the value it returns. A return stops the body through
+	 * the status, as a break stops a loop, so no exception is thrown.
+	 * 
+	 * @param statements the body of the function
+	 * @return the returned value, null if the body did not return one, or the
+	 *         TailCall to make if it returned the result of a call
+	 */
+	public Object executeBody(List<Stmt> statements) {
+
+		/* an error is left to the outermost statement, which reports it once */
+		for (Stmt statement : statements) {
+			if (status != EXIT_NORMAL) {
+				break;
+			}
+
+			execute(statement);
+		}
+
+		if (status != EXIT_RETURN) {
+			return null;
+		}
+
+		Object value = returnValue;
+		returnValue = null;
+		status = EXIT_NORMAL;
+		return value;
+	}
+
 	/**
 	 * Defines native methods.
 	 */
 	private void defineNatives() {
 		/* returns the current system time in seconds */
-		globals.define("clock", "function", new NewtCallable() {
+		globals.define("clock", NewtType.FUNCTION, new NewtCallable() {
 			@Override
 			public int arity() {
 				return 0;
@@ -120,7 +270,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		});
 
 		/* prints an expression to standard output */
-		globals.define("print", "function", new NewtCallable() {
+		globals.define("print", NewtType.FUNCTION, new NewtCallable() {
 			@Override
 			public int arity() {
 				return 1;
@@ -139,7 +289,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		});
 
 		/* prints an expression to standard output, followed by a new line */
-		globals.define("println", "function", new NewtCallable() {
+		globals.define("println", NewtType.FUNCTION, new NewtCallable() {
 			@Override
 			public int arity() {
 				return 1;
@@ -181,11 +331,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			this.environment = environment;
 
 			for (Stmt statement : statements) {
-				/* get the global exit_flag */
-				int flag = (int) globals.get(new Token(null, "$exit_flag", 0, 0, 0));
-
 				/* any exit value will break the current block */
-				if (flag != 0) {
+				if (status != EXIT_NORMAL) {
 					break;
 				}
 
@@ -202,16 +349,24 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	 * @param object the object
 	 * @return the string representation
 	 */
-	private String stringify(Object object) {
+	String stringify(Object object) {
 		if (object == null)
 			return "null";
 		return object.toString();
 	}
 
-	private Object lookUpVariable(Token name, Expr expr) {
-		Integer distance = locals.get(expr);
-		if (distance != null) {
-			return environment.getAt(distance, name.lexeme);
+	/**
+	 * Retrieves the value of a variable using the location recorded by the
+	 * Resolver.
+	 * 
+	 * @param name  the name of the variable
+	 * @param depth the distance to the declaring scope, or -1 for a global
+	 * @param slot  the slot of the variable in the declaring scope
+	 * @return the value of the variable
+	 */
+	private Object lookUpVariable(Token name, int depth, int slot) {
+		if (depth >= 0) {
+			return environment.getAt(depth, slot, name);
 		} else {
 			return globals.get(name);
 		}
@@ -226,26 +381,244 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	@Override
 	public Object visitBinaryExpr(Binary expr) {
 
+		/* operands proven to suit the operator are not checked */
+		if (expr.proven) {
+			if (expr.staticType == NewtType.INT) {
+				return evaluateInt(expr);
+			}
+
+			if (expr.staticType == NewtType.DOUBLE) {
+				return evaluateDouble(expr);
+			}
+
+			if (isNumber(expr.left.staticType) && isNumber(expr.right.staticType)) {
+				return evaluateBoolean(expr);
+			}
+
+			return binaryOperation(expr.operator, evaluate(expr.left), evaluate(expr.right), false);
+		}
+
 		Object left = evaluate(expr.left);
 		Object right = evaluate(expr.right);
 
-		switch (expr.operator.type) {
+		if (specializing) {
+			return specializedBinary(expr, left, right);
+		}
+
+		return binaryOperation(expr.operator, left, right);
+	}
+
+	/**
+	 * Applies a binary operator using the fast path the expression has
+	 * specialized to. An expression which sees operands its specialization cannot
+	 * handle falls back to the general rules from then on.
+	 * 
+	 * @param expr  the binary expression
+	 * @param left  the left operand
+	 * @param right the right operand
+	 * @return the result of the operation
+	 */
+	private Object specializedBinary(Binary expr, Object left, Object right) {
+		Object result = null;
+
+		switch (expr.state) {
+		case INT:
+			if (left instanceof Integer && right instanceof Integer) {
+				result = intOperation(expr.operator.type, (int) left, (int) right);
+			}
+			break;
+		case DOUBLE:
+			if (left instanceof Double && right instanceof Double) {
+				result = doubleOperation(expr.operator.type, (double) left, (double) right);
+			}
+			break;
+		case STRING:
+			if (left instanceof String || right instanceof String) {
+				result = left + "" + right;
+			}
+			break;
+		case UNINITIALIZED:
+			expr.state = specialize(expr.operator.type, left, right);
+			return binaryOperation(expr.operator, left, right);
+		default:
+			return binaryOperation(expr.operator, left, right);
+		}
+
+		if (result == null) {
+			expr.state = Specialization.GENERIC;
+			return binaryOperation(expr.operator, left, right);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Chooses the specialization of a binary expression from its first operands.
+	 * 
+	 * @param type  the type of the operator
+	 * @param left  the left operand
+	 * @param right the right operand
+	 * @return the specialization
+	 */
+	private Specialization specialize(TokenType type, Object left, Object right) {
+		if (type == PLUS && (left instanceof String || right instanceof String)) {
+			return Specialization.STRING;
+		}
+
+		switch (type) {
+		case PLUS:
+		case MINUS:
+		case STAR:
+		case SLASH:
+		case PERCENT:
+		case CARAT:
+		case GREATER:
+		case GREATER_EQUAL:
+		case LESS:
+		case LESS_EQUAL:
+		case EQUAL_EQUAL:
+		case BANG_EQUAL:
+			if (left instanceof Integer && right instanceof Integer) {
+				return Specialization.INT;
+			}
+
+			if (left instanceof Double && right instanceof Double) {
+				return Specialization.DOUBLE;
+			}
+
+			return Specialization.GENERIC;
+		default:
+			return Specialization.GENERIC;
+		}
+	}
+
+	/**
+	 * Applies a binary operator to two integers.
+	 * 
+	 * @param type  the type of the operator
+	 * @param left  the left operand
+	 * @param right the right operand
+	 * @return the result, or null if the general rules must be used instead (for
+	 *         instance, to report division by zero)
+	 */
+	private Object intOperation(TokenType type, int left, int right) {
+		switch (type) {
+		case PLUS:
+			return left + right;
+		case MINUS:
+			return left - right;
+		case STAR:
+			return left * right;
+		case SLASH:
+			return right == 0 ? null : left / right;
+		case PERCENT:
+			return right == 0 ? null : left % right;
+		case CARAT:
+			return Math.pow(left, right);
+		case GREATER:
+			return left > right;
+		case GREATER_EQUAL:
+			return left >= right;
+		case LESS:
+			return left < right;
+		case LESS_EQUAL:
+			return left <= right;
+		case EQUAL_EQUAL:
+			return left == right;
+		case BANG_EQUAL:
+			return left != right;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Applies a binary operator to two doubles.
+	 * 
+	 * @param type  the type of the operator
+	 * @param left  the left operand
+	 * @param right the right operand
+	 * @return the result, or null if the general rules must be used instead (for
+	 *         instance, to report division by zero)
+	 */
+	private Object doubleOperation(TokenType type, double left, double right) {
+		switch (type) {
+		case PLUS:
+			return left + right;
+		case MINUS:
+			return left - right;
+		case STAR:
+			return left * right;
+		case SLASH:
+			return right == 0 ? null : left / right;
+		case PERCENT:
+			return right == 0 ? null : left % right;
+		case CARAT:
+			return Math.pow(left, right);
+		case GREATER:
+			return left > right;
+		case GREATER_EQUAL:
+			return left >= right;
+		case LESS:
+			return left < right;
+		case LESS_EQUAL:
+			return left <= right;
+		case EQUAL_EQUAL:
+			return left == right;
+		case BANG_EQUAL:
+			return left != right;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Applies a binary operator to two evaluated operands. This is shared by every
+	 * engine so that all of them follow the same rules of arithmetic and
+	 * comparison.
+	 * 
+	 * @param operator the operator to apply
+	 * @param left     the left operand
+	 * @param right    the right operand
+	 * @return the result of the operation
+	 */
+	Object binaryOperation(Token operator, Object left, Object right) {
+		return binaryOperation(operator, left, right, true);
+	}
+
+	/**
+	 * Applies a binary operator to two evaluated operands.
+	 * 
+	 * @param operator the operator to apply
+	 * @param left     the left operand
+	 * @param right    the right operand
+	 * @param checked  false if the TypeChecker proved that the operands suit the
+	 *                 operator, so their types need not be checked
+	 * @return the result of the operation
+	 */
+	private Object binaryOperation(Token operator, Object left, Object right, boolean checked) {
+
+		switch (operator.type) {
 		case BANG_EQUAL:
 			return !isEqual(left, right);
 		case EQUAL_EQUAL:
 			return isEqual(left, right);
 		case GREATER:
-			checkPrimitiveTypes(expr.operator, left, right);
+			if (checked)
+				checkPrimitiveTypes(operator, left, right);
 			return isGreater(left, right);
 		case LESS:
-			checkPrimitiveTypes(expr.operator, left, right);
+			if (checked)
+				checkPrimitiveTypes(operator, left, right);
 			return isLess(left, right);
 		case GREATER_EQUAL:
-			checkPrimitiveTypes(expr.operator, left, right);
-			return (double) left >= (double) right;
+			if (checked)
+				checkPrimitiveTypes(operator, left, right);
+			return isGreaterEqual(left, right);
 		case LESS_EQUAL:
-			checkPrimitiveTypes(expr.operator, left, right);
-			return (double) left <= (double) right;
+			if (checked)
+				checkPrimitiveTypes(operator, left, right);
+			return isLessEqual(left, right);
 		case ARROW:
 			return !isTrue(left) || (isTrue(left) && isTrue(right));
 		case AND:
@@ -257,7 +630,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		case NOR:
 			return !isTrue(left) && !isTrue(right);
 		case STAR:
-			checkNumericOperands(expr.operator, left, right);
+			if (checked)
+				checkNumericOperands(operator, left, right);
 
 			if (left instanceof Double) {
 				if (right instanceof Double)
@@ -270,7 +644,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 				return (int) left * (int) right;
 			}
 		case MINUS:
-			checkNumericOperands(expr.operator, left, right);
+			if (checked)
+				checkNumericOperands(operator, left, right);
 			if (left instanceof Double) {
 				if (right instanceof Double)
 					return (double) left - (double) right;
@@ -300,8 +675,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			}
 
 		case SLASH:
-			checkNumericOperands(expr.operator, left, right);
-			checkNonZeroDivisor(expr.operator, right);
+			if (checked)
+				checkNumericOperands(operator, left, right);
+			checkNonZeroDivisor(operator, right);
 			if (left instanceof Double) {
 				if (right instanceof Double)
 					return (double) left / (double) right;
@@ -313,8 +689,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 				return (int) left / (int) right;
 			}
 		case PERCENT:
-			checkNumericOperands(expr.operator, left, right);
-			checkNonZeroDivisor(expr.operator, right);
+			if (checked)
+				checkNumericOperands(operator, left, right);
+			checkNonZeroDivisor(operator, right);
 			if (left instanceof Double) {
 				if (right instanceof Double)
 					return (double) left % (double) right;
@@ -326,7 +703,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 				return (int) left % (int) right;
 			}
 		case CARAT:
-			checkNumericOperands(expr.operator, left, right);
+			if (checked)
+				checkNumericOperands(operator, left, right);
 			if (left instanceof Double) {
 				if (right instanceof Double)
 					return Math.pow((double) left, (double) right);
@@ -356,14 +734,85 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 	@Override
 	public Object visitUnaryExpr(Unary expr) {
+
+		/* the negation of a proven number is not checked */
+		if (expr.staticType == NewtType.INT) {
+			return evaluateInt(expr);
+		}
+
+		if (expr.staticType == NewtType.DOUBLE) {
+			return evaluateDouble(expr);
+		}
+
 		Object obj = evaluate(expr.right);
 
-		switch (expr.operator.type) {
+		if (specializing) {
+			return specializedUnary(expr, obj);
+		}
+
+		return unaryOperation(expr.operator, obj);
+	}
+
+	/**
+	 * Applies a unary operator using the fast path the expression has specialized
+	 * to, falling back to the general rules if the operand does not fit.
+	 * 
+	 * @param expr the unary expression
+	 * @param obj  the operand
+	 * @return the result of the operation
+	 */
+	private Object specializedUnary(Unary expr, Object obj) {
+		switch (expr.state) {
+		case INT:
+			if (obj instanceof Integer) {
+				return -(int) obj;
+			}
+			break;
+		case DOUBLE:
+			if (obj instanceof Double) {
+				return -(double) obj;
+			}
+			break;
+		case BOOLEAN:
+			if (obj instanceof Boolean) {
+				return !(boolean) obj;
+			}
+			break;
+		case UNINITIALIZED:
+			Specialization state = Specialization.of(obj);
+
+			/* negation suits numbers and not suits booleans */
+			if (expr.operator.type == MINUS && (state == Specialization.INT || state == Specialization.DOUBLE)
+					|| expr.operator.type == BANG && state == Specialization.BOOLEAN) {
+				expr.state = state;
+			} else {
+				expr.state = Specialization.GENERIC;
+			}
+
+			return unaryOperation(expr.operator, obj);
+		default:
+			return unaryOperation(expr.operator, obj);
+		}
+
+		expr.state = Specialization.GENERIC;
+		return unaryOperation(expr.operator, obj);
+	}
+
+	/**
+	 * Applies a unary operator to an evaluated operand.
+	 * 
+	 * @param operator the operator to apply
+	 * @param obj      the operand
+	 * @return the result of the operation
+	 */
+	Object unaryOperation(Token operator, Object obj) {
+
+		switch (operator.type) {
 		case BANG:
 			return !isTrue(obj);
 
 		case MINUS:
-			checkNumericOperand(expr.operator, obj);
+			checkNumericOperand(operator, obj);
 
 			if (obj instanceof Integer) {
 				return -(int) obj;
@@ -386,7 +835,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	 * @param operator the operator which is using the object (/ or %)
 	 * @param divisor  the object to be validated
 	 */
-	private void checkNonZeroDivisor(Token operator, Object divisor) {
+	void checkNonZeroDivisor(Token operator, Object divisor) {
 		if (divisor instanceof Integer && ((Integer) divisor).intValue() != 0) {
 			return;
 		}
@@ -417,7 +866,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	 * @param operator the operator which is using the object
 	 * @param operand  the object to be validated
 	 */
-	private void checkNumericOperand(Token operator, Object operand) {
+	void checkNumericOperand(Token operator, Object operand) {
 		if (operand instanceof Double || operand instanceof Integer)
 			return;
 		throw new RuntimeError(operator, "Operand must be a number.");
@@ -430,7 +879,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	 * @param left     the left operand of the expression
 	 * @param right    the right operand of the expression
 	 */
-	private void checkNumericOperands(Token operator, Object left, Object right) {
+	void checkNumericOperands(Token operator, Object left, Object right) {
 		if ((left instanceof Double || left instanceof Integer)
 				&& (right instanceof Double || right instanceof Integer))
 			return;
@@ -554,7 +1003,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	 * @param obj1     the first object
 	 * @param obj2     the second object
 	 */
-	private void checkPrimitiveTypes(Token operator, Object obj1, Object obj2) {
+	void checkPrimitiveTypes(Token operator, Object obj1, Object obj2) {
 		if (obj1 == null || obj1 instanceof Boolean || obj1 instanceof Character || obj1 instanceof Integer
 				|| obj1 instanceof Double || obj1 instanceof String) {
 			if (obj2 == null || obj2 instanceof Boolean || obj2 instanceof Character || obj2 instanceof Integer
@@ -691,57 +1140,328 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return expr.accept(this);
 	}
 
-	public void resolve(Expr expr, int depth) {
-		locals.put(expr, depth);
-	}
-
 	/**
-	 * Compares two characters and determines which is greater.
+	 * Evaluates an expression the Resolver proved to be an int without boxing any
+	 * of the intermediate values. Any other expression is evaluated normally.
 	 * 
-	 * @param char1 the first character
-	 * @param char2 the second character
-	 * @return a positive number if the first character is greater, a negative if
-	 *         the second is, 0 if they are equal
+	 * @param expr the expression to evaluate
+	 * @return the result of the evaluation
 	 */
-	private int compareCharacters(char char1, char char2) {
-		int c1 = char1;
-		int c2 = char2;
-
-		/* we need to track if the character is a letter, and if so is it capitalized */
-		boolean capital1 = false, capital2 = false, letter1 = false, letter2 = false;
+	public int evaluateInt(Expr expr) {
+		if (expr.staticType != NewtType.INT) {
+			return (int) evaluate(expr);
+		}
 
-		/* convert the integer to the offset of the letter from a */
-		if (c1 > 96 && c1 < 123) {
-			c1 = c1 - 96;
-			letter1 = true;
-		} else if (c1 > 64 && c1 < 91) {
-			c1 = c1 - 64;
-			capital1 = true;
-			letter1 = true;
+		if (expr instanceof Literal) {
+			return (int) ((Literal) expr).value;
 		}
 
-		/* convert the integer to the offset of the letter from a */
-		if (c2 > 96 && c2 < 123) {
-			c2 = c2 - 96;
-			letter2 = true;
-		} else if (c2 > 64 && c2 < 91) {
-			c2 = c2 - 64;
-			capital2 = true;
+		if (expr instanceof Variable) {
+			return typedVariable((Variable) expr).getInt();
 		}
 
-		/*
-		 * alphabetical order, capital letters before lowercase, ie. a > b, a > B, A > a
-		 */
-		if (letter1 && letter2) {
-			if (c1 == c2) {
-				return capital1 ? (capital2 ? 0 : 1) : (capital2 ? -1 : 0);
-			}
+		if (expr instanceof Grouping) {
+			return evaluateInt(((Grouping) expr).expression);
+		}
 
-			return c2 - c1;
+		if (expr instanceof Unary) {
+			return -evaluateInt(((Unary) expr).right);
 		}
 
-		return c1 - c2;
-	}
+		if (expr instanceof Binary) {
+			Binary binary = (Binary) expr;
+			int left = evaluateInt(binary.left);
+			int right = evaluateInt(binary.right);
+
+			switch (binary.operator.type) {
+			case PLUS:
+				return left + right;
+			case MINUS:
+				return left - right;
+			case STAR:
+				return left * right;
+			case SLASH:
+				if (right == 0) {
+					throw new RuntimeError(binary.operator, "Divisor cannot be zero.");
+				}
+
+				return left / right;
+			case PERCENT:
+				if (right == 0) {
+					throw new RuntimeError(binary.operator, "Divisor cannot be zero.");
+				}
+
+				return left % right;
+			default:
+			}
+		}
+
+		return (int) evaluate(expr);
+	}
+
+	/**
+	 * Evaluates an expression the Resolver proved to be a double without boxing
+	 * any of the intermediate values. Any other expression is evaluated normally.
+	 * 
+	 * @param expr the expression to evaluate
+	 * @return the result of the evaluation
+	 */
+	public double evaluateDouble(Expr expr) {
+		if (expr.staticType != NewtType.DOUBLE) {
+			return (double) evaluate(expr);
+		}
+
+		if (expr instanceof Literal) {
+			return (double) ((Literal) expr).value;
+		}
+
+		if (expr instanceof Variable) {
+			return typedVariable((Variable) expr).getDouble();
+		}
+
+		if (expr instanceof Grouping) {
+			return evaluateDouble(((Grouping) expr).expression);
+		}
+
+		if (expr instanceof Unary) {
+			return -evaluateDouble(((Unary) expr).right);
+		}
+
+		if (expr instanceof Binary) {
+			Binary binary = (Binary) expr;
+			double left = evaluateNumber(binary.left);
+			double right = evaluateNumber(binary.right);
+
+			switch (binary.operator.type) {
+			case PLUS:
+				return left + right;
+			case MINUS:
+				return left - right;
+			case STAR:
+				return left * right;
+			case SLASH:
+				if (right == 0) {
+					throw new RuntimeError(binary.operator, "Divisor cannot be zero.");
+				}
+
+				return left / right;
+			case PERCENT:
+				if (right == 0) {
+					throw new RuntimeError(binary.operator, "Divisor cannot be zero.");
+				}
+
+				return left % right;
+			case CARAT:
+				return Math.pow(left, right);
+			default:
+			}
+		}
+
+		return (double) evaluate(expr);
+	}
+
+	/**
+	 * Evaluates an expression the Resolver proved to be an int or a double,
+	 * widening an int to a double.
+	 * 
+	 * @param expr the expression to evaluate
+	 * @return the result of the evaluation
+	 */
+	private double evaluateNumber(Expr expr) {
+		if (expr.staticType == NewtType.INT) {
+			return evaluateInt(expr);
+		}
+
+		return evaluateDouble(expr);
+	}
+
+	/**
+	 * Evaluates an expression the Resolver proved to be a boolean, such as the
+	 * condition of a loop. Comparisons between proven numbers are made without
+	 * boxing the operands. Any other expression is evaluated normally.
+	 * 
+	 * @param expr the expression to evaluate
+	 * @return the result of the evaluation
+	 */
+	public boolean evaluateBoolean(Expr expr) {
+		if (expr.staticType != NewtType.BOOL) {
+			return (boolean) evaluate(expr);
+		}
+
+		if (expr instanceof Literal) {
+			return (boolean) ((Literal) expr).value;
+		}
+
+		if (expr instanceof Variable) {
+			return (boolean) typedVariable((Variable) expr).getValue();
+		}
+
+		if (expr instanceof Grouping) {
+			return evaluateBoolean(((Grouping) expr).expression);
+		}
+
+		if (expr instanceof Unary && ((Unary) expr).right.staticType == NewtType.BOOL) {
+			return !evaluateBoolean(((Unary) expr).right);
+		}
+
+		if (expr instanceof Binary) {
+			Binary binary = (Binary) expr;
+			NewtType left = binary.left.staticType;
+			NewtType right = binary.right.staticType;
+
+			if (left == NewtType.INT && right == NewtType.INT) {
+				return compare(binary.operator, evaluateInt(binary.left), evaluateInt(binary.right));
+			}
+
+			if (isNumber(left) && isNumber(right)) {
+				return compare(binary.operator, evaluateNumber(binary.left), evaluateNumber(binary.right));
+			}
+		}
+
+		if (expr instanceof Logical) {
+			Logical logical = (Logical) expr;
+			boolean first = evaluateBoolean(logical.left);
+
+			switch (logical.operator.type) {
+			case AND:
+				return first ? evaluateBoolean(logical.right) : false;
+			case OR:
+				return !first ? evaluateBoolean(logical.right) : true;
+			case NOR:
+				return !first ? !evaluateBoolean(logical.right) : false;
+			case NAND:
+				return first ? !evaluateBoolean(logical.right) : evaluateBoolean(logical.right);
+			case ARROW:
+				return first ? evaluateBoolean(logical.right) : true;
+			default:
+			}
+		}
+
+		return (boolean) evaluate(expr);
+	}
+
+	private static boolean isNumber(NewtType type) {
+		return type == NewtType.INT || type == NewtType.DOUBLE;
+	}
+
+	/**
+	 * Compares two ints.
+	 * 
+	 * @param operator the comparison operator
+	 * @param left     the left operand
+	 * @param right    the right operand
+	 * @return the result of the comparison
+	 */
+	private boolean compare(Token operator, int left, int right) {
+		switch (operator.type) {
+		case GREATER:
+			return left > right;
+		case GREATER_EQUAL:
+			return left >= right;
+		case LESS:
+			return left < right;
+		case LESS_EQUAL:
+			return left <= right;
+		case EQUAL_EQUAL:
+			return left == right;
+		case BANG_EQUAL:
+			return left != right;
+		default:
+			return (boolean) binaryOperation(operator, left, right);
+		}
+	}
+
+	/**
+	 * Compares two numbers, following isGreater() and isEqual() so that NaN is
+	 * treated the same way as by the general rules.
+	 * 
+	 * @param operator the comparison operator
+	 * @param left     the left operand
+	 * @param right    the right operand
+	 * @return the result of the comparison
+	 */
+	private boolean compare(Token operator, double left, double right) {
+		switch (operator.type) {
+		case GREATER:
+			return left > right;
+		case GREATER_EQUAL:
+			return left > right || left == right;
+		case LESS:
+			return !(left > right || left == right);
+		case LESS_EQUAL:
+			return !(left > right);
+		case EQUAL_EQUAL:
+			return left == right;
+		case BANG_EQUAL:
+			return left != right;
+		default:
+			return (boolean) binaryOperation(operator, left, right);
+		}
+	}
+
+	/**
+	 * Finds a local variable for one of the typed evaluation paths.
+	 * 
+	 * @param expr the variable
+	 * @return the variable, which has been initialized
+	 */
+	private NewtObject typedVariable(Variable expr) {
+		NewtObject var = environment.variableAt(expr.depth, expr.slot, expr.name);
+
+		if (!var.initialized) {
+			throw new RuntimeError(expr.name, "Variable '" + expr.name.lexeme + "' has not been initialized.");
+		}
+
+		return var;
+	}
+
+	/**
+	 * Compares two characters and determines which is greater.
+	 * 
+	 * @param char1 the first character
+	 * @param char2 the second character
+	 * @return a positive number if the first character is greater, a negative if
+	 *         the second is, 0 if they are equal
+	 */
+	private int compareCharacters(char char1, char char2) {
+		int c1 = char1;
+		int c2 = char2;
+
+		/* we need to track if the character is a letter, and if so is it capitalized */
+		boolean capital1 = false, capital2 = false, letter1 = false, letter2 = false;
+
+		/* convert the integer to the offset of the letter from a */
+		if (c1 > 96 && c1 < 123) {
+			c1 = c1 - 96;
+			letter1 = true;
+		} else if (c1 > 64 && c1 < 91) {
+			c1 = c1 - 64;
+			capital1 = true;
+			letter1 = true;
+		}
+
+		/* convert the integer to the offset of the letter from a */
+		if (c2 > 96 && c2 < 123) {
+			c2 = c2 - 96;
+			letter2 = true;
+		} else if (c2 > 64 && c2 < 91) {
+			c2 = c2 - 64;
+			capital2 = true;
+		}
+
+		/*
+		 * alphabetical order, capital letters before lowercase, ie. a > b, a > B, A > a
+		 */
+		if (letter1 && letter2) {
+			if (c1 == c2) {
+				return capital1 ? (capital2 ? 0 : 1) : (capital2 ? -1 : 0);
+			}
+
+			return c2 - c1;
+		}
+
+		return c1 - c2;
+	}
 
 	@Override
 	public Void visitExpressionStmt(Expression stmt) {
@@ -758,30 +1478,32 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitWhileStmt(While stmt) {
+		Environment scope = loopScope(stmt.body);
 
-		while ((boolean) evaluate(stmt.condition)) {
-			visitBlockStmt((Stmt.Block) stmt.body);
+		while (evaluateBoolean(stmt.condition)) {
+			executeLoopBody(stmt.body, scope);
 
-			int flag = (int) globals.get(new Token(null, "$exit_flag", 0, 0, 0));
-
-			/* nothing happens when there is no exit condition */
-			if (flag == EXIT_NORMAL) {
-				continue;
+			/* for a continue, the while continues and resets the status */
+			if (status == EXIT_CONTINUE) {
+				status = EXIT_NORMAL;
 			}
 
-			/* for a continue, the while continues and resets the flag */
-			if (flag == EXIT_CONTINUE) {
-				globals.assign(new Token(null, "$exit_flag", 0, 0, 0), EXIT_NORMAL);
+			/* nothing happens when there is no exit condition, unless the loop is hot enough to compile */
+			if (status == EXIT_NORMAL) {
+				if (jit != null && jit.transfer(stmt, environment)) {
+					break;
+				}
+
 				continue;
 			}
 
-			/* for a break, the while breaks and resets the flag */
-			if (flag == EXIT_BREAK) {
-				globals.assign(new Token(null, "$exit_flag", 0, 0, 0), EXIT_NORMAL);
+			/* for a break, the while breaks and resets the status */
+			if (status == EXIT_BREAK) {
+				status = EXIT_NORMAL;
 				break;
 			}
 
-			if (flag == EXIT_EXIT || flag == EXIT_RETURN) {
+			if (status == EXIT_EXIT || status == EXIT_RETURN) {
 				break;
 			}
 		}
@@ -789,9 +1511,43 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return null;
 	}
 
+	/**
+	 * Finds the declared type of a declaration. The TypeChecker records it on
+	 * the declaration; one it did not reach looks up its name the first time it
+	 * runs.
+	 *
+	 * @param stmt the declaration
+	 * @return the type
+	 */
+	private static NewtType declaredType(Declare stmt) {
+		if (stmt.declared == null) {
+			stmt.declared = NewtType.named(stmt.type.lexeme);
+		}
+
+		return stmt.declared;
+	}
+
 	@Override
 	public Void visitDeclareStmt(Declare stmt) {
-		environment.define(stmt.name, stmt.type.lexeme, stmt.value == null ? null : evaluate(stmt.value));
+
+		NewtType type = declaredType(stmt);
+
+		/* a value proven to have the declared type is not checked again */
+		if (stmt.proven) {
+
+			/* a local number is stored unboxed */
+			if (stmt.slot >= 0 && type == NewtType.INT) {
+				environment.defineInt(stmt.slot, stmt.name, evaluateInt(stmt.value));
+			} else if (stmt.slot >= 0 && type == NewtType.DOUBLE) {
+				environment.defineDouble(stmt.slot, stmt.name, evaluateDouble(stmt.value));
+			} else {
+				environment.defineProven(stmt.slot, stmt.name, type, evaluate(stmt.value));
+			}
+
+			return null;
+		}
+
+		environment.define(stmt.slot, stmt.name, type, stmt.value == null ? null : evaluate(stmt.value));
 		return null;
 	}
 
@@ -801,40 +1557,37 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		Environment previous = environment;
 
 		// a wrapper environment for the declaration variable
-		environment = new Environment(environment);
+		environment = new Environment(environment, stmt.locals);
 
 		// this declaration needs to be scoped
 		if (stmt.declaration != null) {
 			execute(stmt.declaration);
 		}
 
-		while ((boolean) evaluate(stmt.condition)) {
-			execute(stmt.body);
+		Environment scope = loopScope(stmt.body);
 
-			if (stmt.incrementor != null) {
-				evaluate(stmt.incrementor);
-			}
-
-			int flag = (int) globals.get(new Token(null, "$exit_flag", 0, 0, 0));
+		while (evaluateBoolean(stmt.condition)) {
+			executeLoopBody(stmt.body, scope);
 
-			/* nothing happens when there is no exit condition */
-			if (flag == EXIT_NORMAL) {
-				continue;
+			/* for a break, the loop ends without running the incrementor */
+			if (status == EXIT_BREAK) {
+				status = EXIT_NORMAL;
+				break;
 			}
 
-			/* for a continue, the while continues and resets the flag */
-			if (flag == EXIT_CONTINUE) {
-				globals.assign(new Token(null, "$exit_flag", 0, 0, 0), EXIT_NORMAL);
-				continue;
+			if (status == EXIT_EXIT || status == EXIT_RETURN) {
+				break;
 			}
 
-			/* for a break, the while breaks and resets the flag */
-			if (flag == EXIT_BREAK) {
-				globals.assign(new Token(null, "$exit_flag", 0, 0, 0), EXIT_NORMAL);
-				break;
+			/* for a continue, the incrementor still runs */
+			status = EXIT_NORMAL;
+
+			if (stmt.incrementor != null) {
+				evaluate(stmt.incrementor);
 			}
 
-			if (flag == EXIT_EXIT || flag == EXIT_RETURN) {
+			/* a hot loop runs its remaining passes as compiled code */
+			if (jit != null && jit.transfer(stmt, environment)) {
 				break;
 			}
 		}
@@ -847,74 +1600,277 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 	@Override
 	public Object visitVariableExpr(Variable expr) {
-		return lookUpVariable(expr.name, expr);
+		if (expr.depth >= 0) {
+			return environment.getAt(expr.depth, expr.slot, expr.name);
+		}
+
+		/* a global is looked up by name only until the variable is found */
+		expr.cell = globals.cell(expr.cell, expr.name);
+		return Environment.read(expr.cell, expr.name);
 	}
 
 	@Override
 	public Object visitAssignExpr(Expr.Assign expr) {
 
-		Integer distance = locals.get(expr);
+		/* a result proven to have the type of the variable is not checked again */
+		if (expr.proven) {
 
-		if (expr.operator.type == EQUAL) {
-			Object value = evaluate(expr.value);
-			if (distance != null) {
-				environment.assignAt(distance, expr.name, value);
+			/* a local number needs no boxing */
+			if (expr.declaredType == NewtType.INT) {
+				environment.variableAt(expr.depth, expr.slot, expr.name).setInt(evaluateInt(expr.value));
+			} else if (expr.declaredType == NewtType.DOUBLE) {
+				environment.variableAt(expr.depth, expr.slot, expr.name).setDouble(evaluateDouble(expr.value));
 			} else {
-				globals.assign(expr.name, value);
+				environment.assignProvenAt(expr.depth, expr.slot, expr.name, evaluate(expr.value));
 			}
+
+			return null;
+		}
+
+		/* only assignments to local variables are specialized */
+		if (specializing && expr.depth >= 0 && expr.state != Specialization.GENERIC) {
+			specializedAssign(expr);
+			return null;
+		}
+
+		Object value = evaluate(expr.value);
+		if (expr.depth >= 0) {
+			environment.assignAt(expr.depth, expr.slot, expr.name, value);
 		} else {
+			expr.cell = globals.cell(expr.cell, expr.name);
+			globals.store(expr.cell, expr.name, value);
+		}
 
-			/* make a duplicate with the same lexeme and location for error reporting */
-			Token operator = new Token(null, expr.operator.lexeme, expr.operator.literal, expr.operator.line,
-					expr.operator.character);
+		return null;
+	}
 
-			/* set the new token to have the mathematical operator type */
-			switch (expr.operator.type) {
-			case MINUS_EQUAL:
-				operator.type = MINUS;
-				break;
-			case PLUS_EQUAL:
-				operator.type = PLUS;
-				break;
-			case STAR_EQUAL:
-				operator.type = STAR;
-				break;
-			case SLASH_EQUAL:
-				operator.type = SLASH;
-				break;
-			case PERCENT_EQUAL:
-				operator.type = PERCENT;
-				break;
-			case CARAT_EQUAL:
-				operator.type = CARAT;
-				break;
-			case ROOT_EQUAL:
-				operator.type = ROOT;
-			default:
-				break;
-			}
+	@Override
+	public Object visitCompoundAssignExpr(CompoundAssign expr) {
 
-			Object value = evaluate(new Expr.Binary(new Expr.Variable(expr.name), operator, expr.value));
-			if (distance != null) {
-				environment.assignAt(distance, expr.name, value);
+		/* a local number needs no boxing */
+		if (expr.proven) {
+			if (expr.declaredType == NewtType.INT) {
+				typedAssignInt(expr);
 			} else {
-				globals.assign(expr.name, value);
+				typedAssignDouble(expr);
 			}
+
+			return null;
+		}
+
+		/* only assignments to local variables are specialized */
+		if (specializing && expr.depth >= 0 && expr.state != Specialization.GENERIC) {
+			specializedCompoundAssign(expr);
+			return null;
+		}
+
+		/* the variable is read from the location the assignment was resolved to */
+		if (expr.depth >= 0) {
+			Object current = environment.getAt(expr.depth, expr.slot, expr.name);
+			Object value = binaryOperation(expr.operator, current, evaluate(expr.value));
+			environment.assignAt(expr.depth, expr.slot, expr.name, value);
+			return null;
 		}
 
+		expr.cell = globals.cell(expr.cell, expr.name);
+		Object value = binaryOperation(expr.operator, Environment.read(expr.cell, expr.name), evaluate(expr.value));
+
+		/* the value may have removed the variable */
+		expr.cell = globals.cell(expr.cell, expr.name);
+		globals.store(expr.cell, expr.name, value);
+
 		return null;
 	}
 
+	/**
+	 * Applies a compound assignment to a local int variable without boxing it.
+	 * 
+	 * @param expr the assignment, which the TypeChecker proved keeps an int
+	 */
+	private void typedAssignInt(CompoundAssign expr) {
+		NewtObject var = environment.variableAt(expr.depth, expr.slot, expr.name);
+
+		if (!var.initialized) {
+			throw new RuntimeError(expr.name, "Variable '" + expr.name.lexeme + "' has not been initialized.");
+		}
+
+		int current = var.getInt();
+		int value = evaluateInt(expr.value);
+
+		switch (expr.operator.type) {
+		case PLUS:
+			var.setInt(current + value);
+			break;
+		case MINUS:
+			var.setInt(current - value);
+			break;
+		case STAR:
+			var.setInt(current * value);
+			break;
+		case SLASH:
+		case PERCENT:
+			if (value == 0) {
+				throw new RuntimeError(expr.operator, "Divisor cannot be zero.");
+			}
+
+			var.setInt(expr.operator.type == SLASH ? current / value : current % value);
+			break;
+		default:
+		}
+	}
+
+	/**
+	 * Applies a compound assignment to a local double variable without boxing
+	 * it.
+	 * 
+	 * @param expr the assignment, which the TypeChecker proved keeps a double
+	 */
+	private void typedAssignDouble(CompoundAssign expr) {
+		NewtObject var = environment.variableAt(expr.depth, expr.slot, expr.name);
+
+		if (!var.initialized) {
+			throw new RuntimeError(expr.name, "Variable '" + expr.name.lexeme + "' has not been initialized.");
+		}
+
+		double current = var.getDouble();
+		double value = evaluateNumber(expr.value);
+
+		switch (expr.operator.type) {
+		case PLUS:
+			var.setDouble(current + value);
+			break;
+		case MINUS:
+			var.setDouble(current - value);
+			break;
+		case STAR:
+			var.setDouble(current * value);
+			break;
+		case SLASH:
+		case PERCENT:
+			if (value == 0) {
+				throw new RuntimeError(expr.operator, "Divisor cannot be zero.");
+			}
+
+			var.setDouble(expr.operator.type == SLASH ? current / value : current % value);
+			break;
+		case CARAT:
+			var.setDouble(Math.pow(current, value));
+			break;
+		default:
+		}
+	}
+
+	/**
+	 * Performs a plain assignment to a local variable, storing the value without
+	 * looking up its type if it has the type this assignment has specialized to.
+	 * 
+	 * @param expr the assignment
+	 */
+	private void specializedAssign(Expr.Assign expr) {
+		Object value = evaluate(expr.value);
+
+		if (expr.state == Specialization.UNINITIALIZED) {
+			expr.state = Specialization.of(value);
+		}
+
+		if (!expr.state.fits(value)) {
+			expr.state = Specialization.GENERIC;
+			environment.assignAt(expr.depth, expr.slot, expr.name, value);
+			return;
+		}
+
+		environment.assignAt(expr.depth, expr.slot, expr.name, value, expr.state.type);
+	}
+
+	/**
+	 * Performs a compound assignment (such as +=) to a local variable without
+	 * building the equivalent binary expression, when the operands have the types
+	 * this assignment has specialized to.
+	 * 
+	 * @param expr the assignment
+	 */
+	private void specializedCompoundAssign(CompoundAssign expr) {
+		TokenType type = expr.operator.type;
+		Object current = environment.getAt(expr.depth, expr.slot, expr.name);
+		Object value = evaluate(expr.value);
+
+		if (expr.state == Specialization.UNINITIALIZED) {
+			expr.state = specialize(type, current, value);
+		}
+
+		Object result = null;
+		NewtType resultType = expr.state.type;
+
+		switch (expr.state) {
+		case INT:
+			if (current instanceof Integer && value instanceof Integer) {
+				result = intOperation(type, (int) current, (int) value);
+				resultType = type == CARAT ? NewtType.DOUBLE : resultType;
+			}
+			break;
+		case DOUBLE:
+			if (current instanceof Double && value instanceof Double) {
+				result = doubleOperation(type, (double) current, (double) value);
+			}
+			break;
+		case STRING:
+			if (current instanceof String || value instanceof String) {
+				result = current + "" + value;
+			}
+			break;
+		default:
+		}
+
+		if (result == null) {
+			/* the operands were already evaluated, so they are reused by the general rules */
+			expr.state = Specialization.GENERIC;
+			environment.assignAt(expr.depth, expr.slot, expr.name, binaryOperation(expr.operator, current, value));
+			return;
+		}
+
+		environment.assignAt(expr.depth, expr.slot, expr.name, result, resultType);
+	}
+
 	@Override
 	public Void visitBlockStmt(Block stmt) {
-		executeBlock(stmt.statements, new Environment(environment));
+
+		/* a block which declares nothing runs in the enclosing scope */
+		executeBlock(stmt.statements, stmt.scoped ? new Environment(environment, stmt.locals) : environment);
 		return null;
 	}
 
+	/**
+	 * Creates the scope a loop reuses for every run of its body. A closure
+	 * declared in the body shares only the variables it captures, so the scope
+	 * can be emptied and used again.
+	 * 
+	 * @param body the body of the loop
+	 * @return the scope, or null if the body declares nothing and needs none
+	 */
+	private Environment loopScope(Block body) {
+		return body.scoped ? new Environment(environment, body.locals) : null;
+	}
+
+	/**
+	 * Runs the body of a loop once.
+	 * 
+	 * @param body  the body of the loop
+	 * @param scope the scope from loopScope(), emptied before it is used again
+	 */
+	private void executeLoopBody(Block body, Environment scope) {
+		if (scope == null) {
+			visitBlockStmt(body);
+			return;
+		}
+
+		scope.clear();
+		executeBlock(body.statements, scope);
+	}
+
 	@Override
 	public Void visitIfStmt(If stmt) {
 
-		if ((boolean) evaluate(stmt.condition)) {
+		if (evaluateBoolean(stmt.condition)) {
 			visitBlockStmt((Block) stmt.ifBody);
 		} else if (stmt.elseBody != null) {
 			visitBlockStmt((Block) stmt.elseBody);
@@ -926,7 +1882,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	@Override
 	public Object visitConditionalExpr(Conditional expr) {
 
-		if ((boolean) evaluate(expr.condition)) {
+		if (evaluateBoolean(expr.condition)) {
 			return evaluate(expr.first);
 		}
 
@@ -959,13 +1915,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 		switch (stmt.word.type) {
 		case BREAK:
-			globals.assign(new Token(null, "$exit_flag", 0, 0, 0), EXIT_BREAK);
+			status = EXIT_BREAK;
 			break;
 		case CONTINUE:
-			globals.assign(new Token(null, "$exit_flag", 0, 0, 0), EXIT_CONTINUE);
+			status = EXIT_CONTINUE;
 			break;
 		case EXIT:
-			globals.assign(new Token(null, "$exit_flag", 0, 0, 0), EXIT_EXIT);
+			status = EXIT_EXIT;
 			break;
 		default:
 			break;
@@ -981,7 +1937,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 	@Override
 	public Object visitCallExpr(Expr.Call expr) {
+		return call(expr, false);
+	}
 
+	/**
+	 * Calls a function or class.
+	 * 
+	 * @param expr the call
+	 * @param tail true if the call is made by a return, so that a function
+	 *             written in Newt can be called once the current one has
+	 *             returned
+	 * @return the result of the call, or the TailCall to make for a tail call
+	 */
+	private Object call(Expr.Call expr, boolean tail) {
 		Object callee = evaluate(expr.callee);
 
 		ArrayList<Object> arguments = new ArrayList<>();
@@ -1000,18 +1968,116 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 					"Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
 		}
 
-		return function.call(this, arguments);
+		if (tail && function instanceof NewtFunction) {
+			return new TailCall((NewtFunction) function, ((NewtFunction) function).getReceiver(), arguments);
+		}
+
+		return enter(expr.parenthesis, function, null, arguments);
+	}
+
+	@Override
+	public Object visitInvokeExpr(Expr.Invoke expr) {
+		return invoke(expr, false);
+	}
+
+	/**
+	 * Calls a method, or a function held in a field, of an instance.
+	 * 
+	 * @param expr the invocation
+	 * @param tail true if the invocation is made by a return
+	 * @return the result of the call, or the TailCall to make for a tail call
+	 */
+	private Object invoke(Expr.Invoke expr, boolean tail) {
+		Object object = evaluate(expr.object);
+
+		if (!(object instanceof NewtInstance)) {
+			throw new RuntimeError(expr.name, "Only instances have properties.");
+		}
+
+		NewtInstance instance = (NewtInstance) object;
+		NewtFunction method = instance.getMethod(expr.name, expr.cache);
+
+		/* a field holding a function is called like any other value */
+		Object callee = method == null ? instance.get(expr.name, expr.cache) : method;
+
+		ArrayList<Object> arguments = new ArrayList<>();
+		for (Expr argument : expr.arguments) {
+			arguments.add(evaluate(argument));
+		}
+
+		if (!(callee instanceof NewtCallable)) {
+			throw new RuntimeError(expr.parenthesis, "Can only call functions and classes.");
+		}
+
+		NewtCallable function = (NewtCallable) callee;
+
+		if (arguments.size() != function.arity()) {
+			throw new RuntimeError(expr.parenthesis,
+					"Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+		}
+
+		if (tail && function instanceof NewtFunction) {
+			NewtInstance receiver = method != null ? instance : ((NewtFunction) function).getReceiver();
+			return new TailCall((NewtFunction) function, receiver, arguments);
+		}
+
+		/* the method receives the instance directly, rather than being bound to it */
+		return enter(expr.parenthesis, function, method != null ? instance : null, arguments);
+	}
+
+	/**
+	 * Makes a call, counting it against the greatest depth of calls allowed.
+	 * 
+	 * @param parenthesis the token of the call, for errors
+	 * @param function    the function or class to call
+	 * @param instance    the instance a method is invoked on, or null
+	 * @param arguments   the evaluated arguments
+	 * @return the result of the call
+	 */
+	private Object enter(Token parenthesis, NewtCallable function, NewtInstance instance,
+			ArrayList<Object> arguments) {
+		if (depth == maxDepth) {
+			throw new RuntimeError(parenthesis, "Stack overflow.");
+		}
+
+		depth++;
+
+		try {
+			if (instance != null) {
+				return ((NewtFunction) function).invoke(this, instance, arguments);
+			}
+
+			return function.call(this, arguments);
+		} catch (StackOverflowError error) {
+			/* the Java stack ran out first, which is reported the same way */
+			throw new RuntimeError(parenthesis, "Stack overflow.");
+		} finally {
+			depth--;
+		}
 	}
 
 	@Override
 	public Void visitFunctionStmt(Function stmt) {
-		environment.define(stmt.name, "function", new NewtFunction(stmt, environment));
+
+		/* a local function is declared before it is created, so that it can capture itself */
+		if (stmt.slot >= 0) {
+			environment.define(stmt.slot, stmt.name, NewtType.FUNCTION, null);
+			environment.assignAt(0, stmt.slot, stmt.name, new NewtFunction(stmt, environment));
+			return null;
+		}
+
+		environment.define(stmt.slot, stmt.name, NewtType.FUNCTION, new NewtFunction(stmt, environment));
 		return null;
 	}
 
 	@Override
 	public Void visitSwitchStmt(Switch stmt) {
 
+		if (stmt.dispatch != null) {
+			dispatchSwitch(stmt);
+			return null;
+		}
+
 		boolean caseFound = false;
 
 		// for each case
@@ -1021,13 +2087,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 			boolean validCase = true;
 
-			// for each value
-			for (int j = 0; j < stmt.controls.size(); j++) {
-				// create expression comparing control and test values
-				Expr.Binary expr = new Expr.Binary(stmt.controls.get(j),
-						new Token(TokenType.EQUAL_EQUAL, "==", null, 0, 0), caseStmt.tests.get(j));
-
-				Boolean bool = (Boolean) evaluate(expr);
+			// compare each control with its test
+			for (Expr comparison : caseStmt.comparisons) {
+				Boolean bool = (Boolean) evaluate(comparison);
 
 				if (!bool) {
 					validCase = false;
@@ -1040,21 +2102,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 				caseFound = true;
 				visitCaseStmt(caseStmt);
 
-				int flag = (int) globals.get(new Token(null, "$exit_flag", 0, 0, 0));
-
 				/* nothing happens when there is no exit condition */
-				if (flag == EXIT_NORMAL) {
+				if (status == EXIT_NORMAL) {
 					continue;
 				}
 
-				/* for a break, the switch breaks and resets the flag */
-				if (flag == EXIT_BREAK) {
-					globals.assign(new Token(null, "$exit_flag", 0, 0, 0), EXIT_NORMAL);
+				/* for a break, the switch breaks and resets the status */
+				if (status == EXIT_BREAK) {
+					status = EXIT_NORMAL;
 					break;
 				}
 
-				/* and exit, return, or continue flag is not resolved by the switch */
-				if (flag == EXIT_EXIT || flag == EXIT_RETURN || flag == EXIT_CONTINUE) {
+				/* and exit, return, or continue status is not resolved by the switch */
+				if (status == EXIT_EXIT || status == EXIT_RETURN || status == EXIT_CONTINUE) {
 					break;
 				}
 			}
@@ -1068,6 +2128,60 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return null;
 	}
 
+	/**
+	 * Runs a switch whose cases are found through its table rather than by
+	 * comparing every test. The controls are read again after each case, just as
+	 * they would be when the next case is compared.
+	 * 
+	 * @param stmt the switch statement
+	 */
+	private void dispatchSwitch(Switch stmt) {
+		SwitchTable table = stmt.dispatch;
+		int index = table.next(findCases(stmt), 0);
+
+		// execute default
+		if (index == table.cases) {
+			if (stmt.defaultBody != null) {
+				visitBlockStmt((Stmt.Block) stmt.defaultBody);
+			}
+
+			return;
+		}
+
+		while (index < table.cases) {
+			visitCaseStmt(stmt.cases.get(index));
+
+			/* for a break, the switch breaks and resets the status */
+			if (status == EXIT_BREAK) {
+				status = EXIT_NORMAL;
+				return;
+			}
+
+			/* and exit, return, or continue status is not resolved by the switch */
+			if (status != EXIT_NORMAL) {
+				return;
+			}
+
+			index = table.next(findCases(stmt), index + 1);
+		}
+	}
+
+	/**
+	 * Follows the table of a switch using the current values of its controls.
+	 * 
+	 * @param stmt the switch statement
+	 * @return the leaf holding the matching cases, or null if none match
+	 */
+	private Object findCases(Switch stmt) {
+		Object node = stmt.dispatch.root;
+
+		for (int i = 0; i < stmt.controls.size() && node != null; i++) {
+			node = SwitchTable.branch(node, evaluate(stmt.controls.get(i)));
+		}
+
+		return node;
+	}
+
 	@Override
 	public Void visitCaseStmt(Case stmt) {
 		// for now, all the work is done in the switch statement
@@ -1080,33 +2194,34 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitDoStmt(Do stmt) {
+		Environment scope = loopScope(stmt.body);
 
 		do {
-			visitBlockStmt((Stmt.Block) stmt.body);
-
-			int flag = (int) globals.get(new Token(null, "$exit_flag", 0, 0, 0));
+			executeLoopBody(stmt.body, scope);
 
 			/* nothing happens when there is no exit condition */
-			if (flag == EXIT_NORMAL) {
+			if (status == EXIT_NORMAL) {
 				continue;
 			}
 
-			/* for a continue, the while continues and resets the flag */
-			if (flag == EXIT_CONTINUE) {
-				globals.assign(new Token(null, "$exit_flag", 0, 0, 0), EXIT_NORMAL);
+			/* for a continue, the while continues and resets the status */
+			if (status == EXIT_CONTINUE) {
+				status = EXIT_NORMAL;
 				continue;
 			}
 
-			/* for a break, the while breaks and resets the flag */
-			if (flag == EXIT_BREAK) {
-				globals.assign(new Token(null, "$exit_flag", 0, 0, 0), EXIT_NORMAL);
+			/* for a break, the while breaks and resets the status */
+			if (status == EXIT_BREAK) {
+				status = EXIT_NORMAL;
 				break;
 			}
 
-			if (flag == EXIT_EXIT || flag == EXIT_RETURN) {
+			if (status == EXIT_EXIT || status == EXIT_RETURN) {
 				break;
 			}
-		} while ((boolean) evaluate(stmt.condition));
+
+			/* once the condition holds, a hot loop runs its remaining passes as compiled code */
+		} while (evaluateBoolean(stmt.condition) && (jit == null || !jit.transfer(stmt, environment)));
 
 		return null;
 	}
@@ -1115,7 +2230,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	public Void visitUndecStmt(Undec stmt) {
 
 		for (Expr expr : stmt.variables) {
-			environment.undefine(((Expr.Variable) expr).name);
+			Expr.Variable variable = (Expr.Variable) expr;
+
+			/* only variables of the current scope can be removed */
+			if (variable.depth == 0) {
+				environment.undefineAt(variable.slot);
+			} else if (variable.depth < 0) {
+				environment.undefine(variable.name);
+			}
 		}
 
 		return null;
@@ -1123,28 +2245,58 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 	@Override
 	public Object visitUnaryAssignExpr(UnaryAssign expr) {
-		/* make a duplicate with the same lexeme and location for error reporting */
-		Token operator = new Token(null, expr.operator.lexeme, expr.operator.literal, expr.operator.line,
-				expr.operator.character);
+		// unary assignments should never be visited - the Lowerer replaces them with
+		// increments
+		return null;
+	}
 
-		/* set the new token to have the mathematical operator type */
-		switch (expr.operator.type) {
-		case MINUS_MINUS:
-			operator.type = MINUS;
-			break;
-		case PLUS_PLUS:
-			operator.type = PLUS;
-			break;
-		default:
-			break;
+	@Override
+	public Object visitIncrementExpr(Increment expr) {
+
+		/* an increment of a local number of a proven type needs no boxing */
+		if (expr.name.staticType == NewtType.INT) {
+			NewtObject var = typedVariable(expr.name);
+			var.setInt(expr.operator.type == MINUS ? var.getInt() - 1 : var.getInt() + 1);
+			return null;
+		}
+
+		if (expr.name.staticType == NewtType.DOUBLE) {
+			NewtObject var = typedVariable(expr.name);
+			var.setDouble(expr.operator.type == MINUS ? var.getDouble() - 1 : var.getDouble() + 1);
+			return null;
+		}
+
+		/* an increment of a local integer needs no binary operation */
+		if (specializing && expr.name.depth >= 0 && expr.state != Specialization.GENERIC) {
+			Object current = environment.getAt(expr.name.depth, expr.name.slot, expr.name.name);
+
+			if (current instanceof Integer) {
+				expr.state = Specialization.INT;
+				int value = expr.operator.type == MINUS ? (int) current - 1 : (int) current + 1;
+				environment.assignAt(expr.name.depth, expr.name.slot, expr.name.name, value, NewtType.INT);
+				return null;
+			}
+
+			expr.state = Specialization.GENERIC;
 		}
 
-		environment.assign(expr.name.name,
-				evaluate(new Expr.Binary(expr.name, operator, new Expr.Literal(new Integer(1)))));
+		Object value = binaryOperation(expr.operator, evaluate(expr.name), ONE);
+
+		if (expr.name.depth >= 0) {
+			environment.assignAt(expr.name.depth, expr.name.slot, expr.name.name, value);
+		} else {
+			/* evaluating the name found its global */
+			globals.store(expr.name.cell, expr.name.name, value);
+		}
 
 		return null;
 	}
 
+	@Override
+	public Object visitCaseCompareExpr(CaseCompare expr) {
+		return isEqual(evaluate(expr.control), evaluate(expr.test));
+	}
+
 	@Override
 	public Void visitStructStmt(Struct stmt) {
 		// struct statements should never be visited - they are only used by the parser
@@ -1257,14 +2409,34 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitReturnStmt(Return stmt) {
-		globals.assign(new Token(null, "$exit_flag", 0, 0, 0), EXIT_RETURN);
-		throw new NewtReturn(evaluate(stmt.value));
-//		globals.assign(new Token(null, "$return_val", 0, 0, 0), evaluate(stmt.value));
+		/* the enclosing blocks stop until the call collects the value */
+		if (stmt.tail && stmt.value instanceof Expr.Call) {
+			returnValue = call((Expr.Call) stmt.value, true);
+		} else if (stmt.tail) {
+			returnValue = invoke((Expr.Invoke) stmt.value, true);
+		} else {
+			returnValue = evaluate(stmt.value);
+		}
+
+		status = EXIT_RETURN;
+		return null;
 	}
 
 	@Override
 	public Void visitClassStmt(Class stmt) {
-		environment.define(stmt.name.lexeme, "class", null);
+		declareClass(stmt, environment);
+		return null;
+	}
+
+	/**
+	 * Creates a class and defines it in the given scope, which becomes the
+	 * closure of its methods.
+	 * 
+	 * @param stmt        the class declaration
+	 * @param environment the scope in which the class is declared
+	 */
+	void declareClass(Class stmt, Environment environment) {
+		environment.define(stmt.slot, stmt.name, NewtType.CLASS, null);
 
 		Map<String, NewtFunction> methods = new HashMap<>();
 
@@ -1275,15 +2447,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 		NewtClass newtClass = new NewtClass(stmt.name.lexeme, methods, stmt.fields);
 
-		environment.assign(stmt.name, newtClass);
-		return null;
+		environment.assignAt(0, stmt.slot, stmt.name, newtClass);
 	}
 
 	@Override
 	public Object visitGetExpr(Get expr) {
 		Object object = evaluate(expr.object);
 		if (object instanceof NewtInstance) {
-			return ((NewtInstance) object).get(expr.name);
+			return ((NewtInstance) object).get(expr.name, expr.cache);
 		}
 
 		throw new RuntimeError(expr.name, "Only instances have properties.");
@@ -1298,12 +2469,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		}
 
 		Object value = evaluate(expr.value);
-		((NewtInstance) object).set(expr.name, value);
+		((NewtInstance) object).set(expr.name, value, expr.cache);
 		return value;
 	}
 
 	@Override
 	public Object visitThisExpr(Expr.This expr) {
-		return lookUpVariable(expr.keyword, expr);
+		return lookUpVariable(expr.keyword, expr.depth, expr.slot);
 	}
 }
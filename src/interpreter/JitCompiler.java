@@ -0,0 +1,1428 @@
+package interpreter;
+
+import static interpreter.ClassFile.*;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Stack;
+
+import interpreter.ClassFile.Label;
+import interpreter.CompiledLoop.LiveVariable;
+import interpreter.CompiledFunction.Deoptimization;
+import interpreter.Expr.Assign;
+import interpreter.Expr.Binary;
+import interpreter.Expr.Call;
+import interpreter.Expr.CompoundAssign;
+import interpreter.Expr.Conditional;
+import interpreter.Expr.Grouping;
+import interpreter.Expr.Increment;
+import interpreter.Expr.Literal;
+import interpreter.Expr.Logical;
+import interpreter.Expr.Unary;
+import interpreter.Expr.Variable;
+import interpreter.Stmt.Block;
+import interpreter.Stmt.Declare;
+import interpreter.Stmt.Do;
+import interpreter.Stmt.Expression;
+import interpreter.Stmt.For;
+import interpreter.Stmt.Function;
+import interpreter.Stmt.If;
+import interpreter.Stmt.Keyword;
+import interpreter.Stmt.Return;
+import interpreter.Stmt.While;
+import newt_metatypes.NewtFunction;
+import newt_metatypes.NewtObject;
+import newt_metatypes.NewtType;
+
+/**
+ * The JitCompiler compiles the functions the interpreter finds hot into JVM
+ * classes, which the JVM then compiles to machine code of its own. Each call
+ * to a function, and each time a loop in it goes around, adds to the heat of
+ * its declaration. Once the heat reaches the threshold the function is
+ * compiled, and from then on its calls run the compiled code.
+ *
+ * Only functions which work on numbers and booleans are compiled: their
+ * parameters and locals must be ints, doubles or bools, they may call no
+ * function but themselves, and they may print nothing and change no global.
+ * The types of the values are found from the declarations, so the compiled
+ * code never checks them. Every other function is left to the interpreter.
+ *
+ * The generated class extends CompiledFunction. Its static run method takes
+ * the parameters unboxed, followed by the depth of the call and the
+ * CompiledFunction, and its call method unboxes the arguments to call it. A
+ * return which calls the function itself jumps back to the start of the code
+ * with the new arguments, as the interpreter replaces the call.
+ *
+ * A loop also has a heat of its own, counted by its passes. A hot loop is
+ * compiled on its own, under the same rules, so that a loop which runs for a
+ * long time speeds up even if nothing calls it again: the interpreter hands
+ * the running loop over between two passes, and the compiled code runs the
+ * rest of it. The variables from outside the loop are read from the scopes it
+ * is running in, and take the types they have when it is compiled.
+ *
+ * @author Jared
+ */
+class JitCompiler {
+
+	/**
+	 * The heat at which a function is compiled.
+	 */
+	static final int THRESHOLD = 1000;
+
+	/**
+	 * The number of times compiled code may give up before it is discarded.
+	 */
+	private static final int MAX_DEOPTIMIZATIONS = 16;
+
+	/**
+	 * Marks a function which cannot be compiled, or whose code was discarded.
+	 */
+	private static final CompiledFunction REJECTED = new CompiledFunction() {
+		@Override
+		Object call(ArrayList<Object> arguments, int depth) {
+			throw Deoptimization.INSTANCE;
+		}
+	};
+
+	/**
+	 * Marks a loop which cannot be compiled. It has already given up as often as
+	 * code may, so it is never run.
+	 */
+	private static final CompiledLoop UNCOMPILABLE = new CompiledLoop() {
+		{
+			deoptimizations = MAX_DEOPTIMIZATIONS;
+		}
+
+		@Override
+		boolean run(NewtObject[] cells) {
+			return false;
+		}
+	};
+
+	private static final String SUPER = "interpreter/CompiledFunction";
+	private static final String LOOP = "interpreter/CompiledLoop";
+	private static final String CELL = "newt_metatypes/NewtObject";
+
+	private final Interpreter interpreter;
+
+	JitCompiler(Interpreter interpreter) {
+		this.interpreter = interpreter;
+	}
+
+	/**
+	 * Counts a pass around a loop towards compiling the function containing it.
+	 *
+	 * @param function the declaration of the function, or null for a loop outside
+	 *                 of any function
+	 */
+	void backEdge(Function function) {
+		if (function != null && function.heat < THRESHOLD) {
+			function.heat++;
+		}
+	}
+
+	/**
+	 * Counts a pass around a while loop, and once the loop is hot runs the rest
+	 * of it as compiled code.
+	 *
+	 * @param loop        the loop, whose next pass starts with its condition
+	 * @param environment the scope the loop is running in
+	 * @return true if the loop has ended, or false if the interpreter must go on
+	 *         with it
+	 */
+	boolean transfer(While loop, Environment environment) {
+		backEdge(loop.owner);
+
+		if (loop.compiled == null && ++loop.heat == THRESHOLD) {
+			loop.compiled = compile(loop, environment);
+		}
+
+		return loop.compiled != null && enter(loop.compiled, environment);
+	}
+
+	/**
+	 * Counts a pass around a do loop whose condition has just held, and once the
+	 * loop is hot runs the rest of it as compiled code.
+	 */
+	boolean transfer(Do loop, Environment environment) {
+		backEdge(loop.owner);
+
+		if (loop.compiled == null && ++loop.heat == THRESHOLD) {
+			loop.compiled = compile(loop, environment);
+		}
+
+		return loop.compiled != null && enter(loop.compiled, environment);
+	}
+
+	/**
+	 * Counts a pass around a for loop whose incrementor has just run, and once the
+	 * loop is hot runs the rest of it as compiled code.
+	 */
+	boolean transfer(For loop, Environment environment) {
+		backEdge(loop.owner);
+
+		if (loop.compiled == null && ++loop.heat == THRESHOLD) {
+			loop.compiled = compile(loop, environment);
+		}
+
+		return loop.compiled != null && enter(loop.compiled, environment);
+	}
+
+	/**
+	 * Runs the rest of a loop as compiled code, handing it the variables it uses.
+	 *
+	 * @param code        the compiled loop
+	 * @param environment the scope the loop is running in
+	 * @return true if the loop has ended
+	 */
+	private boolean enter(CompiledLoop code, Environment environment) {
+		if (code.deoptimizations >= MAX_DEOPTIMIZATIONS) {
+			return false;
+		}
+
+		NewtObject[] cells = code.transfer(environment, interpreter.getGlobals());
+
+		if (cells != null && code.run(cells)) {
+			return true;
+		}
+
+		code.deoptimizations++;
+		return false;
+	}
+
+	/**
+	 * Compiles a loop. It is compiled twice: the first time finds the variables
+	 * from outside the loop which it uses, so that the second can read them
+	 * before the loop starts.
+	 *
+	 * @param loop        the loop
+	 * @param environment the scope the loop is running in
+	 * @return the compiled code, or UNCOMPILABLE
+	 */
+	private CompiledLoop compile(Stmt loop, Environment environment) {
+		Environment globals = interpreter.getGlobals();
+
+		try {
+			Translation first = new Translation(environment, globals, new ArrayList<>());
+			first.translateLoop(loop);
+
+			Translation translation = new Translation(environment, globals, first.live);
+			CompiledLoop code = (CompiledLoop) load(translation.translateLoop(loop));
+			code.variables = translation.live.toArray(new LiveVariable[0]);
+			return code;
+		} catch (Unsupported | RuntimeError | ReflectiveOperationException | LinkageError e) {
+			return UNCOMPILABLE;
+		}
+	}
+
+	/**
+	 * Runs a call to a function using its compiled code, compiling the function
+	 * first if it has become hot.
+	 *
+	 * @param function  the function called, which is not a bound method
+	 * @param arguments the evaluated arguments
+	 * @param depth     the depth of the call
+	 * @return the value returned, or null if the interpreter must make the call
+	 */
+	Object run(NewtFunction function, ArrayList<Object> arguments, int depth) {
+		Function declaration = function.getDeclaration();
+		CompiledFunction code = declaration.compiled;
+
+		if (code == null) {
+			if (++declaration.heat < THRESHOLD) {
+				return null;
+			}
+
+			code = compile(function);
+			declaration.compiled = code;
+		}
+
+		if (code == REJECTED) {
+			return null;
+		}
+
+		/* arguments of the wrong types are reported by the interpreter */
+		for (int i = 0; i < arguments.size(); i++) {
+			if (NewtType.of(arguments.get(i)) != function.getParameterType(i)) {
+				return null;
+			}
+		}
+
+		try {
+			return code.call(arguments, depth);
+		} catch (Deoptimization | StackOverflowError e) {
+			if (++code.deoptimizations == MAX_DEOPTIMIZATIONS) {
+				declaration.compiled = REJECTED;
+			}
+
+			return null;
+		}
+	}
+
+	/**
+	 * Compiles a function, trying each type its returns could have.
+	 *
+	 * @param function the function
+	 * @return the compiled code, or REJECTED if the function cannot be compiled
+	 */
+	private CompiledFunction compile(NewtFunction function) {
+		Function declaration = function.getDeclaration();
+
+		if (!declaration.captures.isEmpty() || function.getClosure() != interpreter.getGlobals()) {
+			return REJECTED;
+		}
+
+		NewtType[] parameters = new NewtType[declaration.parameters.size()];
+
+		for (int i = 0; i < parameters.length; i++) {
+			parameters[i] = function.getParameterType(i);
+
+			if (descriptor(parameters[i]) == null) {
+				return REJECTED;
+			}
+		}
+
+		for (NewtType returns : new NewtType[] { NewtType.INT, NewtType.DOUBLE, NewtType.BOOL }) {
+			try {
+				Translation translation = new Translation(declaration, parameters, returns);
+				CompiledFunction code = (CompiledFunction) load(translation.translate());
+				code.declaration = declaration;
+				code.maxDepth = interpreter.getMaxDepth();
+				code.cell = translation.callsItself ? interpreter.getGlobals().cell(null, declaration.name) : null;
+				return code;
+			} catch (Unsupported e) {
+				/* the function does not return values of this type */
+			} catch (RuntimeError | ReflectiveOperationException | LinkageError e) {
+				return REJECTED;
+			}
+		}
+
+		return REJECTED;
+	}
+
+	/**
+	 * Defines a generated class and creates its instance.
+	 *
+	 * @param bytes the class file
+	 * @return the instance
+	 */
+	private static Object load(byte[] bytes) throws ReflectiveOperationException {
+		Class<?> type = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+		return type.getDeclaredConstructor().newInstance();
+	}
+
+	/**
+	 * Finds the JVM type of the values of a Newt type.
+	 *
+	 * @param type the Newt type
+	 * @return the descriptor, or null if the type is not compiled
+	 */
+	static String descriptor(NewtType type) {
+		if (type == NewtType.INT)
+			return "I";
+		if (type == NewtType.DOUBLE)
+			return "D";
+		if (type == NewtType.BOOL)
+			return "Z";
+		return null;
+	}
+
+	static String box(NewtType type) {
+		if (type == NewtType.INT)
+			return "java/lang/Integer";
+		if (type == NewtType.DOUBLE)
+			return "java/lang/Double";
+		return "java/lang/Boolean";
+	}
+
+	/**
+	 * The number of locals or stack slots a value of a type takes.
+	 */
+	static int size(NewtType type) {
+		return type == NewtType.DOUBLE ? 2 : 1;
+	}
+
+	static boolean isNumber(NewtType type) {
+		return type == NewtType.INT || type == NewtType.DOUBLE;
+	}
+
+	/**
+	 * Finds the instruction for an arithmetic operator on ints, or -1 if the
+	 * operator is not arithmetic. The double instruction is three after it.
+	 */
+	static int arithmetic(TokenType operator) {
+		switch (operator) {
+		case PLUS:
+			return IADD;
+		case MINUS:
+			return ISUB;
+		case STAR:
+			return IMUL;
+		case SLASH:
+			return IDIV;
+		case PERCENT:
+			return IREM;
+		case CARAT:
+			return 0;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Finds the jump taken when an int comparison is true, or -1 if the
+	 * operator is not a comparison. The jump after comparing doubles is six
+	 * before it.
+	 */
+	static int comparison(TokenType operator) {
+		switch (operator) {
+		case EQUAL_EQUAL:
+			return IF_ICMPEQ;
+		case BANG_EQUAL:
+			return IF_ICMPNE;
+		case LESS:
+			return IF_ICMPLT;
+		case GREATER_EQUAL:
+			return IF_ICMPGE;
+		case GREATER:
+			return IF_ICMPGT;
+		case LESS_EQUAL:
+			return IF_ICMPLE;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Finds the jump taken when the opposite of a comparison is true.
+	 */
+	static int negate(int jump) {
+		/* the jumps come in pairs of opposites: eq/ne, lt/ge, gt/le */
+		return ((jump - IFEQ) ^ 1) + IFEQ;
+	}
+
+	/**
+	 * Thrown when a function uses something which is not compiled.
+	 */
+	private static final class Unsupported extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		static final Unsupported INSTANCE = new Unsupported();
+
+		private Unsupported() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * A local variable of the compiled code.
+	 */
+	static final class Local {
+		final NewtType type;
+		final int index;
+
+		Local(NewtType type, int index) {
+			this.type = type;
+			this.index = index;
+		}
+	}
+
+	/**
+	 * The labels a break or continue in a loop jumps to.
+	 */
+	static final class Loop {
+		final Label exit = new Label();
+		final Label next = new Label();
+	}
+
+	/**
+	 * The compilation of one function, assuming the type of the values it
+	 * returns, or of one loop.
+	 */
+	private static final class Translation {
+
+		/**
+		 * The function, or null for a loop.
+		 */
+		private final Function function;
+		private final NewtType[] parameters;
+		private final NewtType returns;
+
+		/**
+		 * For a loop, the scope it is running in as it is compiled, and the global
+		 * scope.
+		 */
+		private final Environment environment;
+		private final Environment globals;
+
+		/**
+		 * For a loop, the variables from outside it which it uses, the locals
+		 * holding them, and the locals holding their values at the start of the
+		 * pass.
+		 */
+		final ArrayList<LiveVariable> live = new ArrayList<>();
+		private final ArrayList<Local> liveLocals = new ArrayList<>();
+		private final ArrayList<Local> shadows = new ArrayList<>();
+
+		private final ClassFile file;
+		private ClassFile.Method code;
+
+		/**
+		 * The locals of the open scopes, by slot, innermost last.
+		 */
+		private final ArrayList<Local[]> scopes = new ArrayList<>();
+
+		private final Stack<Loop> loops = new Stack<>();
+
+		/**
+		 * The start of the code, where a tail call returns to.
+		 */
+		private final Label start = new Label();
+
+		/**
+		 * The locals holding the depth of the call and the CompiledFunction, and
+		 * the next free local.
+		 */
+		private int depth;
+		private int self;
+		private int next;
+
+		/**
+		 * True if the function calls itself.
+		 */
+		boolean callsItself = false;
+
+		Translation(Function function, NewtType[] parameters, NewtType returns) {
+			this.function = function;
+			this.parameters = parameters;
+			this.returns = returns;
+			this.environment = null;
+			this.globals = null;
+			this.file = new ClassFile("interpreter/Compiled$" + className(function.name.lexeme), SUPER);
+		}
+
+		/**
+		 * Starts the compilation of a loop.
+		 *
+		 * @param environment the scope the loop is running in
+		 * @param globals     the global scope
+		 * @param known       the variables from outside the loop found by an
+		 *                    earlier compilation of it, which are read first
+		 */
+		Translation(Environment environment, Environment globals, ArrayList<LiveVariable> known) {
+			this.function = null;
+			this.parameters = new NewtType[0];
+			this.returns = null;
+			this.environment = environment;
+			this.globals = globals;
+			this.file = new ClassFile("interpreter/Compiled$loop", LOOP);
+
+			/* the instance and the variables come first */
+			next = 2;
+
+			for (LiveVariable variable : known) {
+				addLive(variable);
+			}
+		}
+
+		private static String className(String name) {
+			StringBuilder builder = new StringBuilder();
+
+			for (char c : name.toCharArray()) {
+				builder.append(Character.isJavaIdentifierPart(c) ? c : '_');
+			}
+
+			return builder.toString();
+		}
+
+		private String runDescriptor() {
+			StringBuilder builder = new StringBuilder("(");
+
+			for (NewtType parameter : parameters) {
+				builder.append(descriptor(parameter));
+			}
+
+			return builder.append("IL" + SUPER + ";)").append(descriptor(returns)).toString();
+		}
+
+		/**
+		 * Writes the class.
+		 *
+		 * @return the class file
+		 */
+		byte[] translate() {
+			writeConstructor();
+			writeCall();
+
+			code = file.method(ACC_STATIC, "run", runDescriptor());
+			Local[] scope = new Local[function.locals];
+			scopes.add(scope);
+
+			for (int i = 0; i < parameters.length; i++) {
+				scope[i] = new Local(parameters[i], next);
+				next += size(parameters[i]);
+			}
+
+			depth = next++;
+			self = next++;
+
+			code.place(start);
+			statements(function.body.statements);
+
+			/* a function which ends without a return returns nothing, which the interpreter does */
+			deoptimize();
+
+			if (next > 255 || code.length() > Short.MAX_VALUE) {
+				throw Unsupported.INSTANCE;
+			}
+
+			code.locals(next);
+			return file.toBytes();
+		}
+
+		/**
+		 * Writes the class of a loop. Its code reads the variables from outside the
+		 * loop, runs the loop from the top of a pass, and writes the variables
+		 * back. When it gives up it writes back the values they had at the start of
+		 * the pass instead.
+		 *
+		 * @param loop the loop
+		 * @return the class file
+		 */
+		byte[] translateLoop(Stmt loop) {
+			writeConstructor();
+			code = file.method(0, "run", "([L" + CELL + ";)Z");
+
+			for (int i = 0; i < live.size(); i++) {
+				readLive(i);
+			}
+
+			/* the handler needs the copies to have values wherever it may start */
+			saveLive();
+
+			Loop labels = new Loop();
+			Label top = new Label();
+			Label handler = new Label();
+
+			loops.push(labels);
+
+			if (loop instanceof While) {
+				While stmt = (While) loop;
+				code.place(top);
+				saveLive();
+				branch(stmt.condition, false, labels.exit);
+				block(stmt.body);
+				code.place(labels.next);
+				code.jump(GOTO, 0, top);
+			} else if (loop instanceof Do) {
+				Do stmt = (Do) loop;
+				code.place(top);
+				saveLive();
+				block(stmt.body);
+				code.place(labels.next);
+				branch(stmt.condition, true, top);
+			} else {
+				For stmt = (For) loop;
+				code.place(top);
+				saveLive();
+
+				if (stmt.condition != null) {
+					branch(stmt.condition, false, labels.exit);
+				}
+
+				block(stmt.body);
+				code.place(labels.next);
+
+				if (stmt.incrementor != null) {
+					effect(stmt.incrementor);
+				}
+
+				code.jump(GOTO, 0, top);
+			}
+
+			loops.pop();
+			code.place(labels.exit);
+			writeLive(liveLocals);
+			code.op(ICONST_0 + 1, 1);
+			code.op(IRETURN, -1);
+
+			code.handler(top, labels.exit, handler, "interpreter/CompiledFunction$Deoptimization");
+			code.place(handler);
+			code.op(POP, -1);
+			writeLive(shadows);
+			code.op(ICONST_0, 1);
+			code.op(IRETURN, -1);
+
+			if (next > 255 || code.length() > Short.MAX_VALUE) {
+				throw Unsupported.INSTANCE;
+			}
+
+			code.locals(next);
+			return file.toBytes();
+		}
+
+		/**
+		 * Reads a variable from outside the loop into its local.
+		 */
+		private void readLive(int index) {
+			NewtType type = live.get(index).type;
+			code.op(ALOAD, 1, 1);
+			code.push(index);
+			code.op(AALOAD, -1);
+
+			if (type == NewtType.INT) {
+				code.opShort(INVOKEVIRTUAL, file.methodRef(CELL, "getInt", "()I"), 0);
+			} else if (type == NewtType.DOUBLE) {
+				code.opShort(INVOKEVIRTUAL, file.methodRef(CELL, "getDouble", "()D"), 1);
+			} else {
+				code.opShort(INVOKEVIRTUAL, file.methodRef(CELL, "getValue", "()Ljava/lang/Object;"), 0);
+				code.opShort(CHECKCAST, file.classRef("java/lang/Boolean"), 0);
+				code.opShort(INVOKEVIRTUAL, file.methodRef("java/lang/Boolean", "booleanValue", "()Z"), 0);
+			}
+
+			store(liveLocals.get(index));
+		}
+
+		/**
+		 * Keeps the values of the variables from outside the loop at the start of a
+		 * pass.
+		 */
+		private void saveLive() {
+			for (int i = 0; i < live.size(); i++) {
+				load(liveLocals.get(i));
+				store(shadows.get(i));
+			}
+		}
+
+		/**
+		 * Writes the variables from outside the loop back.
+		 *
+		 * @param locals the locals holding their values
+		 */
+		private void writeLive(ArrayList<Local> locals) {
+			for (int i = 0; i < live.size(); i++) {
+				Local local = locals.get(i);
+				code.op(ALOAD, 1, 1);
+				code.push(i);
+				code.op(AALOAD, -1);
+				load(local);
+
+				if (local.type == NewtType.INT) {
+					code.opShort(INVOKEVIRTUAL, file.methodRef(CELL, "setInt", "(I)V"), -2);
+				} else if (local.type == NewtType.DOUBLE) {
+					code.opShort(INVOKEVIRTUAL, file.methodRef(CELL, "setDouble", "(D)V"), -3);
+				} else {
+					code.opShort(INVOKESTATIC, file.methodRef("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;"),
+							0);
+					code.opShort(INVOKEVIRTUAL, file.methodRef(CELL, "setValue", "(Ljava/lang/Object;)V"), -2);
+				}
+			}
+		}
+
+		private void writeConstructor() {
+			ClassFile.Method init = file.method(ACC_PUBLIC, "<init>", "()V");
+			init.op(ALOAD, 0, 1);
+			init.opShort(INVOKESPECIAL, file.methodRef(function == null ? LOOP : SUPER, "<init>", "()V"), -1);
+			init.op(RETURN, 0);
+			init.locals(1);
+		}
+
+		/**
+		 * Writes the method which unboxes the arguments, runs the code and boxes
+		 * its result.
+		 */
+		private void writeCall() {
+			ClassFile.Method call = file.method(0, "call", "(Ljava/util/ArrayList;I)Ljava/lang/Object;");
+
+			for (int i = 0; i < parameters.length; i++) {
+				call.op(ALOAD, 1, 1);
+				call.push(i);
+				call.opShort(INVOKEVIRTUAL, file.methodRef("java/util/ArrayList", "get", "(I)Ljava/lang/Object;"), -1);
+				String box = box(parameters[i]);
+				call.opShort(CHECKCAST, file.classRef(box), 0);
+				String descriptor = descriptor(parameters[i]);
+				String unbox = parameters[i] == NewtType.INT ? "intValue"
+						: parameters[i] == NewtType.DOUBLE ? "doubleValue" : "booleanValue";
+				call.opShort(INVOKEVIRTUAL, file.methodRef(box, unbox, "()" + descriptor), size(parameters[i]) - 1);
+			}
+
+			call.op(ILOAD, 2, 1);
+			call.op(ALOAD, 0, 1);
+			int arguments = 2;
+
+			for (NewtType parameter : parameters) {
+				arguments += size(parameter);
+			}
+
+			call.opShort(INVOKESTATIC, file.methodRef(file.name(), "run", runDescriptor()),
+					size(returns) - arguments);
+			call.opShort(INVOKESTATIC,
+					file.methodRef(box(returns), "valueOf", "(" + descriptor(returns) + ")L" + box(returns) + ";"),
+					1 - size(returns));
+			call.op(ARETURN, -1);
+			call.locals(3);
+		}
+
+		/**
+		 * Gives up on the call, for the interpreter to make it instead.
+		 */
+		private void deoptimize() {
+			code.opShort(GETSTATIC,
+					file.fieldRef("interpreter/CompiledFunction$Deoptimization", "INSTANCE",
+							"Linterpreter/CompiledFunction$Deoptimization;"),
+					1);
+			code.op(ATHROW, -1);
+		}
+
+		private void load(Local local) {
+			code.op(local.type == NewtType.DOUBLE ? DLOAD : ILOAD, local.index, size(local.type));
+		}
+
+		private void store(Local local) {
+			code.op(local.type == NewtType.DOUBLE ? DSTORE : ISTORE, local.index, -size(local.type));
+		}
+
+		private void pop(NewtType type) {
+			code.op(type == NewtType.DOUBLE ? POP2 : POP, -size(type));
+		}
+
+		/**
+		 * Finds the local a variable was resolved to. In a loop, a variable from
+		 * outside the loop is given a local the first time it is used.
+		 *
+		 * @param name  the name of the variable
+		 * @param depth the distance to the declaring scope, or -1 for a global
+		 * @param slot  the slot in that scope
+		 * @return the local
+		 */
+		private Local local(Token name, int depth, int slot) {
+			if (depth < 0 || depth >= scopes.size()) {
+				if (function != null) {
+					throw Unsupported.INSTANCE;
+				}
+
+				return live(name, depth < 0 ? -1 : depth - scopes.size(), slot);
+			}
+
+			Local[] scope = scopes.get(scopes.size() - 1 - depth);
+
+			if (slot < 0 || slot >= scope.length || scope[slot] == null) {
+				throw Unsupported.INSTANCE;
+			}
+
+			return scope[slot];
+		}
+
+		/**
+		 * Finds the local holding a variable from outside a loop, adding the
+		 * variable if the loop has not used it before. Its type is the type it has
+		 * in the scope the loop is running in.
+		 *
+		 * @param name  the name of the variable
+		 * @param depth the distance from the scope the loop runs in, or -1 for a
+		 *              global
+		 * @param slot  the slot of the variable
+		 * @return the local
+		 */
+		private Local live(Token name, int depth, int slot) {
+			for (int i = 0; i < live.size(); i++) {
+				LiveVariable variable = live.get(i);
+
+				if (variable.depth == depth && (depth < 0 ? variable.name.lexeme.equals(name.lexeme) : variable.slot == slot)) {
+					return liveLocals.get(i);
+				}
+			}
+
+			NewtObject cell = new LiveVariable(depth, slot, name, null).find(environment, globals);
+
+			if (cell == null || cell.removed || !cell.initialized || descriptor(cell.type) == null) {
+				throw Unsupported.INSTANCE;
+			}
+
+			return addLive(new LiveVariable(depth, slot, name, cell.type));
+		}
+
+		/**
+		 * Gives a variable from outside a loop a local, and another for its value at
+		 * the start of the pass.
+		 */
+		private Local addLive(LiveVariable variable) {
+			Local local = new Local(variable.type, next);
+			next += size(variable.type);
+			shadows.add(new Local(variable.type, next));
+			next += size(variable.type);
+
+			live.add(variable);
+			liveLocals.add(local);
+			return local;
+		}
+
+		private void statements(ArrayList<Stmt> statements) {
+			for (Stmt statement : statements) {
+				statement(statement);
+			}
+		}
+
+		private void block(Block block) {
+			if (!block.scoped) {
+				statements(block.statements);
+				return;
+			}
+
+			scopes.add(new Local[block.locals]);
+			statements(block.statements);
+			scopes.remove(scopes.size() - 1);
+		}
+
+		private void statement(Stmt stmt) {
+			if (stmt instanceof Declare) {
+				declare((Declare) stmt);
+			} else if (stmt instanceof Expression) {
+				effect(((Expression) stmt).expression);
+			} else if (stmt instanceof Block) {
+				block((Block) stmt);
+			} else if (stmt instanceof If) {
+				ifStatement((If) stmt);
+			} else if (stmt instanceof While) {
+				whileLoop((While) stmt);
+			} else if (stmt instanceof Do) {
+				doLoop((Do) stmt);
+			} else if (stmt instanceof For) {
+				forLoop((For) stmt);
+			} else if (stmt instanceof Keyword) {
+				keyword((Keyword) stmt);
+			} else if (stmt instanceof Return) {
+				returnStatement((Return) stmt);
+			} else {
+				throw Unsupported.INSTANCE;
+			}
+		}
+
+		private void declare(Declare stmt) {
+			NewtType type = NewtType.named(stmt.type.lexeme);
+
+			if (stmt.slot < 0 || stmt.value == null || descriptor(type) == null || typeOf(stmt.value) != type) {
+				throw Unsupported.INSTANCE;
+			}
+
+			emit(stmt.value, type);
+			Local local = new Local(type, next);
+			next += size(type);
+			store(local);
+
+			Local[] scope = scopes.get(scopes.size() - 1);
+
+			if (stmt.slot >= scope.length) {
+				throw Unsupported.INSTANCE;
+			}
+
+			scope[stmt.slot] = local;
+		}
+
+		private void ifStatement(If stmt) {
+			Label otherwise = new Label();
+			Label end = new Label();
+
+			branch(stmt.condition, false, otherwise);
+			block(stmt.ifBody);
+
+			if (stmt.elseBody == null) {
+				code.place(otherwise);
+				return;
+			}
+
+			code.jump(GOTO, 0, end);
+			code.place(otherwise);
+			block(stmt.elseBody);
+			code.place(end);
+		}
+
+		private void whileLoop(While stmt) {
+			Loop loop = new Loop();
+
+			code.place(loop.next);
+			branch(stmt.condition, false, loop.exit);
+			loops.push(loop);
+			block(stmt.body);
+			loops.pop();
+			code.jump(GOTO, 0, loop.next);
+			code.place(loop.exit);
+		}
+
+		private void doLoop(Do stmt) {
+			Loop loop = new Loop();
+			Label top = new Label();
+
+			code.place(top);
+			loops.push(loop);
+			block(stmt.body);
+			loops.pop();
+			code.place(loop.next);
+			branch(stmt.condition, true, top);
+			code.place(loop.exit);
+		}
+
+		private void forLoop(For stmt) {
+			Loop loop = new Loop();
+			Label top = new Label();
+
+			scopes.add(new Local[stmt.locals]);
+
+			if (stmt.declaration != null) {
+				declare(stmt.declaration);
+			}
+
+			code.place(top);
+
+			if (stmt.condition != null) {
+				branch(stmt.condition, false, loop.exit);
+			}
+
+			loops.push(loop);
+			block(stmt.body);
+			loops.pop();
+			code.place(loop.next);
+
+			if (stmt.incrementor != null) {
+				effect(stmt.incrementor);
+			}
+
+			code.jump(GOTO, 0, top);
+			code.place(loop.exit);
+			scopes.remove(scopes.size() - 1);
+		}
+
+		private void keyword(Keyword stmt) {
+			if (loops.isEmpty()) {
+				throw Unsupported.INSTANCE;
+			}
+
+			switch (stmt.word.type) {
+			case BREAK:
+				code.jump(GOTO, 0, loops.peek().exit);
+				break;
+			case CONTINUE:
+				code.jump(GOTO, 0, loops.peek().next);
+				break;
+			default:
+				throw Unsupported.INSTANCE;
+			}
+		}
+
+		private void returnStatement(Return stmt) {
+			if (stmt.value == null || function == null) {
+				throw Unsupported.INSTANCE;
+			}
+
+			/* a return of a call to the function itself starts it again */
+			if (stmt.tail && isSelfCall(stmt.value)) {
+				Call call = (Call) stmt.value;
+				callsItself = true;
+
+				for (int i = 0; i < parameters.length; i++) {
+					emit(call.arguments.get(i), parameters[i]);
+				}
+
+				code.op(ALOAD, self, 1);
+				code.opShort(INVOKEVIRTUAL, file.methodRef(SUPER, "guard", "()V"), -1);
+
+				for (int i = parameters.length - 1; i >= 0; i--) {
+					store(scopes.get(0)[i]);
+				}
+
+				code.jump(GOTO, 0, start);
+				return;
+			}
+
+			if (typeOf(stmt.value) != returns) {
+				throw Unsupported.INSTANCE;
+			}
+
+			emit(stmt.value, returns);
+			code.op(returns == NewtType.DOUBLE ? DRETURN : IRETURN, -size(returns));
+		}
+
+		/**
+		 * Compiles an expression whose value is not used.
+		 *
+		 * @param expr the expression
+		 */
+		private void effect(Expr expr) {
+			if (expr instanceof Assign) {
+				Assign assign = (Assign) expr;
+				Local local = local(assign.name, assign.depth, assign.slot);
+
+				if (assign.operator.type != TokenType.EQUAL || typeOf(assign.value) != local.type) {
+					throw Unsupported.INSTANCE;
+				}
+
+				emit(assign.value, local.type);
+				store(local);
+			} else if (expr instanceof CompoundAssign) {
+				compoundAssign((CompoundAssign) expr);
+			} else if (expr instanceof Increment) {
+				Increment increment = (Increment) expr;
+				Local local = local(increment.name.name, increment.name.depth, increment.name.slot);
+				boolean down = increment.operator.type == TokenType.MINUS;
+
+				if (local.type == NewtType.INT) {
+					code.increment(local.index, down ? -1 : 1);
+				} else if (local.type == NewtType.DOUBLE) {
+					load(local);
+					code.op(DCONST_1, 2);
+					code.op(down ? DSUB : DADD, -2);
+					store(local);
+				} else {
+					throw Unsupported.INSTANCE;
+				}
+			} else {
+				NewtType type = typeOf(expr);
+				emit(expr, type);
+				pop(type);
+			}
+		}
+
+		private void compoundAssign(CompoundAssign expr) {
+			Local local = local(expr.name, expr.depth, expr.slot);
+			NewtType value = typeOf(expr.value);
+			TokenType operator = expr.operator.type;
+
+			/* the result must have the type of the variable */
+			if (local.type == NewtType.INT) {
+				if (value != NewtType.INT || operator == TokenType.CARAT || arithmetic(operator) < 0) {
+					throw Unsupported.INSTANCE;
+				}
+			} else if (local.type != NewtType.DOUBLE || !isNumber(value) || arithmetic(operator) < 0) {
+				throw Unsupported.INSTANCE;
+			}
+
+			load(local);
+			emit(expr.value, local.type);
+			arithmeticOperation(operator, local.type);
+			store(local);
+		}
+
+		/**
+		 * Finds the type of the values of an expression, for the types the code
+		 * works with.
+		 *
+		 * @param expr the expression
+		 * @return the type
+		 * @throws Unsupported if the expression is not compiled
+		 */
+		private NewtType typeOf(Expr expr) {
+			if (expr instanceof Literal) {
+				Object value = ((Literal) expr).value;
+				NewtType type = NewtType.of(value);
+
+				if (descriptor(type) == null) {
+					throw Unsupported.INSTANCE;
+				}
+
+				return type;
+			}
+
+			if (expr instanceof Grouping) {
+				return typeOf(((Grouping) expr).expression);
+			}
+
+			if (expr instanceof Variable) {
+				Variable variable = (Variable) expr;
+				return local(variable.name, variable.depth, variable.slot).type;
+			}
+
+			if (expr instanceof Unary) {
+				Unary unary = (Unary) expr;
+				NewtType type = typeOf(unary.right);
+
+				if (unary.operator.type == TokenType.MINUS && isNumber(type)
+						|| unary.operator.type == TokenType.BANG && type == NewtType.BOOL) {
+					return type;
+				}
+
+				throw Unsupported.INSTANCE;
+			}
+
+			if (expr instanceof Binary) {
+				Binary binary = (Binary) expr;
+				NewtType left = typeOf(binary.left);
+				NewtType right = typeOf(binary.right);
+				TokenType operator = binary.operator.type;
+
+				if (isNumber(left) && isNumber(right)) {
+					if (operator == TokenType.CARAT) {
+						return NewtType.DOUBLE;
+					}
+
+					if (arithmetic(operator) >= 0) {
+						return left == NewtType.INT && right == NewtType.INT ? NewtType.INT : NewtType.DOUBLE;
+					}
+
+					if (comparison(operator) >= 0) {
+						return NewtType.BOOL;
+					}
+				}
+
+				if (left == NewtType.BOOL && right == NewtType.BOOL
+						&& (operator == TokenType.EQUAL_EQUAL || operator == TokenType.BANG_EQUAL)) {
+					return NewtType.BOOL;
+				}
+
+				throw Unsupported.INSTANCE;
+			}
+
+			if (expr instanceof Logical) {
+				Logical logical = (Logical) expr;
+				TokenType operator = logical.operator.type;
+
+				if ((operator == TokenType.AND || operator == TokenType.OR) && typeOf(logical.left) == NewtType.BOOL
+						&& typeOf(logical.right) == NewtType.BOOL) {
+					return NewtType.BOOL;
+				}
+
+				throw Unsupported.INSTANCE;
+			}
+
+			if (expr instanceof Conditional) {
+				Conditional conditional = (Conditional) expr;
+				NewtType type = typeOf(conditional.first);
+
+				if (typeOf(conditional.condition) == NewtType.BOOL && typeOf(conditional.second) == type) {
+					return type;
+				}
+
+				throw Unsupported.INSTANCE;
+			}
+
+			if (isSelfCall(expr)) {
+				Call call = (Call) expr;
+
+				for (int i = 0; i < parameters.length; i++) {
+					if (typeOf(call.arguments.get(i)) != parameters[i]) {
+						throw Unsupported.INSTANCE;
+					}
+				}
+
+				return returns;
+			}
+
+			throw Unsupported.INSTANCE;
+		}
+
+		/**
+		 * Checks if an expression is a call of the function by the global of its
+		 * name with the right number of arguments.
+		 */
+		private boolean isSelfCall(Expr expr) {
+			if (function == null || !(expr instanceof Call)) {
+				return false;
+			}
+
+			Call call = (Call) expr;
+
+			if (!(call.callee instanceof Variable) || call.arguments.size() != parameters.length) {
+				return false;
+			}
+
+			Variable callee = (Variable) call.callee;
+			return callee.depth < 0 && callee.name.lexeme.equals(function.name.lexeme);
+		}
+
+		/**
+		 * Applies an arithmetic operator to the two values on the stack. Division
+		 * by zero gives up, for the interpreter to report it.
+		 *
+		 * @param operator the operator
+		 * @param type     the type of both values and the result
+		 */
+		private void arithmeticOperation(TokenType operator, NewtType type) {
+			if (operator == TokenType.CARAT) {
+				code.opShort(INVOKESTATIC, file.methodRef("java/lang/Math", "pow", "(DD)D"), -2);
+				return;
+			}
+
+			if (operator == TokenType.SLASH || operator == TokenType.PERCENT) {
+				Label nonZero = new Label();
+
+				if (type == NewtType.INT) {
+					code.op(DUP, 1);
+					code.jump(IFNE, -1, nonZero);
+				} else {
+					code.op(DUP2, 2);
+					code.op(DCONST_0, 2);
+					code.op(DCMPL, -3);
+					code.jump(IFNE, -1, nonZero);
+				}
+
+				deoptimize();
+				code.place(nonZero);
+			}
+
+			int instruction = arithmetic(operator);
+			code.op(type == NewtType.INT ? instruction : instruction + 3, -size(type));
+		}
+
+		/**
+		 * Compiles an expression, leaving its value on the stack.
+		 *
+		 * @param expr the expression
+		 * @param type the type the value is needed as, which may be double for an
+		 *             int expression
+		 */
+		private void emit(Expr expr, NewtType type) {
+			NewtType actual = typeOf(expr);
+
+			if (actual != type && !(actual == NewtType.INT && type == NewtType.DOUBLE)) {
+				throw Unsupported.INSTANCE;
+			}
+
+			value(expr, actual);
+
+			if (actual != type) {
+				code.op(I2D, 1);
+			}
+		}
+
+		private void value(Expr expr, NewtType type) {
+			if (expr instanceof Literal) {
+				literal(((Literal) expr).value);
+			} else if (expr instanceof Grouping) {
+				value(((Grouping) expr).expression, type);
+			} else if (expr instanceof Variable) {
+				Variable variable = (Variable) expr;
+				load(local(variable.name, variable.depth, variable.slot));
+			} else if (expr instanceof Unary && type != NewtType.BOOL) {
+				emit(((Unary) expr).right, type);
+				code.op(type == NewtType.INT ? INEG : DNEG, 0);
+			} else if (expr instanceof Binary && type != NewtType.BOOL) {
+				Binary binary = (Binary) expr;
+				NewtType operands = binary.operator.type == TokenType.CARAT ? NewtType.DOUBLE : type;
+				emit(binary.left, operands);
+				emit(binary.right, operands);
+				arithmeticOperation(binary.operator.type, operands);
+			} else if (expr instanceof Conditional) {
+				Conditional conditional = (Conditional) expr;
+				Label otherwise = new Label();
+				Label end = new Label();
+				branch(conditional.condition, false, otherwise);
+				emit(conditional.first, type);
+				code.jump(GOTO, 0, end);
+				code.place(otherwise);
+				emit(conditional.second, type);
+				code.place(end);
+			} else if (expr instanceof Call) {
+				call((Call) expr);
+			} else {
+				/* a boolean made by a comparison or logic */
+				Label isTrue = new Label();
+				Label end = new Label();
+				branch(expr, true, isTrue);
+				code.op(ICONST_0, 1);
+				code.jump(GOTO, 0, end);
+				code.place(isTrue);
+				code.op(ICONST_0 + 1, 1);
+				code.place(end);
+			}
+		}
+
+		private void literal(Object value) {
+			if (value instanceof Boolean) {
+				code.op((boolean) value ? ICONST_0 + 1 : ICONST_0, 1);
+			} else if (value instanceof Integer) {
+				code.push((int) value);
+			} else {
+				code.push((double) value);
+			}
+		}
+
+		/**
+		 * Calls the function itself, checking that it is still the function the
+		 * global holds and that the call is not nested too deeply.
+		 */
+		private void call(Call call) {
+			callsItself = true;
+			int arguments = 0;
+
+			for (int i = 0; i < parameters.length; i++) {
+				emit(call.arguments.get(i), parameters[i]);
+				arguments += size(parameters[i]);
+			}
+
+			code.op(ALOAD, self, 1);
+			code.op(ILOAD, depth, 1);
+			code.opShort(INVOKEVIRTUAL, file.methodRef(SUPER, "enter", "(I)I"), -1);
+			code.op(ALOAD, self, 1);
+			code.opShort(INVOKESTATIC, file.methodRef(file.name(), "run", runDescriptor()),
+					size(returns) - arguments - 2);
+		}
+
+		/**
+		 * Jumps to a label when a boolean expression has the given value.
+		 *
+		 * @param expr   the expression, whose type is bool
+		 * @param when   the value for which to jump
+		 * @param target the label
+		 */
+		private void branch(Expr expr, boolean when, Label target) {
+			if (typeOf(expr) != NewtType.BOOL) {
+				throw Unsupported.INSTANCE;
+			}
+
+			if (expr instanceof Grouping) {
+				branch(((Grouping) expr).expression, when, target);
+				return;
+			}
+
+			if (expr instanceof Unary) {
+				branch(((Unary) expr).right, !when, target);
+				return;
+			}
+
+			if (expr instanceof Logical) {
+				Logical logical = (Logical) expr;
+				boolean and = logical.operator.type == TokenType.AND;
+
+				/* the right side decides only if the left does not */
+				if (and == when) {
+					Label skip = new Label();
+					branch(logical.left, !when, skip);
+					branch(logical.right, when, target);
+					code.place(skip);
+				} else {
+					branch(logical.left, when, target);
+					branch(logical.right, when, target);
+				}
+
+				return;
+			}
+
+			if (expr instanceof Binary) {
+				Binary binary = (Binary) expr;
+				NewtType left = typeOf(binary.left);
+				NewtType right = typeOf(binary.right);
+				int jump = comparison(binary.operator.type);
+
+				if (!when) {
+					jump = negate(jump - IF_ICMPEQ + IFEQ) - IFEQ + IF_ICMPEQ;
+				}
+
+				if (left == NewtType.DOUBLE || right == NewtType.DOUBLE) {
+					/* a comparison with NaN compares as less, as the interpreter finds */
+					emit(binary.left, NewtType.DOUBLE);
+					emit(binary.right, NewtType.DOUBLE);
+					code.op(DCMPL, -3);
+					code.jump(jump - IF_ICMPEQ + IFEQ, -1, target);
+				} else {
+					emit(binary.left, left);
+					emit(binary.right, right);
+					code.jump(jump, -2, target);
+				}
+
+				return;
+			}
+
+			value(expr, NewtType.BOOL);
+			code.jump(when ? IFNE : IFEQ, -1, target);
+		}
+	}
+}
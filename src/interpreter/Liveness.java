@@ -0,0 +1,95 @@
+package interpreter;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The values live at the start and end of each block of an IR function: those
+ * which are used later without being defined again first.
+ *
+ * A phi uses each of its operands at the end of the predecessor it comes from,
+ * not in its own block, so an operand is live out of that predecessor only. The
+ * phi itself is live into its block.
+ *
+ * @author Jared
+ */
+class Liveness {
+
+	static final PassManager.Analysis<Liveness> ANALYSIS = (function, manager) -> new Liveness(
+			manager.get(Dominance.ANALYSIS, function));
+
+	private final HashMap<IR.Block, Set<IR.Instruction>> liveIn = new HashMap<>();
+	private final HashMap<IR.Block, Set<IR.Instruction>> liveOut = new HashMap<>();
+
+	Liveness(Dominance dominance) {
+		List<IR.Block> order = dominance.order();
+
+		for (IR.Block block : order) {
+			liveIn.put(block, new LinkedHashSet<>());
+			liveOut.put(block, new LinkedHashSet<>());
+		}
+
+		boolean changed = true;
+
+		/* liveness flows backwards, so the blocks are visited in postorder */
+		while (changed) {
+			changed = false;
+
+			for (int i = order.size() - 1; i >= 0; i--) {
+				IR.Block block = order.get(i);
+				Set<IR.Instruction> out = liveOut.get(block);
+
+				for (IR.Block successor : block.successors()) {
+					int edge = successor.predecessors.indexOf(block);
+
+					for (IR.Instruction value : liveIn.get(successor)) {
+						if (value.op != IR.Op.PHI || value.block != successor) {
+							changed |= out.add(value);
+						}
+					}
+
+					for (IR.Instruction instruction : successor.instructions) {
+						if (instruction.op == IR.Op.PHI) {
+							changed |= out.add(instruction.operands.get(edge));
+						}
+					}
+				}
+
+				Set<IR.Instruction> in = liveIn.get(block);
+				Set<IR.Instruction> live = new LinkedHashSet<>(out);
+
+				for (int j = block.instructions.size() - 1; j >= 0; j--) {
+					IR.Instruction instruction = block.instructions.get(j);
+					live.remove(instruction);
+
+					if (instruction.op == IR.Op.PHI) {
+						live.add(instruction);
+					} else {
+						live.addAll(instruction.operands);
+					}
+				}
+
+				changed |= in.addAll(live);
+			}
+		}
+	}
+
+	/**
+	 * @param block the block
+	 * @return the values live at its start, including its phis
+	 */
+	Set<IR.Instruction> liveIn(IR.Block block) {
+		return liveIn.get(block);
+	}
+
+	/**
+	 * @param block the block
+	 * @return the values live at its end, including the operands of the phis it
+	 *         passes values to
+	 */
+	Set<IR.Instruction> liveOut(IR.Block block) {
+		return liveOut.get(block);
+	}
+}
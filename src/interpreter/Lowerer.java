@@ -0,0 +1,156 @@
+package interpreter;
+
+import static interpreter.TokenType.CARAT;
+import static interpreter.TokenType.EQUAL;
+import static interpreter.TokenType.MINUS;
+import static interpreter.TokenType.MINUS_MINUS;
+import static interpreter.TokenType.PERCENT;
+import static interpreter.TokenType.PLUS;
+import static interpreter.TokenType.ROOT;
+import static interpreter.TokenType.SLASH;
+import static interpreter.TokenType.STAR;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import interpreter.Expr.Assign;
+import interpreter.Expr.CaseCompare;
+import interpreter.Expr.CompoundAssign;
+import interpreter.Expr.Increment;
+import interpreter.Expr.Literal;
+import interpreter.Expr.UnaryAssign;
+import interpreter.Expr.Variable;
+import interpreter.Stmt.Case;
+import interpreter.Stmt.Switch;
+
+/**
+ * The Lowerer runs after the Optimizer and rewrites the constructs which the
+ * interpreter would otherwise expand each time they run. A compound assignment
+ * (such as +=) becomes a CompoundAssign holding the operator it applies, an
+ * increment or decrement becomes an Increment, and a switch is given a table
+ * of its cases or, failing that, the comparisons of its tests with the
+ * controls. The interpreter then builds no tokens or expressions while the
+ * program runs.
+ *
+ * The new operator tokens keep the lexeme and location of the originals, so
+ * errors are reported as before.
+ *
+ * @author Jared
+ */
+class Lowerer extends ASTRewriter {
+
+	/**
+	 * Lowers a list of statements in place.
+	 *
+	 * @param statements the statements
+	 */
+	public void lower(List<Stmt> statements) {
+		rewrite(statements);
+	}
+
+	/**
+	 * Finds the mathematical operator applied by a compound assignment operator.
+	 *
+	 * @param type the type of the compound assignment operator, such as +=
+	 * @return the type of the mathematical operator, such as +, or null if there
+	 *         is none
+	 */
+	private static TokenType arithmeticOperator(TokenType type) {
+		switch (type) {
+		case MINUS_EQUAL:
+			return MINUS;
+		case PLUS_EQUAL:
+			return PLUS;
+		case STAR_EQUAL:
+			return STAR;
+		case SLASH_EQUAL:
+			return SLASH;
+		case PERCENT_EQUAL:
+			return PERCENT;
+		case CARAT_EQUAL:
+			return CARAT;
+		case ROOT_EQUAL:
+			return ROOT;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Makes a duplicate of a token with the same lexeme and location for error
+	 * reporting, but of another type.
+	 *
+	 * @param token the token
+	 * @param type  the type of the duplicate
+	 * @return the duplicate
+	 */
+	private static Token retype(Token token, TokenType type) {
+		return new Token(type, token.lexeme, token.literal, token.line, token.character);
+	}
+
+	@Override
+	public Expr visitAssignExpr(Assign expr) {
+		if (expr.operator.type == EQUAL) {
+			return super.visitAssignExpr(expr);
+		}
+
+		Expr value = rewrite(expr.value);
+		CompoundAssign assign = new CompoundAssign(expr.name, retype(expr.operator, arithmeticOperator(expr.operator.type)),
+				value);
+		assign.depth = expr.depth;
+		assign.slot = expr.slot;
+		return assign;
+	}
+
+	@Override
+	public Expr visitUnaryAssignExpr(UnaryAssign expr) {
+		return new Increment(expr.name, retype(expr.operator, expr.operator.type == MINUS_MINUS ? MINUS : PLUS));
+	}
+
+	/**
+	 * Builds the table which finds the matching cases of a switch, or, if the
+	 * switch cannot use one, pairs each test of a case with the control it is
+	 * compared to, in the order the interpreter compares them.
+	 */
+	@Override
+	public Stmt visitSwitchStmt(Switch stmt) {
+		super.visitSwitchStmt(stmt);
+
+		if (isStable(stmt.controls)) {
+			stmt.dispatch = SwitchTable.build(stmt.controls.size(), stmt.cases);
+		}
+
+		if (stmt.dispatch != null) {
+			return stmt;
+		}
+
+		for (Case caseStmt : stmt.cases) {
+			caseStmt.comparisons = new ArrayList<>();
+
+			for (int j = 0; j < stmt.controls.size(); j++) {
+				caseStmt.comparisons.add(new CaseCompare(stmt.controls.get(j), caseStmt.tests.get(j)));
+			}
+		}
+
+		return stmt;
+	}
+
+	/**
+	 * Checks that the controls of a switch can be read in any order and any
+	 * number of times without changing the result. The controls are compared
+	 * afresh for every case, so those which might not are left to be compared
+	 * as they always have been.
+	 *
+	 * @param controls the controls of the switch
+	 * @return true if every control is a variable or a literal
+	 */
+	private static boolean isStable(List<Expr> controls) {
+		for (Expr control : controls) {
+			if (!(control instanceof Variable) && !(control instanceof Literal)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
@@ -21,13 +21,49 @@ public class Newt {
 	//TODO: Add classes.
 	//TODO: Can I make classes extend multiple superclasses? I would need to handle overlapping method/variable names
 	//TODO: Metaclasses, non-subclassables (final), uninstantiatable (static)
-	//TODO: solve the closure problem
 	//TODO: allow use of a varibale by it's type and declaration time (ie. latest(String) would be the most recently declared string)
 	
 	/**
 	 */
 	private static final Interpreter interpreter = new Interpreter();
 
+	/**
+	 * The bytecode virtual machine, used instead of the interpreter when the
+	 * engine is 'vm'.
+	 */
+	private static final VM vm = new VM(interpreter);
+
+	/**
+	 * The engine which runs trees of pre-linked nodes, used instead of the
+	 * interpreter when the engine is 'tree'.
+	 */
+	private static final TreeEngine tree = new TreeEngine(interpreter);
+
+	/**
+	 * The engine which runs programs, either 'ast' (the tree-walking interpreter),
+	 * 'vm' (the bytecode compiler and virtual machine) or 'tree' (the trees of
+	 * nodes built by the TreeCompiler).
+	 */
+	private static String engine = "ast";
+
+	/**
+	 * True if the Optimizer should simplify programs before they run. It can be
+	 * turned off to compare results with the unoptimized program.
+	 */
+	private static boolean optimize = true;
+
+	/**
+	 * True if programs should be printed in the IR, checked by the IRVerifier,
+	 * rather than run.
+	 */
+	private static boolean ir = false;
+
+	/**
+	 * True if errors should record the Java stack trace where they were thrown.
+	 * This is only useful for debugging the interpreter itself.
+	 */
+	public static boolean debug = false;
+
 	/**
 	 * Alerts the interpreter if an error was found during parsing.
 	 */
@@ -39,21 +75,150 @@ public class Newt {
 	static boolean hadRuntimeError = false;
 
 	/**
-	 * This is the entry point for the Newt Interpreter.
+	 * The Java stack kept for each call the interpreter may nest. The tree-walking
+	 * interpreter recurses on the Java stack for every Newt call.
+	 */
+	private static final long STACK_PER_CALL = 8 * 1024;
+
+	/**
+	 * The most Java stack the program's thread will ask for. A deeper limit is
+	 * still honored, but the Java stack may run out first, which is reported as
+	 * a stack overflow all the same.
+	 */
+	private static final long STACK_MAX = 1L << 30;
+
+	/**
+	 * This is the entry point for the Newt Interpreter. The program runs on a
+	 * thread whose stack has room for the deepest calls allowed.
 	 * 
 	 * @param args
-	 *            the only argument accepted is a string with a source file
+	 *            the source files to run, optionally preceded by --engine=ast,
+	 *            --engine=vm or --engine=tree, by --specialize, by --jit, by --no-optimize, by
+	 *            --debug, by --max-depth=n and by --ir
 	 * @throws IOException
 	 *             for problems reading the source file
 	 */
 	public static void main(String[] args) throws IOException {
+		int depth = interpreter.getMaxDepth();
+
+		for (String arg : args) {
+			if (arg.startsWith("--max-depth=")) {
+				depth = maxDepth(arg);
+			}
+		}
+
+		Throwable[] failure = new Throwable[1];
+		Thread thread = new Thread(null, () -> {
+			try {
+				start(args);
+			} catch (Throwable error) {
+				failure[0] = error;
+			}
+		}, "main", Math.min(depth * STACK_PER_CALL + (1 << 20), STACK_MAX));
+
+		thread.start();
+
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		/* anything the program could not handle is thrown from here, as it was before */
+		if (failure[0] instanceof IOException)
+			throw (IOException) failure[0];
+
+		if (failure[0] instanceof RuntimeException)
+			throw (RuntimeException) failure[0];
+
+		if (failure[0] instanceof Error)
+			throw (Error) failure[0];
+	}
+
+	/**
+	 * Reads the depth given by a --max-depth option.
+	 * 
+	 * @param arg
+	 *            the option
+	 * @return the greatest depth of calls
+	 */
+	private static int maxDepth(String arg) {
+		try {
+			int depth = Integer.parseInt(arg.substring("--max-depth=".length()));
+
+			if (depth > 0)
+				return depth;
+		} catch (NumberFormatException e) {
+		}
+
+		System.out.println("Invalid depth in '" + arg + "'. Expected a positive number.");
+		System.exit(1);
+		return 0;
+	}
+
+	/**
+	 * Reads the options and runs the source files.
+	 * 
+	 * @param args
+	 *            the command line arguments
+	 * @throws IOException
+	 *             for problems reading the source file
+	 */
+	private static void start(String[] args) throws IOException {
 
 		if (args.length < 1) {
-			System.out.println("Usage: newt [script] ... [script]");
+			System.out.println("Usage: newt [--engine=ast|vm|tree] [--specialize] [--jit] [--no-optimize] [--debug] [--max-depth=n] [--ir] [script] ... [script]");
 			System.exit(1);
 		} else if (args.length >= 1) {
 			
 			for(int i = 0; i < args.length; i++) {
+				if (args[i].startsWith("--engine=")) {
+					engine = args[i].substring("--engine=".length());
+
+					if (!engine.equals("ast") && !engine.equals("vm") && !engine.equals("tree")) {
+						System.out.println("Unknown engine '" + engine + "'. Expected 'ast', 'vm' or 'tree'.");
+						System.exit(1);
+					}
+
+					continue;
+				}
+
+				/* lets the interpreter specialize expressions to the types they see */
+				if (args[i].equals("--specialize")) {
+					interpreter.setSpecializing(true);
+					continue;
+				}
+
+				/* compiles hot functions to JVM classes */
+				if (args[i].equals("--jit")) {
+					interpreter.setCompiling(true);
+					continue;
+				}
+
+				/* runs programs exactly as they were written */
+				if (args[i].equals("--no-optimize")) {
+					optimize = false;
+					continue;
+				}
+
+				/* limits how deeply calls may be nested */
+				if (args[i].startsWith("--max-depth=")) {
+					interpreter.setMaxDepth(maxDepth(args[i]));
+					continue;
+				}
+
+				/* prints the IR of programs instead of running them */
+				if (args[i].equals("--ir")) {
+					ir = true;
+					continue;
+				}
+
+				/* keeps the Java stack traces of errors */
+				if (args[i].equals("--debug")) {
+					debug = true;
+					continue;
+				}
+
 				/* runs the given source file */
 				runFile(args[i]);
 			}
@@ -130,19 +295,64 @@ public class Newt {
 			
 			List<Stmt> statements = parser.parse();
 
-			if (hadError)
+			if (!prepare(statements))
 				return;
-			
-			Resolver resolver = new Resolver(interpreter);
-		    resolver.resolve(statements);
-		    
-		    if (hadError) 
-		    	return;
 
-			interpreter.interpret(statements);
+			if (ir)
+				printIR(statements);
+			else if (engine.equals("vm"))
+				vm.interpret(statements);
+			else if (engine.equals("tree"))
+				tree.interpret(statements);
+			else
+				interpreter.interpret(statements);
 		}
 	}
 
+	/**
+	 * Resolves, optimizes, lowers and type checks parsed statements, which
+	 * prepares them for every engine and for the AotCompiler.
+	 * 
+	 * @param statements
+	 *            the parsed statements
+	 * @return false if an error was found, and the statements must not run
+	 */
+	static boolean prepare(List<Stmt> statements) {
+		if (hadError)
+			return false;
+
+		Resolver resolver = new Resolver();
+		resolver.resolve(statements);
+
+		if (hadError)
+			return false;
+
+		/* folds constants and removes code which cannot run */
+		if (optimize)
+			new Optimizer().optimize(statements);
+
+		/* expands compound assignments, increments and case tests once, ahead of time */
+		new Lowerer().lower(statements);
+
+		/* proves the types the interpreter would otherwise check as it runs */
+		new TypeChecker().check(statements);
+		return true;
+	}
+
+	/**
+	 * Prints the IR of prepared statements, verified after every pass.
+	 * 
+	 * @param statements
+	 *            the statements
+	 */
+	private static void printIR(List<Stmt> statements) {
+		List<IR.Function> functions = new IRBuilder().build(statements);
+		PassManager passes = new PassManager().add(new DeadValues()).setVerifying(true);
+
+		passes.run(functions);
+		System.out.println(new IRPrinter(passes).print(functions));
+	}
+
 	/**
 	 * Generates an error.
 	 * 
@@ -0,0 +1,193 @@
+package interpreter;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * The instructions understood by the VM. Each instruction is stored in a Chunk
+ * as a single byte, followed by its operands. Operands marked 'const' are
+ * two-byte indices into the constant pool of the chunk.
+ *
+ * Instructions ending in _INT or _DOUBLE work on unboxed values, which the
+ * Compiler only emits where the TypeChecker proved the type. They read and
+ * write the primitive stacks of the VM rather than its operand stack.
+ *
+ * The instructions are numbered by constants rather than an enum, so that the
+ * VM switches on the byte it reads with a single table jump.
+ *
+ * @author Jared
+ */
+public final class OpCode {
+
+	// Constants and the operand stack.
+	static final int CONSTANT = 0; // const value
+	static final int NULL = 1;
+	static final int TRUE = 2;
+	static final int FALSE = 3;
+	static final int POP = 4;
+	static final int CONSTANT_INT = 5; // const value
+	static final int CONSTANT_DOUBLE = 6; // const value
+	static final int BOX_INT = 7;
+	static final int BOX_DOUBLE = 8;
+	static final int UNBOX_INT = 9;
+	static final int UNBOX_DOUBLE = 10;
+	static final int INT_TO_DOUBLE = 11;
+
+	// Variables kept in environments.
+	static final int GET_LOCAL = 12; // distance, slot, const name
+	static final int SET_LOCAL = 13; // distance, slot, const name
+	static final int GET_GLOBAL = 14; // const name
+	static final int SET_GLOBAL = 15; // const name
+	static final int DEFINE = 16; // const name, const type
+	static final int DEFINE_LOCAL = 17; // slot, const name, const type
+	static final int UNDEFINE = 18; // const name
+	static final int UNDEFINE_LOCAL = 19; // slot
+	static final int CHECK_INITIALIZED = 20; // const name
+
+	// Variables kept in the frame, by their index in it.
+	static final int GET_SLOT = 21; // index
+	static final int GET_INITIALIZED = 22; // index, const name
+	static final int GET_SLOT_INT = 23; // index, const name
+	static final int GET_SLOT_DOUBLE = 24; // index, const name
+	static final int DEFINE_SLOT = 25; // index, const name, const type
+	static final int SET_SLOT = 26; // index, const name, const type
+	static final int STORE_SLOT = 27; // index
+	static final int GET_INT = 28; // index
+	static final int SET_INT = 29; // index
+	static final int ASSIGN_INT = 30; // index, const name
+	static final int INCREMENT_INT = 31; // index, signed amount
+	static final int ADD_TO_INT = 32; // index
+	static final int SUBTRACT_FROM_INT = 33; // index
+	static final int GET_DOUBLE = 34; // index
+	static final int SET_DOUBLE = 35; // index
+	static final int ASSIGN_DOUBLE = 36; // index, const name
+	static final int DEFINE_CELL = 37; // index, const name, const type
+	static final int GET_CELL = 38; // index
+	static final int SET_CELL = 39; // index, const name
+
+	// Properties.
+	static final int GET_PROPERTY = 40; // const name, const inline cache
+	static final int SET_PROPERTY = 41; // const name, const inline cache
+
+	// Operators. The operator token is kept as a constant for error reporting.
+	static final int ADD = 42; // const operator
+	static final int SUBTRACT = 43; // const operator
+	static final int MULTIPLY = 44; // const operator
+	static final int DIVIDE = 45; // const operator
+	static final int MODULO = 46; // const operator
+	static final int POWER = 47; // const operator
+	static final int GREATER = 48; // const operator
+	static final int GREATER_EQUAL = 49; // const operator
+	static final int LESS = 50; // const operator
+	static final int LESS_EQUAL = 51; // const operator
+	static final int BINARY = 52; // const operator, for operators with no instruction of their own
+	static final int NEGATE = 53; // const operator
+	static final int EQUAL = 54;
+	static final int NOT_EQUAL = 55;
+	static final int NOT = 56;
+
+	// Operators on proven numbers. Division is given the operator for its error.
+	static final int ADD_INT = 57;
+	static final int SUBTRACT_INT = 58;
+	static final int MULTIPLY_INT = 59;
+	static final int NEGATE_INT = 60;
+	static final int DIVIDE_INT = 61; // const operator
+	static final int MODULO_INT = 62; // const operator
+	static final int GREATER_INT = 63;
+	static final int GREATER_EQUAL_INT = 64;
+	static final int LESS_INT = 65;
+	static final int LESS_EQUAL_INT = 66;
+	static final int EQUAL_INT = 67;
+	static final int NOT_EQUAL_INT = 68;
+	static final int ADD_DOUBLE = 69;
+	static final int SUBTRACT_DOUBLE = 70;
+	static final int MULTIPLY_DOUBLE = 71;
+	static final int POWER_DOUBLE = 72;
+	static final int NEGATE_DOUBLE = 73;
+	static final int DIVIDE_DOUBLE = 74; // const operator
+	static final int MODULO_DOUBLE = 75; // const operator
+	static final int GREATER_DOUBLE = 76;
+	static final int GREATER_EQUAL_DOUBLE = 77;
+	static final int LESS_DOUBLE = 78;
+	static final int LESS_EQUAL_DOUBLE = 79;
+	static final int EQUAL_DOUBLE = 80;
+	static final int NOT_EQUAL_DOUBLE = 81;
+
+	// Operators on a proven int and an int constant, which is never a zero divisor.
+	static final int ADD_INT_CONSTANT = 82; // const value
+	static final int SUBTRACT_INT_CONSTANT = 83; // const value
+	static final int MULTIPLY_INT_CONSTANT = 84; // const value
+	static final int DIVIDE_INT_CONSTANT = 85; // const value
+	static final int MODULO_INT_CONSTANT = 86; // const value
+
+	// Control flow. Jump offsets are two bytes, measured from the following
+	// instruction.
+	static final int JUMP = 87; // offset
+	static final int JUMP_IF_FALSE = 88; // offset
+	static final int LOOP = 89; // offset
+	static final int DISPATCH = 90; // control count, const switch table, const case locations, first case
+	static final int PUSH_SCOPE = 91; // number of slots
+	static final int POP_SCOPE = 92;
+
+	// Comparisons of proven numbers which jump if they are false. Each group is
+	// in the same order, which the Compiler relies on.
+	static final int JUMP_UNLESS_GREATER_INT = 93; // offset
+	static final int JUMP_UNLESS_GREATER_EQUAL_INT = 94; // offset
+	static final int JUMP_UNLESS_LESS_INT = 95; // offset
+	static final int JUMP_UNLESS_LESS_EQUAL_INT = 96; // offset
+	static final int JUMP_UNLESS_EQUAL_INT = 97; // offset
+	static final int JUMP_UNLESS_NOT_EQUAL_INT = 98; // offset
+	static final int JUMP_UNLESS_GREATER_DOUBLE = 99; // offset
+	static final int JUMP_UNLESS_GREATER_EQUAL_DOUBLE = 100; // offset
+	static final int JUMP_UNLESS_LESS_DOUBLE = 101; // offset
+	static final int JUMP_UNLESS_LESS_EQUAL_DOUBLE = 102; // offset
+	static final int JUMP_UNLESS_EQUAL_DOUBLE = 103; // offset
+	static final int JUMP_UNLESS_NOT_EQUAL_DOUBLE = 104; // offset
+	static final int JUMP_UNLESS_GREATER_INT_CONSTANT = 105; // const value, offset
+	static final int JUMP_UNLESS_GREATER_EQUAL_INT_CONSTANT = 106; // const value, offset
+	static final int JUMP_UNLESS_LESS_INT_CONSTANT = 107; // const value, offset
+	static final int JUMP_UNLESS_LESS_EQUAL_INT_CONSTANT = 108; // const value, offset
+	static final int JUMP_UNLESS_EQUAL_INT_CONSTANT = 109; // const value, offset
+	static final int JUMP_UNLESS_NOT_EQUAL_INT_CONSTANT = 110; // const value, offset
+	static final int JUMP_UNLESS_GREATER_SLOT_CONSTANT = 111; // index, const value, offset
+	static final int JUMP_UNLESS_GREATER_EQUAL_SLOT_CONSTANT = 112; // index, const value, offset
+	static final int JUMP_UNLESS_LESS_SLOT_CONSTANT = 113; // index, const value, offset
+	static final int JUMP_UNLESS_LESS_EQUAL_SLOT_CONSTANT = 114; // index, const value, offset
+	static final int JUMP_UNLESS_EQUAL_SLOT_CONSTANT = 115; // index, const value, offset
+	static final int JUMP_UNLESS_NOT_EQUAL_SLOT_CONSTANT = 116; // index, const value, offset
+
+	// Functions and classes.
+	static final int CALL = 117; // argument count, const parenthesis
+	static final int INVOKE = 118; // argument count, const name, const parenthesis, const inline cache
+	static final int FUNCTION = 119; // const function statement
+	static final int CLOSURE = 120; // const function statement, const capture locations
+	static final int CLASS = 121; // const class statement
+	static final int RETURN = 122;
+
+	static final int PRINT = 123;
+	static final int EXIT = 124;
+
+	/**
+	 * The name of each instruction, by its number, used to list a chunk.
+	 */
+	static final String[] NAMES = names();
+
+	private OpCode() {
+	}
+
+	private static String[] names() {
+		String[] names = new String[EXIT + 1];
+
+		for (Field field : OpCode.class.getDeclaredFields()) {
+			if (field.getType() == int.class && Modifier.isStatic(field.getModifiers())) {
+				try {
+					names[field.getInt(null)] = field.getName();
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+
+		return names;
+	}
+}
@@ -0,0 +1,304 @@
+package interpreter;
+
+import java.util.List;
+
+import interpreter.Expr.Binary;
+import interpreter.Expr.Conditional;
+import interpreter.Expr.Grouping;
+import interpreter.Expr.Literal;
+import interpreter.Expr.Logical;
+import interpreter.Expr.Unary;
+import interpreter.Stmt.Block;
+import interpreter.Stmt.Case;
+import interpreter.Stmt.If;
+import interpreter.Stmt.Keyword;
+import interpreter.Stmt.Mould;
+import interpreter.Stmt.Return;
+import interpreter.Stmt.Switch;
+import interpreter.Stmt.While;
+
+/**
+ * The Optimizer simplifies the tree between the Resolver and the interpreter.
+ * Expressions made only of literals are folded into a single literal, and
+ * branches and loops whose conditions are literals are pruned.
+ *
+ * Folding uses the interpreter's own rules, and an expression whose evaluation
+ * would fail is left as it is, so that the error is still reported when the
+ * program reaches it.
+ *
+ * @author Jared
+ */
+class Optimizer extends ASTRewriter {
+
+	/**
+	 * Evaluates the expressions being folded. It never sees a variable, so it is
+	 * kept apart from the interpreter running the program.
+	 */
+	private final Interpreter folder = new Interpreter();
+
+	/**
+	 * Optimizes a list of statements in place.
+	 *
+	 * @param statements the statements
+	 */
+	public void optimize(List<Stmt> statements) {
+		rewrite(statements);
+	}
+
+	@Override
+	public void rewrite(List<Stmt> statements) {
+		for (int i = 0; i < statements.size(); i++) {
+			Stmt optimized = rewrite(statements.get(i));
+
+			if (optimized == null) {
+				statements.remove(i--);
+				continue;
+			}
+
+			statements.set(i, optimized);
+
+			/* nothing after a jump out of the block can run */
+			if (endsBlock(optimized)) {
+				statements.subList(i + 1, statements.size()).clear();
+			}
+		}
+	}
+
+	/**
+	 * Checks if a statement always leaves the block which contains it.
+	 *
+	 * @param stmt the statement
+	 * @return true for a return, break, continue or exit
+	 */
+	private boolean endsBlock(Stmt stmt) {
+		if (stmt instanceof Return) {
+			return true;
+		}
+
+		if (stmt instanceof Keyword) {
+			switch (((Keyword) stmt).word.type) {
+			case BREAK:
+			case CONTINUE:
+			case EXIT:
+				return true;
+			default:
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Evaluates an expression whose operands are all literals.
+	 *
+	 * @param expr the expression
+	 * @return a literal holding the result, or the expression itself if
+	 *         evaluating it fails
+	 */
+	private Expr fold(Expr expr) {
+		try {
+			return new Literal(folder.evaluate(expr));
+		} catch (RuntimeException error) {
+			return expr;
+		}
+	}
+
+	/**
+	 * Finds the value of a condition known before the program runs.
+	 *
+	 * @param condition the condition
+	 * @return the value, or null if it is not a boolean literal
+	 */
+	private Boolean constant(Expr condition) {
+		if (condition instanceof Literal && ((Literal) condition).value instanceof Boolean) {
+			return (Boolean) ((Literal) condition).value;
+		}
+
+		return null;
+	}
+
+	@Override
+	public Stmt visitWhileStmt(While stmt) {
+		Expr condition = rewrite(stmt.condition);
+
+		/* a loop which never starts is removed */
+		if (constant(condition) == Boolean.FALSE) {
+			return null;
+		}
+
+		rewrite(stmt.body);
+
+		if (condition == stmt.condition) {
+			return stmt;
+		}
+
+		While loop = new While(condition, stmt.body);
+		loop.owner = stmt.owner;
+		return loop;
+	}
+
+	/**
+	 * Removes the cases which can never run. Every case whose tests match is run
+	 * (until a break), so with literal controls a case can be removed once one
+	 * of its literal tests fails to match, provided the tests compared before it
+	 * are literals as well. A case which must match leaves the default
+	 * unreachable.
+	 */
+	@Override
+	public Stmt visitSwitchStmt(Switch stmt) {
+		rewriteExpressions(stmt.controls);
+
+		boolean literalControls = true;
+		for (Expr control : stmt.controls) {
+			literalControls &= control instanceof Literal;
+		}
+
+		boolean matched = false;
+
+		for (int i = 0; i < stmt.cases.size(); i++) {
+			Case caseStmt = stmt.cases.get(i);
+			rewrite(caseStmt);
+
+			if (!literalControls) {
+				continue;
+			}
+
+			boolean matches = true;
+			for (int j = 0; j < stmt.controls.size(); j++) {
+				Expr test = caseStmt.tests.get(j);
+
+				if (!(test instanceof Literal)) {
+					matches = false;
+					break;
+				}
+
+				if (!folder.isEqual(((Literal) stmt.controls.get(j)).value, ((Literal) test).value)) {
+					stmt.cases.remove(i--);
+					matches = false;
+					break;
+				}
+			}
+
+			matched |= matches;
+		}
+
+		Block defaultBody = matched ? null : stmt.defaultBody;
+		rewrite(defaultBody);
+
+		if (stmt.cases.isEmpty()) {
+			return defaultBody;
+		}
+
+		return defaultBody == stmt.defaultBody ? stmt : new Switch(stmt.controls, stmt.cases, defaultBody);
+	}
+
+	@Override
+	public Stmt visitIfStmt(If stmt) {
+		Expr condition = rewrite(stmt.condition);
+		Boolean value = constant(condition);
+
+		/* only the branch which is taken is kept */
+		if (value == Boolean.TRUE) {
+			return rewrite(stmt.ifBody);
+		}
+
+		if (value == Boolean.FALSE) {
+			return rewrite(stmt.elseBody);
+		}
+
+		rewrite(stmt.ifBody);
+		rewrite(stmt.elseBody);
+		return condition == stmt.condition ? stmt : new If(condition, stmt.ifBody, stmt.elseBody);
+	}
+
+	/**
+	 * Moulds are filled in when they run, so they are left alone.
+	 */
+	@Override
+	public Stmt visitMouldStmt(Mould stmt) {
+		return stmt;
+	}
+
+	@Override
+	public Expr visitConditionalExpr(Conditional expr) {
+		Expr condition = rewrite(expr.condition);
+		Expr first = rewrite(expr.first);
+		Expr second = rewrite(expr.second);
+		Boolean value = constant(condition);
+
+		if (value != null) {
+			return value ? first : second;
+		}
+
+		if (condition == expr.condition && first == expr.first && second == expr.second) {
+			return expr;
+		}
+
+		return new Conditional(condition, expr.operator, first, second);
+	}
+
+	@Override
+	public Expr visitBinaryExpr(Binary expr) {
+		Expr left = rewrite(expr.left);
+		Expr right = rewrite(expr.right);
+
+		if (left == expr.left && right == expr.right) {
+			return left instanceof Literal && right instanceof Literal ? fold(expr) : expr;
+		}
+
+		Binary binary = new Binary(left, expr.operator, right);
+		return left instanceof Literal && right instanceof Literal ? fold(binary) : binary;
+	}
+
+	@Override
+	public Expr visitLogicalExpr(Logical expr) {
+		Expr left = rewrite(expr.left);
+		Expr right = rewrite(expr.right);
+
+		if (left instanceof Literal && right instanceof Literal) {
+			return fold(new Logical(left, expr.operator, right));
+		}
+
+		/* a known left operand either decides the result or leaves it to the right */
+		Boolean first = constant(left);
+
+		if (first != null) {
+			switch (expr.operator.type) {
+			case AND:
+				return first ? right : left;
+			case OR:
+				return first ? left : right;
+			case ARROW:
+				return first ? right : new Literal(true);
+			default:
+			}
+		}
+
+		if (left == expr.left && right == expr.right) {
+			return expr;
+		}
+
+		return new Logical(left, expr.operator, right);
+	}
+
+	@Override
+	public Expr visitGroupingExpr(Grouping expr) {
+		Expr expression = rewrite(expr.expression);
+
+		if (expression instanceof Literal) {
+			return expression;
+		}
+
+		return expression == expr.expression ? expr : new Grouping(expr.grouping, expression);
+	}
+
+	@Override
+	public Expr visitUnaryExpr(Unary expr) {
+		Expr right = rewrite(expr.right);
+
+		if (right instanceof Literal) {
+			return fold(right == expr.right ? expr : new Unary(expr.operator, right));
+		}
+
+		return right == expr.right ? expr : new Unary(expr.operator, right);
+	}}
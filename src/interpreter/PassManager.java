@@ -0,0 +1,150 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The PassManager runs passes over the functions of the IR, and keeps the
+ * results of the analyses they ask for. An analysis is computed the first
+ * time it is asked for on a function, and kept until a pass changes that
+ * function.
+ *
+ * When verifying, the IRVerifier checks each function before the first pass
+ * and after every pass which changes it, so a pass which breaks the IR is
+ * caught where it does.
+ *
+ * @author Jared
+ */
+class PassManager {
+
+	/**
+	 * A pass, which may change a function.
+	 */
+	interface Pass {
+
+		/**
+		 * @return the name used when the pass breaks a function
+		 */
+		String name();
+
+		/**
+		 * Runs the pass on a function.
+		 *
+		 * @param function the function
+		 * @param manager  the manager, which provides analyses
+		 * @return true if the function was changed
+		 */
+		boolean run(IR.Function function, PassManager manager);
+	}
+
+	/**
+	 * An analysis, which finds facts about a function without changing it.
+	 *
+	 * @param <T> the type of its result
+	 */
+	interface Analysis<T> {
+
+		/**
+		 * Analyzes a function.
+		 *
+		 * @param function the function
+		 * @param manager  the manager, which provides other analyses
+		 * @return the result
+		 */
+		T analyze(IR.Function function, PassManager manager);
+	}
+
+	private final ArrayList<Pass> passes = new ArrayList<>();
+
+	/**
+	 * The results of the analyses of each function.
+	 */
+	private final HashMap<IR.Function, HashMap<Analysis<?>, Object>> results = new HashMap<>();
+
+	private boolean verifying = false;
+
+	/**
+	 * Adds a pass, to run after those already added.
+	 *
+	 * @param pass the pass
+	 * @return this manager
+	 */
+	public PassManager add(Pass pass) {
+		passes.add(pass);
+		return this;
+	}
+
+	/**
+	 * @param verifying true if functions should be verified around each pass
+	 * @return this manager
+	 */
+	public PassManager setVerifying(boolean verifying) {
+		this.verifying = verifying;
+		return this;
+	}
+
+	/**
+	 * Runs every pass, in order, on each function.
+	 *
+	 * @param functions the functions
+	 * @throws IllegalStateException if verifying and a function is broken
+	 */
+	public void run(List<IR.Function> functions) {
+		for (IR.Function function : functions) {
+			verify(function, "built");
+
+			for (Pass pass : passes) {
+				if (pass.run(function, this)) {
+					invalidate(function);
+					verify(function, "changed by " + pass.name());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the result of an analysis of a function, computing it if it is not
+	 * known.
+	 *
+	 * @param <T>      the type of the result
+	 * @param analysis the analysis
+	 * @param function the function
+	 * @return the result
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(Analysis<T> analysis, IR.Function function) {
+		HashMap<Analysis<?>, Object> known = results.computeIfAbsent(function, key -> new HashMap<>());
+		T result = (T) known.get(analysis);
+
+		/* an analysis may ask for others, so the map is not changed while it runs */
+		if (result == null) {
+			result = analysis.analyze(function, this);
+			known.put(analysis, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Forgets every analysis of a function, after it changes.
+	 *
+	 * @param function the function
+	 */
+	public void invalidate(IR.Function function) {
+		results.remove(function);
+	}
+
+	private void verify(IR.Function function, String when) {
+		if (!verifying) {
+			return;
+		}
+
+		List<String> problems = IRVerifier.verify(function);
+
+		if (!problems.isEmpty()) {
+			throw new IllegalStateException(
+					"The IR of " + function.name + " is broken once " + when + ":\n" + String.join("\n", problems));
+		}
+	}
+}
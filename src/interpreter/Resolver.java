@@ -1,5 +1,6 @@
 package interpreter;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -8,9 +9,13 @@ import java.util.Stack;
 import interpreter.Expr.Assign;
 import interpreter.Expr.Binary;
 import interpreter.Expr.Call;
+import interpreter.Expr.CaseCompare;
+import interpreter.Expr.CompoundAssign;
 import interpreter.Expr.Conditional;
 import interpreter.Expr.Get;
 import interpreter.Expr.Grouping;
+import interpreter.Expr.Increment;
+import interpreter.Expr.Invoke;
 import interpreter.Expr.Literal;
 import interpreter.Expr.Logical;
 import interpreter.Expr.Set;
@@ -39,17 +44,72 @@ import interpreter.Stmt.Undec;
 import interpreter.Stmt.While;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-	private final Interpreter interpreter;
 	private final Stack<Map<String, Boolean>> scopes = new Stack<>();
 
+	/**
+	 * The slot given to each variable of the open scopes. A variable's slot is its
+	 * position in the order of declaration within its scope.
+	 */
+	private final Stack<Map<String, Integer>> slots = new Stack<>();
+
 	private FunctionType currentFunction = FunctionType.NONE;
 
-	private enum FunctionType {
-		NONE, FUNCTION, CONTRUCTOR, METHOD
+	/**
+	 * The number of loops and switches enclosing the statement being resolved,
+	 * used to reject a break or continue that has nothing to leave.
+	 */
+	private int loopDepth = 0;
+	private int switchDepth = 0;
+
+	/**
+	 * The number of moulds enclosing the statement being resolved. The parts
+	 * placed into a mould are only known when it runs, so its blocks always keep
+	 * a scope of their own.
+	 */
+	private int mouldDepth = 0;
+
+	/**
+	 * The functions being resolved, innermost last.
+	 */
+	private final Stack<Closure> closures = new Stack<>();
+
+	/**
+	 * A function being resolved, with the variables it captures from the scopes
+	 * outside it. When the function is created, each captured variable is
+	 * shared into a closure of its own, so the function never keeps the scopes
+	 * it was declared in.
+	 */
+	private static class Closure {
+
+		/**
+		 * The declaration of the function.
+		 */
+		final Stmt.Function function;
+
+		/**
+		 * The position in the scope stack of the function's own scope.
+		 */
+		final int base;
+
+		/**
+		 * Where each captured variable is found from the scope which creates the
+		 * function, in the order of their slots in the closure.
+		 */
+		final ArrayList<Variable> captures = new ArrayList<>();
+
+		/**
+		 * The slot in the closure of each captured variable, by name.
+		 */
+		final Map<String, Integer> indices = new HashMap<>();
+
+		Closure(Stmt.Function function, int base) {
+			this.function = function;
+			this.base = base;
+		}
 	}
 
-	public Resolver(Interpreter interpreter) {
-		this.interpreter = interpreter;
+	private enum FunctionType {
+		NONE, FUNCTION, CONTRUCTOR, METHOD
 	}
 
 	public void resolve(List<? extends Stmt> statements) {
@@ -78,17 +138,28 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		expr.accept(this);
 	}
 
-	private void declare(Token name) {
+	/**
+	 * Declares a variable in the innermost scope.
+	 * 
+	 * @param name the name of the variable
+	 * @return the slot given to the variable, or -1 for a global
+	 */
+	private int declare(Token name) {
 		if (scopes.isEmpty())
-			return;
+			return -1;
 
 		Map<String, Boolean> scope = scopes.peek();
 
 		if (scope.containsKey(name.lexeme)) {
 			Newt.error(name, "Variable with this name already declared in this scope.");
+			return slots.peek().get(name.lexeme);
 		}
 
 		scope.put(name.lexeme, false);
+
+		Map<String, Integer> scopeSlots = slots.peek();
+		scopeSlots.put(name.lexeme, scopeSlots.size());
+		return scopeSlots.size() - 1;
 	}
 
 	private void define(Token name) {
@@ -97,22 +168,85 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		scopes.peek().put(name.lexeme, true);
 	}
 
-	private void resolveLocal(Expr expr, Token name) {
+	/**
+	 * Finds the scope which declares a variable.
+	 * 
+	 * @param name the name of the variable
+	 * @return the distance and slot of the variable, or null if it is global
+	 */
+	private int[] resolveLocal(Token name) {
 		for (int i = scopes.size() - 1; i >= 0; i--) {
 			if (scopes.get(i).containsKey(name.lexeme)) {
-				interpreter.resolve(expr, scopes.size() - 1 - i);
-				return;
+
+				/* a variable from outside the current function is read from its closure */
+				if (!closures.isEmpty() && i < closures.peek().base) {
+					return new int[] { scopes.size() - closures.peek().base, capture(closures.size() - 1, name, i) };
+				}
+
+				return new int[] { scopes.size() - 1 - i, slots.get(i).get(name.lexeme) };
 			}
 		}
 
 		// Not found. Assume it is global.
+		return null;
+	}
+
+	/**
+	 * Finds the slot of a captured variable in the closure of a function, adding
+	 * the variable to the function's captures if it is not there yet. A variable
+	 * from outside the enclosing function as well is first captured by that
+	 * function, and taken from its closure.
+	 * 
+	 * @param level the position of the function in the stack of closures
+	 * @param name  the name of the variable
+	 * @param scope the position in the scope stack of the declaring scope
+	 * @return the slot of the variable in the function's closure
+	 */
+	private int capture(int level, Token name, int scope) {
+		Closure closure = closures.get(level);
+		Integer slot = closure.indices.get(name.lexeme);
+
+		if (slot != null) {
+			return slot;
+		}
+
+		/* the variable is found from the scope which creates the function */
+		Variable source = new Variable(name);
+		Closure enclosing = level == 0 ? null : closures.get(level - 1);
+
+		if (enclosing == null || scope >= enclosing.base) {
+			source.depth = closure.base - 1 - scope;
+			source.slot = slots.get(scope).get(name.lexeme);
+		} else {
+			source.depth = closure.base - enclosing.base;
+			source.slot = capture(level - 1, name, scope);
+		}
+
+		closure.indices.put(name.lexeme, closure.captures.size());
+		closure.captures.add(source);
+		return closure.captures.size() - 1;
 	}
 
 	private void resolveFunction(Stmt.Function function, FunctionType type) {
 		FunctionType enclosingFunction = currentFunction;
 		currentFunction = type;
 
+		/* a function body starts outside of any loop */
+		int enclosingLoopDepth = loopDepth;
+		int enclosingSwitchDepth = switchDepth;
+		loopDepth = 0;
+		switchDepth = 0;
+
 		beginScope();
+		closures.push(new Closure(function, scopes.size() - 1));
+
+		/* a method receives its instance in the first slot, ahead of the parameters */
+		if (type == FunctionType.METHOD) {
+			Token receiver = new Token(TokenType.THIS, "this", null, function.name.line, function.name.character);
+			declare(receiver);
+			define(receiver);
+		}
+
 		for (Token param : function.parameters) {
 			declare(param);
 			define(param);
@@ -120,21 +254,39 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		
 		//the body expression is skipped over because it would create a second scope for the function
 		resolve(function.body.statements);
-		endScope();
+		function.locals = endScope();
+		function.captures = closures.pop().captures;
 
+		loopDepth = enclosingLoopDepth;
+		switchDepth = enclosingSwitchDepth;
 		currentFunction = enclosingFunction;
 	}
 
 	private void beginScope() {
 		scopes.push(new HashMap<String, Boolean>());
+		slots.push(new HashMap<String, Integer>());
 	}
 
-	private void endScope() {
+	/**
+	 * Closes the innermost scope.
+	 * 
+	 * @return the number of slots the scope needs
+	 */
+	private int endScope() {
 		scopes.pop();
+		return slots.pop().size();
 	}
 
 	@Override
 	public Void visitKeywordStmt(Keyword stmt) {
+		if (stmt.word.type == TokenType.BREAK && loopDepth == 0 && switchDepth == 0) {
+			Newt.error(stmt.word, "Cannot break outside of a loop or switch.");
+		}
+
+		if (stmt.word.type == TokenType.CONTINUE && loopDepth == 0) {
+			Newt.error(stmt.word, "Cannot continue outside of a loop.");
+		}
+
 		return null;
 	}
 
@@ -148,6 +300,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 			Newt.error(null, "Cannot return from top-level code.");
 		}
 
+		/* a return leaves the function at once, so any call it makes is the last */
+		stmt.tail = (currentFunction == FunctionType.FUNCTION || currentFunction == FunctionType.METHOD)
+				&& (stmt.value instanceof Call || stmt.value instanceof Invoke);
+
 		return null;
 	}
 
@@ -171,7 +327,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitDeclareStmt(Declare stmt) {
-		declare(stmt.name);
+		stmt.slot = declare(stmt.name);
 		if (stmt.value != null) {
 			resolve(stmt.value);
 		}
@@ -179,44 +335,92 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		return null;
 	}
 
+	/**
+	 * Resolves a block. A block which declares nothing is run in the scope which
+	 * encloses it, so it is resolved without a scope of its own.
+	 */
 	@Override
 	public Void visitBlockStmt(Block stmt) {
-		beginScope();
-		resolve(stmt.statements);
-		endScope();
+		if (mouldDepth == 0 && !declares(stmt.statements)) {
+			stmt.scoped = false;
+			resolve(stmt.statements);
+		} else {
+			beginScope();
+			resolve(stmt.statements);
+			stmt.locals = endScope();
+		}
+
 		return null;
 	}
 
+	/**
+	 * Checks if a list of statements needs a scope of its own.
+	 * 
+	 * @param statements the statements of a block
+	 * @return true if any statement declares or removes a variable of the scope
+	 */
+	private static boolean declares(List<Stmt> statements) {
+		for (Stmt statement : statements) {
+			if (statement instanceof Declare || statement instanceof Function || statement instanceof Class
+					|| statement instanceof Undec || statement instanceof Mould) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Finds the function whose body is being resolved, which a loop in it counts
+	 * its passes towards compiling.
+	 *
+	 * @return the declaration of the function, or null outside of any function
+	 */
+	private Stmt.Function owner() {
+		return closures.isEmpty() ? null : closures.peek().function;
+	}
+
 	@Override
 	public Void visitWhileStmt(While stmt) {
+		stmt.owner = owner();
 		resolve(stmt.condition);
+		loopDepth++;
 		resolve(stmt.body);
+		loopDepth--;
 		return null;
 	}
 
 	@Override
 	public Void visitDoStmt(Do stmt) {
+		stmt.owner = owner();
 		resolve(stmt.condition);
+		loopDepth++;
 		resolve(stmt.body);
+		loopDepth--;
 		return null;
 	}
 
 	@Override
 	public Void visitForStmt(For stmt) {
+		stmt.owner = owner();
 		beginScope();
 		resolve(stmt.declaration);
 		resolve(stmt.condition);
 		resolve(stmt.incrementor);
+		loopDepth++;
 		resolve(stmt.body);
-		endScope();
+		loopDepth--;
+		stmt.locals = endScope();
 		return null;
 	}
 
 	@Override
 	public Void visitSwitchStmt(Switch stmt) {
 		resolveExpressions(stmt.controls);
+		switchDepth++;
 		resolve(stmt.cases);
 		resolve(stmt.defaultBody);
+		switchDepth--;
 		return null;
 	}
 
@@ -229,18 +433,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitClassStmt(Class stmt) {
-		declare(stmt.name);
+		stmt.slot = declare(stmt.name);
 		define(stmt.name);
 		
-		beginScope();                              
-	    scopes.peek().put("this", true);
-
 		for (Function method : stmt.methods) {
 			FunctionType declaration = FunctionType.METHOD;
 			resolveFunction(method, declaration);
 		}
-
-		endScope(); 
 		
 		return null;
 	}
@@ -274,13 +473,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitMouldStmt(Mould stmt) {
+		mouldDepth++;
 		resolve(stmt.body);
+		mouldDepth--;
 		return null;
 	}
 
 	@Override
 	public Void visitFunctionStmt(Function stmt) {
-		declare(stmt.name);
+		stmt.slot = declare(stmt.name);
 		define(stmt.name);
 
 		resolveFunction(stmt, FunctionType.FUNCTION);
@@ -345,14 +546,25 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 			Newt.error(expr.name, "Cannot read local variable in its own initializer.");
 		}
 
-		resolveLocal(expr, expr.name);
+		int[] location = resolveLocal(expr.name);
+		if (location != null) {
+			expr.depth = location[0];
+			expr.slot = location[1];
+		}
+
 		return null;
 	}
 
 	@Override
 	public Void visitAssignExpr(Assign expr) {
 		resolve(expr.value);
-		resolveLocal(expr, expr.name);
+
+		int[] location = resolveLocal(expr.name);
+		if (location != null) {
+			expr.depth = location[0];
+			expr.slot = location[1];
+		}
+
 		return null;
 	}
 
@@ -362,6 +574,43 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		return null;
 	}
 
+	@Override
+	public Void visitCompoundAssignExpr(CompoundAssign expr) {
+		resolve(expr.value);
+
+		int[] location = resolveLocal(expr.name);
+		if (location != null) {
+			expr.depth = location[0];
+			expr.slot = location[1];
+		}
+
+		return null;
+	}
+
+	@Override
+	public Void visitIncrementExpr(Increment expr) {
+		resolve(expr.name);
+		return null;
+	}
+
+	@Override
+	public Void visitCaseCompareExpr(CaseCompare expr) {
+		resolve(expr.control);
+		resolve(expr.test);
+		return null;
+	}
+
+	@Override
+	public Void visitInvokeExpr(Invoke expr) {
+		resolve(expr.object);
+
+		for (Expr argument : expr.arguments) {
+			resolve(argument);
+		}
+
+		return null;
+	}
+
 	@Override
 	public Void visitCallExpr(Call expr) {
 		resolve(expr.callee);
@@ -381,7 +630,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	
 	@Override                                  
 	  public Void visitThisExpr(Expr.This expr) {
-	    resolveLocal(expr, expr.keyword);        
+	    int[] location = resolveLocal(expr.keyword);
+	    if (location != null) {
+	    	expr.depth = location[0];
+	    	expr.slot = location[1];
+	    }
+
 	    return null;                             
 	  }
 }
\ No newline at end of file
@@ -7,8 +7,15 @@ public class RuntimeError extends RuntimeException {
 	private static final long serialVersionUID = 1L;
 	final Token token;
 
+	/**
+	 * Creates an error. The Java stack trace is only recorded when debugging, as
+	 * the error is reported with the line of the token instead.
+	 * 
+	 * @param token   the token where the error occurred
+	 * @param message the message to report
+	 */
 	public RuntimeError(Token token, String message) {
-		super(message);
+		super(message, null, false, Newt.debug);
 		this.token = token;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,91 @@
+package interpreter;
+
+import newt_metatypes.NewtType;
+
+/**
+ * The operand types an expression has specialized itself to. An expression
+ * starts uninitialized, records the types it sees the first time it runs, and
+ * becomes generic for good if a later evaluation sees anything else.
+ * 
+ * @author Jared
+ */
+public enum Specialization {
+
+	/**
+	 * The expression has not yet been evaluated.
+	 */
+	UNINITIALIZED(null),
+
+	/**
+	 * Every operand seen so far has been an Integer.
+	 */
+	INT(NewtType.INT),
+
+	/**
+	 * Every operand seen so far has been a Double.
+	 */
+	DOUBLE(NewtType.DOUBLE),
+
+	/**
+	 * A string concatenation: at least one operand of the + has been a String.
+	 */
+	STRING(NewtType.STRING),
+
+	/**
+	 * Every operand seen so far has been a Boolean.
+	 */
+	BOOLEAN(NewtType.BOOL),
+
+	/**
+	 * The operands have not had a stable type, so the general rules are used.
+	 */
+	GENERIC(null);
+
+	/**
+	 * The Newt type of the values this specialization expects.
+	 */
+	final NewtType type;
+
+	private Specialization(NewtType type) {
+		this.type = type;
+	}
+
+	/**
+	 * Checks that a value still fits this specialization.
+	 * 
+	 * @param value the value
+	 * @return true if the value has the type this specialization expects
+	 */
+	boolean fits(Object value) {
+		switch (this) {
+		case INT:
+			return value instanceof Integer;
+		case DOUBLE:
+			return value instanceof Double;
+		case STRING:
+			return value instanceof String;
+		case BOOLEAN:
+			return value instanceof Boolean;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Finds the specialization for a single operand.
+	 * 
+	 * @param value the operand
+	 * @return the matching specialization, or GENERIC if there is none
+	 */
+	static Specialization of(Object value) {
+		if (value instanceof Integer)
+			return INT;
+		if (value instanceof Double)
+			return DOUBLE;
+		if (value instanceof String)
+			return STRING;
+		if (value instanceof Boolean)
+			return BOOLEAN;
+		return GENERIC;
+	}
+}
@@ -2,6 +2,8 @@ package interpreter;
 
 import java.util.ArrayList;
 
+import newt_metatypes.NewtType;
+
 public abstract class Stmt implements Cloneable {
 	interface Visitor<T> {
 		T visitKeywordStmt(Keyword stmt);
@@ -74,6 +76,7 @@ public abstract class Stmt implements Cloneable {
 		}
 
 		public final Expr value;
+		public boolean tail = false;
 
 	}
 
@@ -182,6 +185,9 @@ public abstract class Stmt implements Cloneable {
 		public final Token type;
 		public final Token name;
 		public final Expr value;
+		public int slot = -1;
+		public boolean proven = false;
+		public NewtType declared = null;
 
 	}
 
@@ -208,6 +214,8 @@ public abstract class Stmt implements Cloneable {
 		}
 
 		public final ArrayList<Stmt> statements;
+		public int locals = 0;
+		public boolean scoped = true;
 
 	}
 
@@ -236,6 +244,9 @@ public abstract class Stmt implements Cloneable {
 
 		public final Expr condition;
 		public final Block body;
+		public Function owner = null;
+		public int heat = 0;
+		public CompiledLoop compiled = null;
 
 	}
 
@@ -264,6 +275,9 @@ public abstract class Stmt implements Cloneable {
 
 		public final Expr condition;
 		public final Block body;
+		public Function owner = null;
+		public int heat = 0;
+		public CompiledLoop compiled = null;
 
 	}
 
@@ -296,6 +310,10 @@ public abstract class Stmt implements Cloneable {
 		public final Expr condition;
 		public final Expr incrementor;
 		public final Block body;
+		public int locals = 0;
+		public Function owner = null;
+		public int heat = 0;
+		public CompiledLoop compiled = null;
 
 	}
 
@@ -326,6 +344,7 @@ public abstract class Stmt implements Cloneable {
 		public final ArrayList<Expr> controls;
 		public final ArrayList<Case> cases;
 		public final Block defaultBody;
+		public SwitchTable dispatch = null;
 
 	}
 
@@ -354,6 +373,7 @@ public abstract class Stmt implements Cloneable {
 
 		public final ArrayList<Expr> tests;
 		public final Block body;
+		public ArrayList<Expr> comparisons = null;
 
 	}
 
@@ -384,6 +404,7 @@ public abstract class Stmt implements Cloneable {
 		public final Token name;
 		public final ArrayList<Function> methods;
 		public final ArrayList<Declare> fields;
+		public int slot = -1;
 
 	}
 
@@ -554,6 +575,12 @@ public abstract class Stmt implements Cloneable {
 		public final ArrayList<Token> types;
 		public final ArrayList<Token> parameters;
 		public final Block body;
+		public int slot = -1;
+		public int locals = 0;
+		public ArrayList<Expr.Variable> captures = new ArrayList<>();
+		public int heat = 0;
+		public CompiledFunction compiled = null;
+		public StmtNode.Block tree = null;
 
 		@Override
 		public boolean equals(Object o) {
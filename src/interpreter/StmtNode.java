@@ -0,0 +1,627 @@
+package interpreter;
+
+import newt_metatypes.NewtFunction;
+import newt_metatypes.NewtType;
+
+/**
+ * A statement which the TreeCompiler has turned into a node that runs it
+ * directly. Running it is one call to execute() with the scope to run it in,
+ * which returns how the statement completed. A break, continue, return or exit
+ * is passed back up through the enclosing nodes this way until a loop, switch
+ * or call resolves it, as the Interpreter does with its status.
+ *
+ * @author Jared
+ */
+abstract class StmtNode {
+
+	/*
+	 * How a statement completed, in the order the Interpreter numbers its
+	 * statuses.
+	 */
+	static final int NORMAL = 0;
+	static final int BREAK = 1;
+	static final int CONTINUE = 2;
+	static final int RETURN = 3;
+	static final int EXIT = 4;
+
+	/**
+	 * Runs the statement.
+	 *
+	 * @param frame the scope in which the statement runs
+	 * @return how the statement completed
+	 */
+	abstract int execute(Environment frame);
+
+	/**
+	 * A block of statements, which is also the body of a function or a loop.
+	 */
+	static final class Block extends StmtNode {
+		final StmtNode[] statements;
+		final boolean scoped;
+		final int locals;
+		final TreeEngine engine;
+
+		Block(StmtNode[] statements, boolean scoped, int locals, TreeEngine engine) {
+			this.statements = statements;
+			this.scoped = scoped;
+			this.locals = locals;
+			this.engine = engine;
+		}
+
+		int execute(Environment frame) {
+
+			/* a block which declares nothing runs in the enclosing scope */
+			return run(scoped ? new Environment(frame, locals) : frame);
+		}
+
+		/**
+		 * Runs the statements of the block in a scope made for them. A function
+		 * which exits stops every block it was called from, just as one which
+		 * completes with an exit does.
+		 *
+		 * @param scope the scope
+		 * @return how the block completed
+		 */
+		int run(Environment scope) {
+			for (StmtNode statement : statements) {
+				if (engine.exiting) {
+					return EXIT;
+				}
+
+				int completion = statement.execute(scope);
+
+				if (completion != NORMAL) {
+					return completion;
+				}
+			}
+
+			return engine.exiting ? EXIT : NORMAL;
+		}
+
+		/**
+		 * Creates the scope a loop reuses for every run of this block, its body.
+		 *
+		 * @param frame the scope in which the loop runs
+		 * @return the scope, or null if the body declares nothing and needs none
+		 */
+		Environment loopScope(Environment frame) {
+			return scoped ? new Environment(frame, locals) : null;
+		}
+
+		/**
+		 * Runs the block once as the body of a loop.
+		 *
+		 * @param frame the scope in which the loop runs
+		 * @param scope the scope from loopScope(), emptied before it is used again
+		 * @return how the block completed
+		 */
+		int loop(Environment frame, Environment scope) {
+			if (scope == null) {
+				return run(frame);
+			}
+
+			scope.clear();
+			return run(scope);
+		}
+	}
+
+	/**
+	 * An expression run for its effects.
+	 */
+	static final class Expression extends StmtNode {
+		final ExprNode expression;
+
+		Expression(ExprNode expression) {
+			this.expression = expression;
+		}
+
+		int execute(Environment frame) {
+			expression.execute(frame);
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * A print statement.
+	 */
+	static final class Print extends StmtNode {
+		final ExprNode expression;
+		final Interpreter interpreter;
+
+		Print(ExprNode expression, Interpreter interpreter) {
+			this.expression = expression;
+			this.interpreter = interpreter;
+		}
+
+		int execute(Environment frame) {
+			System.out.print(interpreter.stringify(expression.execute(frame)));
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * A statement which prints the tree of an expression. The tree never changes,
+	 * so it is printed once, ahead of time.
+	 */
+	static final class ExPrint extends StmtNode {
+		final String tree;
+
+		ExPrint(String tree) {
+			this.tree = tree;
+		}
+
+		int execute(Environment frame) {
+			System.out.println(tree);
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * A statement which does nothing, such as a struct, which is only used by the
+	 * parser.
+	 */
+	static final class Empty extends StmtNode {
+		int execute(Environment frame) {
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * A declaration of a variable.
+	 */
+	static class Declare extends StmtNode {
+		final int slot;
+		final Token name;
+		final NewtType type;
+		final ExprNode value;
+
+		Declare(int slot, Token name, NewtType type, ExprNode value) {
+			this.slot = slot;
+			this.name = name;
+			this.type = type;
+			this.value = value;
+		}
+
+		int execute(Environment frame) {
+			frame.define(slot, name, type, value == null ? null : value.execute(frame));
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * A declaration whose value the TypeChecker proved to have the declared type,
+	 * so it is not checked again.
+	 */
+	static final class ProvenDeclare extends Declare {
+		ProvenDeclare(int slot, Token name, NewtType type, ExprNode value) {
+			super(slot, name, type, value);
+		}
+
+		int execute(Environment frame) {
+			frame.defineProven(slot, name, type, value.execute(frame));
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * A declaration of a local int, which is stored unboxed.
+	 */
+	static final class IntDeclare extends Declare {
+		IntDeclare(int slot, Token name, ExprNode value) {
+			super(slot, name, NewtType.INT, value);
+		}
+
+		int execute(Environment frame) {
+			frame.defineInt(slot, name, value.executeInt(frame));
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * A declaration of a local double, which is stored unboxed.
+	 */
+	static final class DoubleDeclare extends Declare {
+		DoubleDeclare(int slot, Token name, ExprNode value) {
+			super(slot, name, NewtType.DOUBLE, value);
+		}
+
+		int execute(Environment frame) {
+			frame.defineDouble(slot, name, value.executeDouble(frame));
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * An if statement.
+	 */
+	static final class If extends StmtNode {
+		final ExprNode condition;
+		final Block ifBody;
+		final Block elseBody;
+
+		If(ExprNode condition, Block ifBody, Block elseBody) {
+			this.condition = condition;
+			this.ifBody = ifBody;
+			this.elseBody = elseBody;
+		}
+
+		int execute(Environment frame) {
+			if (condition.executeBoolean(frame)) {
+				return ifBody.execute(frame);
+			}
+
+			return elseBody == null ? NORMAL : elseBody.execute(frame);
+		}
+	}
+
+	/**
+	 * A while loop.
+	 */
+	static final class While extends StmtNode {
+		final ExprNode condition;
+		final Block body;
+
+		While(ExprNode condition, Block body) {
+			this.condition = condition;
+			this.body = body;
+		}
+
+		int execute(Environment frame) {
+			Environment scope = body.loopScope(frame);
+
+			while (condition.executeBoolean(frame)) {
+				int completion = body.loop(frame, scope);
+
+				if (completion == BREAK) {
+					break;
+				}
+
+				/* a return or exit is left for the enclosing statements */
+				if (completion == RETURN || completion == EXIT) {
+					return completion;
+				}
+			}
+
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * A do loop.
+	 */
+	static final class Do extends StmtNode {
+		final ExprNode condition;
+		final Block body;
+
+		Do(ExprNode condition, Block body) {
+			this.condition = condition;
+			this.body = body;
+		}
+
+		int execute(Environment frame) {
+			Environment scope = body.loopScope(frame);
+
+			do {
+				int completion = body.loop(frame, scope);
+
+				if (completion == BREAK) {
+					break;
+				}
+
+				if (completion == RETURN || completion == EXIT) {
+					return completion;
+				}
+			} while (condition.executeBoolean(frame));
+
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * A for loop, whose declaration has a scope of its own.
+	 */
+	static final class For extends StmtNode {
+		final StmtNode declaration;
+		final ExprNode condition;
+		final ExprNode incrementor;
+		final Block body;
+		final int locals;
+
+		For(StmtNode declaration, ExprNode condition, ExprNode incrementor, Block body, int locals) {
+			this.declaration = declaration;
+			this.condition = condition;
+			this.incrementor = incrementor;
+			this.body = body;
+			this.locals = locals;
+		}
+
+		int execute(Environment frame) {
+			Environment header = new Environment(frame, locals);
+
+			if (declaration != null) {
+				declaration.execute(header);
+			}
+
+			Environment scope = body.loopScope(header);
+
+			while (condition.executeBoolean(header)) {
+				int completion = body.loop(header, scope);
+
+				/* for a break, the loop ends without running the incrementor */
+				if (completion == BREAK) {
+					break;
+				}
+
+				if (completion == RETURN || completion == EXIT) {
+					return completion;
+				}
+
+				/* for a continue, the incrementor still runs */
+				if (incrementor != null) {
+					incrementor.execute(header);
+				}
+			}
+
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * A switch whose cases are found by comparing each of their tests with the
+	 * controls.
+	 */
+	static final class Switch extends StmtNode {
+		final ExprNode[][] comparisons;
+		final Block[] cases;
+		final Block defaultBody;
+
+		Switch(ExprNode[][] comparisons, Block[] cases, Block defaultBody) {
+			this.comparisons = comparisons;
+			this.cases = cases;
+			this.defaultBody = defaultBody;
+		}
+
+		int execute(Environment frame) {
+			boolean caseFound = false;
+
+			for (int i = 0; i < cases.length; i++) {
+				if (!matches(comparisons[i], frame)) {
+					continue;
+				}
+
+				caseFound = true;
+				int completion = cases[i].execute(frame);
+
+				/* for a break, the switch breaks and the break is resolved */
+				if (completion == BREAK) {
+					break;
+				}
+
+				/* an exit, return, or continue is not resolved by the switch */
+				if (completion != NORMAL) {
+					return completion;
+				}
+			}
+
+			if (!caseFound && defaultBody != null) {
+				return defaultBody.execute(frame);
+			}
+
+			return NORMAL;
+		}
+
+		private static boolean matches(ExprNode[] comparisons, Environment frame) {
+			for (ExprNode comparison : comparisons) {
+				if (!(Boolean) comparison.execute(frame)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+
+	/**
+	 * A switch whose cases are found through its table. The controls are read
+	 * again after each case, just as they would be when the next case is
+	 * compared.
+	 */
+	static final class DispatchSwitch extends StmtNode {
+		final SwitchTable table;
+		final ExprNode[] controls;
+		final Block[] cases;
+		final Block defaultBody;
+
+		DispatchSwitch(SwitchTable table, ExprNode[] controls, Block[] cases, Block defaultBody) {
+			this.table = table;
+			this.controls = controls;
+			this.cases = cases;
+			this.defaultBody = defaultBody;
+		}
+
+		int execute(Environment frame) {
+			int index = table.next(findCases(frame), 0);
+
+			if (index == table.cases) {
+				return defaultBody == null ? NORMAL : defaultBody.execute(frame);
+			}
+
+			while (index < table.cases) {
+				int completion = cases[index].execute(frame);
+
+				if (completion == BREAK) {
+					return NORMAL;
+				}
+
+				if (completion != NORMAL) {
+					return completion;
+				}
+
+				index = table.next(findCases(frame), index + 1);
+			}
+
+			return NORMAL;
+		}
+
+		/**
+		 * Follows the table using the current values of the controls.
+		 *
+		 * @return the leaf holding the matching cases, or null if none match
+		 */
+		private Object findCases(Environment frame) {
+			Object node = table.root;
+
+			for (int i = 0; i < controls.length && node != null; i++) {
+				node = SwitchTable.branch(node, controls[i].execute(frame));
+			}
+
+			return node;
+		}
+	}
+
+	/**
+	 * A break, continue or exit.
+	 */
+	static final class Keyword extends StmtNode {
+		final int completion;
+		final TreeEngine engine;
+
+		Keyword(int completion, TreeEngine engine) {
+			this.completion = completion;
+			this.engine = engine;
+		}
+
+		int execute(Environment frame) {
+
+			/* an exit is never resolved, so every statement after it is skipped */
+			if (completion == EXIT) {
+				engine.exiting = true;
+			}
+
+			return completion;
+		}
+	}
+
+	/**
+	 * A return.
+	 */
+	static final class Return extends StmtNode {
+		final ExprNode value;
+		final TreeEngine engine;
+
+		Return(ExprNode value, TreeEngine engine) {
+			this.value = value;
+			this.engine = engine;
+		}
+
+		int execute(Environment frame) {
+			engine.returnValue = value == null ? null : value.execute(frame);
+			return RETURN;
+		}
+	}
+
+	/**
+	 * A return of the result of a call, which is made once the returning function
+	 * has ended.
+	 */
+	static final class ReturnCall extends StmtNode {
+		final ExprNode.Call call;
+		final TreeEngine engine;
+
+		ReturnCall(ExprNode.Call call, TreeEngine engine) {
+			this.call = call;
+			this.engine = engine;
+		}
+
+		int execute(Environment frame) {
+			engine.returnValue = call.tail(frame);
+			return RETURN;
+		}
+	}
+
+	/**
+	 * A return of the result of an invocation, which is made once the returning
+	 * function has ended.
+	 */
+	static final class ReturnInvoke extends StmtNode {
+		final ExprNode.Invoke invoke;
+		final TreeEngine engine;
+
+		ReturnInvoke(ExprNode.Invoke invoke, TreeEngine engine) {
+			this.invoke = invoke;
+			this.engine = engine;
+		}
+
+		int execute(Environment frame) {
+			engine.returnValue = invoke.tail(frame);
+			return RETURN;
+		}
+	}
+
+	/**
+	 * A declaration of a function.
+	 */
+	static final class Function extends StmtNode {
+		final Stmt.Function declaration;
+
+		Function(Stmt.Function declaration) {
+			this.declaration = declaration;
+		}
+
+		int execute(Environment frame) {
+
+			/* a local function is declared before it is created, so that it can capture itself */
+			if (declaration.slot >= 0) {
+				frame.define(declaration.slot, declaration.name, NewtType.FUNCTION, null);
+				frame.assignAt(0, declaration.slot, declaration.name, new NewtFunction(declaration, frame));
+				return NORMAL;
+			}
+
+			frame.define(declaration.slot, declaration.name, NewtType.FUNCTION, new NewtFunction(declaration, frame));
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * A declaration of a class.
+	 */
+	static final class Class extends StmtNode {
+		final Stmt.Class declaration;
+		final Interpreter interpreter;
+
+		Class(Stmt.Class declaration, Interpreter interpreter) {
+			this.declaration = declaration;
+			this.interpreter = interpreter;
+		}
+
+		int execute(Environment frame) {
+			interpreter.declareClass(declaration, frame);
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * An undec, which removes variables.
+	 */
+	static final class Undec extends StmtNode {
+		final Expr.Variable[] variables;
+
+		Undec(Expr.Variable[] variables) {
+			this.variables = variables;
+		}
+
+		int execute(Environment frame) {
+			for (Expr.Variable variable : variables) {
+
+				/* only variables of the current scope can be removed */
+				if (variable.depth == 0) {
+					frame.undefineAt(variable.slot);
+				} else if (variable.depth < 0) {
+					frame.undefine(variable.name);
+				}
+			}
+
+			return NORMAL;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package interpreter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import interpreter.Expr.Literal;
+
+/**
+ * A decision tree which finds the cases of a switch matched by the values of
+ * its controls. Each level of the tree is a hash table keyed by the value of
+ * one control, and a leaf holds the indices of the cases whose tests equal all
+ * of the controls on the path to it. A switch with a single control is just
+ * one table of leaves, so a case is found with a single lookup rather than by
+ * comparing the control with every test in turn.
+ *
+ * The keys follow the same rules of equality as Interpreter.isEqual(), so an
+ * int and a double of the same value find the same cases.
+ *
+ * @author Jared
+ */
+class SwitchTable {
+
+	/**
+	 * The first level of the tree. For a switch of n controls, the tables at
+	 * level n - 1 hold int[] leaves.
+	 */
+	final HashMap<Object, Object> root = new HashMap<>();
+
+	/**
+	 * The number of cases in the switch, which is the index returned when no
+	 * further case matches.
+	 */
+	final int cases;
+
+	private SwitchTable(int cases) {
+		this.cases = cases;
+	}
+
+	/**
+	 * Builds the table for a switch, if every test of every case is a literal.
+	 * Each case is found through the table only when all of its tests would
+	 * compare equal, so the order the cases run in is kept.
+	 *
+	 * @param controls the number of controls of the switch
+	 * @param cases    the cases of the switch
+	 * @return the table, or null if a test is not a literal
+	 */
+	static SwitchTable build(int controls, List<Stmt.Case> cases) {
+		for (Stmt.Case caseStmt : cases) {
+			for (Expr test : caseStmt.tests) {
+				if (!(test instanceof Literal)) {
+					return null;
+				}
+			}
+		}
+
+		SwitchTable table = new SwitchTable(cases.size());
+
+		for (int i = 0; i < cases.size(); i++) {
+			table.add(controls, cases.get(i).tests, i);
+		}
+
+		return table;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void add(int controls, List<Expr> tests, int index) {
+		HashMap<Object, Object> level = root;
+
+		for (int j = 0; j < controls; j++) {
+			Object value = ((Literal) tests.get(j)).value;
+
+			/* NaN equals nothing, so the case can never run */
+			if (value instanceof Double && Double.isNaN((double) value)) {
+				return;
+			}
+
+			Object key = key(value);
+
+			if (j < controls - 1) {
+				level = (HashMap<Object, Object>) level.computeIfAbsent(key, k -> new HashMap<>());
+				continue;
+			}
+
+			int[] leaf = (int[]) level.get(key);
+			leaf = leaf == null ? new int[1] : Arrays.copyOf(leaf, leaf.length + 1);
+			leaf[leaf.length - 1] = index;
+			level.put(key, leaf);
+		}
+	}
+
+	/**
+	 * Finds the key under which a value is stored. Every number is kept as a
+	 * double, and negative zero as zero, since they compare equal.
+	 *
+	 * @param value the value
+	 * @return the key
+	 */
+	private static Object key(Object value) {
+		if (value instanceof Integer) {
+			return (double) (int) value;
+		}
+
+		if (value instanceof Double) {
+			return (double) value + 0.0;
+		}
+
+		return value;
+	}
+
+	/**
+	 * Follows the branch of the tree for the value of the next control.
+	 *
+	 * @param node  the current node, starting from the root
+	 * @param value the value of the control at the node's level
+	 * @return the next node, or null if no case matches
+	 */
+	@SuppressWarnings("unchecked")
+	static Object branch(Object node, Object value) {
+		return ((HashMap<Object, Object>) node).get(key(value));
+	}
+
+	/**
+	 * Finds the first case of a leaf at or after an index.
+	 *
+	 * @param leaf the leaf reached by the controls, or null if there is none
+	 * @param from the first case which may be chosen
+	 * @return the index of the case, or the number of cases if none matches
+	 */
+	int next(Object leaf, int from) {
+		if (leaf != null) {
+			for (int index : (int[]) leaf) {
+				if (index >= from) {
+					return index;
+				}
+			}
+		}
+
+		return cases;
+	}
+}
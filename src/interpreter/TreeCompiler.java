@@ -0,0 +1,543 @@
+package interpreter;
+
+import java.util.List;
+
+import interpreter.Expr.Assign;
+import interpreter.Expr.Binary;
+import interpreter.Expr.Call;
+import interpreter.Expr.CaseCompare;
+import interpreter.Expr.CompoundAssign;
+import interpreter.Expr.Conditional;
+import interpreter.Expr.Get;
+import interpreter.Expr.Grouping;
+import interpreter.Expr.Increment;
+import interpreter.Expr.Invoke;
+import interpreter.Expr.Literal;
+import interpreter.Expr.Logical;
+import interpreter.Expr.Set;
+import interpreter.Expr.Sharp;
+import interpreter.Expr.This;
+import interpreter.Expr.Unary;
+import interpreter.Expr.UnaryAssign;
+import interpreter.Expr.Variable;
+import interpreter.ExprNode.Operation;
+import interpreter.Stmt.Block;
+import interpreter.Stmt.Case;
+import interpreter.Stmt.Class;
+import interpreter.Stmt.Declare;
+import interpreter.Stmt.Do;
+import interpreter.Stmt.ExPrint;
+import interpreter.Stmt.Expression;
+import interpreter.Stmt.For;
+import interpreter.Stmt.Function;
+import interpreter.Stmt.If;
+import interpreter.Stmt.Keyword;
+import interpreter.Stmt.Mould;
+import interpreter.Stmt.Print;
+import interpreter.Stmt.Return;
+import interpreter.Stmt.Sculpture;
+import interpreter.Stmt.Struct;
+import interpreter.Stmt.Switch;
+import interpreter.Stmt.Undec;
+import interpreter.Stmt.While;
+import newt_metatypes.NewtType;
+
+/**
+ * The TreeCompiler turns a list of resolved statements into the nodes run by
+ * the TreeEngine. The body of every function and method is built once, when
+ * its declaration is, and kept on the declaration.
+ *
+ * Every choice the Interpreter makes when it visits a part of the tree is made
+ * here instead: the node built for an expression depends on its operator and
+ * on the types the TypeChecker proved, and a variable's node holds the
+ * location the Resolver gave it.
+ *
+ * @author Jared
+ */
+class TreeCompiler implements Expr.Visitor<ExprNode>, Stmt.Visitor<StmtNode> {
+
+	/**
+	 * The interpreter whose rules of arithmetic and comparison are used, and
+	 * which fills moulds.
+	 */
+	private final Interpreter interpreter;
+
+	/**
+	 * The engine which runs the nodes.
+	 */
+	private final TreeEngine engine;
+
+	private final Environment globals;
+
+	public TreeCompiler(Interpreter interpreter, TreeEngine engine) {
+		this.interpreter = interpreter;
+		this.engine = engine;
+		this.globals = interpreter.getGlobals();
+	}
+
+	/**
+	 * Builds the nodes of a list of top-level statements.
+	 *
+	 * @param statements the statements
+	 * @return the nodes, in order
+	 */
+	public StmtNode[] compile(List<? extends Stmt> statements) {
+		StmtNode[] nodes = new StmtNode[statements.size()];
+
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = compile(statements.get(i));
+		}
+
+		return nodes;
+	}
+
+	private StmtNode compile(Stmt stmt) {
+		return stmt.accept(this);
+	}
+
+	private ExprNode compile(Expr expr) {
+		return expr.accept(this);
+	}
+
+	private ExprNode[] compileAll(List<? extends Expr> expressions) {
+		ExprNode[] nodes = new ExprNode[expressions.size()];
+
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = compile(expressions.get(i));
+		}
+
+		return nodes;
+	}
+
+	private StmtNode.Block compileBlock(Block stmt) {
+		return new StmtNode.Block(compile(stmt.statements), stmt.scoped, stmt.locals, engine);
+	}
+
+	/**
+	 * Builds the body of a function, which runs in the scope of the call.
+	 *
+	 * @param function the declaration of the function
+	 */
+	private void compileFunction(Function function) {
+		function.tree = new StmtNode.Block(compile(function.body.statements), false, 0, engine);
+	}
+
+	/**
+	 * Builds the node of an operand which the Interpreter evaluates as a double,
+	 * widening it if it is an int.
+	 *
+	 * @param expr the operand
+	 * @return the node
+	 */
+	private ExprNode compileNumber(Expr expr) {
+		ExprNode node = compile(expr);
+		return expr.staticType == NewtType.INT ? new ExprNode.Widen(node) : node;
+	}
+
+	private Operation operation(Token operator) {
+		return Operation.of(operator, interpreter);
+	}
+
+	private static boolean isNumber(NewtType type) {
+		return type == NewtType.INT || type == NewtType.DOUBLE;
+	}
+
+	@Override
+	public StmtNode visitKeywordStmt(Keyword stmt) {
+		switch (stmt.word.type) {
+		case BREAK:
+			return new StmtNode.Keyword(StmtNode.BREAK, engine);
+		case CONTINUE:
+			return new StmtNode.Keyword(StmtNode.CONTINUE, engine);
+		case EXIT:
+			return new StmtNode.Keyword(StmtNode.EXIT, engine);
+		default:
+			return new StmtNode.Empty();
+		}
+	}
+
+	@Override
+	public StmtNode visitReturnStmt(Return stmt) {
+		if (stmt.value == null) {
+			return new StmtNode.Return(null, engine);
+		}
+
+		/* a return leaves the function at once, so any call it makes is the last */
+		if (stmt.tail && stmt.value instanceof Call) {
+			return new StmtNode.ReturnCall((ExprNode.Call) compile(stmt.value), engine);
+		}
+
+		if (stmt.tail && stmt.value instanceof Invoke) {
+			return new StmtNode.ReturnInvoke((ExprNode.Invoke) compile(stmt.value), engine);
+		}
+
+		return new StmtNode.Return(compile(stmt.value), engine);
+	}
+
+	@Override
+	public StmtNode visitExpressionStmt(Expression stmt) {
+		return new StmtNode.Expression(compile(stmt.expression));
+	}
+
+	@Override
+	public StmtNode visitExPrintStmt(ExPrint stmt) {
+		return new StmtNode.ExPrint(new ASTPrinter().print(stmt.expression));
+	}
+
+	@Override
+	public StmtNode visitPrintStmt(Print stmt) {
+		return new StmtNode.Print(compile(stmt.expression), interpreter);
+	}
+
+	@Override
+	public StmtNode visitDeclareStmt(Declare stmt) {
+		NewtType type = NewtType.named(stmt.type.lexeme);
+
+		/* a value proven to have the declared type is not checked again */
+		if (stmt.proven) {
+
+			/* a local number is stored unboxed */
+			if (stmt.slot >= 0 && stmt.value.staticType == NewtType.INT) {
+				return new StmtNode.IntDeclare(stmt.slot, stmt.name, compile(stmt.value));
+			}
+
+			if (stmt.slot >= 0 && stmt.value.staticType == NewtType.DOUBLE) {
+				return new StmtNode.DoubleDeclare(stmt.slot, stmt.name, compile(stmt.value));
+			}
+
+			return new StmtNode.ProvenDeclare(stmt.slot, stmt.name, type, compile(stmt.value));
+		}
+
+		return new StmtNode.Declare(stmt.slot, stmt.name, type, stmt.value == null ? null : compile(stmt.value));
+	}
+
+	@Override
+	public StmtNode visitBlockStmt(Block stmt) {
+		return compileBlock(stmt);
+	}
+
+	@Override
+	public StmtNode visitWhileStmt(While stmt) {
+		return new StmtNode.While(compile(stmt.condition), compileBlock(stmt.body));
+	}
+
+	@Override
+	public StmtNode visitDoStmt(Do stmt) {
+		return new StmtNode.Do(compile(stmt.condition), compileBlock(stmt.body));
+	}
+
+	@Override
+	public StmtNode visitForStmt(For stmt) {
+		StmtNode declaration = stmt.declaration == null ? null : compile(stmt.declaration);
+		ExprNode incrementor = stmt.incrementor == null ? null : compile(stmt.incrementor);
+		return new StmtNode.For(declaration, compile(stmt.condition), incrementor, compileBlock(stmt.body), stmt.locals);
+	}
+
+	@Override
+	public StmtNode visitSwitchStmt(Switch stmt) {
+		StmtNode.Block[] cases = new StmtNode.Block[stmt.cases.size()];
+
+		for (int i = 0; i < cases.length; i++) {
+			cases[i] = compileBlock(stmt.cases.get(i).body);
+		}
+
+		StmtNode.Block defaultBody = stmt.defaultBody == null ? null : compileBlock(stmt.defaultBody);
+
+		/* the cases are found through the table the Lowerer built, if it could */
+		if (stmt.dispatch != null) {
+			return new StmtNode.DispatchSwitch(stmt.dispatch, compileAll(stmt.controls), cases, defaultBody);
+		}
+
+		ExprNode[][] comparisons = new ExprNode[cases.length][];
+
+		for (int i = 0; i < cases.length; i++) {
+			comparisons[i] = compileAll(stmt.cases.get(i).comparisons);
+		}
+
+		return new StmtNode.Switch(comparisons, cases, defaultBody);
+	}
+
+	@Override
+	public StmtNode visitCaseStmt(Case stmt) {
+		return compileBlock(stmt.body);
+	}
+
+	@Override
+	public StmtNode visitClassStmt(Class stmt) {
+		for (Function method : stmt.methods) {
+			compileFunction(method);
+		}
+
+		return new StmtNode.Class(stmt, interpreter);
+	}
+
+	@Override
+	public StmtNode visitIfStmt(If stmt) {
+		StmtNode.Block elseBody = stmt.elseBody == null ? null : compileBlock(stmt.elseBody);
+		return new StmtNode.If(compile(stmt.condition), compileBlock(stmt.ifBody), elseBody);
+	}
+
+	@Override
+	public StmtNode visitUndecStmt(Undec stmt) {
+		return new StmtNode.Undec(stmt.variables.toArray(new Variable[0]));
+	}
+
+	@Override
+	public StmtNode visitStructStmt(Struct stmt) {
+		// struct statements are only used by the parser
+		return new StmtNode.Empty();
+	}
+
+	@Override
+	public StmtNode visitSculptureStmt(Sculpture stmt) {
+		// sculpture statements are only used by the parser
+		return new StmtNode.Empty();
+	}
+
+	@Override
+	public StmtNode visitMouldStmt(Mould stmt) {
+		/* the placeholders never change, so the mould can be filled before it is run */
+		interpreter.fillMould(stmt.body, stmt.placeholders);
+		return compileBlock(stmt.body);
+	}
+
+	@Override
+	public StmtNode visitFunctionStmt(Function stmt) {
+		compileFunction(stmt);
+		return new StmtNode.Function(stmt);
+	}
+
+	@Override
+	public ExprNode visitConditionalExpr(Conditional expr) {
+		return new ExprNode.Conditional(compile(expr.condition), compile(expr.first), compile(expr.second));
+	}
+
+	/**
+	 * Builds the node a binary expression needs. Operands proven to suit the
+	 * operator are evaluated without boxing; anything else is applied by the
+	 * general rules.
+	 */
+	@Override
+	public ExprNode visitBinaryExpr(Binary expr) {
+		Token operator = expr.operator;
+
+		if (expr.proven) {
+			if (expr.staticType == NewtType.INT) {
+				return ExprNode.IntBinary.of(operator, compile(expr.left), compile(expr.right));
+			}
+
+			if (expr.staticType == NewtType.DOUBLE) {
+				return ExprNode.DoubleBinary.of(operator, compileNumber(expr.left), compileNumber(expr.right));
+			}
+
+			NewtType left = expr.left.staticType;
+			NewtType right = expr.right.staticType;
+
+			/* the operands of a comparison of ints are not widened */
+			if (left == NewtType.INT && right == NewtType.INT) {
+				ExprNode first = compile(expr.left);
+				ExprNode second = compile(expr.right);
+				ExprNode comparison = ExprNode.IntCompare.of(operator, first, second);
+
+				if (comparison != null) {
+					return comparison;
+				}
+
+				return new ExprNode.Binary(new ExprNode.BoxInt(first), new ExprNode.BoxInt(second), operation(operator));
+			}
+
+			if (isNumber(left) && isNumber(right)) {
+				ExprNode first = compileNumber(expr.left);
+				ExprNode second = compileNumber(expr.right);
+				ExprNode comparison = ExprNode.DoubleCompare.of(operator, first, second);
+
+				if (comparison != null) {
+					return comparison;
+				}
+
+				return new ExprNode.Binary(new ExprNode.BoxDouble(first), new ExprNode.BoxDouble(second),
+						operation(operator));
+			}
+		}
+
+		return new ExprNode.Binary(compile(expr.left), compile(expr.right), operation(operator));
+	}
+
+	@Override
+	public ExprNode visitLogicalExpr(Logical expr) {
+		return ExprNode.Logical.of(expr.operator, compile(expr.left), compile(expr.right),
+				expr.staticType == NewtType.BOOL);
+	}
+
+	@Override
+	public ExprNode visitGroupingExpr(Grouping expr) {
+		return compile(expr.expression);
+	}
+
+	@Override
+	public ExprNode visitLiteralExpr(Literal expr) {
+		if (expr.value instanceof Integer) {
+			return new ExprNode.IntConstant((Integer) expr.value);
+		}
+
+		if (expr.value instanceof Double) {
+			return new ExprNode.DoubleConstant((Double) expr.value);
+		}
+
+		return new ExprNode.Constant(expr.value);
+	}
+
+	@Override
+	public ExprNode visitGetExpr(Get expr) {
+		return new ExprNode.Get(compile(expr.object), expr.name, expr.cache);
+	}
+
+	@Override
+	public ExprNode visitSetExpr(Set expr) {
+		return new ExprNode.Set(compile(expr.object), expr.name, compile(expr.value), expr.cache);
+	}
+
+	@Override
+	public ExprNode visitThisExpr(This expr) {
+		return new ExprNode.This(expr.keyword, expr.depth, expr.slot, globals);
+	}
+
+	@Override
+	public ExprNode visitUnaryExpr(Unary expr) {
+		ExprNode operand = compile(expr.right);
+
+		/* the negation of a proven number is not checked */
+		if (expr.staticType == NewtType.INT) {
+			return new ExprNode.IntNegate(operand);
+		}
+
+		if (expr.staticType == NewtType.DOUBLE) {
+			return new ExprNode.DoubleNegate(operand);
+		}
+
+		switch (expr.operator.type) {
+		case BANG:
+			return new ExprNode.Not(operand, expr.right.staticType == NewtType.BOOL, interpreter);
+		case MINUS:
+			return new ExprNode.Negate(expr.operator, operand, interpreter);
+		default:
+			return new ExprNode.Nothing(operand);
+		}
+	}
+
+	@Override
+	public ExprNode visitVariableExpr(Variable expr) {
+		if (expr.depth < 0) {
+			return new ExprNode.Global(expr.name, globals);
+		}
+
+		/* a local with a proven type can be read without boxing it */
+		if (expr.staticType == NewtType.INT) {
+			return new ExprNode.IntLocal(expr.depth, expr.slot, expr.name);
+		}
+
+		if (expr.staticType == NewtType.DOUBLE) {
+			return new ExprNode.DoubleLocal(expr.depth, expr.slot, expr.name);
+		}
+
+		if (expr.staticType == NewtType.BOOL) {
+			return new ExprNode.BoolLocal(expr.depth, expr.slot, expr.name);
+		}
+
+		return new ExprNode.Local(expr.depth, expr.slot, expr.name);
+	}
+
+	@Override
+	public ExprNode visitAssignExpr(Assign expr) {
+		ExprNode value = compile(expr.value);
+
+		/* a result proven to have the type of the variable is not checked again */
+		if (expr.proven) {
+			if (expr.declaredType == NewtType.INT) {
+				return new ExprNode.IntAssign(expr.depth, expr.slot, expr.name, value);
+			}
+
+			if (expr.declaredType == NewtType.DOUBLE) {
+				return new ExprNode.DoubleAssign(expr.depth, expr.slot, expr.name, value);
+			}
+
+			return new ExprNode.ProvenAssign(expr.depth, expr.slot, expr.name, value);
+		}
+
+		if (expr.depth >= 0) {
+			return new ExprNode.Assign(expr.depth, expr.slot, expr.name, value);
+		}
+
+		return new ExprNode.GlobalAssign(expr.name, value, globals);
+	}
+
+	@Override
+	public ExprNode visitCompoundAssignExpr(CompoundAssign expr) {
+
+		/* a local number needs no boxing */
+		if (expr.proven && expr.declaredType == NewtType.INT) {
+			return ExprNode.IntCompoundAssign.of(expr.depth, expr.slot, expr.name, expr.operator, compile(expr.value));
+		}
+
+		if (expr.proven) {
+			return ExprNode.DoubleCompoundAssign.of(expr.depth, expr.slot, expr.name, expr.operator,
+					compileNumber(expr.value));
+		}
+
+		if (expr.depth >= 0) {
+			return new ExprNode.CompoundAssign(expr.depth, expr.slot, expr.name, compile(expr.value),
+					operation(expr.operator));
+		}
+
+		return new ExprNode.GlobalCompoundAssign(expr.name, compile(expr.value), operation(expr.operator), globals);
+	}
+
+	@Override
+	public ExprNode visitUnaryAssignExpr(UnaryAssign expr) {
+		// unary assignments are replaced with increments by the Lowerer
+		return new ExprNode.Nothing(null);
+	}
+
+	@Override
+	public ExprNode visitIncrementExpr(Increment expr) {
+		Variable name = expr.name;
+		int step = expr.operator.type == TokenType.MINUS ? -1 : 1;
+
+		/* an increment of a local number of a proven type needs no boxing */
+		if (name.staticType == NewtType.INT) {
+			return new ExprNode.IntIncrement(name.depth, name.slot, name.name, step);
+		}
+
+		if (name.staticType == NewtType.DOUBLE) {
+			return new ExprNode.DoubleIncrement(name.depth, name.slot, name.name, step);
+		}
+
+		if (name.depth >= 0) {
+			return new ExprNode.Increment(name.depth, name.slot, name.name, operation(expr.operator));
+		}
+
+		return new ExprNode.GlobalIncrement(new ExprNode.Global(name.name, globals), operation(expr.operator));
+	}
+
+	@Override
+	public ExprNode visitCaseCompareExpr(CaseCompare expr) {
+		return new ExprNode.CaseCompare(compile(expr.control), compile(expr.test), interpreter);
+	}
+
+	@Override
+	public ExprNode visitCallExpr(Call expr) {
+		return new ExprNode.Call(compile(expr.callee), compileAll(expr.arguments), expr.parenthesis, engine);
+	}
+
+	@Override
+	public ExprNode visitInvokeExpr(Invoke expr) {
+		return new ExprNode.Invoke(compile(expr.object), expr.name, compileAll(expr.arguments), expr.parenthesis,
+				expr.cache, engine);
+	}
+
+	@Override
+	public ExprNode visitSharpExpr(Sharp expr) {
+		// sharp expressions are only placeholders
+		return new ExprNode.Nothing(null);
+	}
+}
@@ -0,0 +1,223 @@
+package interpreter;
+
+import java.util.List;
+
+import newt_metatypes.NewtCallable;
+import newt_metatypes.NewtFunction;
+import newt_metatypes.NewtInstance;
+
+/**
+ * The TreeEngine runs programs as trees of executable nodes, built by the
+ * TreeCompiler. It is an alternative to the Interpreter and the VM, chosen with
+ * --engine=tree, and shares the Interpreter's globals, natives, call frames and
+ * rules of arithmetic so that all three produce the same results.
+ *
+ * Each time the Interpreter visits an expression it decides again what kind of
+ * expression it is, which operator it applies and which path its types allow.
+ * The TreeCompiler makes those decisions once, when the program is loaded, and
+ * the nodes it builds only carry them out.
+ *
+ * Calls to Newt functions recurse on the Java stack, as in the Interpreter,
+ * and a call made by a return replaces the returning call rather than being
+ * nested in it.
+ *
+ * @author Jared
+ */
+public class TreeEngine {
+
+	/**
+	 * Returned by a return's call which was left for the caller to make.
+	 */
+	static final Object TAIL_CALL = new Object();
+
+	/**
+	 * The interpreter whose globals, natives and operators are used.
+	 */
+	private final Interpreter interpreter;
+
+	/**
+	 * The global scope, shared with the interpreter.
+	 */
+	private final Environment globals;
+
+	/**
+	 * True once the program has exited. Every statement after the exit is
+	 * skipped, including those of later files.
+	 */
+	boolean exiting = false;
+
+	/**
+	 * The value of the most recent return, held until the call collects it.
+	 */
+	Object returnValue = null;
+
+	/**
+	 * The call left by a return, which its caller makes next.
+	 */
+	private NewtFunction tailFunction = null;
+	private NewtInstance tailInstance = null;
+	private Object[] tailArguments = null;
+
+	/**
+	 * The deepest the calls to Newt functions may be nested, and the depth of the
+	 * calls running now.
+	 */
+	private int maxDepth;
+	private int depth = 0;
+
+	public TreeEngine(Interpreter interpreter) {
+		this.interpreter = interpreter;
+		this.globals = interpreter.getGlobals();
+	}
+
+	/**
+	 * Builds the nodes of a list of statements and runs them.
+	 *
+	 * @param statements the resolved statements to run
+	 */
+	public void interpret(List<Stmt> statements) {
+		StmtNode[] nodes = new TreeCompiler(interpreter, this).compile(statements);
+		maxDepth = interpreter.getMaxDepth();
+
+		try {
+			for (StmtNode node : nodes) {
+				if (exiting) {
+					break;
+				}
+
+				node.execute(globals);
+			}
+		} catch (RuntimeError error) {
+			Newt.runtimeError(error);
+		} finally {
+			/* an error may leave a call or a value behind */
+			depth = 0;
+			returnValue = null;
+			tailCall(null, null, null);
+		}
+	}
+
+	/**
+	 * Checks that a value can be called with the given number of arguments.
+	 *
+	 * @param parenthesis the token of the call, for errors
+	 * @param callee      the value being called
+	 * @param count       the number of arguments
+	 */
+	void checkCall(Token parenthesis, Object callee, int count) {
+		if (!(callee instanceof NewtCallable)) {
+			throw new RuntimeError(parenthesis, "Can only call functions and classes.");
+		}
+
+		NewtCallable function = (NewtCallable) callee;
+
+		if (count != function.arity()) {
+			throw new RuntimeError(parenthesis, "Expected " + function.arity() + " arguments but got " + count + ".");
+		}
+	}
+
+	/**
+	 * Calls a function or class, counting it against the greatest depth of calls
+	 * allowed.
+	 *
+	 * @param parenthesis the token of the call, for errors
+	 * @param callee      the value being called
+	 * @param instance    the instance a method is invoked on, or null
+	 * @param arguments   the evaluated arguments
+	 * @return the result of the call
+	 */
+	Object call(Token parenthesis, Object callee, NewtInstance instance, Object[] arguments) {
+		checkCall(parenthesis, callee, arguments.length);
+
+		if (depth == maxDepth) {
+			throw new RuntimeError(parenthesis, "Stack overflow.");
+		}
+
+		depth++;
+
+		try {
+			if (callee instanceof NewtFunction) {
+				return run((NewtFunction) callee, instance, arguments);
+			}
+
+			/* natives and classes are called as the interpreter calls them */
+			return ((NewtCallable) callee).call(interpreter, ExprNode.list(arguments));
+		} catch (StackOverflowError error) {
+			/* the Java stack ran out first, which is reported the same way */
+			throw new RuntimeError(parenthesis, "Stack overflow.");
+		} finally {
+			depth--;
+		}
+	}
+
+	/**
+	 * Leaves a call for the caller of the returning function to make.
+	 *
+	 * @param function  the function to call
+	 * @param instance  the instance it is called on, or null
+	 * @param arguments the evaluated arguments
+	 * @return TAIL_CALL, for the return to hold as its value
+	 */
+	Object tailCall(NewtFunction function, NewtInstance instance, Object[] arguments) {
+		tailFunction = function;
+		tailInstance = instance;
+		tailArguments = arguments;
+		return TAIL_CALL;
+	}
+
+	/**
+	 * Runs a Newt function, and then any call its returns leave, in new frames.
+	 *
+	 * @param function  the function
+	 * @param instance  the instance for a method, or null to use the instance
+	 *                  the function is bound to, if any
+	 * @param arguments the evaluated arguments
+	 * @return the returned value, or null
+	 */
+	private Object run(NewtFunction function, NewtInstance instance, Object[] arguments) {
+		while (true) {
+			Stmt.Function declaration = function.getDeclaration();
+
+			if (instance == null) {
+				instance = function.getReceiver();
+			}
+
+			/* a function which was not built here is interpreted */
+			if (declaration.tree == null) {
+				return function.invoke(interpreter, instance, ExprNode.list(arguments));
+			}
+
+			Environment frame = interpreter.newFrame(function.getClosure(), declaration.locals);
+			int completion;
+
+			try {
+				int first = function.defineReceiver(frame, instance);
+
+				for (int i = 0; i < arguments.length; i++) {
+					frame.define(first + i, declaration.parameters.get(i), function.getParameterType(i), arguments[i]);
+				}
+
+				completion = declaration.tree.run(frame);
+			} finally {
+				/* nothing can reach the scope once the call is over */
+				interpreter.releaseFrame(frame);
+			}
+
+			if (completion != StmtNode.RETURN) {
+				return null;
+			}
+
+			Object value = returnValue;
+			returnValue = null;
+
+			if (value != TAIL_CALL) {
+				return value;
+			}
+
+			function = tailFunction;
+			instance = tailInstance;
+			arguments = tailArguments;
+			tailCall(null, null, null);
+		}
+	}
+}
@@ -0,0 +1,556 @@
+package interpreter;
+
+import java.util.List;
+import java.util.Stack;
+
+import interpreter.Expr.Assign;
+import interpreter.Expr.Binary;
+import interpreter.Expr.Call;
+import interpreter.Expr.CaseCompare;
+import interpreter.Expr.CompoundAssign;
+import interpreter.Expr.Conditional;
+import interpreter.Expr.Get;
+import interpreter.Expr.Grouping;
+import interpreter.Expr.Increment;
+import interpreter.Expr.Invoke;
+import interpreter.Expr.Literal;
+import interpreter.Expr.Logical;
+import interpreter.Expr.Set;
+import interpreter.Expr.Sharp;
+import interpreter.Expr.This;
+import interpreter.Expr.Unary;
+import interpreter.Expr.UnaryAssign;
+import interpreter.Expr.Variable;
+import interpreter.Stmt.Block;
+import interpreter.Stmt.Case;
+import interpreter.Stmt.Class;
+import interpreter.Stmt.Declare;
+import interpreter.Stmt.Do;
+import interpreter.Stmt.ExPrint;
+import interpreter.Stmt.Expression;
+import interpreter.Stmt.For;
+import interpreter.Stmt.Function;
+import interpreter.Stmt.If;
+import interpreter.Stmt.Keyword;
+import interpreter.Stmt.Mould;
+import interpreter.Stmt.Print;
+import interpreter.Stmt.Return;
+import interpreter.Stmt.Sculpture;
+import interpreter.Stmt.Struct;
+import interpreter.Stmt.Switch;
+import interpreter.Stmt.Undec;
+import interpreter.Stmt.While;
+import newt_metatypes.NewtType;
+
+/**
+ * The TypeChecker runs after the Resolver and proves the types of variables
+ * and expressions where it can. A local variable declared with a primitive
+ * type keeps that type for its whole life, so every expression built from such
+ * variables and literals has a known type. The TypeChecker records these on
+ * the tree so that the interpreter can skip the checks it would otherwise make
+ * at runtime.
+ *
+ * Nothing is reported here. A mismatch is left for the interpreter to report
+ * when the program reaches it, in order with the program's other output.
+ *
+ * @author Jared
+ */
+class TypeChecker implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+	/**
+	 * The declared type of each slot of the open scopes, in the same order the
+	 * Resolver opened them. A slot holds null until its variable is declared, or
+	 * if the variable has no static type.
+	 */
+	private Stack<NewtType[]> scopes = new Stack<>();
+
+	public void check(List<? extends Stmt> statements) {
+		for (Stmt statement : statements) {
+			check(statement);
+		}
+	}
+
+	private void check(Stmt stmt) {
+		if (stmt != null)
+			stmt.accept(this);
+	}
+
+	private void check(Expr expr) {
+		if (expr != null)
+			expr.accept(this);
+	}
+
+	private void checkExpressions(List<? extends Expr> expressions) {
+		for (Expr expr : expressions) {
+			check(expr);
+		}
+	}
+
+	/**
+	 * Finds the static type of a declared type. Only the primitive types have
+	 * one; a 'var' may change type and an instance may be of a subclass.
+	 *
+	 * @param type the declared type
+	 * @return the static type, or null if there is none
+	 */
+	private static NewtType staticType(String type) {
+		switch (type) {
+		case "int":
+			return NewtType.INT;
+		case "double":
+			return NewtType.DOUBLE;
+		case "bool":
+			return NewtType.BOOL;
+		case "char":
+			return NewtType.CHAR;
+		case "string":
+			return NewtType.STRING;
+		default:
+			return null;
+		}
+	}
+
+	private static boolean isNumeric(NewtType type) {
+		return type == NewtType.INT || type == NewtType.DOUBLE;
+	}
+
+	/**
+	 * Records the type of a local variable when it is declared.
+	 *
+	 * @param slot the slot the Resolver gave the variable, or -1 for a global
+	 * @param type the declared type
+	 */
+	private void declare(int slot, String type) {
+		if (slot >= 0 && !scopes.isEmpty()) {
+			scopes.peek()[slot] = staticType(type);
+		}
+	}
+
+	/**
+	 * Finds the static type of a variable the Resolver placed in a slot.
+	 *
+	 * @param depth the distance to the declaring scope, or -1 for a global
+	 * @param slot  the slot of the variable
+	 * @return the type of the variable, or null if it is not known
+	 */
+	private NewtType typeAt(int depth, int slot) {
+		if (depth < 0 || depth >= scopes.size()) {
+			return null;
+		}
+
+		return scopes.get(scopes.size() - 1 - depth)[slot];
+	}
+
+	private void checkFunction(Function function, boolean method) {
+
+		/* the body sees only its own scope and the variables in its closure */
+		NewtType[] closure = new NewtType[function.captures.size()];
+		for (int i = 0; i < closure.length; i++) {
+			Variable captured = function.captures.get(i);
+			closure[i] = typeAt(captured.depth, captured.slot);
+		}
+
+		Stack<NewtType[]> enclosing = scopes;
+		scopes = new Stack<>();
+		scopes.push(closure);
+		scopes.push(new NewtType[function.locals]);
+
+		/* a method keeps its instance in the first slot, ahead of the parameters */
+		int first = method ? 1 : 0;
+
+		for (int i = 0; i < function.parameters.size(); i++) {
+			declare(first + i, function.types.get(i).lexeme);
+		}
+
+		check(function.body.statements);
+		scopes = enclosing;
+	}
+
+	@Override
+	public Void visitKeywordStmt(Keyword stmt) {
+		return null;
+	}
+
+	@Override
+	public Void visitReturnStmt(Return stmt) {
+		check(stmt.value);
+		return null;
+	}
+
+	@Override
+	public Void visitExpressionStmt(Expression stmt) {
+		check(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitExPrintStmt(ExPrint stmt) {
+		check(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitPrintStmt(Print stmt) {
+		check(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitDeclareStmt(Declare stmt) {
+		check(stmt.value);
+
+		/* the value is checked before the variable exists */
+		NewtType type = staticType(stmt.type.lexeme);
+		stmt.proven = type != null && stmt.value != null && type == stmt.value.staticType;
+		stmt.declared = type != null ? type : NewtType.named(stmt.type.lexeme);
+
+		declare(stmt.slot, stmt.type.lexeme);
+		return null;
+	}
+
+	@Override
+	public Void visitBlockStmt(Block stmt) {
+		if (!stmt.scoped) {
+			check(stmt.statements);
+			return null;
+		}
+
+		scopes.push(new NewtType[stmt.locals]);
+		check(stmt.statements);
+		scopes.pop();
+		return null;
+	}
+
+	@Override
+	public Void visitWhileStmt(While stmt) {
+		check(stmt.condition);
+		check(stmt.body);
+		return null;
+	}
+
+	@Override
+	public Void visitDoStmt(Do stmt) {
+		check(stmt.condition);
+		check(stmt.body);
+		return null;
+	}
+
+	@Override
+	public Void visitForStmt(For stmt) {
+		scopes.push(new NewtType[stmt.locals]);
+		check(stmt.declaration);
+		check(stmt.condition);
+		check(stmt.incrementor);
+		check(stmt.body);
+		scopes.pop();
+		return null;
+	}
+
+	@Override
+	public Void visitSwitchStmt(Switch stmt) {
+		checkExpressions(stmt.controls);
+		check(stmt.cases);
+		check(stmt.defaultBody);
+		return null;
+	}
+
+	@Override
+	public Void visitCaseStmt(Case stmt) {
+		check(stmt.body);
+		checkExpressions(stmt.tests);
+		return null;
+	}
+
+	@Override
+	public Void visitClassStmt(Class stmt) {
+		declare(stmt.slot, "class");
+
+		for (Function method : stmt.methods) {
+			checkFunction(method, true);
+		}
+
+		return null;
+	}
+
+	@Override
+	public Void visitIfStmt(If stmt) {
+		check(stmt.condition);
+		check(stmt.ifBody);
+		check(stmt.elseBody);
+		return null;
+	}
+
+	@Override
+	public Void visitUndecStmt(Undec stmt) {
+		return null;
+	}
+
+	@Override
+	public Void visitStructStmt(Struct stmt) {
+		check(stmt.mould);
+		check(stmt.sculpture);
+		return null;
+	}
+
+	@Override
+	public Void visitSculptureStmt(Sculpture stmt) {
+		return null;
+	}
+
+	@Override
+	public Void visitMouldStmt(Mould stmt) {
+		check(stmt.body);
+		return null;
+	}
+
+	@Override
+	public Void visitFunctionStmt(Function stmt) {
+		declare(stmt.slot, "function");
+		checkFunction(stmt, false);
+		return null;
+	}
+
+	@Override
+	public Void visitConditionalExpr(Conditional expr) {
+		check(expr.condition);
+		check(expr.first);
+		check(expr.second);
+
+		if (expr.first.staticType != null && expr.first.staticType == expr.second.staticType) {
+			expr.staticType = expr.first.staticType;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Proves the type of a binary expression from the types of its operands,
+	 * following the rules of Interpreter.binaryOperation(). When the operands are
+	 * proven to suit the operator, the interpreter need not check them.
+	 */
+	@Override
+	public Void visitBinaryExpr(Binary expr) {
+		check(expr.left);
+		check(expr.right);
+
+		NewtType left = expr.left.staticType;
+		NewtType right = expr.right.staticType;
+
+		expr.staticType = binaryType(expr.operator.type, left, right);
+
+		switch (expr.operator.type) {
+		case GREATER:
+		case GREATER_EQUAL:
+		case LESS:
+		case LESS_EQUAL:
+			/* every static type is a primitive, and primitives can be compared */
+			expr.proven = left != null && right != null;
+			break;
+		default:
+			expr.proven = expr.staticType != null;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Finds the type of the result of a binary operator from the types of its
+	 * operands, following the rules of Interpreter.binaryOperation().
+	 *
+	 * @param operator the type of the operator
+	 * @param left     the type of the left operand, or null if it is not known
+	 * @param right    the type of the right operand, or null if it is not known
+	 * @return the type of the result, or null if it cannot be known
+	 */
+	static NewtType binaryType(TokenType operator, NewtType left, NewtType right) {
+		if (operator == TokenType.PLUS && (left == NewtType.STRING || right == NewtType.STRING)) {
+			return NewtType.STRING;
+		}
+
+		switch (operator) {
+		case PLUS:
+		case MINUS:
+		case STAR:
+		case SLASH:
+		case PERCENT:
+			if (isNumeric(left) && isNumeric(right)) {
+				return left == NewtType.INT && right == NewtType.INT ? NewtType.INT : NewtType.DOUBLE;
+			}
+
+			return null;
+		case CARAT:
+			return isNumeric(left) && isNumeric(right) ? NewtType.DOUBLE : null;
+		case GREATER:
+		case GREATER_EQUAL:
+		case LESS:
+		case LESS_EQUAL:
+		case EQUAL_EQUAL:
+		case BANG_EQUAL:
+		case AND:
+		case OR:
+		case NAND:
+		case NOR:
+		case ARROW:
+			return NewtType.BOOL;
+		default:
+			return null;
+		}
+	}
+
+	@Override
+	public Void visitLogicalExpr(Logical expr) {
+		check(expr.left);
+		check(expr.right);
+
+		/* the left operand must be a boolean, and the right decides some results */
+		if (expr.left.staticType == NewtType.BOOL && expr.right.staticType == NewtType.BOOL) {
+			expr.staticType = NewtType.BOOL;
+		}
+
+		return null;
+	}
+
+	@Override
+	public Void visitGroupingExpr(Grouping expr) {
+		check(expr.expression);
+		expr.staticType = expr.expression.staticType;
+		return null;
+	}
+
+	@Override
+	public Void visitLiteralExpr(Literal expr) {
+		if (expr.value instanceof Integer) {
+			expr.staticType = NewtType.INT;
+		} else if (expr.value instanceof Double) {
+			expr.staticType = NewtType.DOUBLE;
+		} else if (expr.value instanceof Boolean) {
+			expr.staticType = NewtType.BOOL;
+		} else if (expr.value instanceof Character) {
+			expr.staticType = NewtType.CHAR;
+		} else if (expr.value instanceof String) {
+			expr.staticType = NewtType.STRING;
+		}
+
+		return null;
+	}
+
+	@Override
+	public Void visitGetExpr(Get expr) {
+		check(expr.object);
+		return null;
+	}
+
+	@Override
+	public Void visitSetExpr(Set expr) {
+		check(expr.value);
+		check(expr.object);
+		return null;
+	}
+
+	@Override
+	public Void visitThisExpr(This expr) {
+		return null;
+	}
+
+	@Override
+	public Void visitUnaryExpr(Unary expr) {
+		check(expr.right);
+
+		if (expr.operator.type == TokenType.BANG) {
+			expr.staticType = NewtType.BOOL;
+		} else if (isNumeric(expr.right.staticType)) {
+			expr.staticType = expr.right.staticType;
+		}
+
+		return null;
+	}
+
+	@Override
+	public Void visitVariableExpr(Variable expr) {
+		expr.staticType = typeAt(expr.depth, expr.slot);
+		return null;
+	}
+
+	/**
+	 * Records the type of the assigned variable, and whether the value is proven
+	 * to have that type so the interpreter need not compare the two.
+	 */
+	@Override
+	public Void visitAssignExpr(Assign expr) {
+		check(expr.value);
+
+		NewtType type = typeAt(expr.depth, expr.slot);
+		expr.declaredType = type;
+		expr.proven = type != null && type == expr.value.staticType;
+		return null;
+	}
+
+	/**
+	 * Records the type of the assigned variable, and whether the operation is
+	 * proven to keep that type so the interpreter need not box the operands.
+	 */
+	@Override
+	public Void visitCompoundAssignExpr(CompoundAssign expr) {
+		check(expr.value);
+
+		NewtType type = typeAt(expr.depth, expr.slot);
+		NewtType value = expr.value.staticType;
+		expr.declaredType = type;
+
+		switch (expr.operator.type) {
+		case PLUS:
+		case MINUS:
+		case STAR:
+		case SLASH:
+		case PERCENT:
+			expr.proven = type == NewtType.INT && value == NewtType.INT || type == NewtType.DOUBLE && isNumeric(value);
+			break;
+		case CARAT:
+			expr.proven = type == NewtType.DOUBLE && isNumeric(value);
+			break;
+		default:
+		}
+
+		return null;
+	}
+
+	@Override
+	public Void visitUnaryAssignExpr(UnaryAssign expr) {
+		check(expr.name);
+		return null;
+	}
+
+	@Override
+	public Void visitIncrementExpr(Increment expr) {
+		check(expr.name);
+		return null;
+	}
+
+	@Override
+	public Void visitCaseCompareExpr(CaseCompare expr) {
+		check(expr.control);
+		check(expr.test);
+		expr.staticType = NewtType.BOOL;
+		return null;
+	}
+
+	@Override
+	public Void visitCallExpr(Call expr) {
+		check(expr.callee);
+		checkExpressions(expr.arguments);
+		return null;
+	}
+
+	@Override
+	public Void visitInvokeExpr(Invoke expr) {
+		check(expr.object);
+		checkExpressions(expr.arguments);
+		return null;
+	}
+
+	@Override
+	public Void visitSharpExpr(Sharp expr) {
+		check(expr.name);
+		return null;
+	}
+}
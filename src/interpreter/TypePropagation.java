@@ -0,0 +1,148 @@
+package interpreter;
+
+import java.util.HashMap;
+import java.util.List;
+
+import newt_metatypes.NewtType;
+
+/**
+ * The types of the values of an IR function, following the rules the
+ * TypeChecker proves expressions with. Where the TypeChecker only knows the
+ * declared types of variables, this also follows values through phis, so a
+ * 'var' which only ever holds ints is known to be an int.
+ *
+ * Values start with no type, and are given one once their operands have
+ * types. A phi in a loop takes the type of the values which enter the loop
+ * until its other operands disagree, so the types are found by repeating
+ * until nothing changes. A value which may be of more than one type, or whose
+ * type cannot be known, is a 'var'.
+ *
+ * @author Jared
+ */
+class TypePropagation {
+
+	static final PassManager.Analysis<TypePropagation> ANALYSIS = (function, manager) -> new TypePropagation(
+			manager.get(Dominance.ANALYSIS, function));
+
+	private final HashMap<IR.Instruction, NewtType> types = new HashMap<>();
+
+	TypePropagation(Dominance dominance) {
+		List<IR.Block> order = dominance.order();
+		boolean changed = true;
+
+		while (changed) {
+			changed = false;
+
+			for (IR.Block block : order) {
+				for (IR.Instruction instruction : block.instructions) {
+					if (!instruction.op.hasValue()) {
+						continue;
+					}
+
+					NewtType type = infer(instruction);
+
+					if (type != null && type != types.get(instruction)) {
+						types.put(instruction, type);
+						changed = true;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the type of a value.
+	 *
+	 * @param value the value
+	 * @return its type, which is 'var' if it is not known, or null for an
+	 *         instruction which has no value
+	 */
+	NewtType typeOf(IR.Instruction value) {
+		if (!value.op.hasValue()) {
+			return null;
+		}
+
+		return types.getOrDefault(value, NewtType.VAR);
+	}
+
+	/**
+	 * Finds the type of a value from what is known of its operands.
+	 *
+	 * @return the type, or null if it depends on operands with no type yet
+	 */
+	private NewtType infer(IR.Instruction instruction) {
+		switch (instruction.op) {
+		case CONSTANT:
+			NewtType constant = NewtType.of(instruction.payload);
+			return constant == null ? NewtType.VAR : constant;
+		case PHI:
+			return join(instruction);
+		case BINARY:
+			return binary(((Token) instruction.payload).type, types.get(instruction.operands.get(0)),
+					types.get(instruction.operands.get(1)));
+		case UNARY:
+			if (((Token) instruction.payload).type == TokenType.BANG) {
+				return NewtType.BOOL;
+			}
+
+			NewtType operand = types.get(instruction.operands.get(0));
+			return operand == null || isNumeric(operand) ? operand : NewtType.VAR;
+		case CASE_EQUAL:
+			return NewtType.BOOL;
+		case CHECK:
+			return (NewtType) instruction.payload;
+		case LOAD_LOCAL:
+			/* every store to the local was checked against its type */
+			return instruction.payload == null ? NewtType.VAR : (NewtType) instruction.payload;
+		case SET:
+			return types.get(instruction.operands.get(1));
+		case FUNCTION:
+			return NewtType.FUNCTION;
+		case CLASS:
+			return NewtType.CLASS;
+		default:
+			return NewtType.VAR;
+		}
+	}
+
+	/**
+	 * Joins the types of the values a phi may take. A local with no value yet
+	 * cannot be read, so it does not widen the type.
+	 */
+	private NewtType join(IR.Instruction phi) {
+		NewtType type = null;
+
+		for (IR.Instruction operand : phi.operands) {
+			NewtType next = types.get(operand);
+
+			if (operand.op == IR.Op.UNDEFINED || next == null) {
+				continue;
+			}
+
+			if (type != null && type != next) {
+				return NewtType.VAR;
+			}
+
+			type = next;
+		}
+
+		return type;
+	}
+
+	/**
+	 * Finds the type of a binary operation with the TypeChecker's rules, once
+	 * the types of both operands are known.
+	 */
+	private static NewtType binary(TokenType operator, NewtType left, NewtType right) {
+		if (left == null || right == null) {
+			return null;
+		}
+
+		NewtType type = TypeChecker.binaryType(operator, left, right);
+		return type == null ? NewtType.VAR : type;
+	}
+
+	private static boolean isNumeric(NewtType type) {
+		return type == NewtType.INT || type == NewtType.DOUBLE;
+	}
+}
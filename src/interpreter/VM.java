@@ -0,0 +1,1238 @@
+package interpreter;
+
+import static interpreter.OpCode.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import interpreter.Stmt.Function;
+import newt_metatypes.NewtCallable;
+import newt_metatypes.NewtFunction;
+import newt_metatypes.NewtInstance;
+import newt_metatypes.NewtObject;
+import newt_metatypes.NewtType;
+import newt_metatypes.PropertyCache;
+
+/**
+ * The VM is a stack-based virtual machine which runs the bytecode produced by
+ * the Compiler. It is an alternative to walking the syntax tree with the
+ * Interpreter, and shares the Interpreter's globals, natives and rules of
+ * arithmetic so that both produce the same results.
+ *
+ * Calls to Newt functions do not recurse on the Java stack. Each call pushes a
+ * frame recording where to resume the caller. The locals of a compiled body
+ * are kept on the operand stack from the base of its frame, with the ints and
+ * doubles the TypeChecker proved held unboxed at the same positions in the
+ * primitive stacks.
+ *
+ * @author Jared
+ */
+public class VM {
+
+	/**
+	 * The interpreter whose globals, natives and operators are used.
+	 */
+	private final Interpreter interpreter;
+
+	/**
+	 * The global scope, shared with the interpreter.
+	 */
+	private final Environment globals;
+
+	/**
+	 * The current scope.
+	 */
+	private Environment environment;
+
+	/**
+	 * True once the program has exited. Every statement after the exit is
+	 * skipped, including those of later files, as in the interpreter.
+	 */
+	private boolean exiting = false;
+
+	/**
+	 * The compiled body of every function declared so far.
+	 */
+	private final Map<Function, Chunk> functions = new IdentityHashMap<>();
+
+	/**
+	 * The operand stack.
+	 */
+	private Object[] stack = new Object[256];
+	private int stackTop = 0;
+
+	/*
+	 * The unboxed ints and doubles, at the positions in the operand stack where
+	 * they would otherwise be boxed.
+	 */
+	private int[] ints = new int[256];
+	private double[] doubles = new double[256];
+
+	/**
+	 * The position in the stack of the first local of the running chunk.
+	 */
+	private int base = 0;
+
+	/*
+	 * The call frames of the functions which are waiting on a call to return,
+	 * stored as parallel arrays so that calling a function allocates nothing here.
+	 * They grow as calls are nested, up to the interpreter's greatest depth.
+	 */
+	private Chunk[] frameChunks = new Chunk[64];
+	private int[] frameReturnAddresses = new int[64];
+	private int[] frameStackBases = new int[64];
+	private Environment[] frameEnvironments = new Environment[64];
+	private Environment[] frameScopes = new Environment[64];
+	private int[] frameBases = new int[64];
+	private int frameCount = 0;
+
+	public VM(Interpreter interpreter) {
+		this.interpreter = interpreter;
+		this.globals = interpreter.getGlobals();
+		this.environment = globals;
+	}
+
+	/**
+	 * Compiles and runs a list of statements.
+	 *
+	 * @param statements the resolved statements to run
+	 */
+	public void interpret(List<Stmt> statements) {
+		Chunk script = new Compiler(interpreter, functions).compile(statements);
+
+		if (Newt.hadError || exiting)
+			return;
+
+		try {
+			run(script);
+		} catch (RuntimeError error) {
+			Newt.runtimeError(error);
+		} finally {
+			/* an error may leave frames and values behind, above the last call */
+			Arrays.fill(stack, null);
+			stackTop = 0;
+			base = 0;
+			frameCount = 0;
+			environment = globals;
+		}
+	}
+
+	/**
+	 * Makes sure the stacks have room for a chunk to run, with its frame from the
+	 * given base.
+	 */
+	private void reserve(Chunk chunk, int base) {
+		int needed = base + Math.max(chunk.frameSize, 0) + chunk.maxStack;
+
+		if (needed > stack.length) {
+			int capacity = Math.max(stack.length * 2, needed);
+			stack = Arrays.copyOf(stack, capacity);
+			ints = Arrays.copyOf(ints, capacity);
+			doubles = Arrays.copyOf(doubles, capacity);
+		}
+	}
+
+	/**
+	 * Runs a compiled script until it returns or exits.
+	 *
+	 * @param script the chunk to run
+	 */
+	private void run(Chunk script) {
+		Chunk chunk = script;
+		byte[] code = chunk.code;
+		Object[] constants = chunk.constants;
+		int ip = 0;
+
+		/* the locals of a script kept in its frame start at the bottom of the stack */
+		reserve(chunk, 0);
+
+		/*
+		 * The stacks and registers are kept in locals while the chunk runs, and
+		 * written back to the fields only for a call.
+		 */
+		Object[] stack = this.stack;
+		int[] ints = this.ints;
+		double[] doubles = this.doubles;
+		int top = Math.max(chunk.frameSize, 0);
+		int base = 0;
+
+		while (true) {
+			switch (code[ip++]) {
+			case CONSTANT:
+				stack[top++] = constants[readShort(code, ip)];
+				ip += 2;
+				break;
+			case NULL:
+				stack[top++] = null;
+				break;
+			case TRUE:
+				stack[top++] = true;
+				break;
+			case FALSE:
+				stack[top++] = false;
+				break;
+			case POP:
+				stack[--top] = null;
+				break;
+			case CONSTANT_INT:
+				ints[top++] = (int) constants[readShort(code, ip)];
+				ip += 2;
+				break;
+			case CONSTANT_DOUBLE:
+				doubles[top++] = (double) constants[readShort(code, ip)];
+				ip += 2;
+				break;
+			case BOX_INT:
+				stack[top - 1] = ints[top - 1];
+				break;
+			case BOX_DOUBLE:
+				stack[top - 1] = doubles[top - 1];
+				break;
+			case UNBOX_INT:
+				ints[top - 1] = (int) stack[top - 1];
+				break;
+			case UNBOX_DOUBLE:
+				doubles[top - 1] = (double) stack[top - 1];
+				break;
+			case INT_TO_DOUBLE:
+				doubles[top - 1] = ints[top - 1];
+				break;
+
+			case GET_LOCAL: {
+				int distance = code[ip] & 0xff;
+				int slot = code[ip + 1] & 0xff;
+				Token name = (Token) constants[readShort(code, ip + 2)];
+				ip += 4;
+				stack[top++] = environment.getAt(distance, slot, name);
+				break;
+			}
+			case SET_LOCAL: {
+				int distance = code[ip] & 0xff;
+				int slot = code[ip + 1] & 0xff;
+				Token name = (Token) constants[readShort(code, ip + 2)];
+				ip += 4;
+				environment.assignAt(distance, slot, name, stack[--top]);
+				break;
+			}
+			case GET_GLOBAL: {
+				int index = readShort(code, ip);
+				Token name = (Token) constants[index];
+				ip += 2;
+
+				NewtObject cell = chunk.cells[index] = globals.cell(chunk.cells[index], name);
+				stack[top++] = Environment.read(cell, name);
+				break;
+			}
+			case SET_GLOBAL: {
+				int index = readShort(code, ip);
+				Token name = (Token) constants[index];
+				ip += 2;
+
+				NewtObject cell = chunk.cells[index] = globals.cell(chunk.cells[index], name);
+				globals.store(cell, name, stack[--top]);
+				break;
+			}
+			case DEFINE: {
+				Token name = (Token) constants[readShort(code, ip)];
+				NewtType type = (NewtType) constants[readShort(code, ip + 2)];
+				ip += 4;
+				environment.define(name, type, stack[--top]);
+				break;
+			}
+			case DEFINE_LOCAL: {
+				int slot = code[ip] & 0xff;
+				Token name = (Token) constants[readShort(code, ip + 1)];
+				NewtType type = (NewtType) constants[readShort(code, ip + 3)];
+				ip += 5;
+				environment.define(slot, name, type, stack[--top]);
+				break;
+			}
+			case UNDEFINE:
+				environment.undefine((Token) constants[readShort(code, ip)]);
+				ip += 2;
+				break;
+			case UNDEFINE_LOCAL:
+				environment.undefineAt(code[ip++] & 0xff);
+				break;
+			case CHECK_INITIALIZED:
+				if (stack[top - 1] == null) {
+					throw uninitialized((Token) constants[readShort(code, ip)]);
+				}
+
+				ip += 2;
+				break;
+
+			case GET_SLOT:
+				stack[top++] = stack[base + (code[ip++] & 0xff)];
+				break;
+			case GET_INITIALIZED: {
+				Object value = stack[base + (code[ip] & 0xff)];
+
+				if (value == null) {
+					throw uninitialized((Token) constants[readShort(code, ip + 1)]);
+				}
+
+				stack[top++] = value;
+				ip += 3;
+				break;
+			}
+			case GET_SLOT_INT: {
+				Object value = stack[base + (code[ip] & 0xff)];
+
+				if (value == null) {
+					throw uninitialized((Token) constants[readShort(code, ip + 1)]);
+				}
+
+				ints[top++] = (int) value;
+				ip += 3;
+				break;
+			}
+			case GET_SLOT_DOUBLE: {
+				Object value = stack[base + (code[ip] & 0xff)];
+
+				if (value == null) {
+					throw uninitialized((Token) constants[readShort(code, ip + 1)]);
+				}
+
+				doubles[top++] = (double) value;
+				ip += 3;
+				break;
+			}
+			case DEFINE_SLOT: {
+				int index = code[ip] & 0xff;
+				Token name = (Token) constants[readShort(code, ip + 1)];
+				NewtType type = (NewtType) constants[readShort(code, ip + 3)];
+				ip += 5;
+
+				Object value = stack[--top];
+				stack[top] = null;
+
+				/* a variable may be declared without a value */
+				if (value != null) {
+					check(name, type, value);
+				}
+
+				stack[base + index] = value;
+				break;
+			}
+			case SET_SLOT: {
+				int index = code[ip] & 0xff;
+				Token name = (Token) constants[readShort(code, ip + 1)];
+				NewtType type = (NewtType) constants[readShort(code, ip + 3)];
+				ip += 5;
+
+				Object value = stack[--top];
+				stack[top] = null;
+				check(name, type, value);
+				stack[base + index] = value;
+				break;
+			}
+			case STORE_SLOT:
+				stack[base + (code[ip++] & 0xff)] = stack[--top];
+				stack[top] = null;
+				break;
+			case GET_INT:
+				ints[top++] = ints[base + (code[ip++] & 0xff)];
+				break;
+			case SET_INT:
+				ints[base + (code[ip++] & 0xff)] = ints[--top];
+				break;
+			case ASSIGN_INT: {
+				Object value = stack[--top];
+				stack[top] = null;
+
+				if (!(value instanceof Integer)) {
+					check((Token) constants[readShort(code, ip + 1)], NewtType.INT, value);
+				}
+
+				ints[base + (code[ip] & 0xff)] = (int) value;
+				ip += 3;
+				break;
+			}
+			case INCREMENT_INT:
+				ints[base + (code[ip] & 0xff)] += code[ip + 1];
+				ip += 2;
+				break;
+			case ADD_TO_INT:
+				ints[base + (code[ip++] & 0xff)] += ints[--top];
+				break;
+			case SUBTRACT_FROM_INT:
+				ints[base + (code[ip++] & 0xff)] -= ints[--top];
+				break;
+			case GET_DOUBLE:
+				doubles[top++] = doubles[base + (code[ip++] & 0xff)];
+				break;
+			case SET_DOUBLE:
+				doubles[base + (code[ip++] & 0xff)] = doubles[--top];
+				break;
+			case ASSIGN_DOUBLE: {
+				Object value = stack[--top];
+				stack[top] = null;
+
+				if (!(value instanceof Double)) {
+					check((Token) constants[readShort(code, ip + 1)], NewtType.DOUBLE, value);
+				}
+
+				doubles[base + (code[ip] & 0xff)] = (double) value;
+				ip += 3;
+				break;
+			}
+			case DEFINE_CELL: {
+				int index = code[ip] & 0xff;
+				Token name = (Token) constants[readShort(code, ip + 1)];
+				NewtType type = (NewtType) constants[readShort(code, ip + 3)];
+				ip += 5;
+
+				Object value = stack[--top];
+				stack[top] = null;
+				stack[base + index] = Environment.create(name, type, value);
+				break;
+			}
+			case GET_CELL:
+				stack[top++] = ((NewtObject) stack[base + (code[ip++] & 0xff)]).getValue();
+				break;
+			case SET_CELL: {
+				NewtObject cell = (NewtObject) stack[base + (code[ip] & 0xff)];
+				Token name = (Token) constants[readShort(code, ip + 1)];
+				ip += 3;
+
+				globals.store(cell, name, stack[--top]);
+				stack[top] = null;
+				break;
+			}
+
+			case GET_PROPERTY: {
+				Token name = (Token) constants[readShort(code, ip)];
+				PropertyCache cache = (PropertyCache) constants[readShort(code, ip + 2)];
+				ip += 4;
+				Object object = stack[top - 1];
+
+				if (!(object instanceof NewtInstance)) {
+					throw new RuntimeError(name, "Only instances have properties.");
+				}
+
+				stack[top - 1] = ((NewtInstance) object).get(name, cache);
+				break;
+			}
+			case SET_PROPERTY: {
+				Token name = (Token) constants[readShort(code, ip)];
+				PropertyCache cache = (PropertyCache) constants[readShort(code, ip + 2)];
+				ip += 4;
+				Object value = stack[--top];
+				Object object = stack[top - 1];
+
+				if (!(object instanceof NewtInstance)) {
+					throw new RuntimeError(name, "Only instances have fields.");
+				}
+
+				((NewtInstance) object).set(name, value, cache);
+				stack[top - 1] = value;
+				break;
+			}
+
+			case ADD: {
+				Object right = stack[--top];
+				Object left = stack[top - 1];
+
+				if (left instanceof Integer && right instanceof Integer) {
+					stack[top - 1] = (int) left + (int) right;
+				} else {
+					stack[top - 1] = interpreter.binaryOperation((Token) constants[readShort(code, ip)], left,
+							right);
+				}
+
+				ip += 2;
+				break;
+			}
+			case SUBTRACT: {
+				Object right = stack[--top];
+				Object left = stack[top - 1];
+
+				if (left instanceof Integer && right instanceof Integer) {
+					stack[top - 1] = (int) left - (int) right;
+				} else {
+					stack[top - 1] = interpreter.binaryOperation((Token) constants[readShort(code, ip)], left,
+							right);
+				}
+
+				ip += 2;
+				break;
+			}
+			case MULTIPLY: {
+				Object right = stack[--top];
+				Object left = stack[top - 1];
+
+				if (left instanceof Integer && right instanceof Integer) {
+					stack[top - 1] = (int) left * (int) right;
+				} else {
+					stack[top - 1] = interpreter.binaryOperation((Token) constants[readShort(code, ip)], left,
+							right);
+				}
+
+				ip += 2;
+				break;
+			}
+			case GREATER: {
+				Object right = stack[--top];
+				Object left = stack[top - 1];
+
+				if (left instanceof Integer && right instanceof Integer) {
+					stack[top - 1] = (int) left > (int) right;
+				} else {
+					stack[top - 1] = interpreter.binaryOperation((Token) constants[readShort(code, ip)], left,
+							right);
+				}
+
+				ip += 2;
+				break;
+			}
+			case LESS: {
+				Object right = stack[--top];
+				Object left = stack[top - 1];
+
+				if (left instanceof Integer && right instanceof Integer) {
+					stack[top - 1] = (int) left < (int) right;
+				} else {
+					stack[top - 1] = interpreter.binaryOperation((Token) constants[readShort(code, ip)], left,
+							right);
+				}
+
+				ip += 2;
+				break;
+			}
+			case DIVIDE:
+			case MODULO:
+			case POWER:
+			case GREATER_EQUAL:
+			case LESS_EQUAL:
+			case BINARY: {
+				Object right = stack[--top];
+				Object left = stack[top - 1];
+				stack[top - 1] = interpreter.binaryOperation((Token) constants[readShort(code, ip)], left, right);
+				ip += 2;
+				break;
+			}
+			case NEGATE: {
+				Object operand = stack[top - 1];
+
+				if (operand instanceof Integer) {
+					stack[top - 1] = -(int) operand;
+				} else {
+					stack[top - 1] = interpreter.unaryOperation((Token) constants[readShort(code, ip)], operand);
+				}
+
+				ip += 2;
+				break;
+			}
+			case EQUAL: {
+				Object right = stack[--top];
+				stack[top - 1] = interpreter.isEqual(stack[top - 1], right);
+				break;
+			}
+			case NOT_EQUAL: {
+				Object right = stack[--top];
+				stack[top - 1] = !interpreter.isEqual(stack[top - 1], right);
+				break;
+			}
+			case NOT:
+				stack[top - 1] = !interpreter.isTrue(stack[top - 1]);
+				break;
+
+			case ADD_INT:
+				top--;
+				ints[top - 1] += ints[top];
+				break;
+			case SUBTRACT_INT:
+				top--;
+				ints[top - 1] -= ints[top];
+				break;
+			case MULTIPLY_INT:
+				top--;
+				ints[top - 1] *= ints[top];
+				break;
+			case NEGATE_INT:
+				ints[top - 1] = -ints[top - 1];
+				break;
+			case DIVIDE_INT: {
+				int right = ints[--top];
+
+				if (right == 0) {
+					throw new RuntimeError((Token) constants[readShort(code, ip)], "Divisor cannot be zero.");
+				}
+
+				ints[top - 1] /= right;
+				ip += 2;
+				break;
+			}
+			case MODULO_INT: {
+				int right = ints[--top];
+
+				if (right == 0) {
+					throw new RuntimeError((Token) constants[readShort(code, ip)], "Divisor cannot be zero.");
+				}
+
+				ints[top - 1] %= right;
+				ip += 2;
+				break;
+			}
+			case GREATER_INT:
+				top--;
+				stack[top - 1] = ints[top - 1] > ints[top];
+				break;
+			case GREATER_EQUAL_INT:
+				top--;
+				stack[top - 1] = ints[top - 1] >= ints[top];
+				break;
+			case LESS_INT:
+				top--;
+				stack[top - 1] = ints[top - 1] < ints[top];
+				break;
+			case LESS_EQUAL_INT:
+				top--;
+				stack[top - 1] = ints[top - 1] <= ints[top];
+				break;
+			case EQUAL_INT:
+				top--;
+				stack[top - 1] = ints[top - 1] == ints[top];
+				break;
+			case NOT_EQUAL_INT:
+				top--;
+				stack[top - 1] = ints[top - 1] != ints[top];
+				break;
+
+			case ADD_DOUBLE:
+				top--;
+				doubles[top - 1] += doubles[top];
+				break;
+			case SUBTRACT_DOUBLE:
+				top--;
+				doubles[top - 1] -= doubles[top];
+				break;
+			case MULTIPLY_DOUBLE:
+				top--;
+				doubles[top - 1] *= doubles[top];
+				break;
+			case POWER_DOUBLE:
+				top--;
+				doubles[top - 1] = Math.pow(doubles[top - 1], doubles[top]);
+				break;
+			case NEGATE_DOUBLE:
+				doubles[top - 1] = -doubles[top - 1];
+				break;
+			case DIVIDE_DOUBLE: {
+				double right = doubles[--top];
+
+				if (right == 0) {
+					throw new RuntimeError((Token) constants[readShort(code, ip)], "Divisor cannot be zero.");
+				}
+
+				doubles[top - 1] /= right;
+				ip += 2;
+				break;
+			}
+			case MODULO_DOUBLE: {
+				double right = doubles[--top];
+
+				if (right == 0) {
+					throw new RuntimeError((Token) constants[readShort(code, ip)], "Divisor cannot be zero.");
+				}
+
+				doubles[top - 1] %= right;
+				ip += 2;
+				break;
+			}
+
+			/* the comparisons of doubles treat NaN as the general rules do */
+			case GREATER_DOUBLE:
+				top--;
+				stack[top - 1] = doubles[top - 1] > doubles[top];
+				break;
+			case GREATER_EQUAL_DOUBLE:
+				top--;
+				stack[top - 1] = doubles[top - 1] > doubles[top]
+						|| doubles[top - 1] == doubles[top];
+				break;
+			case LESS_DOUBLE:
+				top--;
+				stack[top - 1] = !(doubles[top - 1] > doubles[top]
+						|| doubles[top - 1] == doubles[top]);
+				break;
+			case LESS_EQUAL_DOUBLE:
+				top--;
+				stack[top - 1] = !(doubles[top - 1] > doubles[top]);
+				break;
+			case EQUAL_DOUBLE:
+				top--;
+				stack[top - 1] = doubles[top - 1] == doubles[top];
+				break;
+			case NOT_EQUAL_DOUBLE:
+				top--;
+				stack[top - 1] = doubles[top - 1] != doubles[top];
+				break;
+			case ADD_INT_CONSTANT:
+				ints[top - 1] += (int) constants[readShort(code, ip)];
+				ip += 2;
+				break;
+			case SUBTRACT_INT_CONSTANT:
+				ints[top - 1] -= (int) constants[readShort(code, ip)];
+				ip += 2;
+				break;
+			case MULTIPLY_INT_CONSTANT:
+				ints[top - 1] *= (int) constants[readShort(code, ip)];
+				ip += 2;
+				break;
+			case DIVIDE_INT_CONSTANT:
+				ints[top - 1] /= (int) constants[readShort(code, ip)];
+				ip += 2;
+				break;
+			case MODULO_INT_CONSTANT:
+				ints[top - 1] %= (int) constants[readShort(code, ip)];
+				ip += 2;
+				break;
+
+			case JUMP:
+				ip += 2 + readShort(code, ip);
+				break;
+			case JUMP_IF_FALSE:
+				if (!(boolean) stack[--top]) {
+					ip += readShort(code, ip);
+				}
+
+				ip += 2;
+				break;
+			case JUMP_UNLESS_GREATER_INT:
+				top -= 2;
+
+				if (!(ints[top] > ints[top + 1])) {
+					ip += readShort(code, ip);
+				}
+
+				ip += 2;
+				break;
+			case JUMP_UNLESS_GREATER_EQUAL_INT:
+				top -= 2;
+
+				if (!(ints[top] >= ints[top + 1])) {
+					ip += readShort(code, ip);
+				}
+
+				ip += 2;
+				break;
+			case JUMP_UNLESS_LESS_INT:
+				top -= 2;
+
+				if (!(ints[top] < ints[top + 1])) {
+					ip += readShort(code, ip);
+				}
+
+				ip += 2;
+				break;
+			case JUMP_UNLESS_LESS_EQUAL_INT:
+				top -= 2;
+
+				if (!(ints[top] <= ints[top + 1])) {
+					ip += readShort(code, ip);
+				}
+
+				ip += 2;
+				break;
+			case JUMP_UNLESS_EQUAL_INT:
+				top -= 2;
+
+				if (!(ints[top] == ints[top + 1])) {
+					ip += readShort(code, ip);
+				}
+
+				ip += 2;
+				break;
+			case JUMP_UNLESS_NOT_EQUAL_INT:
+				top -= 2;
+
+				if (!(ints[top] != ints[top + 1])) {
+					ip += readShort(code, ip);
+				}
+
+				ip += 2;
+				break;
+			case JUMP_UNLESS_GREATER_DOUBLE:
+				top -= 2;
+
+				if (!(doubles[top] > doubles[top + 1])) {
+					ip += readShort(code, ip);
+				}
+
+				ip += 2;
+				break;
+			case JUMP_UNLESS_GREATER_EQUAL_DOUBLE:
+				top -= 2;
+
+				if (!(doubles[top] > doubles[top + 1] || doubles[top] == doubles[top + 1])) {
+					ip += readShort(code, ip);
+				}
+
+				ip += 2;
+				break;
+			case JUMP_UNLESS_LESS_DOUBLE:
+				top -= 2;
+
+				if (!(!(doubles[top] > doubles[top + 1] || doubles[top] == doubles[top + 1]))) {
+					ip += readShort(code, ip);
+				}
+
+				ip += 2;
+				break;
+			case JUMP_UNLESS_LESS_EQUAL_DOUBLE:
+				top -= 2;
+
+				if (!(!(doubles[top] > doubles[top + 1]))) {
+					ip += readShort(code, ip);
+				}
+
+				ip += 2;
+				break;
+			case JUMP_UNLESS_EQUAL_DOUBLE:
+				top -= 2;
+
+				if (!(doubles[top] == doubles[top + 1])) {
+					ip += readShort(code, ip);
+				}
+
+				ip += 2;
+				break;
+			case JUMP_UNLESS_NOT_EQUAL_DOUBLE:
+				top -= 2;
+
+				if (!(doubles[top] != doubles[top + 1])) {
+					ip += readShort(code, ip);
+				}
+
+				ip += 2;
+				break;
+			case JUMP_UNLESS_GREATER_INT_CONSTANT:
+				if (!(ints[--top] > (int) constants[readShort(code, ip)])) {
+					ip += readShort(code, ip + 2);
+				}
+
+				ip += 4;
+				break;
+			case JUMP_UNLESS_GREATER_EQUAL_INT_CONSTANT:
+				if (!(ints[--top] >= (int) constants[readShort(code, ip)])) {
+					ip += readShort(code, ip + 2);
+				}
+
+				ip += 4;
+				break;
+			case JUMP_UNLESS_LESS_INT_CONSTANT:
+				if (!(ints[--top] < (int) constants[readShort(code, ip)])) {
+					ip += readShort(code, ip + 2);
+				}
+
+				ip += 4;
+				break;
+			case JUMP_UNLESS_LESS_EQUAL_INT_CONSTANT:
+				if (!(ints[--top] <= (int) constants[readShort(code, ip)])) {
+					ip += readShort(code, ip + 2);
+				}
+
+				ip += 4;
+				break;
+			case JUMP_UNLESS_EQUAL_INT_CONSTANT:
+				if (!(ints[--top] == (int) constants[readShort(code, ip)])) {
+					ip += readShort(code, ip + 2);
+				}
+
+				ip += 4;
+				break;
+			case JUMP_UNLESS_NOT_EQUAL_INT_CONSTANT:
+				if (!(ints[--top] != (int) constants[readShort(code, ip)])) {
+					ip += readShort(code, ip + 2);
+				}
+
+				ip += 4;
+				break;
+			case JUMP_UNLESS_GREATER_SLOT_CONSTANT:
+				if (!(ints[base + (code[ip] & 0xff)] > (int) constants[readShort(code, ip + 1)])) {
+					ip += readShort(code, ip + 3);
+				}
+
+				ip += 5;
+				break;
+			case JUMP_UNLESS_GREATER_EQUAL_SLOT_CONSTANT:
+				if (!(ints[base + (code[ip] & 0xff)] >= (int) constants[readShort(code, ip + 1)])) {
+					ip += readShort(code, ip + 3);
+				}
+
+				ip += 5;
+				break;
+			case JUMP_UNLESS_LESS_SLOT_CONSTANT:
+				if (!(ints[base + (code[ip] & 0xff)] < (int) constants[readShort(code, ip + 1)])) {
+					ip += readShort(code, ip + 3);
+				}
+
+				ip += 5;
+				break;
+			case JUMP_UNLESS_LESS_EQUAL_SLOT_CONSTANT:
+				if (!(ints[base + (code[ip] & 0xff)] <= (int) constants[readShort(code, ip + 1)])) {
+					ip += readShort(code, ip + 3);
+				}
+
+				ip += 5;
+				break;
+			case JUMP_UNLESS_EQUAL_SLOT_CONSTANT:
+				if (!(ints[base + (code[ip] & 0xff)] == (int) constants[readShort(code, ip + 1)])) {
+					ip += readShort(code, ip + 3);
+				}
+
+				ip += 5;
+				break;
+			case JUMP_UNLESS_NOT_EQUAL_SLOT_CONSTANT:
+				if (!(ints[base + (code[ip] & 0xff)] != (int) constants[readShort(code, ip + 1)])) {
+					ip += readShort(code, ip + 3);
+				}
+
+				ip += 5;
+				break;
+			case DISPATCH: {
+				int controls = code[ip] & 0xff;
+				SwitchTable table = (SwitchTable) constants[readShort(code, ip + 1)];
+				int[] locations = (int[]) constants[readShort(code, ip + 3)];
+				int from = readShort(code, ip + 5);
+
+				/* the controls are followed down the table in order */
+				Object node = table.root;
+				for (int i = top - controls; i < top && node != null; i++) {
+					node = SwitchTable.branch(node, stack[i]);
+				}
+
+				while (controls-- > 0) {
+					stack[--top] = null;
+				}
+
+				ip = locations[table.next(node, from)];
+				break;
+			}
+			case LOOP:
+				ip += 2 - readShort(code, ip);
+				break;
+			case PUSH_SCOPE:
+				environment = new Environment(environment, code[ip++] & 0xff);
+				break;
+			case POP_SCOPE:
+				environment = environment.enclosing;
+				break;
+
+			case CALL: {
+				int argumentCount = code[ip] & 0xff;
+				Token parenthesis = (Token) constants[readShort(code, ip + 1)];
+				ip += 3;
+
+				Object callee = stack[top - argumentCount - 1];
+				stackTop = top;
+				this.base = base;
+				Chunk body = call(callee, null, argumentCount, parenthesis, chunk, ip);
+				stack = this.stack;
+				ints = this.ints;
+				doubles = this.doubles;
+				top = stackTop;
+				base = this.base;
+
+				if (body != null) {
+					chunk = body;
+					code = chunk.code;
+					constants = chunk.constants;
+					ip = 0;
+				}
+				break;
+			}
+			case INVOKE: {
+				int argumentCount = code[ip] & 0xff;
+				Token name = (Token) constants[readShort(code, ip + 1)];
+				Token parenthesis = (Token) constants[readShort(code, ip + 3)];
+				PropertyCache cache = (PropertyCache) constants[readShort(code, ip + 5)];
+				ip += 7;
+
+				Object object = stack[top - argumentCount - 1];
+
+				if (!(object instanceof NewtInstance)) {
+					throw new RuntimeError(name, "Only instances have properties.");
+				}
+
+				/* a method is called with its instance; a field is called like any value */
+				NewtInstance instance = (NewtInstance) object;
+				NewtFunction method = instance.getMethod(name, cache);
+				Object callee = method == null ? instance.get(name, cache) : method;
+
+				stack[top - argumentCount - 1] = callee;
+				stackTop = top;
+				this.base = base;
+				Chunk body = call(callee, method == null ? null : instance, argumentCount, parenthesis, chunk, ip);
+				stack = this.stack;
+				ints = this.ints;
+				doubles = this.doubles;
+				top = stackTop;
+				base = this.base;
+
+				if (body != null) {
+					chunk = body;
+					code = chunk.code;
+					constants = chunk.constants;
+					ip = 0;
+				}
+				break;
+			}
+			case FUNCTION:
+				stack[top++] = new NewtFunction((Function) constants[readShort(code, ip)], environment);
+				ip += 2;
+				break;
+			case CLOSURE: {
+				Function declaration = (Function) constants[readShort(code, ip)];
+				int[] sources = (int[]) constants[readShort(code, ip + 2)];
+				ip += 4;
+
+				stack[top++] = NewtFunction.withClosure(declaration, closure(declaration, sources, base));
+				break;
+			}
+			case CLASS:
+				interpreter.declareClass((Stmt.Class) constants[readShort(code, ip)], environment);
+				ip += 2;
+				break;
+			case RETURN: {
+				Object result = stack[--top];
+
+				/* returning from the script ends the program */
+				if (frameCount == 0) {
+					return;
+				}
+
+				frameCount--;
+
+				if (frameScopes[frameCount] != null) {
+					interpreter.releaseFrame(frameScopes[frameCount]);
+					frameScopes[frameCount] = null;
+				}
+
+				chunk = frameChunks[frameCount];
+				code = chunk.code;
+				constants = chunk.constants;
+				ip = frameReturnAddresses[frameCount];
+				environment = frameEnvironments[frameCount];
+				base = frameBases[frameCount];
+
+				Arrays.fill(stack, frameStackBases[frameCount], top, null);
+				top = frameStackBases[frameCount];
+				stack[top++] = result;
+				break;
+			}
+
+			case PRINT:
+				System.out.print(interpreter.stringify(stack[--top]));
+				break;
+			case EXIT:
+				exiting = true;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Calls a value with the arguments on top of the stack. A Newt function with a
+	 * compiled body gets a new frame, and its body is returned for the VM to run.
+	 * Anything else is called directly and its result replaces the callee on the
+	 * stack.
+	 *
+	 * @param callee         the value being called, below the arguments
+	 * @param receiver       the instance of a method being invoked, or null
+	 * @param argumentCount  the number of arguments
+	 * @param parenthesis    the token of the call, for errors
+	 * @param chunk          the chunk making the call
+	 * @param returnAddress  where to resume the calling chunk
+	 * @return the chunk to run next, or null if the call has already finished
+	 */
+	private Chunk call(Object callee, NewtInstance receiver, int argumentCount, Token parenthesis, Chunk chunk,
+			int returnAddress) {
+		if (!(callee instanceof NewtCallable)) {
+			throw new RuntimeError(parenthesis, "Can only call functions and classes.");
+		}
+
+		NewtCallable function = (NewtCallable) callee;
+
+		if (argumentCount != function.arity()) {
+			throw new RuntimeError(parenthesis,
+					"Expected " + function.arity() + " arguments but got " + argumentCount + ".");
+		}
+
+		Chunk body = callee instanceof NewtFunction
+				? functions.get(((NewtFunction) callee).getDeclaration())
+				: null;
+
+		/* natives, classes and functions from other engines are called directly */
+		if (body == null) {
+			ArrayList<Object> arguments = new ArrayList<>(argumentCount);
+			for (int i = stackTop - argumentCount; i < stackTop; i++) {
+				arguments.add(stack[i]);
+			}
+
+			stackTop -= argumentCount;
+			stack[stackTop - 1] = receiver == null ? function.call(interpreter, arguments)
+					: ((NewtFunction) callee).invoke(interpreter, receiver, arguments);
+			return null;
+		}
+
+		if (frameCount == interpreter.getMaxDepth()) {
+			throw new RuntimeError(parenthesis, "Stack overflow.");
+		}
+
+		if (frameCount == frameChunks.length) {
+			growFrames();
+		}
+
+		/* a bound method brings its own instance */
+		NewtFunction newtFunction = (NewtFunction) callee;
+		if (receiver == null) {
+			receiver = newtFunction.getReceiver();
+		}
+
+		frameChunks[frameCount] = chunk;
+		frameReturnAddresses[frameCount] = returnAddress;
+		frameStackBases[frameCount] = stackTop - argumentCount - 1;
+		frameEnvironments[frameCount] = environment;
+		frameBases[frameCount] = base;
+
+		if (body.frameSize >= 0) {
+			enterFrame(newtFunction, body, receiver, argumentCount);
+			frameCount++;
+			return body;
+		}
+
+		/* define the instance and arguments in the first slots of a new scope within the closure */
+		Function declaration = newtFunction.getDeclaration();
+		Environment scope = interpreter.newFrame(newtFunction.getClosure(), declaration.locals);
+		int first = newtFunction.defineReceiver(scope, receiver);
+
+		for (int i = 0; i < argumentCount; i++) {
+			scope.define(first + i, declaration.parameters.get(i), newtFunction.getParameterType(i),
+					stack[stackTop - argumentCount + i]);
+		}
+
+		stackTop -= argumentCount + 1;
+
+		frameScopes[frameCount] = scope;
+		frameCount++;
+
+		environment = scope;
+		reserve(body, stackTop);
+		return body;
+	}
+
+	/**
+	 * Places the instance and arguments of a call as the first locals of a frame
+	 * for the body, where the callee and arguments were. The rest of the frame
+	 * starts with no values.
+	 *
+	 * @param function      the function being called
+	 * @param body          its compiled body, which keeps its locals in its frame
+	 * @param receiver      the instance of a method, or null
+	 * @param argumentCount the number of arguments
+	 */
+	private void enterFrame(NewtFunction function, Chunk body, NewtInstance receiver, int argumentCount) {
+		Function declaration = function.getDeclaration();
+		int first = receiver == null ? 0 : 1;
+		int frameBase = stackTop - argumentCount - first;
+
+		/* the instance of a method takes the place of the callee */
+		if (receiver != null) {
+			stack[frameBase] = receiver;
+		}
+
+		for (int i = 0; i < argumentCount; i++) {
+			Object argument = stack[frameBase + first + i];
+
+			if (argument != null) {
+				check(declaration.parameters.get(i), function.getParameterType(i), argument);
+			}
+		}
+
+		/* the parameters a closure captures are given variables of their own */
+		for (int index : body.parameterCells) {
+			stack[frameBase + index] = index < first
+					? Environment.create(declaration.name, receiver.getType(), receiver)
+					: Environment.create(declaration.parameters.get(index - first),
+							function.getParameterType(index - first), stack[frameBase + index]);
+		}
+
+		reserve(body, frameBase);
+		Arrays.fill(stack, stackTop, frameBase + body.frameSize, null);
+
+		stackTop = frameBase + body.frameSize;
+		base = frameBase;
+		environment = function.getClosure();
+	}
+
+	/**
+	 * Makes the closure of a function from the variables it captures, which are
+	 * found in the frame or in the closure of the running chunk.
+	 *
+	 * @param declaration the function
+	 * @param sources     the frame index of each captured variable, or its
+	 *                    negated slot in the running closure
+	 * @param base        the base of the running frame
+	 * @return the closure, which is the global environment if nothing is
+	 *         captured
+	 */
+	private Environment closure(Function declaration, int[] sources, int base) {
+		if (sources.length == 0) {
+			return globals;
+		}
+
+		NewtObject[] variables = new NewtObject[sources.length];
+
+		for (int i = 0; i < sources.length; i++) {
+			variables[i] = sources[i] >= 0 ? (NewtObject) stack[base + sources[i]]
+					: environment.variableAt(0, -1 - sources[i], declaration.name);
+		}
+
+		return new Environment(globals, variables);
+	}
+
+	/**
+	 * Checks that a value may be stored in a variable of a declared type.
+	 *
+	 * @param name  the name of the variable, used for errors
+	 * @param type  the declared type
+	 * @param value the value
+	 */
+	private static void check(Token name, NewtType type, Object value) {
+		NewtType valType = NewtType.of(value);
+
+		if (type != NewtType.VAR && type != valType) {
+			throw new RuntimeError(name, "Incompatible types '" + type + "' and '" + valType + "'.");
+		}
+	}
+
+	private static RuntimeError uninitialized(Token name) {
+		return new RuntimeError(name, "Variable '" + name.lexeme + "' has not been initialized.");
+	}
+
+	/**
+	 * Makes room for more call frames.
+	 */
+	private void growFrames() {
+		int capacity = frameChunks.length * 2;
+		frameChunks = Arrays.copyOf(frameChunks, capacity);
+		frameReturnAddresses = Arrays.copyOf(frameReturnAddresses, capacity);
+		frameStackBases = Arrays.copyOf(frameStackBases, capacity);
+		frameEnvironments = Arrays.copyOf(frameEnvironments, capacity);
+		frameScopes = Arrays.copyOf(frameScopes, capacity);
+		frameBases = Arrays.copyOf(frameBases, capacity);
+	}
+
+	/**
+	 * Reads a two-byte operand.
+	 */
+	private static int readShort(byte[] code, int offset) {
+		return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+	}
+}
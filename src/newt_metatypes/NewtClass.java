@@ -1,22 +1,99 @@
 package newt_metatypes;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
 
+import interpreter.Expr.Literal;
 import interpreter.Interpreter;
 import interpreter.Stmt.Declare;
 
 public class NewtClass implements NewtCallable {
 	final String name;
+
+	/**
+	 * The type of the instances of this class.
+	 */
+	final NewtType type;
 	Map<String, NewtFunction> methods;
 	ArrayList<Declare> fields;
 
+	/**
+	 * The shape of a new instance, holding the declared fields in order.
+	 */
+	final Shape shape;
+
+	/**
+	 * The initial values of the fields of a new instance, in the positions given
+	 * by the shape. A field whose initializer is a literal holds its value here,
+	 * so it is copied rather than evaluated.
+	 */
+	private final Object[] template;
+
+	/**
+	 * The initializers which must be evaluated for each new instance, in the order
+	 * they are declared, and the positions of the fields they initialize.
+	 */
+	private final Declare[] initializers;
+	private final int[] offsets;
+
 	public NewtClass(String name, Map<String, NewtFunction> methods, ArrayList<Declare> fields) {
 		this.name = name;
+		this.type = NewtType.named(name);
 		this.methods = methods;
 		this.fields = fields;
 		
-		
+		Shape shape = new Shape();
+		for (Declare declaration : fields) {
+			if (shape.getOffset(declaration.name.lexeme) < 0) {
+				shape = shape.addField(declaration.name.lexeme);
+			}
+		}
+
+		this.shape = shape;
+		this.template = new Object[shape.size()];
+
+		/* a field is only taken from the template if no earlier initializer is evaluated for it */
+		boolean[] evaluated = new boolean[shape.size()];
+		ArrayList<Declare> initializers = new ArrayList<>();
+
+		for (Declare declaration : fields) {
+			int offset = shape.getOffset(declaration.name.lexeme);
+
+			if (!evaluated[offset] && declaration.value == null) {
+				template[offset] = null;
+			} else if (!evaluated[offset] && declaration.value instanceof Literal) {
+				template[offset] = ((Literal) declaration.value).value;
+			} else {
+				evaluated[offset] = true;
+				initializers.add(declaration);
+			}
+		}
+
+		this.initializers = initializers.toArray(new Declare[0]);
+		this.offsets = new int[this.initializers.length];
+
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = shape.getOffset(this.initializers[i].name.lexeme);
+		}
+	}
+
+	/**
+	 * Creates the fields of a new instance, copying the template and then
+	 * evaluating the initializers which are not literals.
+	 * 
+	 * @param interpreter the interpreter creating the instance
+	 * @return the values of the fields, in the positions given by the shape
+	 */
+	Object[] initialFields(Interpreter interpreter) {
+		Object[] values = Arrays.copyOf(template, template.length);
+
+		for (int i = 0; i < initializers.length; i++) {
+			Declare declaration = initializers[i];
+			values[offsets[i]] = declaration.value == null ? null : interpreter.evaluate(declaration.value);
+		}
+
+		return values;
 	}
 
 	@Override
@@ -26,7 +103,7 @@ public class NewtClass implements NewtCallable {
 
 	@Override
 	public Object call(Interpreter interpreter, ArrayList<Object> arguments) {
-		NewtInstance instance = new NewtInstance(this);
+		NewtInstance instance = new NewtInstance(this, interpreter);
 		return instance;
 	}
 
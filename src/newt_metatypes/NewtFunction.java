@@ -12,51 +12,159 @@ public class NewtFunction implements NewtCallable {
 	private int arity;
 	private ArrayList<Stmt> statements;
 	private ArrayList<Token> params;
-	private ArrayList<Token> types;
 	private Function func;
 
+	/**
+	 * The declared types of the parameters, looked up once for the declaration
+	 * rather than on every call.
+	 */
+	private final NewtType[] types;
+
 	private final Environment closure;
 
-	public NewtFunction(Function func, Environment closure) {
+	/**
+	 * The instance a method is bound to, or null for a function which is not a
+	 * bound method.
+	 */
+	private final NewtInstance receiver;
+
+	/**
+	 * Creates a function, capturing the variables it uses from the scopes outside
+	 * it.
+	 * 
+	 * @param func  the declaration of the function
+	 * @param scope the scope in which the function is declared
+	 */
+	public NewtFunction(Function func, Environment scope) {
+		this(func, scope.capture(func.captures), null, parameterTypes(func));
+	}
+
+	/**
+	 * Creates a function whose closure has already been made, by an engine which
+	 * keeps the variables it captures outside of environments.
+	 * 
+	 * @param func    the declaration of the function
+	 * @param closure the captured variables, or the global environment if there
+	 *                are none
+	 * @return the function
+	 */
+	public static NewtFunction withClosure(Function func, Environment closure) {
+		return new NewtFunction(func, closure, null, parameterTypes(func));
+	}
+
+	private NewtFunction(Function func, Environment closure, NewtInstance receiver, NewtType[] types) {
 		this.arity = func.parameters.size();
 		this.statements = func.body.statements;
 		this.params = func.parameters;
-		this.types = func.types;
+		this.types = types;
 		this.func = func;
 		this.closure = closure;
+		this.receiver = receiver;
 	}
 
+	/**
+	 * Binds a method to an instance, so that it can be called later. A method
+	 * which is called immediately is invoked with its instance instead.
+	 * 
+	 * @param instance the instance which will be 'this'
+	 * @return the bound method
+	 */
 	public NewtFunction bind(NewtInstance instance) {
-		Environment environment = new Environment(closure);
-		environment.define("this", instance.getClassName(), instance);
-		return new NewtFunction(func, environment);
+		return new NewtFunction(func, closure, instance, types);
+	}
+
+	/**
+	 * Finds the descriptors of the declared types of a function's parameters.
+	 * 
+	 * @param func the declaration of the function
+	 * @return the descriptors, in the order of the parameters
+	 */
+	private static NewtType[] parameterTypes(Function func) {
+		NewtType[] types = new NewtType[func.types.size()];
+
+		for (int i = 0; i < types.length; i++) {
+			types[i] = NewtType.named(func.types.get(i).lexeme);
+		}
+
+		return types;
 	}
 
 	@Override
 	public Object call(Interpreter interpreter, ArrayList<Object> arguments) {
-		
-		// create a new environment scope
-		interpreter.setEnvironment(new Environment(closure));
-		Environment current = interpreter.getEnvironment();
+		return invoke(interpreter, receiver, arguments);
+	}
+
+	/**
+	 * Calls the function. A method is given its instance in the first slot of its
+	 * scope, where the Resolver expects 'this'.
+	 * 
+	 * @param interpreter the interpreter running the call
+	 * @param instance    the instance for a method, or null for a function
+	 * @param arguments   the evaluated arguments
+	 * @return the returned value, or null
+	 */
+	public Object invoke(Interpreter interpreter, NewtInstance instance, ArrayList<Object> arguments) {
+		Environment previous = interpreter.getEnvironment();
+		NewtFunction function = this;
+
+		try {
+			/* a call made by a return replaces this one, rather than being nested in it */
+			while (true) {
+				Object result = function.execute(interpreter, instance, arguments);
+
+				if (!(result instanceof TailCall)) {
+					return result;
+				}
+
+				TailCall call = (TailCall) result;
+				function = call.function;
+				instance = call.instance;
+				arguments = call.arguments;
+			}
+		} finally {
+			// reset the scope to that of the caller
+			interpreter.setEnvironment(previous);
+		}
+	}
 
-		// define the arguments within the scope
-		for (int i = 0; i < params.size(); i++) {
-			current.define(params.get(i), types.get(i).lexeme, arguments.get(i));
+	/**
+	 * Runs the body of the function in a new scope.
+	 * 
+	 * @param interpreter the interpreter running the call
+	 * @param instance    the instance for a method, or null for a function
+	 * @param arguments   the evaluated arguments
+	 * @return the returned value, or the call made by the return
+	 */
+	private Object execute(Interpreter interpreter, NewtInstance instance, ArrayList<Object> arguments) {
+
+		/* a hot function runs its compiled code if it has any */
+		if (instance == null) {
+			Object result = interpreter.runCompiled(this, arguments);
+
+			if (result != null) {
+				return result;
+			}
 		}
 
-		Object returnVal = null;
-		
+		// create a new environment scope
+		Environment current = interpreter.newFrame(closure, func.locals);
+
 		try {
+			int first = defineReceiver(current, instance);
+
+			// define the arguments within the scope, after the instance
+			for (int i = 0; i < params.size(); i++) {
+				current.define(first + i, params.get(i), types[i], arguments.get(i));
+			}
+
+			interpreter.setEnvironment(current);
+
 			// interpret the function statements
-			interpreter.interpret(statements);
-		} catch (NewtReturn obj) {
-			returnVal = obj.value;
+			return interpreter.executeBody(statements);
+		} finally {
+			/* nothing can reach the scope once the call is over */
+			interpreter.releaseFrame(current);
 		}
-		
-		// reset the scope
-		interpreter.setEnvironment(closure);
-
-		return returnVal;
 	}
 
 	@Override
@@ -67,4 +175,43 @@ public class NewtFunction implements NewtCallable {
 	public ArrayList<Token> getParams(){
 		return params;
 	}
+
+	/**
+	 * Retrieves the declared type of a parameter.
+	 * 
+	 * @param index the position of the parameter
+	 * @return the type
+	 */
+	public NewtType getParameterType(int index) {
+		return types[index];
+	}
+	
+	public Function getDeclaration() {
+		return func;
+	}
+	
+	public Environment getClosure() {
+		return closure;
+	}
+
+	public NewtInstance getReceiver() {
+		return receiver;
+	}
+
+	/**
+	 * Defines the instance of a method in the first slot of a new scope for the
+	 * method.
+	 * 
+	 * @param scope    the scope of the call
+	 * @param instance the instance, or null for a function
+	 * @return the slot of the first parameter
+	 */
+	public int defineReceiver(Environment scope, NewtInstance instance) {
+		if (instance == null) {
+			return 0;
+		}
+
+		scope.define(0, func.name, instance.getType(), instance);
+		return 1;
+	}
 }
\ No newline at end of file
@@ -1,28 +1,38 @@
 package newt_metatypes;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 import interpreter.Interpreter;
 import interpreter.RuntimeError;
-import interpreter.Stmt.Declare;
 import interpreter.Stmt.Function;
 import interpreter.Token;
 
 public class NewtInstance {
 
 	private NewtClass newtClass;
-	private final Map<String, Object> fields = new HashMap<>();
 
-	public NewtInstance(NewtClass newtClass) {
+	/**
+	 * The layout of the fields, shared with other instances which have the same
+	 * fields.
+	 */
+	private Shape shape;
+
+	/**
+	 * The values of the fields, in the positions given by the shape.
+	 */
+	private Object[] fields;
+
+	/**
+	 * Creates an instance of a class, with the initial values of its fields.
+	 * 
+	 * @param newtClass   the class
+	 * @param interpreter the interpreter which evaluates the initializers that
+	 *                    are not literals
+	 */
+	public NewtInstance(NewtClass newtClass, Interpreter interpreter) {
 		this.newtClass = newtClass;
-		
-		//make a new temporary interpreter
-		Interpreter interpreter = new Interpreter();
-		
-		for(Declare declaration : newtClass.fields) {
-			fields.put(declaration.name.lexeme, declaration.value == null ? null : interpreter.evaluate(declaration.value));
-		}
+		this.shape = newtClass.shape;
+		this.fields = newtClass.initialFields(interpreter);
 	}
 
 	@Override
@@ -31,8 +41,9 @@ public class NewtInstance {
 	}
 
 	public Object get(Token name) {
-		if (fields.containsKey(name.lexeme)) {
-			return fields.get(name.lexeme);
+		int offset = shape.getOffset(name.lexeme);
+		if (offset >= 0) {
+			return fields[offset];
 		}
 		
 		NewtFunction method = newtClass.findMethod(this, name.lexeme);
@@ -41,11 +52,117 @@ public class NewtInstance {
 		throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
 	}
 	
+	/**
+	 * Retrieves a property, using and filling the cache of the access.
+	 * 
+	 * @param name  the name of the property
+	 * @param cache the inline cache of the access
+	 * @return the value of the field, or the method bound to this instance
+	 */
+	public Object get(Token name, PropertyCache cache) {
+		int entry = cache.find(shape);
+
+		if (entry >= 0) {
+			NewtFunction method = cache.methods[entry];
+			return method == null ? fields[cache.offsets[entry]] : method.bind(this);
+		}
+
+		int offset = shape.getOffset(name.lexeme);
+		if (offset >= 0) {
+			cache.add(shape, offset, null, null);
+			return fields[offset];
+		}
+
+		NewtFunction method = newtClass.methods.get(name.lexeme);
+		if (method != null) {
+			cache.add(shape, -1, method, null);
+			return method.bind(this);
+		}
+
+		throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+	}
+
 	public void set(Token name, Object value) {
-		fields.put(name.lexeme, value);
+		int offset = shape.getOffset(name.lexeme);
+
+		/* a new field moves the instance to a larger shape */
+		if (offset < 0) {
+			shape = shape.addField(name.lexeme);
+			offset = shape.size() - 1;
+
+			fields = Arrays.copyOf(fields, shape.size());
+		}
+
+		fields[offset] = value;
+	}
+
+	/**
+	 * Finds the method a call to a property will invoke, without binding it, using
+	 * and filling the cache of the call.
+	 * 
+	 * @param name  the name of the property
+	 * @param cache the inline cache of the call
+	 * @return the method, or null if the property is a field
+	 */
+	public NewtFunction getMethod(Token name, PropertyCache cache) {
+		int entry = cache.find(shape);
+
+		if (entry >= 0) {
+			return cache.methods[entry];
+		}
+
+		int offset = shape.getOffset(name.lexeme);
+		if (offset >= 0) {
+			cache.add(shape, offset, null, null);
+			return null;
+		}
+
+		NewtFunction method = newtClass.methods.get(name.lexeme);
+		if (method != null) {
+			cache.add(shape, -1, method, null);
+			return method;
+		}
+
+		throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+	}
+
+	/**
+	 * Assigns a field, using and filling the cache of the access.
+	 * 
+	 * @param name  the name of the field
+	 * @param value the value to assign
+	 * @param cache the inline cache of the access
+	 */
+	public void set(Token name, Object value, PropertyCache cache) {
+		int entry = cache.find(shape);
+
+		if (entry >= 0) {
+			Shape transition = cache.transitions[entry];
+
+			if (transition != null) {
+				shape = transition;
+				fields = Arrays.copyOf(fields, shape.size());
+			}
+
+			fields[cache.offsets[entry]] = value;
+			return;
+		}
+
+		Shape previous = shape;
+		set(name, value);
+		cache.add(previous, shape.getOffset(name.lexeme), null, shape == previous ? null : shape);
 	}
 	
 	public String getClassName() {
 		return newtClass.name;
 	}
+
+	/**
+	 * Retrieves the type of the instance, which is that of its class.
+	 * 
+	 * @return the type
+	 */
+	public NewtType getType() {
+		return newtClass.type;
+	}
 }
@@ -4,12 +4,12 @@ public class NewtObject {
 	/**
 	 * The objects type, either primitive (int, double, etc.) or a class.
 	 */
-	public String type;
+	public NewtType type;
 	
 	/**
-	 * The object itself.
+	 * The object itself. This is out of date while the value is held unboxed.
 	 */
-	public Object object;
+	private Object object;
 	
 	/**
 	 * True if the object's type can be dynamically changed.
@@ -20,17 +20,106 @@ public class NewtObject {
 	public boolean dynamic;
 	public boolean initialized;
 
-	public NewtObject(String t, Object o) {
+	/**
+	 * True once the variable has been removed from its scope by an undec. A place
+	 * which kept a reference to the variable must then look it up again.
+	 */
+	public boolean removed;
+
+	/**
+	 * The value of an int or double variable written by the interpreter's typed
+	 * paths, kept without boxing it.
+	 */
+	private int intValue;
+	private double doubleValue;
+
+	private static final byte BOXED = 0;
+	private static final byte INT = 1;
+	private static final byte DOUBLE = 2;
+
+	/**
+	 * Which field holds the current value.
+	 */
+	private byte unboxed = BOXED;
+
+	public NewtObject(NewtType t, Object o) {
 		type = t;
 		object = o;
 		dynamic = false;
 		initialized = true;
 	}
 	
-	public NewtObject(String t, Object o, boolean d, boolean i) {
+	public NewtObject(NewtType t, Object o, boolean d, boolean i) {
 		type = t;
 		object = o;
 		dynamic = d;
 		initialized = i;
 	}
+
+	/**
+	 * Retrieves the value, boxing it if it is held unboxed. The boxed value is kept
+	 * until the next typed write.
+	 *
+	 * @return the value
+	 */
+	public Object getValue() {
+		if (unboxed == INT) {
+			object = intValue;
+		} else if (unboxed == DOUBLE) {
+			object = doubleValue;
+		}
+
+		unboxed = BOXED;
+		return object;
+	}
+
+	/**
+	 * Sets the value.
+	 *
+	 * @param value the new value
+	 */
+	public void setValue(Object value) {
+		object = value;
+		unboxed = BOXED;
+	}
+
+	/**
+	 * Retrieves the value of an initialized int variable without boxing it.
+	 *
+	 * @return the value
+	 */
+	public int getInt() {
+		return unboxed == INT ? intValue : (int) object;
+	}
+
+	/**
+	 * Retrieves the value of an initialized double variable without boxing it.
+	 *
+	 * @return the value
+	 */
+	public double getDouble() {
+		return unboxed == DOUBLE ? doubleValue : (double) object;
+	}
+
+	/**
+	 * Sets the value of an int variable without boxing it.
+	 *
+	 * @param value the new value
+	 */
+	public void setInt(int value) {
+		intValue = value;
+		unboxed = INT;
+		initialized = true;
+	}
+
+	/**
+	 * Sets the value of a double variable without boxing it.
+	 *
+	 * @param value the new value
+	 */
+	public void setDouble(double value) {
+		doubleValue = value;
+		unboxed = DOUBLE;
+		initialized = true;
+	}
 }
@@ -0,0 +1,111 @@
+package newt_metatypes;
+
+import java.util.HashMap;
+
+/**
+ * The descriptor of a Newt type. Descriptors are interned, so there is exactly
+ * one for each type name and two types are the same exactly when their
+ * descriptors are the same object. Checking a value against a variable's type
+ * is then a single comparison of references.
+ *
+ * The primitive types are created up front, and each class is given the
+ * descriptor of its name when it is declared.
+ *
+ * @author Jared
+ */
+public final class NewtType {
+
+	/**
+	 * Every descriptor created so far, by name.
+	 */
+	private static final HashMap<String, NewtType> registry = new HashMap<>();
+
+	public static final NewtType INT = named("int");
+	public static final NewtType DOUBLE = named("double");
+	public static final NewtType BOOL = named("bool");
+	public static final NewtType CHAR = named("char");
+	public static final NewtType STRING = named("string");
+	public static final NewtType CLASS = named("class");
+	public static final NewtType FUNCTION = named("function");
+
+	/**
+	 * The type of a variable which takes the type of whatever it holds.
+	 */
+	public static final NewtType VAR = named("var");
+
+	/**
+	 * The descriptor of the values of each Java class, found the first time a
+	 * value of that class is seen. Instances are left out, since their type
+	 * depends on their Newt class.
+	 */
+	private static final ClassValue<NewtType> byClass = new ClassValue<NewtType>() {
+		@Override
+		protected NewtType computeValue(Class<?> type) {
+			if (type == Integer.class)
+				return INT;
+			if (type == Double.class)
+				return DOUBLE;
+			if (type == Boolean.class)
+				return BOOL;
+			if (type == Character.class)
+				return CHAR;
+			if (type == String.class)
+				return STRING;
+			if (NewtClass.class.isAssignableFrom(type))
+				return CLASS;
+			if (NewtCallable.class.isAssignableFrom(type))
+				return FUNCTION;
+			return null;
+		}
+	};
+
+	/**
+	 * The name of the type, as written in a declaration.
+	 */
+	public final String name;
+
+	private NewtType(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Finds the descriptor for a type name, creating it if the name has not been
+	 * seen before.
+	 *
+	 * @param name the name of the type
+	 * @return the descriptor
+	 */
+	public static NewtType named(String name) {
+		NewtType type = registry.get(name);
+
+		if (type == null) {
+			type = new NewtType(name);
+			registry.put(name, type);
+		}
+
+		return type;
+	}
+
+	/**
+	 * Finds the type of a value.
+	 *
+	 * @param value the value
+	 * @return the descriptor, or null if the value has no Newt type
+	 */
+	public static NewtType of(Object value) {
+		if (value == null) {
+			return null;
+		}
+
+		if (value instanceof NewtInstance) {
+			return ((NewtInstance) value).getType();
+		}
+
+		return byClass.get(value.getClass());
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,85 @@
+package newt_metatypes;
+
+/**
+ * An inline cache for a single property access in a program. It remembers,
+ * for each shape of instance seen at that access, where the property was found,
+ * so that the next access to an instance of the same shape can skip the lookup
+ * by name.
+ * 
+ * Shapes never change once created, and every class has shapes of its own, so
+ * a remembered entry stays correct for as long as the shape exists. An instance
+ * which gains a field moves to a different shape and simply misses the cache.
+ * 
+ * @author Jared
+ */
+public class PropertyCache {
+
+	/**
+	 * The most shapes remembered at one access. Accesses which see more than this
+	 * stop caching and always look the property up by name.
+	 */
+	static final int SIZE = 4;
+
+	/**
+	 * The shapes seen at the access.
+	 */
+	final Shape[] shapes = new Shape[SIZE];
+
+	/**
+	 * The position of the field in instances of each shape, or -1 if the property
+	 * is a method.
+	 */
+	final int[] offsets = new int[SIZE];
+
+	/**
+	 * The method found for each shape, if the property is a method.
+	 */
+	final NewtFunction[] methods = new NewtFunction[SIZE];
+
+	/**
+	 * For an assignment which adds a field, the shape the instance moves to.
+	 */
+	final Shape[] transitions = new Shape[SIZE];
+
+	/**
+	 * The number of entries in use.
+	 */
+	int count = 0;
+
+	/**
+	 * Finds the entry for a shape.
+	 * 
+	 * @param shape the shape of the instance being accessed
+	 * @return the index of the entry, or -1 if the shape has not been seen
+	 */
+	int find(Shape shape) {
+		for (int i = 0; i < count; i++) {
+			if (shapes[i] == shape) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Remembers where a property was found for a shape, if there is room.
+	 * 
+	 * @param shape      the shape of the instance
+	 * @param offset     the position of the field, or -1 for a method
+	 * @param method     the method, or null for a field
+	 * @param transition the shape after adding the field, or null if the field
+	 *                   already existed
+	 */
+	void add(Shape shape, int offset, NewtFunction method, Shape transition) {
+		if (count == SIZE) {
+			return;
+		}
+
+		shapes[count] = shape;
+		offsets[count] = offset;
+		methods[count] = method;
+		transitions[count] = transition;
+		count++;
+	}
+}
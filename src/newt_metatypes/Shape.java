@@ -0,0 +1,78 @@
+package newt_metatypes;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A Shape describes the layout of the fields of an instance: which position in
+ * the instance's array holds each field. Instances with the same fields, added
+ * in the same order, share a single Shape, so the names are stored once rather
+ * than in every instance.
+ * 
+ * Adding a field to an instance moves it to a new Shape. The new Shape is
+ * remembered as a transition, so every instance which gains the same field
+ * moves to the same Shape.
+ * 
+ * @author Jared
+ */
+public class Shape {
+
+	/**
+	 * The position of each field in the array of an instance.
+	 */
+	private final Map<String, Integer> offsets;
+
+	/**
+	 * The shapes reached by adding a field to this one, keyed by the name of the
+	 * added field.
+	 */
+	private final Map<String, Shape> transitions = new HashMap<>();
+
+	/**
+	 * Creates a shape with no fields. Each class starts from a shape of its own.
+	 */
+	public Shape() {
+		offsets = new HashMap<>();
+	}
+
+	private Shape(Shape parent, String name) {
+		offsets = new HashMap<>(parent.offsets);
+		offsets.put(name, offsets.size());
+	}
+
+	/**
+	 * Finds the position of a field.
+	 * 
+	 * @param name the name of the field
+	 * @return the position of the field, or -1 if this shape does not have it
+	 */
+	public int getOffset(String name) {
+		Integer offset = offsets.get(name);
+		return offset == null ? -1 : offset;
+	}
+
+	/**
+	 * Finds the shape which has every field of this one, plus one more. The new
+	 * field is given the next position.
+	 * 
+	 * @param name the name of the new field
+	 * @return the shape with the added field
+	 */
+	public Shape addField(String name) {
+		Shape shape = transitions.get(name);
+
+		if (shape == null) {
+			shape = new Shape(this, name);
+			transitions.put(name, shape);
+		}
+
+		return shape;
+	}
+
+	/**
+	 * @return the number of fields an instance of this shape holds
+	 */
+	public int size() {
+		return offsets.size();
+	}
+}
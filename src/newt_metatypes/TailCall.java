@@ -0,0 +1,30 @@
+package newt_metatypes;
+
+import java.util.ArrayList;
+
+/**
+ * A call made by a return statement, which is left for the function returning
+ * to make in place of its own call. The function's frame is discarded first,
+ * so a function which recurses in a return needs no more Java stack or
+ * environments than a loop.
+ * 
+ * @author Jared
+ */
+public class TailCall {
+
+	final NewtFunction function;
+
+	/**
+	 * The instance the function is called on, or null for a function which is
+	 * not a method.
+	 */
+	final NewtInstance instance;
+
+	final ArrayList<Object> arguments;
+
+	public TailCall(NewtFunction function, NewtInstance instance, ArrayList<Object> arguments) {
+		this.function = function;
+		this.instance = instance;
+		this.arguments = arguments;
+	}
+}
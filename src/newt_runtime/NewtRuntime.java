@@ -0,0 +1,111 @@
+package newt_runtime;
+
+/**
+ * The runtime library of the programs newtc compiles ahead of time. It is
+ * packaged in the JAR with the compiled program, which needs nothing else of
+ * the interpreter: the program runs on a thread with room for the deepest
+ * calls allowed, and its runtime errors are reported, and end it, as the
+ * interpreter would report them.
+ *
+ * The compiled program is the Runnable given to start. Its code throws the
+ * errors made by error, and reads the time from clock.
+ *
+ * @author Jared
+ */
+public final class NewtRuntime implements Runnable {
+
+	/**
+	 * The Java stack kept for each call the program may nest, and the most the
+	 * thread will ask for, as the interpreter keeps them.
+	 */
+	private static final long STACK_PER_CALL = 8 * 1024;
+	private static final long STACK_MAX = 1L << 30;
+
+	/**
+	 * The status the program ends with after a runtime error, as the interpreter
+	 * ends.
+	 */
+	private static final int RUNTIME_ERROR = 11;
+
+	private final Runnable program;
+
+	/**
+	 * The status the program ended with.
+	 */
+	private int status = 0;
+
+	private NewtRuntime(Runnable program) {
+		this.program = program;
+	}
+
+	/**
+	 * Runs a compiled program, and exits with the status of the interpreter if it
+	 * stopped on an error.
+	 *
+	 * @param program  the program
+	 * @param maxDepth the greatest depth of calls it allows
+	 */
+	public static void start(Runnable program, int maxDepth) {
+		NewtRuntime runtime = new NewtRuntime(program);
+		Thread thread = new Thread(null, runtime, "main", Math.min(maxDepth * STACK_PER_CALL + (1 << 20), STACK_MAX));
+
+		thread.start();
+
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (runtime.status != 0)
+			System.exit(runtime.status);
+	}
+
+	@Override
+	public void run() {
+		try {
+			program.run();
+		} catch (Failure failure) {
+			System.err.println("[line " + failure.line + "]\n" + failure.getMessage());
+			status = RUNTIME_ERROR;
+		} catch (StackOverflowError error) {
+			/* calls which do not count towards the depth, such as tail calls, ran out of Java stack */
+			System.err.println("Stack overflow.");
+			status = RUNTIME_ERROR;
+		}
+	}
+
+	/**
+	 * Makes a runtime error, for the compiled code to throw.
+	 *
+	 * @param line    the line of the code which failed
+	 * @param message the message shown to the user
+	 * @return the error
+	 */
+	public static RuntimeException error(int line, String message) {
+		return new Failure(line, message);
+	}
+
+	/**
+	 * Finds the current system time in seconds, as the native clock function.
+	 *
+	 * @return the time
+	 */
+	public static double clock() {
+		return (double) System.currentTimeMillis() / 1000.0;
+	}
+
+	/**
+	 * A runtime error of the program, which ends it.
+	 */
+	private static final class Failure extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		private final int line;
+
+		private Failure(int line, String message) {
+			super(message, null, false, false);
+			this.line = line;
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package parser;
 
+import interpreter.Newt;
+
 public class ParseError extends RuntimeException {
 
 	/**
@@ -7,4 +9,12 @@ public class ParseError extends RuntimeException {
 	 */
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * Creates an error. The parser reports the error itself before throwing this
+	 * to synchronize, so the Java stack trace is only recorded when debugging.
+	 */
+	public ParseError() {
+		super(null, null, false, Newt.debug);
+	}
+
 }
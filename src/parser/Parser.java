@@ -979,6 +979,11 @@ public class Parser {
 
 		Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
 
+		/* calling a property becomes a single invocation, so a method need not be bound */
+		if (callee instanceof Get) {
+			return new Invoke(((Get) callee).object, ((Get) callee).name, paren, arguments);
+		}
+
 		return new Call(callee, paren, arguments);
 	}
 
@@ -14,6 +14,14 @@ import interpreter.Stmt.Function;
  * @author Jared
  */
 public class GenerateAST {
+
+	/**
+	 * The field types which come from outside the interpreter package, with the
+	 * name to import each by.
+	 */
+	private static final String[][] IMPORTS = { { "PropertyCache", "newt_metatypes.PropertyCache" },
+			{ "NewtType", "newt_metatypes.NewtType" }, { "NewtObject", "newt_metatypes.NewtObject" } };
+
 	public static void main(String[] args) throws IOException {
 		
 		/* the class takes a single argument, the output directory */
@@ -26,40 +34,44 @@ public class GenerateAST {
 
 		defineAst(outputDir, "Expr", Arrays.asList(
 				"Conditional : Expr condition, Token operator, Expr first, Expr second",
-				"Binary      : Expr left, Token operator, Expr right",
+				"Binary      : Expr left, Token operator, Expr right | boolean proven = false, Specialization state = Specialization.UNINITIALIZED",
 				"Logical     : Expr left, Token operator, Expr right",
 				"Grouping    : Token grouping, Expr expression", 
 				"Literal     : Object value",
-				"Get         : Expr object, Token name",
-				"Set         : Expr object, Token name, Expr value",
-				"This        : Token keyword",
-				"Unary       : Token operator, Expr right",
-				"Variable    : Token name",
-				"Assign      : Token name, Token operator, Expr value",
+				"Get         : Expr object, Token name | PropertyCache cache = new PropertyCache()",
+				"Set         : Expr object, Token name, Expr value | PropertyCache cache = new PropertyCache()",
+				"This        : Token keyword | int depth = -1, int slot = -1",
+				"Unary       : Token operator, Expr right | Specialization state = Specialization.UNINITIALIZED",
+				"Variable    : Token name | int depth = -1, int slot = -1, NewtObject cell = null",
+				"Assign      : Token name, Token operator, Expr value | int depth = -1, int slot = -1, NewtObject cell = null, NewtType declaredType = null, boolean proven = false, Specialization state = Specialization.UNINITIALIZED",
 				"UnaryAssign : Variable name, Token operator",
+				"CompoundAssign : Token name, Token operator, Expr value | int depth = -1, int slot = -1, NewtObject cell = null, NewtType declaredType = null, boolean proven = false, Specialization state = Specialization.UNINITIALIZED",
+				"Increment   : Variable name, Token operator | Specialization state = Specialization.UNINITIALIZED",
+				"CaseCompare : Expr control, Expr test",
 				"Call        : Expr callee, Token parenthesis, ArrayList<Expr> arguments",
+				"Invoke      : Expr object, Token name, Token parenthesis, ArrayList<Expr> arguments | PropertyCache cache = new PropertyCache()",
 				"Sharp       : Expr name"));
 
 		defineAst(outputDir, "Stmt", Arrays.asList(
 				"Keyword    : Token word",
-				"Return		: Expr value",
+				"Return		: Expr value | boolean tail = false",
 				"Expression : Expr expression",
 				"ExPrint    : Expr expression",
 			    "Print      : Expr expression",
-			    "Declare    : Token type, Token name, Expr value",
-			    "Block      : ArrayList<Stmt> statements",
-			    "While      : Expr condition, Block body",
-			    "Do         : Expr condition, Block body",
-			    "For        : Declare declaration, Expr condition, Expr incrementor, Block body",
-			    "Switch     : ArrayList<Expr> controls, ArrayList<Case> cases, Block defaultBody",
-			    "Case       : ArrayList<Expr> tests, Block body",
-			    "Class		: Token name, ArrayList<Function> methods, ArrayList<Declare> fields",
+			    "Declare    : Token type, Token name, Expr value | int slot = -1, boolean proven = false, NewtType declared = null",
+			    "Block      : ArrayList<Stmt> statements | int locals = 0, boolean scoped = true",
+			    "While      : Expr condition, Block body | Function owner = null, int heat = 0, CompiledLoop compiled = null",
+			    "Do         : Expr condition, Block body | Function owner = null, int heat = 0, CompiledLoop compiled = null",
+			    "For        : Declare declaration, Expr condition, Expr incrementor, Block body | int locals = 0, Function owner = null, int heat = 0, CompiledLoop compiled = null",
+			    "Switch     : ArrayList<Expr> controls, ArrayList<Case> cases, Block defaultBody | SwitchTable dispatch = null",
+			    "Case       : ArrayList<Expr> tests, Block body | ArrayList<Expr> comparisons = null",
+			    "Class		: Token name, ArrayList<Function> methods, ArrayList<Declare> fields | int slot = -1",
 			    "If         : Expr condition, Block ifBody, Block elseBody",
 			    "Undec      : ArrayList<Expr.Variable> variables",
 			    "Struct     : Sculpture sculpture, Mould mould",
 			    "Sculpture  : ArrayList<Object> sculpture",
 			    "Mould      : ArrayList<Placeholder> placeholders, Block body",
-			    "Function   : Token name, ArrayList<Token> types, ArrayList<Token> parameters, Block body"));
+			    "Function   : Token name, ArrayList<Token> types, ArrayList<Token> parameters, Block body | int slot = -1, int locals = 0, ArrayList<Expr.Variable> captures = new ArrayList<>(), int heat = 0, CompiledFunction compiled = null, StmtNode.Block tree = null"));
 	}
 
 	/**
@@ -77,16 +89,37 @@ public class GenerateAST {
 		writer.println();
 		writer.println("import java.util.ArrayList;");
 		writer.println();
+
+		/* types from other packages are imported if any subclass uses them, and every Expr has a NewtType */
+		for (String[] imported : IMPORTS) {
+			if (baseName.equals("Expr") && imported[0].equals("NewtType")
+					|| types.stream().anyMatch(type -> type.contains(imported[0]))) {
+				writer.println("import " + imported[1] + ";");
+				writer.println();
+			}
+		}
+
 		writer.println("public abstract class " + baseName + " implements Cloneable {");
 
 		defineVisitor(writer, baseName, types);
 
+		/* every expression can carry the type the TypeChecker proved it produces */
+		if (baseName.equals("Expr")) {
+			writer.println("\t// the type the TypeChecker proved this expression always produces, or null if unknown");
+			writer.println("\tpublic NewtType staticType = null;");
+			writer.println();
+		}
+
 		for (String type : types) {
 			String[] elements = type.split(":");
 			String className = elements[0].trim();
-			String fields = elements[1].trim();
+			
+			/* fields after a '|' are not set by the parser, but later by the Resolver or interpreter */
+			String[] fieldGroups = elements[1].split("\\|");
+			String fields = fieldGroups[0].trim();
+			String resolvedFields = fieldGroups.length < 2 ? null : fieldGroups[1].trim();
 			String equalsFields = elements.length < 3 ? null : elements[2];
-			defineType(writer, baseName, className, fields, equalsFields);
+			defineType(writer, baseName, className, fields, resolvedFields, equalsFields);
 		}
 
 		writer.println();
@@ -146,9 +179,10 @@ public class GenerateAST {
 	 * @param baseName the name of the class
 	 * @param className the name of the subclass
 	 * @param fieldList the fields of the subclass
+	 * @param resolvedFieldList the mutable fields of the subclass, with their initial values, or null
 	 * @param equalsFieldList the fields of the subclass to be used for the equals method
 	 */
-	private static void defineType(PrintWriter writer, String baseName, String className, String fieldList, String equalsFieldList) {
+	private static void defineType(PrintWriter writer, String baseName, String className, String fieldList, String resolvedFieldList, String equalsFieldList) {
 		writer.println("\tpublic static class " + className + " extends " + baseName + " {");
 
 		// Constructor.
@@ -197,6 +231,12 @@ public class GenerateAST {
 			writer.println("\t\tpublic final " + field + ";");
 		}
 		
+		if(resolvedFieldList != null) {
+			for (String field : resolvedFieldList.split(", ")) {
+				writer.println("\t\tpublic " + field + ";");
+			}
+		}
+		
 		writer.println();
 		
 		if(className.equals("Variable")) {
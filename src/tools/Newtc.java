@@ -0,0 +1,140 @@
+package tools;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import interpreter.AotCompiler;
+
+/**
+ * The Newtc class compiles a Newt program, with the files it imports, ahead of
+ * time into a runnable JAR, which holds the class of the program and the
+ * runtime library it needs. The JAR is run with java -jar, and starts without
+ * the interpreter. Programs using more than the AotCompiler compiles are
+ * reported with errors, and no JAR is written.
+ * @author Jared
+ */
+public class Newtc {
+
+	/**
+	 * The classes of the runtime library, which are copied into every JAR.
+	 */
+	private static final String[] RUNTIME = { "newt_runtime/NewtRuntime.class", "newt_runtime/NewtRuntime$Failure.class" };
+
+	/**
+	 * The greatest depth of calls allowed by default, as the interpreter allows.
+	 */
+	private static final int MAX_DEPTH = 4096;
+
+	public static void main(String[] args) throws IOException {
+		int maxDepth = MAX_DEPTH;
+		String output = null;
+		String path = null;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].startsWith("--max-depth=")) {
+				maxDepth = maxDepth(args[i]);
+			} else if (args[i].equals("-o") && i + 1 < args.length) {
+				output = args[++i];
+			} else if (path == null && !args[i].startsWith("-")) {
+				path = args[i];
+			} else {
+				path = null;
+				break;
+			}
+		}
+
+		/* the class takes a single program, and optionally where to write it */
+		if (path == null) {
+			System.err.println("Usage: newtc [--max-depth=n] [-o <jar>] <program>");
+			System.exit(1);
+		}
+
+		/* all Newt file have a .nwt file type */
+		if (!path.endsWith(".nwt"))
+			path += ".nwt";
+
+		if (output == null)
+			output = path.substring(0, path.length() - ".nwt".length()) + ".jar";
+
+		String source;
+
+		try {
+			source = new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset());
+		} catch (NoSuchFileException exc) {
+			System.err.println("No file named '" + path + "' was found.");
+			System.exit(1);
+			return;
+		}
+
+		byte[] program = new AotCompiler(maxDepth).compile(source);
+
+		if (program == null)
+			System.exit(10);
+
+		writeJar(output, program);
+	}
+
+	/**
+	 * Reads the depth given by a --max-depth option.
+	 *
+	 * @param arg
+	 *            the option
+	 * @return the greatest depth of calls
+	 */
+	private static int maxDepth(String arg) {
+		try {
+			int depth = Integer.parseInt(arg.substring("--max-depth=".length()));
+
+			if (depth > 0)
+				return depth;
+		} catch (NumberFormatException e) {
+		}
+
+		System.err.println("Invalid depth in '" + arg + "'. Expected a positive number.");
+		System.exit(1);
+		return 0;
+	}
+
+	/**
+	 * Writes the JAR of a compiled program.
+	 *
+	 * @param output
+	 *            the path of the JAR
+	 * @param program
+	 *            the class file of the program
+	 * @throws IOException
+	 *             for problems writing the JAR
+	 */
+	private static void writeJar(String output, byte[] program) throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, AotCompiler.MAIN);
+
+		try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(output), manifest)) {
+			jar.putNextEntry(new JarEntry(AotCompiler.MAIN + ".class"));
+			jar.write(program);
+			jar.closeEntry();
+
+			/* the runtime library is copied from the classes newtc itself runs with */
+			for (String name : RUNTIME) {
+				try (InputStream in = Newtc.class.getClassLoader().getResourceAsStream(name)) {
+					if (in == null)
+						throw new IOException("Cannot find the runtime class '" + name + "'.");
+
+					jar.putNextEntry(new JarEntry(name));
+					jar.write(in.readAllBytes());
+					jar.closeEntry();
+				}
+			}
+		}
+	}
+}